@@ -21,6 +21,8 @@ export class Curso {
 
 	public precioCurso?: number;
 
+	public cmafCurso?: boolean;
+
 	constructor(_idCurso: number, _nombreCurso: string, _profesoresCurso: number[], _descripcionCorta: string, _imagenCurso: string, _fechaPublicacionCurso?: Date, _clasesCurso?: Clase[], _planesCurso?: number[], _descripcionLarga?: string, _precioCurso?: number) {
 		this.idCurso = _idCurso;
 		this.nombreCurso = _nombreCurso;
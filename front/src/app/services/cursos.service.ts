@@ -54,6 +54,7 @@ export class CursosService {
 				fechaPublicacionCurso: response.fechaPublicacionCurso,
 				planesCurso: response.planesCurso,
 				precioCurso: response.precioCurso,
+				cmafCurso: response.cmafCurso,
 			});
 
 			if (curso.clasesCurso) {
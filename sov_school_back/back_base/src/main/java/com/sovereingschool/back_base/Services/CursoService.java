@@ -256,6 +256,9 @@ public class CursoService implements ICursoService {
         if (curso.getIdCurso().equals(0L)) {
             curso.setIdCurso(null);
             curso = this.cursoRepo.save(curso);
+        } else if (curso.getCmafCurso() == null) {
+            // El editor no envía el formato de segmentos: se mantiene el guardado
+            curso.setCmafCurso(this.cursoRepo.findCmafCursoById(curso.getIdCurso()).orElse(null));
         }
         // Crear la carpeta del curso si no existe
         this.creaCarpetaCurso(curso);
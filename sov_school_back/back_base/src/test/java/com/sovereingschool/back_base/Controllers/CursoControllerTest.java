@@ -59,7 +59,7 @@ class CursoControllerTest {
             Curso curso = new Curso();
             curso.setIdCurso(1L);
             curso.setNombreCurso("Java Spring");
-            CursoDTO dto = new CursoDTO(1L, "Java Spring", null, null, null, null, null, null, null, null);
+            CursoDTO dto = new CursoDTO(1L, "Java Spring", null, null, null, null, null, null, null, null, null);
 
             when(cursoService.getAll()).thenReturn(Collections.singletonList(curso));
             when(cursoUtil.cursoToCursoDTO(curso)).thenReturn(dto);
@@ -108,7 +108,7 @@ class CursoControllerTest {
             Curso curso = new Curso();
             curso.setIdCurso(id);
             curso.setNombreCurso("Curso Expert");
-            CursoDTO dto = new CursoDTO(id, "Curso Expert", null, null, null, null, null, null, null, null);
+            CursoDTO dto = new CursoDTO(id, "Curso Expert", null, null, null, null, null, null, null, null, null);
 
             when(cursoService.getCurso(id)).thenReturn(curso);
             when(cursoUtil.cursoToCursoDTO(curso)).thenReturn(dto);
@@ -646,11 +646,11 @@ class CursoControllerTest {
         @Test
         void testUpdateCurso_Success() throws Exception {
             // GIVEN
-            CursoDTO inputDto = new CursoDTO(1L, "Java Updated", null, null, null, null, null, null, null, null);
+            CursoDTO inputDto = new CursoDTO(1L, "Java Updated", null, null, null, null, null, null, null, null, null);
             Curso cursoMock = new Curso();
             cursoMock.setIdCurso(1L);
             cursoMock.setNombreCurso("Java Updated");
-            CursoDTO outputDto = new CursoDTO(1L, "Java Updated", null, null, null, null, null, null, null, null);
+            CursoDTO outputDto = new CursoDTO(1L, "Java Updated", null, null, null, null, null, null, null, null, null);
 
             when(cursoUtil.cursoDTOToCurso(any(CursoDTO.class))).thenReturn(cursoMock);
             when(cursoService.updateCurso(any(Curso.class))).thenReturn(cursoMock);
@@ -675,7 +675,7 @@ class CursoControllerTest {
         @Test
         void testUpdateCurso_NotFound() throws Exception {
             // GIVEN
-            CursoDTO inputDto = new CursoDTO(99L, "Inexistente", null, null, null, null, null, null, null, null);
+            CursoDTO inputDto = new CursoDTO(99L, "Inexistente", null, null, null, null, null, null, null, null, null);
 
             when(cursoUtil.cursoDTOToCurso(any(CursoDTO.class))).thenReturn(new Curso());
             when(cursoService.updateCurso(any(Curso.class)))
@@ -699,7 +699,7 @@ class CursoControllerTest {
         @Test
         void testUpdateCurso_FailedDependency() throws Exception {
             // GIVEN
-            CursoDTO inputDto = new CursoDTO(1L, "Test", null, null, null, null, null, null, null, null);
+            CursoDTO inputDto = new CursoDTO(1L, "Test", null, null, null, null, null, null, null, null, null);
 
             when(cursoUtil.cursoDTOToCurso(any(CursoDTO.class))).thenReturn(new Curso());
             when(cursoService.updateCurso(any(Curso.class)))
@@ -724,7 +724,7 @@ class CursoControllerTest {
         @Test
         void testUpdateCurso_InternalServerError() throws Exception {
             // GIVEN
-            CursoDTO inputDto = new CursoDTO(1L, "Error Test", null, null, null, null, null, null, null, null);
+            CursoDTO inputDto = new CursoDTO(1L, "Error Test", null, null, null, null, null, null, null, null, null);
 
             when(cursoUtil.cursoDTOToCurso(any(CursoDTO.class))).thenReturn(new Curso());
             when(cursoService.updateCurso(any(Curso.class)))
@@ -750,7 +750,7 @@ class CursoControllerTest {
         @Test
         void testUpdateCurso_NotModified() throws Exception {
             // GIVEN
-            CursoDTO inputDto = new CursoDTO(1L, "Sin Cambios", null, null, null, null, null, null, null, null);
+            CursoDTO inputDto = new CursoDTO(1L, "Sin Cambios", null, null, null, null, null, null, null, null, null);
 
             when(cursoUtil.cursoDTOToCurso(any(CursoDTO.class))).thenReturn(new Curso());
             when(cursoService.updateCurso(any(Curso.class)))
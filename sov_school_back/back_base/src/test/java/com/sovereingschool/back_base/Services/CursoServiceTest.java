@@ -6,12 +6,14 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -622,6 +624,55 @@ class CursoServiceTest {
             verify(spyService).updateSSR();
         }
 
+        @Test
+        void updateCurso_OldCurso_SinCmaf_MantieneFormatoGuardado()
+                throws InternalServerException, InternalComunicationException, RepositoryException, NotFoundException,
+                IOException {
+            Long cursoId = 10L;
+            curso.setIdCurso(cursoId);
+            curso.setCmafCurso(null);
+
+            Files.createDirectory(tempDir.resolve(cursoId.toString()));
+            lenient().when(responseSpec.onStatus(any(), any())).thenReturn(responseSpec);
+            lenient().when(responseSpec.bodyToMono(String.class)).thenReturn(Mono.just("OK"));
+
+            CursoService spyService = spy(cursoService);
+
+            when(cursoRepo.findCmafCursoById(cursoId)).thenReturn(Optional.of(true));
+            when(cursoRepo.save(curso)).thenReturn(curso);
+
+            // Act
+            Curso resp = spyService.updateCurso(curso);
+
+            // Assert
+            assertEquals(Boolean.TRUE, resp.getCmafCurso());
+            verify(cursoRepo).save(argThat(c -> Boolean.TRUE.equals(c.getCmafCurso())));
+        }
+
+        @Test
+        void updateCurso_OldCurso_ConCmaf_NoConsultaElGuardado()
+                throws InternalServerException, InternalComunicationException, RepositoryException, NotFoundException,
+                IOException {
+            Long cursoId = 10L;
+            curso.setIdCurso(cursoId);
+            curso.setCmafCurso(false);
+
+            Files.createDirectory(tempDir.resolve(cursoId.toString()));
+            lenient().when(responseSpec.onStatus(any(), any())).thenReturn(responseSpec);
+            lenient().when(responseSpec.bodyToMono(String.class)).thenReturn(Mono.just("OK"));
+
+            CursoService spyService = spy(cursoService);
+
+            when(cursoRepo.save(curso)).thenReturn(curso);
+
+            // Act
+            Curso resp = spyService.updateCurso(curso);
+
+            // Assert
+            assertEquals(Boolean.FALSE, resp.getCmafCurso());
+            verify(cursoRepo, never()).findCmafCursoById(any());
+        }
+
         @Test
         void updateCurso_NewCurso_SuccessfulUpdate_NoClases()
                 throws InternalServerException, InternalComunicationException,
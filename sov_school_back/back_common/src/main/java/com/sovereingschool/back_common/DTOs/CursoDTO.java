@@ -15,5 +15,6 @@ public record CursoDTO(
                 String descripcionCorta,
                 String descripcionLarga,
                 String imagenCurso,
-                BigDecimal precioCurso) implements Serializable {
+                BigDecimal precioCurso,
+                Boolean cmafCurso) implements Serializable {
 }
@@ -68,4 +68,9 @@ public class Curso implements Serializable {
 	private String imagenCurso;
 
 	private BigDecimal precioCurso;
+
+	// Segmentos fMP4 (CMAF) en lugar de MPEG-TS al convertir los videos del
+	// curso; null equivale a false
+	@Column(name = "cmaf_curso")
+	private Boolean cmafCurso;
 }
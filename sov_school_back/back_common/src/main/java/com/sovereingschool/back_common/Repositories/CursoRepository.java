@@ -41,4 +41,7 @@ public interface CursoRepository extends JpaRepository<Curso, Long> {
 
     @Query("SELECT c.imagenCurso FROM Curso c WHERE c.idCurso = :id")
     Optional<String> findImagenCursoById(@Param("id") Long id);
+
+    @Query("SELECT c.cmafCurso FROM Curso c WHERE c.idCurso = :id")
+    Optional<Boolean> findCmafCursoById(@Param("id") Long id);
 }
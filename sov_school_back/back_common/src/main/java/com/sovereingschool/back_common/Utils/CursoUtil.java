@@ -67,7 +67,8 @@ public class CursoUtil {
                                 cursoDTO.descripcionCorta(),
                                 cursoDTO.descripcionLarga(),
                                 cursoDTO.imagenCurso(),
-                                cursoDTO.precioCurso());
+                                cursoDTO.precioCurso(),
+                                cursoDTO.cmafCurso());
         }
 
         public Clase claseDTOToClase(ClaseDTO claseDTO) {
@@ -104,7 +105,8 @@ public class CursoUtil {
                                 curso.getDescripcionCorta(),
                                 curso.getDescripcionLarga(),
                                 curso.getImagenCurso(),
-                                curso.getPrecioCurso());
+                                curso.getPrecioCurso(),
+                                curso.getCmafCurso());
         }
 
         public ClaseDTO claseToClaseDTO(Clase clase) {
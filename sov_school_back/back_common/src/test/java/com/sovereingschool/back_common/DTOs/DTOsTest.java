@@ -40,7 +40,7 @@ class DTOsTest {
         Date now = new Date();
         ClaseDTO claseDto = new ClaseDTO(1L, "Clase", "Desc", "Cont", 0, "Dir", 1, 100L);
         CursoDTO dto = new CursoDTO(100L, "Curso", List.of(1L), now, List.of(claseDto), List.of(1L), "Corta", "Larga",
-                "img.png", new BigDecimal("50.00"));
+                "img.png", new BigDecimal("50.00"), true);
 
         assertEquals(100L, dto.idCurso(), "El ID de curso debe coincidir");
         assertEquals("Curso", dto.nombreCurso(), "El nombre de curso debe coincidir");
@@ -52,6 +52,7 @@ class DTOsTest {
         assertEquals("Larga", dto.descripcionLarga(), "La descripción larga debe coincidir");
         assertEquals("img.png", dto.imagenCurso(), "La imagen debe coincidir");
         assertEquals(new BigDecimal("50.00"), dto.precioCurso(), "El precio debe coincidir");
+        assertEquals(true, dto.cmafCurso(), "El formato de segmentos debe coincidir");
     }
 
     /**
@@ -83,7 +83,7 @@ class CursoUtilTest {
         ClaseDTO claseDTO = new ClaseDTO(1L, "Clase 1", "Desc", "Cont", 0, "path", 1, 100L);
         CursoDTO cursoDTO = new CursoDTO(
                 1L, "Curso 1", List.of(profId), new Date(), List.of(claseDTO), List.of(planId),
-                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0));
+                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0), true);
 
         Curso curso = cursoUtil.cursoDTOToCurso(cursoDTO);
 
@@ -93,6 +93,7 @@ class CursoUtilTest {
         assertEquals(1, curso.getProfesoresCurso().size(), "Debería haber un profesor");
         assertEquals(1, curso.getClasesCurso().size(), "Debería haber una clase");
         assertEquals(1, curso.getPlanesCurso().size(), "Debería haber un plan");
+        assertEquals(true, curso.getCmafCurso(), "El formato de segmentos debe coincidir");
     }
 
     /**
@@ -102,7 +103,7 @@ class CursoUtilTest {
     void convertirCursoDTOToCurso_ProfesorNoEncontrado_DeberiaLanzarExcepcion() {
         CursoDTO cursoDTO = new CursoDTO(
                 1L, "Curso 1", List.of(99L), new Date(), List.of(), List.of(),
-                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0));
+                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0), null);
 
         when(usuarioRepo.findById(99L)).thenReturn(Optional.empty());
 
@@ -138,7 +139,7 @@ class CursoUtilTest {
     void testCursoDTOToCurso_NullLists() throws NotFoundException {
         CursoDTO cursoDTO = new CursoDTO(
                 1L, "Curso 1", List.of(), new Date(), List.of(), List.of(),
-                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0));
+                "Desc corta", "Desc larga", "img.png", BigDecimal.valueOf(10.0), null);
 
         Curso curso = cursoUtil.cursoDTOToCurso(cursoDTO);
 
@@ -0,0 +1,163 @@
+package com.sovereingschool.back_streaming.Benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sovereingschool.back_streaming.Utils.PionProtocol;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
+
+/**
+ * Compara la lectura de los mensajes de pion-server.go:
+ * el antiguo bucle BufferedReader.readLine con un readTree de Jackson por
+ * línea y las tramas binarias de PionProtocol, que dan el tipo y la emisión
+ * sin parsear el contenido. Cada invocación lee MENSAJES mensajes (sin el
+ * log por mensaje, que el antiguo bucle también hacía).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(PionProtocolBenchmark.MENSAJES)
+public class PionProtocolBenchmark {
+
+    static final int MENSAJES = 1000;
+
+    /**
+     * Mensaje: candidato ICE (corto, el más frecuente) o SDP answer (~2 KB)
+     */
+    @Param({ "candidate", "answer" })
+    private String mensaje;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] lineas;
+    private byte[] tramas;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String streamId = "12345_0f8e2c1a-6b1d-4c3e-9a7f-2d5b8c9e0a1b";
+        boolean candidato = "candidate".equals(this.mensaje);
+        String contenido = candidato
+                ? "candidate:1467250027 1 udp 2122260223 192.168.1.34 46243 typ host generation 0 ufrag aZ3x network-id 1"
+                : sdp();
+
+        ObjectNode json = this.objectMapper.createObjectNode();
+        json.put("type", candidato ? "candidate" : "webrtc-answer");
+        json.put("streamId", streamId);
+        json.put(candidato ? "candidate" : "sdp", contenido);
+        byte[] linea = (json.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] trama = PionProtocol.codificar(candidato ? Tipo.LOCAL_CANDIDATE : Tipo.ANSWER, streamId, contenido);
+
+        ByteArrayOutputStream todasLineas = new ByteArrayOutputStream();
+        ByteArrayOutputStream todasTramas = new ByteArrayOutputStream();
+        for (int i = 0; i < MENSAJES; i++) {
+            todasLineas.write(linea);
+            todasTramas.write(trama);
+        }
+        this.lineas = todasLineas.toByteArray();
+        this.tramas = todasTramas.toByteArray();
+    }
+
+    /**
+     * Antiguo camino: una línea JSON por mensaje, parseada entera con readTree
+     */
+    @Benchmark
+    public int jsonReadLine(Blackhole bh) throws IOException {
+        int leidos = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(this.lineas), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode msg = this.objectMapper.readTree(line);
+                String type = msg.get("type").asText();
+                bh.consume(type);
+                bh.consume(msg.get("streamId").asText());
+                bh.consume(msg.get("candidate".equals(type) ? "candidate" : "sdp").asText());
+                leidos++;
+            }
+        }
+        return leidos;
+    }
+
+    /**
+     * Camino actual: tramas con longitud, tipo y streamId en la cabecera
+     */
+    @Benchmark
+    public int tramasBinarias(Blackhole bh) throws IOException {
+        int leidos = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new ByteArrayInputStream(this.tramas)))) {
+            Trama trama;
+            while ((trama = PionProtocol.leer(in)) != null) {
+                bh.consume(trama.tipo());
+                bh.consume(trama.streamId());
+                bh.consume(trama.texto());
+                leidos++;
+            }
+        }
+        return leidos;
+    }
+
+    /**
+     * Función para generar un SDP answer de Pion típico (audio Opus y video
+     * H264 con sus candidatos)
+     *
+     * @return String con el SDP
+     */
+    private static String sdp() {
+        StringBuilder sdp = new StringBuilder()
+                .append("v=0\r\n")
+                .append("o=- 4215775240449105457 1696941742 IN IP4 0.0.0.0\r\n")
+                .append("s=-\r\nt=0 0\r\n")
+                .append("a=fingerprint:sha-256 6B:8B:5D:EA:59:04:20:23:29:C8:87:1C:CC:87:32:BE:DD:8C:66:A5:8E:50:")
+                .append("55:EA:7C:D3:50:A0:65:49:5C:6B\r\n")
+                .append("a=group:BUNDLE 0 1\r\n");
+        for (String media : new String[] { "audio 9 UDP/TLS/RTP/SAVPF 111", "video 9 UDP/TLS/RTP/SAVPF 102" }) {
+            sdp.append("m=").append(media).append("\r\n")
+                    .append("c=IN IP4 0.0.0.0\r\n")
+                    .append("a=setup:active\r\na=mid:0\r\n")
+                    .append("a=ice-ufrag:aZ3xKqLmNoPrStUv\r\na=ice-pwd:QwErTyUiOpAsDfGhJkLzXcVbNm123456\r\n")
+                    .append("a=rtcp-mux\r\na=rtcp-rsize\r\n")
+                    .append(media.startsWith("audio") ? "a=rtpmap:111 opus/48000/2\r\n"
+                            + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+                            : "a=rtpmap:102 H264/90000\r\n"
+                                    + "a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+                                    + "a=rtcp-fb:102 nack\r\na=rtcp-fb:102 nack pli\r\n")
+                    .append("a=recvonly\r\n");
+            for (int i = 0; i < 4; i++) {
+                sdp.append("a=candidate:14672500").append(i)
+                        .append(" 1 udp 2122260223 192.168.1.").append(30 + i)
+                        .append(" 4624").append(i).append(" typ host\r\n");
+            }
+            sdp.append("a=end-of-candidates\r\n");
+        }
+        return sdp.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.sovereingschool.back_streaming.Benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Compara las formas de enviar un segmento HLS desde disco:
+ * la lectura byte a byte del antiguo LimitedInputStream, la copia con buffer
+ * que hacen los conversores de Spring para FileSystemResource/ResourceRegion
+ * y FileChannel.transferTo, que es lo que usa el conector de Tomcat con
+ * sendfile().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentDeliveryBenchmark {
+
+    /**
+     * Tamaño del segmento: 2 segundos de 720p y de 1080p
+     */
+    @Param({ "524288", "2097152" })
+    private int segmentSize;
+
+    private Path segment;
+    private FileChannel devNull;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.segment = Files.createTempFile("segment", ".ts");
+        byte[] data = new byte[this.segmentSize];
+        new Random(42).nextBytes(data);
+        Files.write(this.segment, data);
+        this.devNull = FileChannel.open(Paths.get("/dev/null"), StandardOpenOption.WRITE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.devNull.close();
+        Files.deleteIfExists(this.segment);
+    }
+
+    /**
+     * Antiguo camino para los rangos: RandomAccessFile.read() por cada byte
+     */
+    @Benchmark
+    public long legacyByteByByte() throws IOException {
+        long copied = 0;
+        try (RandomAccessFile file = new RandomAccessFile(this.segment.toFile(), "r")) {
+            OutputStream out = OutputStream.nullOutputStream();
+            for (long remaining = this.segmentSize; remaining > 0; remaining--) {
+                out.write(file.read());
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Camino de FileSystemResource (ResourceHttpMessageConverter)
+     */
+    @Benchmark
+    public long resourceTransferTo() throws IOException {
+        try (InputStream in = new FileSystemResource(this.segment).getInputStream()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Camino de ResourceRegion (ResourceRegionHttpMessageConverter)
+     */
+    @Benchmark
+    public long resourceRegionCopyRange() throws IOException {
+        try (InputStream in = new FileSystemResource(this.segment).getInputStream()) {
+            return StreamUtils.copyRange(in, OutputStream.nullOutputStream(), 0, this.segmentSize - 1L);
+        }
+    }
+
+    /**
+     * Camino de sendfile(): el kernel copia sin pasar por la JVM
+     */
+    @Benchmark
+    public long channelTransferTo() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.segment, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < this.segmentSize) {
+                position += channel.transferTo(position, this.segmentSize - position, this.devNull);
+            }
+            return position;
+        }
+    }
+}
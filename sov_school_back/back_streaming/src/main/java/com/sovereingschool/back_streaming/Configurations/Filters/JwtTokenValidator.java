@@ -26,6 +26,12 @@ public class JwtTokenValidator extends OncePerRequestFilter {
         this.jwtUtil = jwtUtil;
     }
 
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Los segmentos con token de reproducción ya están autorizados
+        return PlaybackTokenFilter.tieneTokenReproduccion(request);
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
             FilterChain filterChain)
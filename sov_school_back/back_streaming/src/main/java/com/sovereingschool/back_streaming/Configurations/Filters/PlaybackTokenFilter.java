@@ -0,0 +1,60 @@
+package com.sovereingschool.back_streaming.Configurations.Filters;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.sovereingschool.back_streaming.Models.PlaybackToken;
+import com.sovereingschool.back_streaming.Utils.PlaybackTokenUtil;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+@Component
+public class PlaybackTokenFilter extends OncePerRequestFilter {
+
+    /**
+     * Atributo de la petición con el PlaybackToken verificado
+     */
+    public static final String ATRIBUTO_TOKEN = "com.sovereingschool.back_streaming.PLAYBACK_TOKEN";
+
+    private final PlaybackTokenUtil playbackTokenUtil;
+
+    public PlaybackTokenFilter(PlaybackTokenUtil playbackTokenUtil) {
+        this.playbackTokenUtil = playbackTokenUtil;
+    }
+
+    /**
+     * Función para comprobar si la petición ya viene autorizada por un token de
+     * reproducción. Los filtros JWT la usan para no volver a validar la sesión.
+     * 
+     * @param request HttpServletRequest de la petición
+     * @return boolean true si la petición tiene un token de reproducción válido
+     */
+    public static boolean tieneTokenReproduccion(HttpServletRequest request) {
+        return request.getAttribute(ATRIBUTO_TOKEN) != null;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod())
+                || request.getParameter(PlaybackTokenUtil.PARAMETRO) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+            FilterChain filterChain)
+            throws ServletException, IOException {
+        // Un token inválido o caducado no corta la petición: se sigue con la sesión
+        // JWT de las cookies
+        PlaybackToken token = this.playbackTokenUtil.verificar(request.getParameter(PlaybackTokenUtil.PARAMETRO));
+        if (token != null) {
+            request.setAttribute(ATRIBUTO_TOKEN, token);
+        }
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,61 @@
+package com.sovereingschool.back_streaming.Configurations;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(List.of(
+                ProgresoBitmapWriter.INSTANCE,
+                ProgresoBitmapReader.INSTANCE));
+    }
+
+    /**
+     * Guarda el mapa de bits como { "posición": palabra } con solo las palabras
+     * no vacías
+     */
+    @WritingConverter
+    enum ProgresoBitmapWriter implements Converter<ProgresoBitmap, Document> {
+        INSTANCE;
+
+        @Override
+        public Document convert(ProgresoBitmap source) {
+            Document document = new Document();
+            source.getPalabras().forEach((indice, palabra) -> document.put(String.valueOf(indice), palabra));
+            return document;
+        }
+    }
+
+    /**
+     * Lee el mapa de bits guardado por {@link ProgresoBitmapWriter}
+     */
+    @ReadingConverter
+    enum ProgresoBitmapReader implements Converter<Document, ProgresoBitmap> {
+        INSTANCE;
+
+        @Override
+        public ProgresoBitmap convert(Document source) {
+            Map<Integer, Long> palabras = new HashMap<>();
+            source.forEach((indice, palabra) -> {
+                if (palabra instanceof Number numero) {
+                    palabras.put(Integer.valueOf(indice), numero.longValue());
+                }
+            });
+            return ProgresoBitmap.fromPalabras(palabras);
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.springframework.web.filter.CorsFilter;
 
 import com.sovereingschool.back_streaming.Configurations.Filters.JwtTokenCookieFilter;
 import com.sovereingschool.back_streaming.Configurations.Filters.JwtTokenValidator;
+import com.sovereingschool.back_streaming.Configurations.Filters.PlaybackTokenFilter;
 
 import jakarta.servlet.http.HttpServletResponse;
 
@@ -35,14 +36,17 @@ public class SecurityConfig {
 
     private JwtTokenValidator jwtTokenValidator;
     private JwtTokenCookieFilter jwtTokenCookieFilter;
+    private PlaybackTokenFilter playbackTokenFilter;
 
     private String front;
 
     public SecurityConfig(@Value("${variable.FRONT}") String front,
-            JwtTokenValidator jwtTokenValidator, JwtTokenCookieFilter jwtTokenCookieFilter) {
+            JwtTokenValidator jwtTokenValidator, JwtTokenCookieFilter jwtTokenCookieFilter,
+            PlaybackTokenFilter playbackTokenFilter) {
         this.front = front;
         this.jwtTokenValidator = jwtTokenValidator;
         this.jwtTokenCookieFilter = jwtTokenCookieFilter;
+        this.playbackTokenFilter = playbackTokenFilter;
     }
 
     @Bean
@@ -54,6 +58,7 @@ public class SecurityConfig {
                 .userDetailsService(inMemoryUserDetailsManager())
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .addFilterBefore(corsFilter(), BasicAuthenticationFilter.class)
+                .addFilterBefore(playbackTokenFilter, ExceptionTranslationFilter.class)
                 .addFilterAfter(jwtTokenCookieFilter, ExceptionTranslationFilter.class)
                 .addFilterAfter(jwtTokenValidator, ExceptionTranslationFilter.class)
                 .formLogin(form -> form.disable()) // Desactivar form login
@@ -20,6 +20,7 @@ import org.springframework.web.socket.server.standard.ServletServerContainerFact
 
 import com.sovereingschool.back_streaming.Controllers.OBSWebSocketHandler;
 import com.sovereingschool.back_streaming.Controllers.WebRTCSignalingHandler;
+import com.sovereingschool.back_streaming.Services.PionWorkerPool;
 import com.sovereingschool.back_streaming.Services.StreamingService;
 
 import jakarta.servlet.ServletContext;
@@ -29,6 +30,7 @@ import jakarta.servlet.ServletContext;
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final StreamingService streamingService;
+    private final PionWorkerPool pionWorkerPool;
     private final WebsocketAuthHandshakeInterceptor authHandshakeInterceptor;
     private final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
 
@@ -38,33 +40,41 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     private String uploadDir;
 
+    private final long vigilanciaPreview;
+
     private final ScheduledExecutorService pingScheduler;
 
     public WebSocketConfig(
             @Value("${variable.RTMP}") String RTMP_URL,
             @Value("${variable.RTMP_DOCKER}") String RTMP_DOCKER,
             @Value("${variable.VIDEOS_DIR}") String uploadDir,
+            @Value("${streaming.preview.saturation-check-millis:5000}") long vigilanciaPreview,
             StreamingService streamingService,
+            PionWorkerPool pionWorkerPool,
             WebsocketAuthHandshakeInterceptor authHandshakeInterceptor,
             ScheduledExecutorService pingScheduler) {
         this.RTMP_URL = RTMP_URL;
         this.RTMP_DOCKER = RTMP_DOCKER;
         this.uploadDir = uploadDir;
+        this.vigilanciaPreview = vigilanciaPreview;
         this.streamingService = streamingService;
+        this.pionWorkerPool = pionWorkerPool;
         this.authHandshakeInterceptor = authHandshakeInterceptor;
         this.pingScheduler = pingScheduler;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        WebRTCSignalingHandler handler = new WebRTCSignalingHandler(webSocketTaskExecutor(), streamingService);
+        WebRTCSignalingHandler handler = new WebRTCSignalingHandler(webSocketTaskExecutor(), streamingService,
+                pionWorkerPool);
         registry.addHandler(handler, "/live-webcam")
                 .setAllowedOrigins("*")
                 .addInterceptors(authHandshakeInterceptor);
 
         registry.addHandler(
                 new OBSWebSocketHandler(webSocketTaskExecutor(), streamingService,
-                        RTMP_URL + "/live/", RTMP_DOCKER + "/live/", uploadDir),
+                        RTMP_URL + "/live/", RTMP_DOCKER + "/live/", uploadDir,
+                        vigilanciaPreview),
                 "/live-obs")
                 .setAllowedOrigins("*")
                 .addInterceptors(authHandshakeInterceptor);
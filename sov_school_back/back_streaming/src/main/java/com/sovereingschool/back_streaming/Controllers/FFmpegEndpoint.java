@@ -0,0 +1,55 @@
+package com.sovereingschool.back_streaming.Controllers;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Component;
+
+import com.sovereingschool.back_streaming.Services.FFmpegTelemetryService;
+
+/**
+ * Endpoint de actuator (/actuator/ffmpeg) con el progreso de los procesos
+ * FFmpeg en curso y las últimas líneas de su log
+ */
+@Component
+@Endpoint(id = "ffmpeg")
+@PreAuthorize("hasRole('ADMIN')")
+public class FFmpegEndpoint {
+
+    private final FFmpegTelemetryService ffmpegTelemetryService;
+
+    /**
+     * Constructor de FFmpegEndpoint
+     *
+     * @param ffmpegTelemetryService Telemetría de los procesos FFmpeg
+     */
+    public FFmpegEndpoint(FFmpegTelemetryService ffmpegTelemetryService) {
+        this.ffmpegTelemetryService = ffmpegTelemetryService;
+    }
+
+    /**
+     * Función para obtener el progreso de los procesos FFmpeg en curso
+     *
+     * @return List<Map<String, Object>> con fps, speed, bitrate, out_time y
+     *         fotogramas descartados de cada proceso
+     */
+    @ReadOperation
+    public List<Map<String, Object>> trabajos() {
+        return this.ffmpegTelemetryService.getTrabajos();
+    }
+
+    /**
+     * Función para obtener las últimas líneas del log de un proceso FFmpeg
+     *
+     * @param trabajo String con la etiqueta del proceso (p. ej. "clase 12")
+     * @return List<String> con las líneas, o null (404) si no está en curso
+     */
+    @ReadOperation
+    public List<String> lineas(@Selector String trabajo) {
+        return this.ffmpegTelemetryService.getLineas(trabajo);
+    }
+}
@@ -43,6 +43,7 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
     private final String RTMP_URL;
     private final String RTMP_DOCKER;
     private final String uploadDir;
+    private final long vigilanciaPreview;
 
     /**
      * Constructor de OBSWebSocketHandler
@@ -51,18 +52,22 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
      * @param streamingService Servicio de streaming
      * @param RTMP_URL         URL del servidor RTMP
      * @param RTMP_DOCKER      URL del microservicio de streaming
-     * @param uploadDir        Ruta de carga de archivos
+     * @param uploadDir         Ruta de carga de archivos
+     * @param vigilanciaPreview Milisegundos entre comprobaciones de la
+     *                          saturación durante la previsualización
      */
     public OBSWebSocketHandler(Executor executor,
             StreamingService streamingService,
             String RTMP_URL,
             String RTMP_DOCKER,
-            String uploadDir) {
+            String uploadDir,
+            long vigilanciaPreview) {
         this.streamingService = streamingService;
         this.executor = executor;
         this.RTMP_URL = RTMP_URL;
         this.RTMP_DOCKER = RTMP_DOCKER;
         this.uploadDir = uploadDir;
+        this.vigilanciaPreview = vigilanciaPreview;
     }
 
     /**
@@ -126,45 +131,75 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
             Optional.ofNullable(previews.remove(sessionId)).ifPresent(Thread::interrupt);
         }
 
-        Process preProcess = this.previewProcesses.remove(sessionId);
-        if (preProcess != null && preProcess.isAlive()) {
-            try {
-                // Enviar una señal de terminación controlada
-                OutputStream os = preProcess.getOutputStream();
-                os.write('q'); // Enviar la letra 'q'
-                os.flush(); // Asegurarse de que se envíe
-                os.close();
-                // Esperar a que el proceso termine de forma controlada
-                // Esperar un segundo para que termine de manera controlada
-                boolean finished = preProcess.waitFor(3, TimeUnit.SECONDS);
-
-                if (finished) {
-                    // El proceso terminó correctamente
-                    int exitCode = preProcess.exitValue();
-                    if (exitCode != 0) {
-                        logger.error("FFmpeg preview terminó con un error. Código de salida: {}", exitCode);
-                    }
-                } else {
-                    // Si no terminó en 1 segundo, forzar la terminación
-                    logger.error(
-                            "El proceso FFmpeg preview no respondió en el tiempo esperado. Terminando de forma forzada...");
-                    preProcess.destroy(); // Intentar una terminación limpia
-                    if (preProcess.isAlive()) {
-                        preProcess.destroyForcibly(); // Forzar si sigue vivo
-                    }
+        this.stopPreview(sessionId);
+        // Elimina la carpeta de la preview, la escribiera el FFmpeg de la
+        // preview o el del directo
+        this.removePreview(sessionId);
+    }
+
+    /**
+     * Función para detener el FFmpeg que solo escribe la previsualización
+     * 
+     * @param sessionId ID de la sesión
+     */
+    protected void stopPreview(String sessionId) {
+        Process preProcess;
+        // Espera a que termine un reinicio de la previsualización en curso
+        synchronized (this.previewProcesses) {
+            preProcess = this.previewProcesses.remove(sessionId);
+        }
+        this.detenerPreview(preProcess);
+    }
+
+    /**
+     * Función para detener de forma controlada un FFmpeg de la
+     * previsualización
+     * 
+     * @param preProcess Process con el FFmpeg (puede ser null)
+     */
+    private void detenerPreview(Process preProcess) {
+        if (preProcess == null || !preProcess.isAlive()) {
+            return;
+        }
+        try {
+            // Enviar una señal de terminación controlada
+            OutputStream os = preProcess.getOutputStream();
+            os.write('q'); // Enviar la letra 'q'
+            os.flush(); // Asegurarse de que se envíe
+            os.close();
+            // Esperar a que el proceso termine de forma controlada
+            boolean finished = preProcess.waitFor(3, TimeUnit.SECONDS);
+
+            if (finished) {
+                // El proceso terminó correctamente
+                int exitCode = preProcess.exitValue();
+                if (exitCode != 0) {
+                    logger.error("FFmpeg preview terminó con un error. Código de salida: {}", exitCode);
+                }
+            } else {
+                // Si no terminó a tiempo, forzar la terminación
+                logger.error(
+                        "El proceso FFmpeg preview no respondió en el tiempo esperado. Terminando de forma forzada...");
+                preProcess.destroy(); // Intentar una terminación limpia
+                if (preProcess.isAlive()) {
+                    preProcess.destroyForcibly(); // Forzar si sigue vivo
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Restaurar el estado de interrupción
-                throw new RuntimeException("El proceso fue interrumpido: " + e.getMessage());
             }
-
-            // Elimina la carpeta de la preview
-            this.removePreview(sessionId);
+        } catch (IOException e) {
+            logger.error("Error al detener FFmpeg preview: {}", e.getMessage());
+            preProcess.destroyForcibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restaurar el estado de interrupción
+            throw new RuntimeException("El proceso fue interrumpido: " + e.getMessage());
         }
     }
 
     /**
-     * Función para iniciar la previsualización del flujo de RTMP
+     * Función para iniciar la previsualización del flujo de RTMP.
+     * Mientras FFmpeg está vivo se comprueba cada vigilanciaPreview
+     * milisegundos si los codificadores están saturados; si cambia, la
+     * previsualización se reinicia con la otra calidad (append_list mantiene
+     * la numeración de la lista).
      * 
      * @param rtmpUrl
      * @throws IOException
@@ -184,34 +219,81 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
             Files.createDirectories(outputDir);
         }
 
-        // preparar comando FFmpeg preview
-        List<String> ffmpegCommand = List.of(
-                "ffmpeg",
-                "-vaapi_device", "/dev/dri/renderD128", // Dispositivo VAAPI
-                "-re",
-                "-i", rtmpUrl,
-                "-vf", "format=nv12,hwupload", // Filtro para VAAPI
-                "-c:v", "h264_vaapi", // Codificador VAAPI
-                // "-preset", "veryfast", // No funciona con vaapi
-                "-qp", "24", // Calidad para vaapi
-                // "-tune", "zerolatency", // No funciona con vaapi
-                "-fflags", "nobuffer",
-                "-loglevel", "warning",
-                "-f", "hls",
-                "-hls_time", "0.5",
-                "-hls_list_size", "2",
-                "-hls_flags", "delete_segments+independent_segments+program_date_time",
-                "-hls_segment_type", "mpegts",
-                "-hls_segment_filename", outputDir + "/%03d.ts",
-                "-hls_base_url", previewId + "/",
-                "-g", "10",
-                previewDir + "/" + previewId + ".m3u8");
+        Path m3u8 = previewDir.resolve(previewId + ".m3u8");
+        String sessionId = previewId.substring(previewId.lastIndexOf("_") + 1);
+        boolean reducida = this.streamingService.codificadorSaturado();
+        Process process = this.arrancarPreview(rtmpUrl, m3u8, reducida);
+        this.previewProcesses.put(sessionId, process);
+
+        while (process != null) {
+            Thread logReader = this.leerLogsPreview(process);
+            boolean cambio = false;
+            while (!cambio && !process.waitFor(this.vigilanciaPreview, TimeUnit.MILLISECONDS)) {
+                cambio = this.streamingService.codificadorSaturado() != reducida;
+            }
+            if (cambio) {
+                reducida = !reducida;
+                process = this.reiniciarPreview(sessionId, process, rtmpUrl, m3u8, reducida);
+            } else {
+                process = null;
+            }
+            logReader.join(); // Esperar a que se terminen de leer los logs
+        }
+    }
 
+    /**
+     * Función para reiniciar la previsualización con otra calidad.
+     * No la reinicia si mientras tanto se ha detenido (por ejemplo, porque
+     * empieza el directo y la escribe su FFmpeg).
+     * 
+     * @param sessionId ID de la sesión
+     * @param anterior  Process con el FFmpeg actual de la previsualización
+     * @param rtmpUrl   URL del flujo RTMP
+     * @param m3u8      Path de la lista de la previsualización
+     * @param reducida  Booleano con la nueva calidad
+     * @return Process con el nuevo FFmpeg, o null si ya no hay previsualización
+     * @throws IOException
+     */
+    protected Process reiniciarPreview(String sessionId, Process anterior, String rtmpUrl, Path m3u8,
+            boolean reducida) throws IOException {
+        synchronized (this.previewProcesses) {
+            if (!this.previewProcesses.remove(sessionId, anterior)) {
+                return null;
+            }
+            logger.info("Los codificadores {} saturados: se reinicia la previsualización {}",
+                    reducida ? "están" : "ya no están", sessionId);
+            this.detenerPreview(anterior);
+            Process process = this.arrancarPreview(rtmpUrl, m3u8, reducida);
+            this.previewProcesses.put(sessionId, process);
+            return process;
+        }
+    }
+
+    /**
+     * Función para arrancar el FFmpeg de la previsualización con la
+     * aceleración de la máquina
+     * 
+     * @param rtmpUrl  URL del flujo RTMP
+     * @param m3u8     Path de la lista de la previsualización
+     * @param reducida Booleano para usar la calidad reducida
+     * @return Process con el FFmpeg
+     * @throws IOException
+     */
+    protected Process arrancarPreview(String rtmpUrl, Path m3u8, boolean reducida) throws IOException {
+        List<String> ffmpegCommand = this.streamingService.creaComandoPreview(rtmpUrl, m3u8, reducida);
         ProcessBuilder processBuilder = new ProcessBuilder(ffmpegCommand);
         processBuilder.redirectErrorStream(true);
-        Process process = processBuilder.start();
-        this.previewProcesses.put(previewId.substring(previewId.lastIndexOf("_") + 1), process);
+        return processBuilder.start();
+    }
 
+    /**
+     * Función para leer en otro hilo la salida del FFmpeg de la
+     * previsualización
+     * 
+     * @param process Process con el FFmpeg
+     * @return Thread que lee la salida
+     */
+    private Thread leerLogsPreview(Process process) {
         // Capturar logs del proceso FFmpeg
         Thread logReader = new Thread(() -> {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
@@ -225,8 +307,7 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
             }
         });
         logReader.start();
-
-        logReader.join(); // Esperar a que se terminen de leer los logs
+        return logReader;
     }
 
     /**
@@ -280,19 +361,29 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
         logger.info("RTMP URL: {}", rtmpUrl);
         logger.info("RTMP URL DOCKER: {}", rtmpUrlDocker);
 
+        this.launchPreview(session.getId(), rtmpUrlDocker);
+
+        sendMessage(session, "rtmp_url", rtmpUrl);
+    }
+
+    /**
+     * Función para lanzar en el ejecutor el FFmpeg de la previsualización
+     * 
+     * @param sessionId ID de la sesión
+     * @param rtmpUrl   URL del flujo RTMP
+     */
+    protected void launchPreview(String sessionId, String rtmpUrl) {
         executor.execute(() -> {
             Thread currentThread = Thread.currentThread();
-            previews.put(session.getId(), currentThread);
+            previews.put(sessionId, currentThread);
             try {
-                this.startPreview(rtmpUrlDocker);
+                this.startPreview(rtmpUrl);
             } catch (IOException | InterruptedException e) {
                 logger.error("Error al iniciar la previsualización: {}", e.getMessage());
                 currentThread.interrupt();
-                previews.remove(session.getId());
+                previews.remove(sessionId);
             }
         });
-
-        sendMessage(session, "rtmp_url", rtmpUrl);
     }
 
     /**
@@ -327,6 +418,11 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
         if (streamId != null) {
             try {
                 this.streamingService.stopFFmpegProcessForUser(streamId);
+                // La previsualización se escribía en el FFmpeg del directo
+                String sessionId = streamId.substring(streamId.lastIndexOf('_') + 1);
+                if (ffmpegThreads.remove(sessionId) != null) {
+                    this.launchPreview(sessionId, RTMP_DOCKER + streamId);
+                }
             } catch (RuntimeException | InternalServerException e) {
                 sendMessage(session, "error", e.getMessage());
             }
@@ -370,7 +466,10 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
     }
 
     /**
-     * Función para iniciar el proceso FFmpeg para un usuario
+     * Función para iniciar el proceso FFmpeg para un usuario.
+     * El FFmpeg del directo pasa a escribir también la previsualización, así
+     * que se detiene el de la previsualización y el flujo RTMP se lee y
+     * decodifica una sola vez.
      * 
      * @param streamId ID del streaming
      * @param rtmpUrl  URL del streaming
@@ -388,7 +487,9 @@ public class OBSWebSocketHandler extends TextWebSocketHandler {
             Thread currentThread = Thread.currentThread();
             ffmpegThreads.put(sessionId, currentThread); // Añadir el hilo al mapa
             try {
-                this.streamingService.startLiveStreamingFromStream(streamId, rtmpUrl, null);
+                this.stopPreview(sessionId);
+                Path preview = Paths.get(uploadDir).resolve("previews").resolve(streamId + ".m3u8");
+                this.streamingService.startLiveStreamingFromStream(streamId, rtmpUrl, null, preview);
             } catch (Exception e) {
                 currentThread.interrupt();
                 ffmpegThreads.remove(sessionId);
@@ -1,14 +1,20 @@
 package com.sovereingschool.back_streaming.Controllers;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
@@ -22,52 +28,71 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import com.sovereingschool.back_common.Exceptions.InternalServerException;
 import com.sovereingschool.back_common.Models.Clase;
 import com.sovereingschool.back_common.Models.Curso;
 import com.sovereingschool.back_common.Models.Usuario;
-import com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository;
+import com.sovereingschool.back_streaming.Configurations.Filters.PlaybackTokenFilter;
+import com.sovereingschool.back_streaming.Models.PlaybackToken;
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+import com.sovereingschool.back_streaming.Models.ProgresoClase;
+import com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository;
+import com.sovereingschool.back_streaming.Services.LiveSegmentService;
+import com.sovereingschool.back_streaming.Services.LlHlsService;
+import com.sovereingschool.back_streaming.Services.PlaylistCacheService;
+import com.sovereingschool.back_streaming.Services.SegmentCacheService;
 import com.sovereingschool.back_streaming.Services.StreamingService;
 import com.sovereingschool.back_streaming.Services.UsuarioCursosService;
+import com.sovereingschool.back_streaming.Utils.ByteBufferResource;
+import com.sovereingschool.back_streaming.Utils.PlaybackTokenUtil;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 public class StreamingController {
 
-    private static class LimitedInputStream extends java.io.InputStream {
-        private final RandomAccessFile file;
-        private long remaining;
-
-        public LimitedInputStream(RandomAccessFile file, long remaining) {
-            this.file = file;
-            this.remaining = remaining;
-        }
-
-        @Override
-        public int read() throws IOException {
-            if (remaining > 0) {
-                remaining--;
-                return file.read();
-            } else {
-                return -1;
-            }
-        }
+    /**
+     * Atributos de Tomcat para delegar el envío de un fichero en sendfile()
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
-        @Override
-        public void close() throws IOException {
-            file.close();
-            super.close();
-        }
+    /**
+     * Tamaño mínimo (en bytes) a partir del cual compensa usar sendfile()
+     */
+    private static final long SENDFILE_THRESHOLD = 48 * 1024L;
 
-    }
+    /**
+     * Tipos MIME de HLS (Files.probeContentType depende del sistema y para .ts
+     * suele devolver el tipo de las traducciones de Qt). Los cursos CMAF usan
+     * fragmentos .m4s y un segmento de inicialización .mp4 por calidad, que
+     * también describe su manifiesto DASH
+     */
+    private static final Map<String, String> TIPOS_HLS = Map.of(
+            "m3u8", "application/vnd.apple.mpegurl",
+            "mpd", "application/dash+xml",
+            "ts", "video/mp2t",
+            "m4s", "video/iso.segment",
+            "mp4", "video/mp4");
 
     private UsuarioCursosService usuarioCursosService;
     private StreamingService streamingService;
-    private UsuarioCursosRepository usuarioCursosRepository;
+    private ProgresoClaseRepository progresoClaseRepository;
+    private SegmentCacheService segmentCacheService;
+    private PlaylistCacheService playlistCacheService;
+    private LlHlsService llHlsService;
+    private LiveSegmentService liveSegmentService;
+    private PlaybackTokenUtil playbackTokenUtil;
+    private long esperaPreview;
 
     private Logger logger = LoggerFactory.getLogger(StreamingController.class);
 
@@ -76,14 +101,34 @@ public class StreamingController {
      *
      * @param usuarioCursosService    Servicio de usuarios de cursos
      * @param streamingService        Servicio de streaming
-     * @param usuarioCursosRepository Repositorio de cursos de usuario
+     * @param progresoClaseRepository Repositorio del progreso de las clases
+     * @param segmentCacheService     Caché de segmentos HLS
+     * @param playlistCacheService    Caché de listas HLS
+     * @param llHlsService            Servicio de LL-HLS de los directos
+     * @param liveSegmentService      Anillo en memoria de los segmentos de
+     *                                directo
+     * @param playbackTokenUtil       Utilidad de tokens de reproducción
+     * @param esperaPreview           Milisegundos que se espera a que FFmpeg
+     *                                escriba la lista de una previsualización
      */
     public StreamingController(UsuarioCursosService usuarioCursosService,
             StreamingService streamingService,
-            UsuarioCursosRepository usuarioCursosRepository) {
+            ProgresoClaseRepository progresoClaseRepository,
+            SegmentCacheService segmentCacheService,
+            PlaylistCacheService playlistCacheService,
+            LlHlsService llHlsService,
+            LiveSegmentService liveSegmentService,
+            PlaybackTokenUtil playbackTokenUtil,
+            @Value("${streaming.preview.wait-millis:15000}") long esperaPreview) {
         this.usuarioCursosService = usuarioCursosService;
         this.streamingService = streamingService;
-        this.usuarioCursosRepository = usuarioCursosRepository;
+        this.progresoClaseRepository = progresoClaseRepository;
+        this.segmentCacheService = segmentCacheService;
+        this.playlistCacheService = playlistCacheService;
+        this.llHlsService = llHlsService;
+        this.liveSegmentService = liveSegmentService;
+        this.playbackTokenUtil = playbackTokenUtil;
+        this.esperaPreview = esperaPreview;
     }
 
     /**
@@ -130,6 +175,13 @@ public class StreamingController {
 
             Path videoPath = carpetaPath.resolve(lista);
 
+            // La lista se entrega firmada para que los segmentos no consulten la sesión
+            String token = this.playbackTokenUtil.generar(idUsuario, idCurso, idClase, carpetaPath.toString());
+            ResponseEntity<byte[]> playlist = this.respuestaPlaylist(videoPath, token);
+            if (playlist != null) {
+                return playlist;
+            }
+
             if (!Files.exists(videoPath)) {
                 logger.error("No existe el archivo: {}", videoPath);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -137,7 +189,7 @@ public class StreamingController {
             }
 
             // Obtener el tipo MIME del video
-            String contentType = Files.probeContentType(videoPath);
+            String contentType = this.tipoContenido(videoPath);
 
             // Configurar las cabeceras de la respuesta
             HttpHeaders responseHeaders = this.createHeaders(contentType);
@@ -147,7 +199,7 @@ public class StreamingController {
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
                     .contentLength(fileLength)
                     .headers(responseHeaders)
-                    .body(new InputStreamResource(Files.newInputStream(videoPath)));
+                    .body(new FileSystemResource(videoPath));
 
         } catch (Exception e) {
             logger.error("Error al obtener el video: {}", e.getMessage());
@@ -163,78 +215,143 @@ public class StreamingController {
      * @param idClase ID de la clase
      * @param lista   String con la lista a obtener
      * @param video   String con el nombre del video
-     * @param headers HttpHeaders con las cabeceras del request
-     * @return ResponseEntity<InputStreamResource> con el resultado de la operación
+     * @param headers       HttpHeaders con las cabeceras del request
+     * @param playbackToken PlaybackToken verificado por PlaybackTokenFilter, si
+     *                      la URL lo trae
+     * @param request       HttpServletRequest para delegar el envío en
+     *                      sendfile()
+     * @return ResponseEntity con el fichero completo o la región solicitada
      * @throws IOException
      * @throws InternalServerException
      */
     @GetMapping("/{idCurso}/{idClase}/{lista}/{video}")
-    public ResponseEntity<InputStreamResource> streamVideo(@PathVariable Long idCurso,
+    public ResponseEntity<?> streamVideo(@PathVariable Long idCurso,
             @PathVariable Long idClase,
             @PathVariable String lista,
             @PathVariable String video,
-            @RequestHeader HttpHeaders headers) throws IOException, InternalServerException {
-
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            @RequestHeader HttpHeaders headers,
+            @RequestAttribute(name = PlaybackTokenFilter.ATRIBUTO_TOKEN, required = false) PlaybackToken playbackToken,
+            HttpServletRequest request) throws IOException, InternalServerException {
 
-        if (authentication == null || !authentication.isAuthenticated()
-                || "anonymousUser".equals(authentication.getPrincipal())) {
-            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+        Acceso acceso = this.acceso(idCurso, idClase, video, playbackToken, request);
+        if (acceso.error() != null) {
+            return acceso.error();
         }
-        Long idUsuario = (Long) authentication.getDetails();
-        String direccionCarpeta = this.usuarioCursosService.getClase(idUsuario, idCurso, idClase);
-        direccionCarpeta = direccionCarpeta.substring(0, direccionCarpeta.lastIndexOf("/"));
-        if (direccionCarpeta == null) {
-            logger.error("El video no tiene ruta");
+        Path videoPath = this.rutaFichero(acceso.carpeta(), lista, video);
+        if (videoPath == null) {
             return ResponseEntity.notFound().build();
         }
 
-        Path carpetaPath = Paths.get(direccionCarpeta);
-
-        Path videoPath = carpetaPath.resolve(lista);
-
-        videoPath = videoPath.resolve(video);
-
-        if (!Files.exists(videoPath)) {
-            logger.error("!No existe el archivo: {}", videoPath);
-            return ResponseEntity.notFound().build();
+        ResponseEntity<byte[]> playlist = this.respuestaPlaylist(videoPath, acceso.token());
+        if (playlist != null) {
+            return playlist;
         }
+        return this.respuestaFichero(videoPath, video, headers, request, true);
+    }
 
-        // Obtener el tipo MIME del video
-        String contentType = Files.probeContentType(videoPath);
-
-        // Configurar las cabeceras de la respuesta
-        HttpHeaders responseHeaders = this.createHeaders(contentType);
-
-        Long fileLength = Files.size(videoPath);
-        List<HttpRange> ranges = headers.getRange();
-        if (ranges.isEmpty()) {
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .contentLength(fileLength)
-                    .headers(responseHeaders)
-                    .body(new InputStreamResource(Files.newInputStream(videoPath)));
+    /**
+     * Función para la recarga bloqueante de una lista LL-HLS.
+     * La petición no ocupa ningún hilo mientras espera: se completa cuando
+     * FFmpeg escribe la parte pedida o, pasado el tiempo máximo, con un 503.
+     * Si pide un segmento más de dos por delante del último se responde con un
+     * 400 sin esperar.
+     * 
+     * @param idCurso       ID del curso
+     * @param idClase       ID de la clase
+     * @param lista         String con la calidad
+     * @param video         String con el nombre de la lista
+     * @param msn           long con el segmento pedido (_HLS_msn)
+     * @param parte         Integer con la parte pedida del segmento (_HLS_part)
+     * @param playbackToken PlaybackToken verificado por PlaybackTokenFilter, si
+     *                      la URL lo trae
+     * @param request       HttpServletRequest de la petición
+     * @return DeferredResult con la lista
+     * @throws InternalServerException
+     */
+    @GetMapping(value = "/{idCurso}/{idClase}/{lista}/{video}", params = "_HLS_msn")
+    public DeferredResult<ResponseEntity<?>> recargaBloqueante(@PathVariable Long idCurso,
+            @PathVariable Long idClase,
+            @PathVariable String lista,
+            @PathVariable String video,
+            @RequestParam("_HLS_msn") long msn,
+            @RequestParam(name = "_HLS_part", required = false) Integer parte,
+            @RequestAttribute(name = PlaybackTokenFilter.ATRIBUTO_TOKEN, required = false) PlaybackToken playbackToken,
+            HttpServletRequest request) throws InternalServerException {
+
+        DeferredResult<ResponseEntity<?>> resultado = this.nuevaEspera();
+        Acceso acceso = this.acceso(idCurso, idClase, video, playbackToken, request);
+        if (acceso.error() != null) {
+            resultado.setResult(acceso.error());
+            return resultado;
         }
-
-        HttpRange range = ranges.get(0);
-        long start = range.getRangeStart(0);
-        long end = range.getRangeEnd(fileLength);
-        if (end > fileLength - 1) {
-            end = fileLength - 1;
+        Path videoPath = this.rutaFichero(acceso.carpeta(), lista, video);
+        if (videoPath == null || !video.endsWith(".m3u8")) {
+            resultado.setResult(ResponseEntity.notFound().build());
+            return resultado;
         }
-        long rangeLength = end - start + 1;
 
-        RandomAccessFile file = new RandomAccessFile(videoPath.toFile(), "r");
-        file.seek(start);
+        // LL-HLS: un segmento más de dos por delante del último no se espera
+        if (msn < 0 || (parte != null && parte < 0) || this.llHlsService.demasiadoAdelantado(videoPath, msn)) {
+            resultado.setResult(ResponseEntity.badRequest().build());
+            return resultado;
+        }
+        int numeroParte = parte != null ? parte : -1;
+        this.esperar(resultado, videoPath.getParent(),
+                () -> this.llHlsService.disponible(videoPath, msn, numeroParte),
+                () -> {
+                    ResponseEntity<byte[]> playlist = this.respuestaPlaylist(videoPath, acceso.token());
+                    return playlist != null ? playlist : ResponseEntity.notFound().build();
+                });
+        return resultado;
+    }
 
-        InputStreamResource resource = new InputStreamResource(new LimitedInputStream(file, rangeLength));
+    /**
+     * Función para servir una parte de un directo que aún no existe (pista
+     * EXT-X-PRELOAD-HINT de LL-HLS): la petición se completa cuando FFmpeg la
+     * escribe
+     * 
+     * @param idCurso       ID del curso
+     * @param idClase       ID de la clase
+     * @param lista         String con la calidad
+     * @param video         String con el nombre de la parte
+     * @param headers       HttpHeaders con las cabeceras del request
+     * @param playbackToken PlaybackToken verificado por PlaybackTokenFilter, si
+     *                      la URL lo trae
+     * @param request       HttpServletRequest de la petición
+     * @return DeferredResult con la parte
+     * @throws InternalServerException
+     */
+    @GetMapping(value = "/{idCurso}/{idClase}/{lista}/{video}", params = LlHlsService.PARAMETRO_ESPERA)
+    public DeferredResult<ResponseEntity<?>> esperarParte(@PathVariable Long idCurso,
+            @PathVariable Long idClase,
+            @PathVariable String lista,
+            @PathVariable String video,
+            @RequestHeader HttpHeaders headers,
+            @RequestAttribute(name = PlaybackTokenFilter.ATRIBUTO_TOKEN, required = false) PlaybackToken playbackToken,
+            HttpServletRequest request) throws InternalServerException {
+
+        DeferredResult<ResponseEntity<?>> resultado = this.nuevaEspera();
+        Acceso acceso = this.acceso(idCurso, idClase, video, playbackToken, request);
+        if (acceso.error() != null) {
+            resultado.setResult(acceso.error());
+            return resultado;
+        }
+        Path videoPath = this.rutaFichero(acceso.carpeta(), lista, video);
+        if (videoPath == null || !esSegmento(video)) {
+            resultado.setResult(ResponseEntity.notFound().build());
+            return resultado;
+        }
 
-        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(rangeLength))
-                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength)
-                .headers(responseHeaders)
-                .body(resource);
+        this.esperar(resultado, videoPath.getParent(), () -> Files.exists(videoPath), () -> {
+            try {
+                // Tras la espera la respuesta ya no va por sendfile()
+                return this.respuestaFichero(videoPath, video, headers, request, false);
+            } catch (IOException e) {
+                logger.error("Error al leer la parte {}: {}", videoPath, e.getMessage());
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            }
+        });
+        return resultado;
     }
 
     /**
@@ -281,21 +398,9 @@ public class StreamingController {
             }
             Long idUsuario = (Long) authentication.getDetails();
 
-            // Obtener el documento del usuario
-            var usuarioCursos = usuarioCursosRepository.findByIdUsuario(idUsuario)
-                    .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
-
-            // Buscar el curso y la clase
-            double progreso = usuarioCursos.getCursos().stream()
-                    .filter(c -> c.getIdCurso().equals(idCurso))
-                    .flatMap(c -> c.getClases().stream())
-                    .filter(cl -> cl.getIdClase().equals(idClase))
-                    .map(cl -> {
-                        if (cl.getTotalSegments() == 0)
-                            return 0.0;
-                        return ((double) cl.getProgress().size() / cl.getTotalSegments()) * 100;
-                    })
-                    .findFirst()
+            // Un solo documento por usuario y clase
+            double progreso = progresoClaseRepository.findByIdUsuarioAndIdCursoAndIdClase(idUsuario, idCurso, idClase)
+                    .map(ProgresoClase::getProgressPercentage)
                     .orElse(0.0);
 
             return ResponseEntity.ok(progreso);
@@ -305,36 +410,35 @@ public class StreamingController {
     }
 
     /**
-     * Función para obtener la lista de la previsualización
+     * Función para obtener la lista de la previsualización.
+     * Si FFmpeg aún no la ha escrito, la respuesta queda en espera sin ocupar
+     * ningún hilo y se completa con el aviso de PlaylistCacheService cuando
+     * aparece, o con un 503 si no aparece a tiempo.
      * 
      * @param idPreview String con el ID de la previsualización
-     * @return ResponseEntity<String> con el resultado de la operación
+     * @return DeferredResult con el resultado de la operación
      */
     @GetMapping("/getPreview/{idPreview}")
-    public ResponseEntity<?> getPreviewList(@PathVariable String idPreview) {
+    public DeferredResult<ResponseEntity<?>> getPreviewList(@PathVariable String idPreview) {
+        DeferredResult<ResponseEntity<?>> resultado = this.nuevaEspera(this.esperaPreview);
         try {
             Path previewPath = this.streamingService.getPreview(idPreview);
-            if (previewPath == null || !Files.exists(previewPath)) {
-                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            if (previewPath == null || previewPath.getParent() == null) {
+                resultado.setResult(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+                return resultado;
             }
-
-            // Obtener el tipo MIME del video
-            String contentType = Files.probeContentType(previewPath);
-
-            // Configurar las cabeceras de la respuesta
-            HttpHeaders responseHeaders = this.createHeaders(contentType);
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .headers(responseHeaders)
-                    .body(new InputStreamResource(Files.newInputStream(previewPath)));
+            this.esperar(resultado, previewPath.getParent(), () -> Files.exists(previewPath),
+                    () -> this.respuestaPreview(previewPath));
         } catch (Exception e) {
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            resultado.setResult(new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR));
         }
+        return resultado;
     }
 
     /**
-     * Función para obtener las partes de la previsualización
+     * Función para obtener las partes de la previsualización.
+     * El reproductor solo las pide después de leer la lista, así que no se
+     * espera a FFmpeg.
      * 
      * @param idPreview String con el ID de la previsualización
      * @param part      String con el nombre de la parte
@@ -344,20 +448,15 @@ public class StreamingController {
     public ResponseEntity<?> getPreviewParts(@PathVariable String idPreview, @PathVariable String part) {
         try {
             Path previewPath = this.streamingService.getPreview(idPreview);
-            if (previewPath == null || !Files.exists(previewPath)) {
+            if (previewPath == null || previewPath.getParent() == null) {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
 
             Path partPath = previewPath.getParent().resolve(idPreview).resolve(part);
-            // Obtener el tipo MIME del video
-            String contentType = Files.probeContentType(partPath);
-
-            // Configurar las cabeceras de la respuesta
-            HttpHeaders responseHeaders = this.createHeaders(contentType);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .headers(responseHeaders)
-                    .body(new InputStreamResource(Files.newInputStream(partPath)));
+            if (!Files.exists(partPath)) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            return this.respuestaPreview(partPath);
         } catch (Exception e) {
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -499,6 +598,10 @@ public class StreamingController {
             if (authentication == null || !authentication.isAuthenticated()) {
                 return new ResponseEntity<>("Error en el token de acceso", HttpStatus.UNAUTHORIZED);
             }
+            // El índice lo manda el cliente: fuera de rango no se registra
+            if (!ProgresoBitmap.esValido(segment)) {
+                return new ResponseEntity<>("Fragmento fuera de rango: " + segment, HttpStatus.BAD_REQUEST);
+            }
             Long idUsuario = Long.parseLong(authentication.getName());
             this.streamingService.registrarProgreso(idUsuario, idCurso, idClase, segment);
             return ResponseEntity.ok().build();
@@ -507,6 +610,327 @@ public class StreamingController {
         }
     }
 
+    /**
+     * Carpeta de una clase con el token que se añade a sus listas, o la
+     * respuesta de error si no se puede acceder
+     */
+    private record Acceso(Path carpeta, String token, ResponseEntity<?> error) {
+    }
+
+    /**
+     * Función para comprobar el acceso a los ficheros de una clase: con el
+     * token de reproducción de la URL o con la sesión del usuario
+     * 
+     * @param idCurso       ID del curso
+     * @param idClase       ID de la clase
+     * @param video         String con el nombre del fichero
+     * @param playbackToken PlaybackToken verificado, o null
+     * @param request       HttpServletRequest de la petición
+     * @return Acceso con la carpeta de la clase o el error
+     * @throws InternalServerException
+     */
+    private Acceso acceso(Long idCurso, Long idClase, String video, PlaybackToken playbackToken,
+            HttpServletRequest request) throws InternalServerException {
+        if (playbackToken != null && playbackToken.permite(idCurso, idClase)) {
+            // Autorizado por el token de reproducción: sin sesión ni bases de datos
+            return new Acceso(Paths.get(playbackToken.carpeta()), request.getParameter(PlaybackTokenUtil.PARAMETRO),
+                    null);
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        if (authentication == null || !authentication.isAuthenticated()
+                || "anonymousUser".equals(authentication.getPrincipal())) {
+            return new Acceso(null, null, new ResponseEntity<>(HttpStatus.UNAUTHORIZED));
+        }
+        Long idUsuario = (Long) authentication.getDetails();
+        String direccionCarpeta = this.usuarioCursosService.getClase(idUsuario, idCurso, idClase);
+        if (direccionCarpeta == null || !direccionCarpeta.contains("/")) {
+            logger.error("El video no tiene ruta");
+            return new Acceso(null, null, ResponseEntity.notFound().build());
+        }
+        direccionCarpeta = direccionCarpeta.substring(0, direccionCarpeta.lastIndexOf("/"));
+        // Solo las listas necesitan un token nuevo
+        String token = esLista(video)
+                ? this.playbackTokenUtil.generar(idUsuario, idCurso, idClase, direccionCarpeta)
+                : null;
+        return new Acceso(Paths.get(direccionCarpeta), token, null);
+    }
+
+    /**
+     * Función para obtener la ruta de un fichero de una calidad sin salir de la
+     * carpeta de la clase
+     * 
+     * @param carpetaPath Path de la carpeta de la clase
+     * @param lista       String con la calidad
+     * @param video       String con el nombre del fichero
+     * @return Path del fichero, o null si queda fuera de la carpeta
+     */
+    private Path rutaFichero(Path carpetaPath, String lista, String video) {
+        Path videoPath = carpetaPath.resolve(lista).resolve(video).normalize();
+        if (!videoPath.startsWith(carpetaPath.normalize())) {
+            logger.error("Ruta fuera de la carpeta de la clase: {}", videoPath);
+            return null;
+        }
+        return videoPath;
+    }
+
+    /**
+     * Función para servir un fichero de una calidad: desde la caché de
+     * segmentos, con sendfile() o por rangos
+     * 
+     * @param videoPath Path del fichero
+     * @param video     String con el nombre del fichero
+     * @param headers   HttpHeaders con las cabeceras del request
+     * @param request   HttpServletRequest de la petición
+     * @param sendfile  Booleano para permitir delegar el envío en sendfile()
+     * @return ResponseEntity con el fichero completo o la región solicitada
+     * @throws IOException
+     */
+    private ResponseEntity<?> respuestaFichero(Path videoPath, String video, HttpHeaders headers,
+            HttpServletRequest request, boolean sendfile) throws IOException {
+        // Los segmentos recientes de un directo están en memoria desde que FFmpeg
+        // los termina
+        if (esSegmento(video)) {
+            ByteBuffer directo = this.liveSegmentService.obtener(videoPath);
+            if (directo != null) {
+                return ResponseEntity.ok()
+                        .headers(this.createHeaders(this.tipoContenido(videoPath)))
+                        .body(new ByteBufferResource(directo, video));
+            }
+        }
+
+        if (!Files.exists(videoPath)) {
+            // Los segmentos de un directo LL-HLS son la unión de sus partes
+            byte[] segmento = this.llHlsService.leerSegmento(videoPath.getParent(), video);
+            if (segmento != null) {
+                return ResponseEntity.ok()
+                        .headers(this.createHeaders(this.tipoContenido(videoPath)))
+                        .body(new ByteArrayResource(segmento));
+            }
+            logger.error("!No existe el archivo: {}", videoPath);
+            return ResponseEntity.notFound().build();
+        }
+
+        // Obtener el tipo MIME del video
+        String contentType = this.tipoContenido(videoPath);
+
+        // Configurar las cabeceras de la respuesta
+        HttpHeaders responseHeaders = this.createHeaders(contentType);
+
+        // Los segmentos más vistos se sirven desde memoria, y las peticiones
+        // simultáneas de un mismo segmento comparten una lectura de disco
+        if (esSegmento(video)) {
+            ByteBuffer segmento = this.segmentCacheService.obtenerSegmento(videoPath);
+            if (segmento != null) {
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .headers(responseHeaders)
+                        .body(new ByteBufferResource(segmento, video));
+            }
+        }
+
+        List<HttpRange> ranges = headers.getRange();
+        if (sendfile && ranges.size() <= 1 && this.sendfileDisponible(request)) {
+            long fileLength = Files.size(videoPath);
+            long start = 0;
+            long end = fileLength - 1;
+            if (!ranges.isEmpty()) {
+                start = ranges.get(0).getRangeStart(fileLength);
+                end = Math.min(ranges.get(0).getRangeEnd(fileLength), fileLength - 1);
+            }
+            long rangeLength = end - start + 1;
+
+            if (start < fileLength && rangeLength >= SENDFILE_THRESHOLD) {
+                this.prepararSendfile(request, videoPath, start, end + 1);
+                if (ranges.isEmpty()) {
+                    return ResponseEntity.ok()
+                            .contentLength(fileLength)
+                            .headers(responseHeaders)
+                            .build();
+                }
+                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength)
+                        .contentLength(rangeLength)
+                        .headers(responseHeaders)
+                        .build();
+            }
+        }
+
+        // Spring resuelve la cabecera Range sobre el Resource (206, Content-Range o
+        // 416) y copia solo la región pedida
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .headers(responseHeaders)
+                .body(new FileSystemResource(videoPath));
+    }
+
+    /**
+     * Función para crear la respuesta diferida de una espera de LL-HLS, que
+     * termina con un 503 si FFmpeg no escribe a tiempo
+     * 
+     * @return DeferredResult sin resultado
+     */
+    private DeferredResult<ResponseEntity<?>> nuevaEspera() {
+        return this.nuevaEspera(this.llHlsService.getEsperaMaxima());
+    }
+
+    /**
+     * Función para crear una respuesta diferida que termina con un 503 si
+     * FFmpeg no escribe a tiempo
+     * 
+     * @param milisegundos long con el tiempo máximo de espera
+     * @return DeferredResult sin resultado
+     */
+    private DeferredResult<ResponseEntity<?>> nuevaEspera(long milisegundos) {
+        return new DeferredResult<>(milisegundos,
+                () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    /**
+     * Función para servir un fichero de una previsualización
+     * 
+     * @param path Path del fichero
+     * @return ResponseEntity con el fichero, o un 500 si no se puede leer
+     */
+    private ResponseEntity<?> respuestaPreview(Path path) {
+        try {
+            // Obtener el tipo MIME del video
+            String contentType = Files.probeContentType(path);
+
+            // Configurar las cabeceras de la respuesta
+            HttpHeaders responseHeaders = this.createHeaders(contentType);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .headers(responseHeaders)
+                    .body(new InputStreamResource(Files.newInputStream(path)));
+        } catch (IOException e) {
+            logger.error("Error al leer la previsualización {}: {}", path, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Función para completar una respuesta diferida cuando se cumpla una
+     * condición.
+     * Se comprueba con cada cambio de la carpeta que avisa PlaylistCacheService,
+     * sin ningún hilo bloqueado ni sondeo.
+     * 
+     * @param resultado DeferredResult a completar
+     * @param carpeta   Path de la carpeta donde escribe FFmpeg
+     * @param listo     BooleanSupplier con la condición
+     * @param respuesta Supplier con la respuesta cuando se cumple
+     */
+    private void esperar(DeferredResult<ResponseEntity<?>> resultado, Path carpeta, BooleanSupplier listo,
+            Supplier<ResponseEntity<?>> respuesta) {
+        if (resultado.isSetOrExpired()) {
+            return;
+        }
+        if (listo.getAsBoolean()) {
+            resultado.setResult(respuesta.get());
+            return;
+        }
+        if (!this.llHlsService.esperarCambio(carpeta, () -> this.esperar(resultado, carpeta, listo, respuesta))) {
+            resultado.setResult(ResponseEntity.notFound().build());
+            return;
+        }
+        // El aviso se registra antes de volver a comprobar para no perder ningún
+        // cambio
+        if (listo.getAsBoolean()) {
+            resultado.setResult(respuesta.get());
+        }
+    }
+
+    /**
+     * Función para servir una lista HLS o el manifiesto DASH desde la caché de
+     * listas, con el token de reproducción añadido a todas sus URIs
+     * 
+     * @param path  Path de la lista
+     * @param token String con el token de reproducción
+     * @return ResponseEntity con la lista, o null si no es una lista o no existe
+     */
+    private ResponseEntity<byte[]> respuestaPlaylist(Path path, String token) {
+        String nombre = path.getFileName().toString();
+        boolean mpd = nombre.endsWith(".mpd");
+        if (!mpd && !nombre.endsWith(".m3u8")) {
+            return null;
+        }
+        // Las listas de partes de los directos se entregan como LL-HLS
+        byte[] playlist = mpd ? this.playlistCacheService.obtenerPlaylist(path)
+                : this.llHlsService.obtenerPlaylist(path);
+        if (playlist == null) {
+            return null;
+        }
+        playlist = mpd ? this.playbackTokenUtil.firmarManifiesto(playlist, token)
+                : this.playbackTokenUtil.firmarPlaylist(playlist, token);
+        return ResponseEntity.ok()
+                .contentLength(playlist.length)
+                .headers(this.createHeaders(TIPOS_HLS.get(mpd ? "mpd" : "m3u8")))
+                .body(playlist);
+    }
+
+    /**
+     * Función para saber si un fichero es una lista HLS o un manifiesto DASH
+     * 
+     * @param video String con el nombre del fichero
+     * @return boolean true si es una lista
+     */
+    private static boolean esLista(String video) {
+        return video.endsWith(".m3u8") || video.endsWith(".mpd");
+    }
+
+    /**
+     * Función para saber si un fichero de una calidad es un segmento: .ts,
+     * fragmento .m4s o segmento de inicialización .mp4 de CMAF
+     * 
+     * @param video String con el nombre del fichero
+     * @return boolean true si es un segmento
+     */
+    private static boolean esSegmento(String video) {
+        return video.endsWith(".ts") || video.endsWith(".m4s") || video.endsWith(".mp4");
+    }
+
+    /**
+     * Función para obtener el tipo MIME de un fichero de la clase
+     * 
+     * @param path Path del fichero
+     * @return String con el tipo MIME
+     * @throws IOException
+     */
+    private String tipoContenido(Path path) throws IOException {
+        String nombre = path.getFileName().toString();
+        String tipo = TIPOS_HLS.get(nombre.substring(nombre.lastIndexOf('.') + 1));
+        if (tipo == null) {
+            tipo = Files.probeContentType(path);
+        }
+        return tipo != null ? tipo : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    /**
+     * Función para comprobar si el conector permite enviar el fichero con
+     * sendfile()
+     * 
+     * @param request HttpServletRequest de la petición
+     * @return boolean true si se puede usar sendfile()
+     */
+    private boolean sendfileDisponible(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+    }
+
+    /**
+     * Función para delegar en Tomcat el envío de una región del fichero.
+     * El conector copia los bytes del page cache al socket sin pasar por la JVM.
+     * 
+     * @param request HttpServletRequest de la petición
+     * @param path    Path del fichero a enviar
+     * @param start   long con el primer byte a enviar
+     * @param end     long con el byte siguiente al último a enviar
+     */
+    private void prepararSendfile(HttpServletRequest request, Path path, long start, long end) {
+        request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end);
+    }
+
     /**
      * Función para crear las cabeceras de la respuesta
      * 
@@ -0,0 +1,48 @@
+package com.sovereingschool.back_streaming.Controllers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Component;
+
+import com.sovereingschool.back_streaming.Services.TranscodingQueueService;
+
+/**
+ * Endpoint de actuator (/actuator/transcoding) con el estado de la cola de
+ * conversión
+ */
+@Component
+@Endpoint(id = "transcoding")
+@PreAuthorize("hasRole('ADMIN')")
+public class TranscodingEndpoint {
+
+    private final TranscodingQueueService transcodingQueueService;
+
+    /**
+     * Constructor de TranscodingEndpoint
+     *
+     * @param transcodingQueueService Cola de conversión
+     */
+    public TranscodingEndpoint(TranscodingQueueService transcodingQueueService) {
+        this.transcodingQueueService = transcodingQueueService;
+    }
+
+    /**
+     * Función para obtener los trabajos en cola, en curso y terminados
+     *
+     * @return Map con el estado de la cola
+     */
+    @ReadOperation
+    public Map<String, Object> trabajos() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        estado.put("recurso", this.transcodingQueueService.getRecurso());
+        estado.put("plazasLibres", this.transcodingQueueService.getPlazasLibres());
+        estado.put("enCola", this.transcodingQueueService.getEnCola());
+        estado.put("enCurso", this.transcodingQueueService.getEnCurso());
+        estado.put("terminados", this.transcodingQueueService.getTerminados());
+        return estado;
+    }
+}
@@ -1,13 +1,8 @@
 package com.sovereingschool.back_streaming.Controllers;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Map;
@@ -27,7 +22,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sovereingschool.back_streaming.Services.PionWorkerPool;
 import com.sovereingschool.back_streaming.Services.StreamingService;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
 
 public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
 
@@ -42,11 +40,7 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
     private final Map<String, String[]> streamIdToStreamSettings = new ConcurrentHashMap<>();
     private final Executor executor; // Executor inyectado
     private final StreamingService streamingService;
-
-    private Process pionProcess;
-    private BufferedWriter pionWriter;
-    private BufferedReader pionReader;
-    private BufferedReader pionErrorReader;
+    private final PionWorkerPool pionWorkerPool;
 
     private Logger logger = LoggerFactory.getLogger(WebRTCSignalingHandler.class);
 
@@ -55,11 +49,14 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
      *
      * @param executor         Ejecutor de tareas
      * @param streamingService Servicio de streaming
+     * @param pionWorkerPool   Grupo de procesos Pion
      */
     public WebRTCSignalingHandler(Executor executor,
-            StreamingService streamingService) {
+            StreamingService streamingService,
+            PionWorkerPool pionWorkerPool) {
         this.executor = executor;
         this.streamingService = streamingService;
+        this.pionWorkerPool = pionWorkerPool;
     }
 
     /**
@@ -109,25 +106,18 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         String userId = session.getId();
 
-        if (pionWriter != null) {
-            try {
-                pionWriter.close();
-            } catch (IOException e) {
-                logger.error("Error al cerrar pionWriter: {}", e.getMessage());
+        // Solo se paran las emisiones de esta sesión: el resto siguen en sus procesos
+        sessions.entrySet().removeIf(entry -> {
+            if (!entry.getValue().getId().equals(userId)) {
+                return false;
             }
-        }
-
-        if (pionReader != null) {
             try {
-                pionReader.close();
-            } catch (IOException e) {
-                logger.error("Error al cerrar pionReader: {}", e.getMessage());
+                pionWorkerPool.detener(entry.getKey());
+            } catch (RuntimeException e) {
+                logger.error("Error al detener la emisión {} en Pion: {}", entry.getKey(), e.getMessage());
             }
-        }
-
-        if (pionProcess != null) {
-            pionProcess.destroy();
-        }
+            return true;
+        });
 
         if (userId != null) {
             Thread t = ffmpegThreads.remove(userId);
@@ -218,11 +208,8 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
                         logger.info("VideoSetting: {}", Arrays.toString(videoSetting));
                         logger.info("SDP Offer: {}", sdpOffer);
 
-                        this.startPion(); // Iniciar proceso Go si no está iniciado
-                        // Enviar JSON con SDP offer al proceso Go
+                        // Enviar el SDP offer al proceso Pion de la emisión
                         ObjectNode request = objectMapper.createObjectNode();
-                        request.put("type", "offer");
-                        request.put(STREAM_ID, streamId);
                         request.put("sdp", sdpOffer);
                         // Convertir array de Java a ArrayNode de Jackson
                         ArrayNode videoSettingsNode = objectMapper.createArrayNode();
@@ -231,18 +218,16 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
                         }
                         request.set(VIDEO_SETTINGS, videoSettingsNode);
 
-                        if (pionWriter != null) {
-                            synchronized (pionWriter) {
-                                try {
-                                    pionWriter.write(request.toString());
-                                    pionWriter.newLine();
-                                    pionWriter.flush();
-                                } catch (IOException e) {
-                                    logger.error("Error al enviar al proceso Go: {}", e.getMessage());
-                                }
+                        pionWorkerPool.registrar(streamId, new EmisionPion(streamId, session));
+                        if (!pionWorkerPool.enviar(Tipo.OFFER, streamId, request.toString())) {
+                            logger.error("No se pudo enviar offer a Pion para el stream {}", streamId);
+                            pionWorkerPool.detener(streamId);
+                            try {
+                                session.sendMessage(new TextMessage(
+                                        "{\"type\":\"error\",\"message\":\"Servidor WebRTC saturado, inténtalo de nuevo\"}"));
+                            } catch (IOException e) {
+                                logger.error("Error al enviar el mensaje de error: {}", e.getMessage());
                             }
-                        } else {
-                            logger.error("No se pudo enviar offer a Pion porque pionWriter es null");
                         }
                         break;
                     }
@@ -253,23 +238,9 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
                         if (!compruebaSesion(streamId, session)) {
                             return;
                         }
-                        JsonNode candidateNode = json.get(CANDIDATE); // obtienes el objeto completo
-                        ObjectNode candidateResponse = objectMapper.createObjectNode();
-                        candidateResponse.put("type", "candidate");
-                        candidateResponse.put(STREAM_ID, streamId);
-                        candidateResponse.set(CANDIDATE, candidateNode);
-                        if (pionWriter != null) {
-                            synchronized (pionWriter) {
-                                try {
-                                    pionWriter.write(candidateResponse.toString());
-                                    pionWriter.newLine();
-                                    pionWriter.flush();
-                                } catch (IOException e) {
-                                    logger.error("Error al enviar al proceso Go: {}", e.getMessage());
-                                }
-                            }
-                        } else {
-                            logger.error("No se pudo enviar candidate a Pion porque pionWriter es null");
+                        JsonNode candidateNode = json.get(CANDIDATE); // RTCIceCandidateInit completo
+                        if (!pionWorkerPool.enviar(Tipo.CANDIDATE, streamId, candidateNode.toString())) {
+                            logger.error("No se pudo enviar candidate a Pion para el stream {}", streamId);
                         }
                         break;
                     }
@@ -281,15 +252,10 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
                         }
                         logger.info("Llega el mensaje de detener WebOBS");
                         try {
-                            // IMPORTANTE: añadir '\n' y flush para que el proceso Go lea la línea
-                            if (pionWriter != null) {
-                                this.pionWriter
-                                        .write("{\"type\":\"stopStreamByID\",\"" + STREAM_ID + "\":\"" + streamId
-                                                + "\"}\n");
-                                this.pionWriter.flush();
-                            }
+                            sessions.remove(streamId);
+                            pionWorkerPool.detener(streamId);
                             streamingService.stopFFmpegProcessForUser(streamId);
-                        } catch (IOException | RuntimeException e) {
+                        } catch (Exception e) {
                             logger.error("Error al detener el proceso FFmpeg para el stream: {}", streamId);
                         } finally {
                             session.close();
@@ -351,157 +317,106 @@ public class WebRTCSignalingHandler extends BinaryWebSocketHandler {
     }
 
     /**
-     * Función para iniciar el proceso Pion
+     * Receptor de los mensajes de Pion de una emisión
      */
-    protected void startPion() {
-        if (pionProcess != null && pionProcess.isAlive()) {
-            return; // Ya está corriendo
+    private final class EmisionPion implements PionWorkerPool.Receptor {
+        private final String streamId;
+        private final WebSocketSession session;
+
+        private EmisionPion(String streamId, WebSocketSession session) {
+            this.streamId = streamId;
+            this.session = session;
         }
 
-        ProcessBuilder pb;
+        /**
+         * Función para procesar un mensaje de Pion de la emisión
+         *
+         * @param trama Trama con el mensaje
+         */
+        @Override
+        public void recibir(Trama trama) {
+            logger.debug("Pion {} para stream {}", trama.tipo(), streamId);
+            try {
+                switch (trama.tipo()) {
+                    case ANSWER: {
+                        ObjectNode response = objectMapper.createObjectNode();
+                        response.put("type", "webrtc-answer");
+                        response.put("sdp", trama.texto());
+                        session.sendMessage(new TextMessage(response.toString()));
+                        break;
+                    }
 
-        // Detectar si estamos dentro de Docker
-        boolean inDocker = false;
-        try {
-            File dockerEnv = new File("/.dockerenv");
-            inDocker = dockerEnv.exists();
-        } catch (Exception ignored) {
-            // Ignorar excepciones
-        }
+                    case RTP_SDP: {
+                        JsonNode msg = objectMapper.readTree(trama.contenido());
+                        String sdp = msg.get("sdp").asText();
+                        JsonNode videoSettingsNode = msg.get(VIDEO_SETTINGS);
+                        String[] videoSetting = new String[videoSettingsNode.size()];
+                        for (int i = 0; i < videoSettingsNode.size(); i++) {
+                            videoSetting[i] = videoSettingsNode.get(i).asText();
+                        }
 
-        if (inDocker) {
-            // En Docker (prod), usar el binario compilado que debería estar en
-            // /app/bin/pion-server
-            String prodBinary = "/app/pion-server";
-            pb = new ProcessBuilder(prodBinary);
-            logger.info("Iniciando Pion desde binario compilado en Docker: {}", prodBinary);
-        } else {
-            // En desarrollo, usar go run sobre el script
-            pb = new ProcessBuilder("/usr/local/go/bin/go", "run", "pion-server.go");
-            pb.directory(new File("src/main/resources/pion/"));
-            logger.info("Iniciando Pion en modo desarrollo con go run");
-        }
+                        logger.info("Recibido SDP RTP para stream {}", streamId);
+                        logger.debug(sdp);
+                        executor.execute(() -> {
+                            try (InputStream sdpStream = new ByteArrayInputStream(
+                                    sdp.getBytes(StandardCharsets.UTF_8))) {
+                                streamingService.startLiveStreamingFromStream(streamId, sdpStream,
+                                        videoSetting);
+                                ffmpegThreads.put(session.getId(), Thread.currentThread());
+                                logger.info("Iniciado hilo FFmpeg para stream {}", streamId);
+                            } catch (Exception e) {
+                                logger.error("Error iniciando FFmpeg para stream {}: {}", streamId,
+                                        e.getMessage());
+                            }
+                        });
+                        break;
+                    }
 
-        pb.redirectErrorStream(false); // mantener stdout y stderr separados
+                    case LOCAL_CANDIDATE: {
+                        ObjectNode candidateResponse = objectMapper.createObjectNode();
+                        candidateResponse.put("type", "candidate");
 
-        try {
-            pionProcess = startProcess(pb);
-            logger.info("Proceso Pion iniciado correctamente");
-        } catch (IOException e) {
-            logger.error("Error al iniciar el proceso Pion: {}", e.getMessage());
-            return;
-        }
+                        // Crear estructura compatible con RTCIceCandidateInit
+                        ObjectNode candidateInit = objectMapper.createObjectNode();
+                        candidateInit.put(CANDIDATE, trama.texto());
+                        candidateInit.put("sdpMid", "0"); // valores neutros válidos
+                        candidateInit.put("sdpMLineIndex", 0);
 
-        // Inicializar readers/writers
-        pionWriter = new BufferedWriter(new OutputStreamWriter(pionProcess.getOutputStream()));
-        pionReader = new BufferedReader(new InputStreamReader(pionProcess.getInputStream()));
-        pionErrorReader = new BufferedReader(new InputStreamReader(pionProcess.getErrorStream()));
+                        candidateResponse.set(CANDIDATE, candidateInit);
 
-        // Hilo para leer stderr
-        executor.execute(() -> {
-            String line;
-            try {
-                while ((line = pionErrorReader.readLine()) != null) {
-                    logger.info("PION Log: {}", line);
+                        session.sendMessage(new TextMessage(candidateResponse.toString()));
+                        break;
+                    }
+
+                    default:
+                        logger.error("Mensaje {} inesperado de Pion para stream {}", trama.tipo(), streamId);
                 }
-            } catch (IOException e) {
-                logger.error("Error leyendo stderr de Pion: {}", e.getMessage());
+            } catch (Exception ex) {
+                logger.error("Error procesando el mensaje {} de Pion para stream {}: {}", trama.tipo(), streamId,
+                        ex.getMessage());
             }
-        });
+        }
 
-        // Hilo para leer stdout
-        executor.execute(() -> {
-            String line;
+        /**
+         * Función para avisar al profesor de que su emisión se ha perdido
+         * porque su proceso Pion se ha reiniciado
+         */
+        @Override
+        public void perdida() {
+            logger.warn("Emisión {} perdida por el reinicio de su proceso Pion", streamId);
             try {
-                while ((line = pionReader.readLine()) != null) {
-                    logger.info("STDOUT Pion: {}", line);
-                    try {
-                        JsonNode msg = objectMapper.readTree(line);
-                        String type = msg.get("type").asText();
-                        String streamId = msg.get(STREAM_ID).asText();
-                        WebSocketSession session = sessions.get(streamId);
-
-                        switch (type) {
-                            case "webrtc-answer":
-                                String sdpAnswer = msg.get("sdp").asText();
-                                ObjectNode response = objectMapper.createObjectNode();
-                                response.put("type", "webrtc-answer");
-                                response.put("sdp", sdpAnswer);
-                                if (session != null) {
-                                    session.sendMessage(new TextMessage(response.toString()));
-                                }
-                                break;
-
-                            case "rtp-sdp":
-                                String sdp = msg.get("sdp").asText();
-                                JsonNode videoSettingsNode = msg.get(VIDEO_SETTINGS);
-                                String[] videoSetting = new String[videoSettingsNode.size()];
-                                for (int i = 0; i < videoSettingsNode.size(); i++) {
-                                    videoSetting[i] = videoSettingsNode.get(i).asText();
-                                }
-
-                                logger.info("Recibido SDP RTP para stream {}", streamId);
-                                logger.info(sdp);
-                                executor.execute(() -> {
-                                    try (InputStream sdpStream = new ByteArrayInputStream(
-                                            sdp.getBytes(StandardCharsets.UTF_8))) {
-                                        streamingService.startLiveStreamingFromStream(streamId, sdpStream,
-                                                videoSetting);
-                                        if (session != null) {
-                                            ffmpegThreads.put(session.getId(), Thread.currentThread());
-                                        }
-                                        logger.info("Iniciado hilo FFmpeg para stream {}", streamId);
-                                    } catch (Exception e) {
-                                        logger.error("Error iniciando FFmpeg para stream {}: {}", streamId,
-                                                e.getMessage());
-                                    }
-                                });
-                                break;
-
-                            case "candidate": {
-                                String streamIdCandidate = msg.get(STREAM_ID).asText();
-                                if (session == null) {
-                                    logger.error("No se encontró la sesión para el streamId {}", streamIdCandidate);
-                                    break;
-                                }
-
-                                // candidate llega como string plano desde Pion
-                                String candidateStr = msg.get(CANDIDATE).asText();
-
-                                ObjectNode candidateResponse = objectMapper.createObjectNode();
-                                candidateResponse.put("type", "candidate");
-
-                                // Crear estructura compatible con RTCIceCandidateInit
-                                ObjectNode candidateInit = objectMapper.createObjectNode();
-                                candidateInit.put(CANDIDATE, candidateStr);
-                                candidateInit.put("sdpMid", "0"); // valores neutros válidos
-                                candidateInit.put("sdpMLineIndex", 0);
-
-                                candidateResponse.set(CANDIDATE, candidateInit);
-
-                                session.sendMessage(new TextMessage(candidateResponse.toString()));
-                                break;
-                            }
-
-                            default:
-                                logger.error("Mensaje JSON desconocido de Pion: {}", msg);
-                        }
-                    } catch (Exception ex) {
-                        logger.error("Error parseando JSON desde stdout de Pion: {}", line);
-                        ex.printStackTrace();
-                    }
-                }
+                streamingService.stopFFmpegProcessForUser(streamId);
+            } catch (Exception e) {
+                logger.error("Error al detener el proceso FFmpeg para el stream: {}", streamId);
+            }
+            sessions.remove(streamId);
+            try {
+                session.sendMessage(new TextMessage(
+                        "{\"type\":\"error\",\"message\":\"Se ha perdido la conexión WebRTC, vuelve a emitir\"}"));
+                session.close(CloseStatus.SERVER_ERROR);
             } catch (IOException e) {
-                logger.error("Error leyendo stdout de Pion: {}", e.getMessage());
+                logger.error("Error al avisar de la emisión perdida: {}", e.getMessage());
             }
-        });
-    }
-
-    /**
-     * Inicia el proceso utilizando el ProcessBuilder.
-     * Se extrae a un método protegido para facilitar las pruebas unitarias.
-     */
-    protected Process startProcess(ProcessBuilder pb) throws IOException {
-        return pb.start();
+        }
     }
-}
\ No newline at end of file
+}
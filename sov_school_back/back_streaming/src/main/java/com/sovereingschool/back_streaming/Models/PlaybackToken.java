@@ -0,0 +1,25 @@
+package com.sovereingschool.back_streaming.Models;
+
+/**
+ * Datos firmados de un token de reproducción: qué usuario puede ver qué clase,
+ * en qué carpeta están sus ficheros y hasta cuándo.
+ *
+ * @param idUsuario ID del usuario
+ * @param idCurso   ID del curso
+ * @param idClase   ID de la clase tal y como aparece en la URL
+ * @param expira    Instante de caducidad en segundos desde epoch
+ * @param carpeta   Carpeta de la clase
+ */
+public record PlaybackToken(Long idUsuario, Long idCurso, Long idClase, long expira, String carpeta) {
+
+    /**
+     * Función para comprobar si el token permite acceder a una clase
+     *
+     * @param idCurso ID del curso de la URL
+     * @param idClase ID de la clase de la URL
+     * @return boolean true si el token es de esa clase
+     */
+    public boolean permite(Long idCurso, Long idClase) {
+        return this.idCurso.equals(idCurso) && this.idClase.equals(idClase);
+    }
+}
@@ -0,0 +1,241 @@
+package com.sovereingschool.back_streaming.Models;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Conjunto de fragmentos vistos guardado como mapa de bits.
+ * Cada palabra de 64 bits cubre 64 fragmentos consecutivos: una clase de una
+ * hora con fragmentos de 2 segundos ocupa 29 palabras en lugar de 1800
+ * enteros. En Mongo solo se guardan las palabras distintas de cero, indexadas
+ * por su posición, para poder unir fragmentos nuevos con $bit sin leer el
+ * documento.
+ * En memoria también se guardan solo las palabras no vacías, ordenadas por su
+ * posición, para que un fragmento muy alto (o un documento manipulado) no
+ * obligue a reservar todas las palabras anteriores.
+ */
+public class ProgresoBitmap {
+
+    /**
+     * Número máximo de fragmentos de una clase: 72 horas con fragmentos de 2
+     * segundos
+     */
+    public static final int MAX_SEGMENTOS = 1 << 17;
+
+    private static final int[] SIN_INDICES = new int[0];
+    private static final long[] VACIO = new long[0];
+
+    private int[] indices;
+    private long[] palabras;
+    private int tamano;
+
+    /**
+     * Constructor de ProgresoBitmap vacío
+     */
+    public ProgresoBitmap() {
+        this.indices = SIN_INDICES;
+        this.palabras = VACIO;
+    }
+
+    /**
+     * Función para crear un mapa de bits a partir de unos fragmentos
+     *
+     * @param segmentos Índices de los fragmentos
+     * @return ProgresoBitmap con los fragmentos
+     */
+    public static ProgresoBitmap of(Iterable<Integer> segmentos) {
+        ProgresoBitmap bitmap = new ProgresoBitmap();
+        for (Integer segmento : segmentos) {
+            if (segmento != null) {
+                bitmap.add(segmento);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Función para crear un mapa de bits a partir de sus palabras no vacías.
+     * Las posiciones fuera de rango se ignoran.
+     *
+     * @param palabras Map con la posición y el valor de cada palabra
+     * @return ProgresoBitmap con las palabras
+     */
+    public static ProgresoBitmap fromPalabras(Map<Integer, Long> palabras) {
+        ProgresoBitmap bitmap = new ProgresoBitmap();
+        palabras.forEach((indice, valor) -> {
+            if (indice != null && indice >= 0 && indice <= indicePalabra(MAX_SEGMENTOS - 1)
+                    && valor != null && valor != 0) {
+                bitmap.unir(indice, valor);
+            }
+        });
+        return bitmap;
+    }
+
+    /**
+     * Función para comprobar si un índice de fragmento es válido
+     *
+     * @param segmento Índice del fragmento
+     * @return true si está entre 0 y MAX_SEGMENTOS
+     */
+    public static boolean esValido(int segmento) {
+        return segmento >= 0 && segmento < MAX_SEGMENTOS;
+    }
+
+    /**
+     * Función para marcar un fragmento como visto
+     *
+     * @param segmento Índice del fragmento
+     * @return true si el fragmento no estaba marcado
+     */
+    public boolean add(int segmento) {
+        if (!esValido(segmento)) {
+            throw new IllegalArgumentException("Índice de fragmento fuera de rango: " + segmento);
+        }
+        return this.unir(indicePalabra(segmento), mascara(segmento));
+    }
+
+    /**
+     * Función para comprobar si un fragmento está marcado
+     *
+     * @param segmento Índice del fragmento
+     * @return true si el fragmento está marcado
+     */
+    public boolean contains(int segmento) {
+        if (segmento < 0) {
+            return false;
+        }
+        int posicion = this.buscar(indicePalabra(segmento));
+        return posicion >= 0 && (this.palabras[posicion] & mascara(segmento)) != 0;
+    }
+
+    /**
+     * Función para unir otro mapa de bits a este
+     *
+     * @param otro ProgresoBitmap a unir
+     */
+    public void or(ProgresoBitmap otro) {
+        for (int i = 0; i < otro.tamano; i++) {
+            this.unir(otro.indices[i], otro.palabras[i]);
+        }
+    }
+
+    /**
+     * Función para obtener el número de fragmentos marcados
+     *
+     * @return int con el número de fragmentos
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < this.tamano; i++) {
+            total += Long.bitCount(this.palabras[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Función para saber si no hay ningún fragmento marcado
+     *
+     * @return true si está vacío
+     */
+    public boolean isEmpty() {
+        return this.tamano == 0;
+    }
+
+    /**
+     * Función para obtener las palabras no vacías con su posición
+     *
+     * @return Map con la posición y el valor de cada palabra
+     */
+    public Map<Integer, Long> getPalabras() {
+        Map<Integer, Long> resultado = new LinkedHashMap<>();
+        for (int i = 0; i < this.tamano; i++) {
+            resultado.put(this.indices[i], this.palabras[i]);
+        }
+        return resultado;
+    }
+
+    /**
+     * Función para obtener la posición de la palabra que contiene un fragmento
+     *
+     * @param segmento Índice del fragmento
+     * @return int con la posición de la palabra
+     */
+    public static int indicePalabra(int segmento) {
+        return segmento >>> 6;
+    }
+
+    /**
+     * Función para obtener el bit de un fragmento dentro de su palabra
+     *
+     * @param segmento Índice del fragmento
+     * @return long con el bit del fragmento
+     */
+    public static long mascara(int segmento) {
+        return 1L << (segmento & 63);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProgresoBitmap otro)) {
+            return false;
+        }
+        return Arrays.equals(this.indices, 0, this.tamano, otro.indices, 0, otro.tamano)
+                && Arrays.equals(this.palabras, 0, this.tamano, otro.palabras, 0, otro.tamano);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.getPalabras().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ProgresoBitmap(cardinality=" + this.cardinality() + ")";
+    }
+
+    /**
+     * Función para buscar una palabra por su posición
+     *
+     * @param indice Posición de la palabra
+     * @return int con su lugar en los arrays, o (-(lugar de inserción) - 1)
+     */
+    private int buscar(int indice) {
+        return Arrays.binarySearch(this.indices, 0, this.tamano, indice);
+    }
+
+    /**
+     * Función para unir unos bits a una palabra, creándola en su lugar si no
+     * existía
+     *
+     * @param indice Posición de la palabra
+     * @param bits   Bits a unir
+     * @return true si ha cambiado algún bit
+     */
+    private boolean unir(int indice, long bits) {
+        int posicion = this.buscar(indice);
+        if (posicion >= 0) {
+            long anterior = this.palabras[posicion];
+            this.palabras[posicion] = anterior | bits;
+            return anterior != this.palabras[posicion];
+        }
+        if (bits == 0) {
+            return false;
+        }
+        int insercion = -posicion - 1;
+        if (this.tamano == this.indices.length) {
+            int capacidad = Math.max(4, this.tamano * 2);
+            this.indices = Arrays.copyOf(this.indices, capacidad);
+            this.palabras = Arrays.copyOf(this.palabras, capacidad);
+        }
+        System.arraycopy(this.indices, insercion, this.indices, insercion + 1, this.tamano - insercion);
+        System.arraycopy(this.palabras, insercion, this.palabras, insercion + 1, this.tamano - insercion);
+        this.indices[insercion] = indice;
+        this.palabras[insercion] = bits;
+        this.tamano++;
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.sovereingschool.back_streaming.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "progreso_clases")
+// Un documento por usuario y clase: leer o actualizar el progreso de una
+// clase toca un solo documento pequeño a través de este índice.
+@CompoundIndex(name = "user_course_class_idx", def = "{'idUsuario': 1, 'idCurso': 1, 'idClase': 1}", unique = true)
+public class ProgresoClase {
+
+    @Id
+    private String id;
+
+    private Long idUsuario;
+
+    private Long idCurso;
+
+    private Long idClase;
+
+    /** Posición de la clase dentro del curso */
+    private int posicion;
+
+    private boolean completed;
+
+    /**
+     * Cuántos fragmentos (.ts) tiene el video en total.
+     */
+    private int totalSegments;
+
+    /**
+     * Fragmentos vistos por el usuario.
+     */
+    @Builder.Default
+    @Field("progressBits")
+    private ProgresoBitmap progress = new ProgresoBitmap();
+
+    /**
+     * Método de conveniencia para obtener el progreso real en porcentaje.
+     */
+    public double getProgressPercentage() {
+        if (totalSegments <= 0)
+            return 0.0;
+        double calculation = (double) progress.cardinality() / totalSegments * 100.0;
+        // Retornamos el valor limitado a 100 por si acaso
+        return Math.min(calculation, 100.0);
+    }
+}
@@ -0,0 +1,13 @@
+package com.sovereingschool.back_streaming.Models;
+
+/**
+ * Fragmentos vistos por un usuario en una clase que aún no se han guardado en
+ * Mongo
+ *
+ * @param idUsuario ID del usuario
+ * @param idCurso   ID del curso
+ * @param idClase   ID de la clase
+ * @param segmentos Fragmentos vistos
+ */
+public record ProgresoPendiente(Long idUsuario, Long idCurso, Long idClase, ProgresoBitmap segmentos) {
+}
@@ -0,0 +1,61 @@
+package com.sovereingschool.back_streaming.Models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+// Calidad de la escalera de una conversión: la resolución y el perfil H.264
+// salen de ResolutionProfile y las tasas de bits se recortan según la
+// complejidad del video.
+public class Rendition {
+
+    private int width;
+
+    private int height;
+
+    private int fps;
+
+    private String bitrate;
+
+    private String maxrate;
+
+    private String bufsize;
+
+    private String audioBitrate;
+
+    private String profile;
+
+    private String level;
+
+    /**
+     * Función para crear una calidad a partir de un perfil
+     *
+     * @param perfil ResolutionProfile de la calidad
+     * @param factor double por el que se multiplican las tasas de bits de vídeo
+     *               (1 = las del perfil)
+     * @return Rendition con las tasas recortadas
+     */
+    public static Rendition de(ResolutionProfile perfil, double factor) {
+        return Rendition.builder()
+                .width(perfil.getWidth())
+                .height(perfil.getHeight())
+                .fps(perfil.getFps())
+                .bitrate(escalar(perfil.getBitrate(), factor))
+                .maxrate(escalar(perfil.getMaxrate(), factor))
+                .bufsize(escalar(perfil.getBufsize(), factor))
+                .audioBitrate(perfil.getAudioBitrate())
+                .profile(perfil.getProfile())
+                .level(perfil.getLevel())
+                .build();
+    }
+
+    private static String escalar(String tasa, double factor) {
+        int kbps = Integer.parseInt(tasa.substring(0, tasa.length() - 1));
+        return Math.round(kbps * factor) + "k";
+    }
+}
@@ -0,0 +1,90 @@
+package com.sovereingschool.back_streaming.Models;
+
+import java.time.Instant;
+import java.util.Comparator;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.sovereingschool.back_streaming.Utils.GPUDetector;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "transcoding_jobs")
+// Cada trabajo tiene su propio id: el directo y la conversión de una misma
+// clase, o las conversiones de sus distintas subidas, no se pisan.
+public class TranscodingJob {
+
+    /**
+     * Orden de la cola: primero los directos, luego los videos más pequeños y,
+     * a igualdad, los más antiguos.
+     */
+    public static final Comparator<TranscodingJob> PRIORIDAD = Comparator
+            .comparing(TranscodingJob::getTipo)
+            .thenComparingLong(TranscodingJob::getTamano)
+            .thenComparing(TranscodingJob::getCreado, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    /**
+     * Tipo de trabajo, en orden de prioridad
+     */
+    public enum Tipo {
+        LIVE,
+        VOD
+    }
+
+    public enum Estado {
+        PENDIENTE,
+        EN_CURSO,
+        COMPLETADO,
+        FALLIDO
+    }
+
+    @Id
+    @Builder.Default
+    private String id = new ObjectId().toHexString();
+
+    @Indexed
+    private Long idClase;
+
+    private Long idCurso;
+
+    private Tipo tipo;
+
+    @Indexed
+    private Estado estado;
+
+    /** Recurso de codificación que usa el trabajo */
+    private GPUDetector.VideoAcceleration recurso;
+
+    /** Ruta del video original */
+    private String origen;
+
+    /** Tamaño en bytes del video original */
+    private long tamano;
+
+    private int intentos;
+
+    private String error;
+
+    private Instant creado;
+
+    private Instant iniciado;
+
+    private Instant terminado;
+
+    /** Si el trabajo ocupa una plaza de su recurso */
+    @Transient
+    @JsonIgnore
+    private boolean plazaReservada;
+}
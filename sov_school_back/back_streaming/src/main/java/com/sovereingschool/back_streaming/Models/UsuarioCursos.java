@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.List;
 
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -20,7 +21,10 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @Builder
 @Document(collection = "user_courses")
-@CompoundIndex(name = "user_courses_idx", def = "{'idUsuario': 1}", unique = true)
+@CompoundIndexes({
+        @CompoundIndex(name = "user_courses_idx", def = "{'idUsuario': 1}", unique = true),
+        @CompoundIndex(name = "user_courses_curso_idx", def = "{'idUsuario': 1, 'cursos.idCurso': 1}")
+})
 public class UsuarioCursos implements Serializable {
     @Id
     private String id;
@@ -0,0 +1,102 @@
+package com.sovereingschool.back_streaming.Repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.sovereingschool.back_streaming.Models.ProgresoClase;
+import com.sovereingschool.back_streaming.Models.ProgresoPendiente;
+
+@Repository
+public interface ProgresoClaseRepository extends MongoRepository<ProgresoClase, String> {
+
+        String COLLECTION = "progreso_clases";
+
+        Optional<ProgresoClase> findByIdUsuarioAndIdCursoAndIdClase(Long idUsuario, Long idCurso, Long idClase);
+
+        Optional<ProgresoClase> findFirstByIdUsuarioAndIdCursoAndCompletedFalseOrderByPosicionAsc(Long idUsuario,
+                        Long idCurso);
+
+        Optional<ProgresoClase> findFirstByIdUsuarioAndIdCursoOrderByPosicionAsc(Long idUsuario, Long idCurso);
+
+        void deleteByIdUsuario(Long idUsuario);
+
+        void deleteByIdCurso(Long idCurso);
+
+        void deleteByIdCursoAndIdClase(Long idCurso, Long idClase);
+
+        void deleteByIdCursoAndIdClaseNotIn(Long idCurso, Collection<Long> idsClase);
+
+        /**
+         * Actualiza en una sola operación bulk el progreso acumulado de varios
+         * usuarios y clases. Cada palabra del mapa de bits se une con $bit or en el
+         * servidor, sin leer el documento. Si el documento no existe no se crea:
+         * las clases se crean al matricularse (upsertClases), así que un fragmento
+         * de una clase borrada o de un curso sin matrícula se descarta.
+         * 
+         * @param pendientes    Lista con los fragmentos vistos por usuario y clase
+         * @param mongoTemplate Template para operaciones de MongoDB
+         * @return int con el número de actualizaciones sin documento
+         */
+        default int updateProgressBatch(List<ProgresoPendiente> pendientes, MongoTemplate mongoTemplate) {
+                if (pendientes.isEmpty()) {
+                        return 0;
+                }
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+                for (ProgresoPendiente pendiente : pendientes) {
+                        Update update = new Update();
+                        pendiente.segmentos().getPalabras().forEach(
+                                        (indice, palabra) -> update.bitwise("progressBits." + indice).or(palabra));
+                        bulk.updateOne(claveQuery(pendiente.idUsuario(), pendiente.idCurso(), pendiente.idClase()),
+                                        update);
+                }
+                BulkWriteResult resultado = bulk.execute();
+                return resultado != null ? pendientes.size() - resultado.getMatchedCount() : 0;
+        }
+
+        /**
+         * Crea o actualiza los datos de varias clases sin tocar el progreso ya
+         * registrado.
+         * 
+         * @param progresos     Lista con las clases de cada usuario
+         * @param mongoTemplate Template para operaciones de MongoDB
+         */
+        default void upsertClases(List<ProgresoClase> progresos, MongoTemplate mongoTemplate) {
+                if (progresos.isEmpty()) {
+                        return;
+                }
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+                for (ProgresoClase progreso : progresos) {
+                        Update update = new Update()
+                                        .set("posicion", progreso.getPosicion())
+                                        .set("totalSegments", progreso.getTotalSegments())
+                                        .setOnInsert("completed", false);
+                        bulk.upsert(claveQuery(progreso.getIdUsuario(), progreso.getIdCurso(), progreso.getIdClase()),
+                                        update);
+                }
+                bulk.execute();
+        }
+
+        /**
+         * Crea la consulta del progreso de un usuario en una clase.
+         * 
+         * @param idUsuario ID del usuario
+         * @param idCurso   ID del curso
+         * @param idClase   ID de la clase
+         * @return Query con la consulta
+         */
+        private static Query claveQuery(Long idUsuario, Long idCurso, Long idClase) {
+                return new Query(Criteria.where("idUsuario").is(idUsuario)
+                                .and("idCurso").is(idCurso)
+                                .and("idClase").is(idClase));
+        }
+}
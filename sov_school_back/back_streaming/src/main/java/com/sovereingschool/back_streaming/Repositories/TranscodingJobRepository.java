@@ -0,0 +1,21 @@
+package com.sovereingschool.back_streaming.Repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.sovereingschool.back_streaming.Models.TranscodingJob;
+
+@Repository
+public interface TranscodingJobRepository extends MongoRepository<TranscodingJob, String> {
+
+        List<TranscodingJob> findByEstadoIn(Collection<TranscodingJob.Estado> estados);
+
+        List<TranscodingJob> findTop50ByEstadoInOrderByTerminadoDesc(Collection<TranscodingJob.Estado> estados);
+
+        void deleteByIdClaseAndEstado(Long idClase, TranscodingJob.Estado estado);
+
+        void deleteByIdClaseIsNull();
+}
@@ -3,7 +3,6 @@ package com.sovereingschool.back_streaming.Repositories;
 import java.util.List;
 import java.util.Optional;
 
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -16,34 +15,26 @@ public interface UsuarioCursosRepository extends MongoRepository<UsuarioCursos,
         @Query(value = "{ 'idUsuario' : ?0 }")
         Optional<UsuarioCursos> findByIdUsuario(Long idUsuario);
 
-        @Query("{ 'cursos': { $elemMatch: { 'id_curso': ?0 } } }")
+        @Query("{ 'cursos.idCurso': ?0 }")
         List<UsuarioCursos> findAllByIdCurso(Long idCurso);
 
         /**
-         * Actualiza el progreso de un fragmento de video para un usuario en una clase
-         * específica.
+         * Obtiene solo el rol del usuario, sin cargar sus cursos.
          * 
-         * @param idUsuario     ID del usuario
-         * @param idCurso       ID del curso
-         * @param idClase       ID de la clase
-         * @param segmentIndex  Índice del fragmento reproducido
-         * @param mongoTemplate Template para operaciones de MongoDB
+         * @param idUsuario ID del usuario
+         * @return Optional con el UsuarioCursos con el rol
          */
-        default void updateProgress(Long idUsuario, Long idCurso, Long idClase, int segmentIndex,
-                        MongoTemplate mongoTemplate) {
-                org.springframework.data.mongodb.core.query.Query query = new org.springframework.data.mongodb.core.query.Query(
-                                org.springframework.data.mongodb.core.query.Criteria.where("idUsuario").is(idUsuario)
-                                                .and("cursos.idCurso").is(idCurso)
-                                                .and("cursos.clases.idClase").is(idClase));
-
-                org.springframework.data.mongodb.core.query.Update update = new org.springframework.data.mongodb.core.query.Update()
-                                .addToSet("cursos.$[course].clases.$[class].progress", segmentIndex);
-
-                update.filterArray(org.springframework.data.mongodb.core.query.Criteria.where("course.idCurso")
-                                .is(idCurso));
-                update.filterArray(org.springframework.data.mongodb.core.query.Criteria.where("class.idClase")
-                                .is(idClase));
-
-                mongoTemplate.updateFirst(query, update, "user_courses");
-        }
+        @Query(value = "{ 'idUsuario' : ?0 }", fields = "{ 'idUsuario' : 1, 'rolUsuario' : 1 }")
+        Optional<UsuarioCursos> findRolByIdUsuario(Long idUsuario);
+
+        /**
+         * Comprueba si el usuario está matriculado en un curso, sin cargar sus
+         * cursos.
+         * 
+         * @param idUsuario ID del usuario
+         * @param idCurso   ID del curso
+         * @return true si el usuario tiene el curso
+         */
+        @Query(value = "{ 'idUsuario' : ?0, 'cursos.idCurso' : ?1 }", exists = true)
+        boolean existsByIdUsuarioAndIdCurso(Long idUsuario, Long idCurso);
 }
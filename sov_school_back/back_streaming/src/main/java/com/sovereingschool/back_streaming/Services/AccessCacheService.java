@@ -0,0 +1,138 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Caché de corta duración con la dirección de la clase que puede ver cada
+ * usuario.
+ * Durante la reproducción cada segmento vuelve a pedir la clase, por lo que
+ * sin esta caché se lee Mongo y Postgres una vez por alumno cada 2 segundos.
+ */
+@Service
+public class AccessCacheService {
+
+    /**
+     * Clave de la caché: qué usuario pide qué clase de qué curso
+     */
+    private record Clave(Long idUsuario, Long idCurso, Long idClase) {
+    }
+
+    /**
+     * Dirección de la clase junto con el instante en el que caduca
+     */
+    private record Entrada(String direccion, long caducidad) {
+    }
+
+    private final Map<Clave, Entrada> accesos = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntradas;
+
+    /**
+     * Constructor de AccessCacheService
+     *
+     * @param ttlSegundos Segundos que se guarda cada acceso
+     * @param maxEntradas Número máximo de accesos guardados
+     */
+    public AccessCacheService(
+            @Value("${streaming.access-cache.ttl-seconds:30}") long ttlSegundos,
+            @Value("${streaming.access-cache.max-entries:100000}") int maxEntradas) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSegundos);
+        this.maxEntradas = maxEntradas;
+    }
+
+    /**
+     * Función para obtener la dirección de una clase ya autorizada
+     *
+     * @param idUsuario ID del usuario
+     * @param idCurso   ID del curso
+     * @param idClase   ID de la clase
+     * @return String con la dirección de la clase, o null si no está en la caché
+     */
+    public String getDireccion(Long idUsuario, Long idCurso, Long idClase) {
+        Clave clave = new Clave(idUsuario, idCurso, idClase);
+        Entrada entrada = this.accesos.get(clave);
+        if (entrada == null) {
+            return null;
+        }
+        if (System.nanoTime() - entrada.caducidad() > 0) {
+            this.accesos.remove(clave, entrada);
+            return null;
+        }
+        return entrada.direccion();
+    }
+
+    /**
+     * Función para guardar la dirección de una clase autorizada
+     *
+     * @param idUsuario ID del usuario
+     * @param idCurso   ID del curso
+     * @param idClase   ID de la clase
+     * @param direccion String con la dirección de la clase
+     */
+    public void putDireccion(Long idUsuario, Long idCurso, Long idClase, String direccion) {
+        if (this.ttlNanos <= 0 || direccion == null) {
+            return;
+        }
+        if (this.accesos.size() >= this.maxEntradas) {
+            this.purgar();
+        }
+        this.accesos.put(new Clave(idUsuario, idCurso, idClase),
+                new Entrada(direccion, System.nanoTime() + this.ttlNanos));
+    }
+
+    /**
+     * Función para eliminar los accesos a un curso
+     *
+     * @param idCurso ID del curso
+     */
+    public void invalidarCurso(Long idCurso) {
+        this.accesos.keySet().removeIf(clave -> clave.idCurso().equals(idCurso));
+    }
+
+    /**
+     * Función para eliminar los accesos de un usuario
+     *
+     * @param idUsuario ID del usuario
+     */
+    public void invalidarUsuario(Long idUsuario) {
+        this.accesos.keySet().removeIf(clave -> idUsuario.equals(clave.idUsuario()));
+    }
+
+    /**
+     * Función para eliminar los accesos a una clase cuya dirección ha cambiado.
+     * Las entradas pedidas con idClase 0 (clase actual) se eliminan con todo el
+     * curso porque pueden apuntar a esa clase.
+     *
+     * @param idCurso ID del curso
+     * @param idClase ID de la clase
+     */
+    public void invalidarClase(Long idCurso, Long idClase) {
+        this.accesos.keySet().removeIf(clave -> clave.idCurso().equals(idCurso)
+                && (clave.idClase().equals(idClase) || clave.idClase() == 0));
+    }
+
+    /**
+     * Función para obtener el número de accesos guardados
+     *
+     * @return int con el número de accesos
+     */
+    public int size() {
+        return this.accesos.size();
+    }
+
+    /**
+     * Función para eliminar los accesos caducados y, si no basta, vaciar la caché
+     */
+    private void purgar() {
+        long ahora = System.nanoTime();
+        this.accesos.values().removeIf(entrada -> ahora - entrada.caducidad() > 0);
+        if (this.accesos.size() >= this.maxEntradas) {
+            this.accesos.clear();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Telemetría de los procesos FFmpeg en curso.
+ * FFmpeg se lanza con "-progress pipe:1 -nostats": cada pocos segundos
+ * escribe en su salida un bloque de líneas clave=valor (fps, speed, bitrate,
+ * out_time, drop_frames...) que se guardan por trabajo y se publican en
+ * Micrometer con la etiqueta "trabajo". El resto de líneas (el log de FFmpeg)
+ * solo se guarda en un buffer circular por trabajo, que se vuelca al log
+ * cuando FFmpeg falla y se consulta en /actuator/ffmpeg.
+ */
+@Service
+public class FFmpegTelemetryService implements MeterBinder {
+
+    /**
+     * Opciones de FFmpeg para escribir el progreso en su salida estándar
+     */
+    public static final List<String> OPCIONES_PROGRESO = List.of("-progress", "pipe:1", "-nostats");
+
+    /**
+     * Velocidad por debajo de la cual un proceso en tiempo real se está
+     * quedando atrás (con margen para las oscilaciones de la medida)
+     */
+    static final double VELOCIDAD_MINIMA = 0.95;
+
+    /**
+     * Estado de un proceso FFmpeg. Lo escribe el hilo que lee la salida del
+     * proceso y lo leen las métricas y el endpoint.
+     */
+    public static final class Trabajo {
+        private final String etiqueta;
+        private final boolean tiempoReal;
+        private final Instant inicio = Instant.now();
+        private final int maxLineas;
+        private final ArrayDeque<String> lineas;
+
+        private volatile long frame;
+        private volatile double fps;
+        private volatile double speed;
+        private volatile double bitrate;
+        private volatile long outTimeUs;
+        private volatile long dropFrames;
+        private volatile long dupFrames;
+        private volatile boolean terminado;
+
+        private Trabajo(String etiqueta, boolean tiempoReal, int maxLineas) {
+            this.etiqueta = etiqueta;
+            this.tiempoReal = tiempoReal;
+            this.maxLineas = maxLineas;
+            this.lineas = new ArrayDeque<>(Math.min(maxLineas, 64));
+        }
+
+        /**
+         * Función para procesar una línea de la salida de FFmpeg: las de
+         * progreso actualizan las métricas y el resto va al buffer circular
+         *
+         * @param linea String con la línea
+         */
+        public void procesarLinea(String linea) {
+            int igual = linea.indexOf('=');
+            if (igual > 0 && this.procesarProgreso(linea.substring(0, igual), linea.substring(igual + 1).trim())) {
+                return;
+            }
+            if (this.maxLineas <= 0) {
+                return;
+            }
+            synchronized (this.lineas) {
+                if (this.lineas.size() >= this.maxLineas) {
+                    this.lineas.pollFirst();
+                }
+                this.lineas.addLast(linea);
+            }
+        }
+
+        /**
+         * Función para obtener las últimas líneas del log de FFmpeg
+         *
+         * @return List<String> con las líneas, de la más antigua a la más nueva
+         */
+        public List<String> getUltimasLineas() {
+            synchronized (this.lineas) {
+                return new ArrayList<>(this.lineas);
+            }
+        }
+
+        public String getEtiqueta() {
+            return this.etiqueta;
+        }
+
+        public double getFps() {
+            return this.fps;
+        }
+
+        public double getSpeed() {
+            return this.speed;
+        }
+
+        public double getBitrate() {
+            return this.bitrate;
+        }
+
+        public double getOutTimeSegundos() {
+            return this.outTimeUs / 1_000_000.0;
+        }
+
+        public long getDropFrames() {
+            return this.dropFrames;
+        }
+
+        public boolean isTerminado() {
+            return this.terminado;
+        }
+
+        /**
+         * Función para saber si un proceso en tiempo real no da abasto
+         *
+         * @return boolean true si ya ha medido una velocidad menor que
+         *         VELOCIDAD_MINIMA
+         */
+        public boolean isRetrasado() {
+            return this.tiempoReal && !this.terminado && this.speed > 0 && this.speed < VELOCIDAD_MINIMA;
+        }
+
+        /**
+         * Función para obtener el resumen del trabajo para el endpoint
+         *
+         * @return Map con el progreso del trabajo
+         */
+        public Map<String, Object> resumen() {
+            Map<String, Object> resumen = new LinkedHashMap<>();
+            resumen.put("trabajo", this.etiqueta);
+            resumen.put("tiempoReal", this.tiempoReal);
+            resumen.put("inicio", this.inicio);
+            resumen.put("frame", this.frame);
+            resumen.put("fps", this.fps);
+            resumen.put("speed", this.speed);
+            resumen.put("bitrateKbps", this.bitrate);
+            resumen.put("outTime", this.getOutTimeSegundos());
+            resumen.put("dropFrames", this.dropFrames);
+            resumen.put("dupFrames", this.dupFrames);
+            resumen.put("terminado", this.terminado);
+            return resumen;
+        }
+
+        /**
+         * Función para guardar un valor de progreso
+         *
+         * @param clave String con la clave
+         * @param valor String con el valor ("N/A" si FFmpeg aún no lo conoce)
+         * @return boolean false si no es una clave de progreso
+         */
+        private boolean procesarProgreso(String clave, String valor) {
+            switch (clave) {
+                case "frame" -> this.frame = (long) numero(valor, this.frame);
+                case "fps" -> this.fps = numero(valor, this.fps);
+                case "speed" -> this.speed = numero(valor.replace("x", ""), this.speed);
+                case "bitrate" -> this.bitrate = numero(valor.replace("kbits/s", ""), this.bitrate);
+                case "out_time_us" -> this.outTimeUs = (long) numero(valor, this.outTimeUs);
+                case "drop_frames" -> this.dropFrames = (long) numero(valor, this.dropFrames);
+                case "dup_frames" -> this.dupFrames = (long) numero(valor, this.dupFrames);
+                case "progress" -> this.terminado = "end".equals(valor);
+                case "out_time", "out_time_ms", "total_size" -> {
+                    // Ya se guarda out_time_us
+                }
+                default -> {
+                    // Valores por calidad (stream_0_0_q...) y líneas del log
+                    return clave.startsWith("stream_") && clave.indexOf(' ') < 0;
+                }
+            }
+            return true;
+        }
+
+        private static double numero(String valor, double anterior) {
+            try {
+                return Double.parseDouble(valor.trim());
+            } catch (NumberFormatException e) {
+                return anterior;
+            }
+        }
+    }
+
+    private final int maxLineas;
+    private final Map<String, Trabajo> trabajos = new ConcurrentHashMap<>();
+    private final List<MultiGauge> gauges = new ArrayList<>();
+    private final List<ToDoubleFunction<Trabajo>> valores = new ArrayList<>();
+
+    /**
+     * Constructor de FFmpegTelemetryService
+     *
+     * @param maxLineas Número de líneas del log de FFmpeg que se guardan por
+     *                  trabajo
+     */
+    public FFmpegTelemetryService(@Value("${streaming.ffmpeg.log-lines:200}") int maxLineas) {
+        this.maxLineas = maxLineas;
+    }
+
+    /**
+     * Función para empezar a seguir un proceso FFmpeg
+     *
+     * @param etiqueta String con lo que convierte el proceso
+     * @return Trabajo al que pasar las líneas de la salida del proceso
+     */
+    public Trabajo iniciar(String etiqueta) {
+        return this.iniciar(etiqueta, false);
+    }
+
+    /**
+     * Función para empezar a seguir un proceso FFmpeg
+     *
+     * @param etiqueta   String con lo que convierte el proceso
+     * @param tiempoReal Booleano con si el proceso tiene que ir al ritmo de la
+     *                   entrada (directos)
+     * @return Trabajo al que pasar las líneas de la salida del proceso
+     */
+    public Trabajo iniciar(String etiqueta, boolean tiempoReal) {
+        Trabajo trabajo = new Trabajo(etiqueta, tiempoReal, this.maxLineas);
+        this.trabajos.put(etiqueta, trabajo);
+        this.actualizarGauges();
+        return trabajo;
+    }
+
+    /**
+     * Función para dejar de seguir un proceso FFmpeg
+     *
+     * @param trabajo Trabajo del proceso
+     */
+    public void finalizar(Trabajo trabajo) {
+        this.trabajos.remove(trabajo.getEtiqueta(), trabajo);
+        this.actualizarGauges();
+    }
+
+    /**
+     * Función para obtener el progreso de los procesos en curso
+     *
+     * @return List<Map<String, Object>> con el resumen de cada proceso
+     */
+    public List<Map<String, Object>> getTrabajos() {
+        return this.trabajos.values().stream().map(Trabajo::resumen).toList();
+    }
+
+    /**
+     * Función para saber si algún proceso en tiempo real se está quedando
+     * atrás, es decir, si los codificadores de la máquina están saturados
+     *
+     * @return boolean true si algún directo va más lento que la entrada
+     */
+    public boolean hayRetrasados() {
+        return this.trabajos.values().stream().anyMatch(Trabajo::isRetrasado);
+    }
+
+    /**
+     * Función para obtener las últimas líneas del log de un proceso en curso
+     *
+     * @param etiqueta String con lo que convierte el proceso
+     * @return List<String> con las líneas, o null si no hay tal proceso
+     */
+    public List<String> getLineas(String etiqueta) {
+        Trabajo trabajo = this.trabajos.get(etiqueta);
+        return trabajo != null ? trabajo.getUltimasLineas() : null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        synchronized (this.gauges) {
+            this.registrar(registry, "streaming.ffmpeg.fps", "Fotogramas por segundo de cada FFmpeg", null,
+                    Trabajo::getFps);
+            this.registrar(registry, "streaming.ffmpeg.speed", "Velocidad de cada FFmpeg respecto al tiempo real",
+                    null, Trabajo::getSpeed);
+            this.registrar(registry, "streaming.ffmpeg.bitrate", "Bitrate de salida de cada FFmpeg", "kilobits",
+                    Trabajo::getBitrate);
+            this.registrar(registry, "streaming.ffmpeg.out.time", "Tiempo de video ya escrito por cada FFmpeg",
+                    "seconds", Trabajo::getOutTimeSegundos);
+            this.registrar(registry, "streaming.ffmpeg.dropped.frames", "Fotogramas descartados por cada FFmpeg",
+                    "frames", Trabajo::getDropFrames);
+        }
+        Gauge.builder("streaming.ffmpeg.active", this.trabajos, Map::size)
+                .description("Procesos FFmpeg en curso")
+                .register(registry);
+        this.actualizarGauges();
+    }
+
+    private void registrar(MeterRegistry registry, String nombre, String descripcion, String unidad,
+            ToDoubleFunction<Trabajo> valor) {
+        MultiGauge.Builder builder = MultiGauge.builder(nombre).description(descripcion);
+        if (unidad != null) {
+            builder.baseUnit(unidad);
+        }
+        this.gauges.add(builder.register(registry));
+        this.valores.add(valor);
+    }
+
+    /**
+     * Función para publicar una fila por proceso en curso en cada métrica
+     */
+    private void actualizarGauges() {
+        synchronized (this.gauges) {
+            for (int i = 0; i < this.gauges.size(); i++) {
+                ToDoubleFunction<Trabajo> valor = this.valores.get(i);
+                List<MultiGauge.Row<?>> filas = new ArrayList<>();
+                for (Trabajo trabajo : this.trabajos.values()) {
+                    filas.add(MultiGauge.Row.of(Tags.of("trabajo", trabajo.getEtiqueta()), trabajo, valor));
+                }
+                this.gauges.get(i).register(filas, true);
+            }
+        }
+    }
+}
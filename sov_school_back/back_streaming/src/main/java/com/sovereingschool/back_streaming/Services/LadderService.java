@@ -0,0 +1,220 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sovereingschool.back_streaming.Models.Rendition;
+import com.sovereingschool.back_streaming.Models.ResolutionProfile;
+
+/**
+ * Motor de la escalera de calidades.
+ * De cada video se convierte un número acotado de calidades, separadas al
+ * menos un factor de píxeles entre sí, y con las tasas de bits recortadas
+ * según la complejidad del video: una clase con diapositivas necesita menos
+ * calidades y menos bits que una grabación con mucho movimiento.
+ */
+@Service
+public class LadderService {
+
+    /** Factor mínimo de las tasas de bits para los videos más simples */
+    public static final double COMPLEJIDAD_MINIMA = 0.4;
+
+    // Por encima de 60 fps se pasa de los límites de H.264 en 4K y no aporta
+    // nada en una clase
+    private static final int FPS_MAXIMO = 60;
+    // Las calidades pequeñas se quedan en 30 fps
+    private static final int ALTURA_MINIMA_FPS_ALTOS = 720;
+    private static final int FPS_BASE = 30;
+
+    private static final Pattern TAMANO_VIDEO = Pattern.compile("video:\\s*(\\d+)\\s*(?:kB|KiB)");
+    // Tiempo codificado que escribe -progress, en microsegundos
+    private static final Pattern TIEMPO_CODIFICADO = Pattern.compile("^out_time_us=(\\d+)");
+
+    private final int maxCalidades;
+    private final double separacionMinima;
+    private final int segundosAnalisis;
+    private final int kbpsReferencia;
+
+    private Logger logger = LoggerFactory.getLogger(LadderService.class);
+
+    /**
+     * Constructor de LadderService
+     *
+     * @param maxCalidades     Número máximo de calidades por video
+     * @param separacionMinima Factor mínimo de píxeles entre dos calidades
+     *                         seguidas para un video de complejidad máxima
+     * @param segundosAnalisis Segundos del video que se codifican para medir su
+     *                         complejidad (0 = no se analiza)
+     * @param kbpsReferencia   kbps del análisis a partir de los cuales el video
+     *                         usa las tasas completas de los perfiles
+     */
+    public LadderService(
+            @Value("${streaming.ladder.max-renditions:4}") int maxCalidades,
+            @Value("${streaming.ladder.min-spacing:1.75}") double separacionMinima,
+            @Value("${streaming.ladder.analysis-seconds:10}") int segundosAnalisis,
+            @Value("${streaming.ladder.reference-kbps:1200}") int kbpsReferencia) {
+        this.maxCalidades = Math.max(1, maxCalidades);
+        this.separacionMinima = Math.max(1.0, separacionMinima);
+        this.segundosAnalisis = segundosAnalisis;
+        this.kbpsReferencia = kbpsReferencia;
+    }
+
+    /**
+     * Función para seleccionar las calidades de un video.
+     * La primera calidad es la mayor que cabe en el video; las siguientes se
+     * añaden si tienen al menos separacionMinima / complejidad veces menos
+     * píxeles que la anterior, hasta llegar a maxCalidades.
+     *
+     * @param width       Integer con el ancho del video
+     * @param height      Integer con el alto del video
+     * @param fps         Integer con los fps del video
+     * @param complejidad double entre COMPLEJIDAD_MINIMA y 1 con la
+     *                    complejidad del video
+     * @return List<Rendition> con las calidades, de mayor a menor
+     */
+    public List<Rendition> seleccionar(int width, int height, int fps, double complejidad) {
+        double factor = acotar(complejidad);
+        double separacion = this.separacionMinima / factor;
+        int pixeles = width * height;
+
+        // Una entrada por resolución del catálogo, de mayor a menor
+        List<ResolutionProfile> resoluciones = Arrays.stream(ResolutionProfile.values())
+                .filter(r -> r.getFps() == FPS_BASE)
+                .sorted(Comparator.comparingInt((ResolutionProfile r) -> r.getWidth() * r.getHeight()).reversed())
+                .toList();
+        List<ResolutionProfile> caben = resoluciones.stream()
+                .filter(r -> r.getWidth() * r.getHeight() <= pixeles)
+                .toList();
+        if (caben.isEmpty()) {
+            // Video más pequeño que la menor calidad: se convierte solo a esa
+            caben = List.of(resoluciones.get(resoluciones.size() - 1));
+        }
+
+        List<ResolutionProfile> escalera = new ArrayList<>();
+        for (ResolutionProfile r : caben) {
+            if (escalera.size() >= this.maxCalidades) {
+                break;
+            }
+            if (escalera.isEmpty() || pixeles(escalera.get(escalera.size() - 1)) >= separacion * pixeles(r)) {
+                escalera.add(r);
+            }
+        }
+
+        List<Rendition> calidades = escalera.stream()
+                .map(r -> Rendition.de(this.conFps(r, fps), factor))
+                .toList();
+        if (logger.isInfoEnabled()) {
+            logger.info("Escalera para {}x{}@{} (complejidad {}): {}", width, height, fps,
+                    String.format(Locale.ROOT, "%.2f", factor),
+                    calidades.stream().map(c -> c.getWidth() + "x" + c.getHeight() + "@" + c.getFps()
+                            + " " + c.getBitrate()).toList());
+        }
+        return calidades;
+    }
+
+    /**
+     * Función para medir la complejidad de un video.
+     * Codifica unos segundos del centro del video a 360p con CRF fijo: cuantos
+     * más bits necesita, más complejo es el video. Los kbps se calculan con el
+     * tiempo que FFmpeg ha codificado de verdad, que puede ser menor si el
+     * video termina antes.
+     *
+     * @param inputFilePath String con la ruta del video
+     * @param duracion      double con la duración del video en segundos (0 si
+     *                      no se conoce: se analiza el principio)
+     * @return double entre COMPLEJIDAD_MINIMA y 1; 1 si no se puede analizar
+     */
+    public double analizarComplejidad(String inputFilePath, double duracion) {
+        if (this.segundosAnalisis <= 0) {
+            return 1.0;
+        }
+        // El principio suele ser una portada
+        double inicio = duracion > 2.0 * this.segundosAnalisis ? (duracion - this.segundosAnalisis) / 2 : 0;
+        double segundos = duracion > 0 ? Math.min(this.segundosAnalisis, duracion) : this.segundosAnalisis;
+
+        ProcessBuilder processBuilder = new ProcessBuilder("ffmpeg", "-hide_banner", "-nostats",
+                "-ss", String.format(Locale.ROOT, "%.3f", inicio),
+                "-t", String.format(Locale.ROOT, "%.3f", segundos),
+                "-i", inputFilePath,
+                "-an", "-vf", "scale=-2:360,fps=" + FPS_BASE,
+                "-c:v", "libx264", "-preset", "ultrafast", "-crf", "23",
+                "-progress", "pipe:1",
+                "-f", "null", "-");
+        processBuilder.redirectErrorStream(true);
+        try {
+            Process process = processBuilder.start();
+            long kb = -1;
+            long microsegundos = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = TAMANO_VIDEO.matcher(line);
+                    if (matcher.find()) {
+                        kb = Long.parseLong(matcher.group(1));
+                    }
+                    Matcher tiempo = TIEMPO_CODIFICADO.matcher(line);
+                    if (tiempo.find()) {
+                        microsegundos = Long.parseLong(tiempo.group(1));
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || kb < 0) {
+                logger.warn("No se pudo analizar la complejidad de {}", inputFilePath);
+                return 1.0;
+            }
+            double codificados = microsegundos > 0 ? microsegundos / 1_000_000.0 : segundos;
+            double kbps = kb * 8.192 / codificados;
+            double complejidad = acotar(kbps / this.kbpsReferencia);
+            logger.info("Complejidad de {}: {} kbps a 360p -> {}", inputFilePath, Math.round(kbps),
+                    String.format(Locale.ROOT, "%.2f", complejidad));
+            return complejidad;
+        } catch (IOException e) {
+            logger.warn("No se pudo analizar la complejidad de {}: {}", inputFilePath, e.getMessage());
+            return 1.0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1.0;
+        }
+    }
+
+    /**
+     * Función para obtener el perfil de una resolución con los fps del video.
+     * Solo las calidades de 720p o más mantienen los fps altos.
+     *
+     * @param base ResolutionProfile de la resolución a 30 fps
+     * @param fps  Integer con los fps del video
+     * @return ResolutionProfile con la misma resolución y los fps adecuados
+     */
+    private ResolutionProfile conFps(ResolutionProfile base, int fps) {
+        if (base.getHeight() < ALTURA_MINIMA_FPS_ALTOS || fps <= FPS_BASE) {
+            return base;
+        }
+        int limite = Math.min(fps, FPS_MAXIMO);
+        return Arrays.stream(ResolutionProfile.values())
+                .filter(r -> r.getWidth() == base.getWidth() && r.getHeight() == base.getHeight()
+                        && r.getFps() <= limite)
+                .max(Comparator.comparingInt(ResolutionProfile::getFps))
+                .orElse(base);
+    }
+
+    private static int pixeles(ResolutionProfile r) {
+        return r.getWidth() * r.getHeight();
+    }
+
+    private static double acotar(double complejidad) {
+        return Math.clamp(complejidad, COMPLEJIDAD_MINIMA, 1.0);
+    }
+}
@@ -0,0 +1,295 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Anillo en memoria con los últimos segmentos de cada calidad de los
+ * directos.
+ * FFmpeg escribe cada segmento con un nombre temporal y lo renombra al
+ * terminarlo; el WatchService de PlaylistCacheService avisa del renombrado y
+ * el segmento se copia a memoria en ese momento, en unos pocos hilos propios
+ * para no frenar al hilo que vigila las carpetas, así que los alumnos del
+ * directo no leen de disco. Los ficheros en disco quedan para el video
+ * grabado.
+ */
+@Service
+public class LiveSegmentService implements MeterBinder {
+
+    private final PlaylistCacheService playlistCacheService;
+    private final int maxSegmentos;
+    private final long maxSegmentBytes;
+
+    private final Set<Path> directos = ConcurrentHashMap.newKeySet();
+    private final Map<Path, Map<String, ByteBuffer>> anillos = new ConcurrentHashMap<>();
+    private final AtomicLong bytesUsados = new AtomicLong();
+    private final ExecutorService copias;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder capturados = new LongAdder();
+
+    private Logger logger = LoggerFactory.getLogger(LiveSegmentService.class);
+
+    /**
+     * Constructor de LiveSegmentService
+     *
+     * @param playlistCacheService Caché de listas HLS, que avisa de los
+     *                             ficheros nuevos
+     * @param maxSegmentos         Número de segmentos que se guardan por
+     *                             calidad (0 = sin anillo)
+     * @param maxSegmentBytes      Tamaño máximo de un segmento para guardarlo
+     * @param hilosCopia           Hilos que copian los segmentos a memoria
+     */
+    public LiveSegmentService(PlaylistCacheService playlistCacheService,
+            @Value("${streaming.live.ring-segments:30}") int maxSegmentos,
+            @Value("${streaming.segment-cache.max-segment-bytes:8388608}") long maxSegmentBytes,
+            @Value("${streaming.live.ring-copy-threads:2}") int hilosCopia) {
+        this.playlistCacheService = playlistCacheService;
+        this.maxSegmentos = maxSegmentos;
+        this.maxSegmentBytes = maxSegmentBytes;
+        AtomicInteger contador = new AtomicInteger();
+        this.copias = Executors.newFixedThreadPool(Math.max(1, hilosCopia), r -> {
+            Thread thread = new Thread(r, "LiveSegmentCopy-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Función para recibir los ficheros nuevos de las carpetas vigiladas
+     */
+    @PostConstruct
+    public void init() {
+        this.playlistCacheService.observarFicheros(this::capturar);
+    }
+
+    /**
+     * Función para parar los hilos de copia
+     */
+    @PreDestroy
+    public void destroy() {
+        this.copias.shutdownNow();
+    }
+
+    /**
+     * Función para empezar a guardar los segmentos de un directo.
+     * FFmpeg crea las carpetas de las calidades después, así que se vigila la
+     * carpeta de la clase para registrarlas en cuanto aparecen.
+     *
+     * @param carpeta Path de la carpeta de la clase
+     */
+    public void iniciar(Path carpeta) {
+        if (this.maxSegmentos <= 0) {
+            return;
+        }
+        Path key = carpeta.toAbsolutePath().normalize();
+        this.directos.add(key);
+        this.playlistCacheService.vigilarCarpeta(key);
+        // Calidades de una emisión anterior de la misma clase (append_list)
+        try (Stream<Path> hijos = Files.list(key)) {
+            hijos.filter(Files::isDirectory).forEach(this.playlistCacheService::vigilarCarpeta);
+        } catch (IOException e) {
+            logger.warn("No se pueden listar las calidades de {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Función para dejar de guardar los segmentos de un directo y liberar su
+     * memoria
+     *
+     * @param carpeta Path de la carpeta de la clase
+     */
+    public void finalizar(Path carpeta) {
+        Path key = carpeta.toAbsolutePath().normalize();
+        this.directos.remove(key);
+        this.anillos.keySet().removeIf(variante -> {
+            if (!key.equals(variante.getParent())) {
+                return false;
+            }
+            Map<String, ByteBuffer> anillo = this.anillos.get(variante);
+            if (anillo != null) {
+                synchronized (anillo) {
+                    anillo.values().forEach(datos -> this.bytesUsados.addAndGet(-datos.capacity()));
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Función para obtener un segmento de un directo
+     *
+     * @param path Path del segmento
+     * @return ByteBuffer de solo lectura con el segmento, o null si no está en
+     *         memoria
+     */
+    public ByteBuffer obtener(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Map<String, ByteBuffer> anillo = key.getParent() != null ? this.anillos.get(key.getParent()) : null;
+        if (anillo == null) {
+            return null;
+        }
+        ByteBuffer datos = anillo.get(key.getFileName().toString());
+        if (datos == null) {
+            return null;
+        }
+        this.hits.increment();
+        return datos.duplicate();
+    }
+
+    /**
+     * Función para obtener los bytes ocupados por los anillos
+     *
+     * @return long con los bytes ocupados
+     */
+    public long getBytesUsados() {
+        return this.bytesUsados.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("streaming.live.ring.hits", this.hits, LongAdder::sum)
+                .description("Segmentos de directo servidos desde memoria")
+                .register(registry);
+        FunctionCounter.builder("streaming.live.ring.captured", this.capturados, LongAdder::sum)
+                .description("Segmentos de directo copiados a memoria al escribirse")
+                .register(registry);
+        Gauge.builder("streaming.live.ring.bytes", this, LiveSegmentService::getBytesUsados)
+                .description("Bytes fuera del heap ocupados por los segmentos de directo")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Función para recibir un fichero nuevo de las carpetas vigiladas.
+     * Se ejecuta en el hilo que vigila las carpetas, así que solo decide si es
+     * un segmento de un directo y deja la copia a los hilos de copia, que lo
+     * leen justo después del renombrado, con el segmento aún en la caché de
+     * páginas.
+     *
+     * @param fichero Path del fichero creado
+     */
+    protected void capturar(Path fichero) {
+        Path carpeta = fichero.getParent();
+        if (carpeta == null) {
+            return;
+        }
+        if (this.directos.contains(carpeta)) {
+            // Nueva calidad del directo
+            if (Files.isDirectory(fichero)) {
+                this.playlistCacheService.vigilarCarpeta(fichero);
+            }
+            return;
+        }
+        String nombre = fichero.getFileName().toString();
+        if (!this.directos.contains(carpeta.getParent()) || !esSegmento(nombre)) {
+            return;
+        }
+        try {
+            this.copias.execute(() -> this.copiar(fichero, carpeta, nombre));
+        } catch (RejectedExecutionException e) {
+            // Apagando: el segmento se sirve desde disco
+        }
+    }
+
+    /**
+     * Función para copiar a memoria un segmento de un directo
+     *
+     * @param fichero Path del segmento
+     * @param carpeta Path de la carpeta de la calidad
+     * @param nombre  String con el nombre del segmento
+     */
+    protected void copiar(Path fichero, Path carpeta, String nombre) {
+        try {
+            long size = Files.size(fichero);
+            if (size == 0 || size > this.maxSegmentBytes) {
+                return;
+            }
+            ByteBuffer datos = leer(fichero, size);
+            // El directo ha podido terminar mientras se leía
+            if (datos == null || !this.directos.contains(carpeta.getParent())) {
+                return;
+            }
+            Map<String, ByteBuffer> anillo = this.anillos.computeIfAbsent(carpeta, c -> this.nuevoAnillo());
+            ByteBuffer anterior = anillo.put(nombre, datos);
+            this.bytesUsados.addAndGet(size - (anterior != null ? anterior.capacity() : 0));
+            this.capturados.increment();
+        } catch (IOException e) {
+            // Si no se puede leer se sirve desde disco
+            logger.debug("No se pudo copiar a memoria el segmento {}: {}", fichero, e.getMessage());
+        }
+    }
+
+    /**
+     * Función para crear el anillo de una calidad: al entrar un segmento nuevo
+     * se descarta el más antiguo
+     *
+     * @return Map<String, ByteBuffer> sincronizado con los segmentos por nombre
+     */
+    private Map<String, ByteBuffer> nuevoAnillo() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(this.maxSegmentos * 2, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ByteBuffer> eldest) {
+                if (size() > maxSegmentos) {
+                    bytesUsados.addAndGet(-eldest.getValue().capacity());
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Función para leer un segmento a un buffer fuera del heap
+     *
+     * @param path Path del segmento
+     * @param size long con el tamaño del segmento
+     * @return ByteBuffer de solo lectura, o null si el fichero ha cambiado
+     *         mientras se leía
+     * @throws IOException
+     */
+    private static ByteBuffer leer(Path path, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static boolean esSegmento(String nombre) {
+        return nombre.endsWith(".ts") || nombre.endsWith(".m4s") || nombre.endsWith(".mp4");
+    }
+}
@@ -0,0 +1,494 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sovereingschool.back_streaming.Utils.HlsStitcher;
+
+/**
+ * Servicio de Low-Latency HLS para los directos.
+ * FFmpeg no escribe partes (EXT-X-PART), así que en los directos se le pide
+ * una lista de segmentos fMP4 muy cortos (las partes) y este servicio la
+ * convierte en una lista LL-HLS: cada SEGUNDOS_SEGMENTO de partes forman un
+ * segmento, cuyo fichero se sirve uniendo sus partes, los últimos segmentos
+ * listan sus partes y la lista termina con la pista de la próxima parte.
+ */
+@Service
+public class LlHlsService {
+
+    /** Parámetro de las URIs de las partes: la petición espera a que exista */
+    public static final String PARAMETRO_ESPERA = "espera";
+    /** Duración de los segmentos completos del directo */
+    public static final int SEGUNDOS_SEGMENTO = 2;
+    /** Nombre de los ficheros de las partes que escribe FFmpeg */
+    public static final String FORMATO_PARTE = "part%05d.m4s";
+
+    private static final Pattern PARTE = Pattern.compile("part(\\d{5})\\.m4s");
+    private static final Pattern SEGMENTO = Pattern.compile("part(\\d{5})-(\\d{5})\\.m4s");
+    private static final String EXTINF = "#EXTINF:";
+    private static final String FECHA = "#EXT-X-PROGRAM-DATE-TIME:";
+    // Solo los últimos segmentos listan sus partes
+    private static final int SEGMENTOS_CON_PARTES = 3;
+    private static final int MAX_PARTES_SEGMENTO = 64;
+    private static final int MAX_LISTAS = 256;
+
+    /**
+     * Parte escrita por FFmpeg
+     */
+    private record Parte(int numero, double duracion, String fecha) {
+    }
+
+    /**
+     * Lista de partes de FFmpeg
+     */
+    private record Lista(String map, String tipo, List<Parte> partes, boolean fin) {
+    }
+
+    /**
+     * Lista LL-HLS generada a partir de una lista de FFmpeg
+     */
+    private record Generada(byte[] origen, Lista lista, byte[] contenido) {
+    }
+
+    private final PlaylistCacheService playlistCacheService;
+    private final LiveSegmentService liveSegmentService;
+    private final double duracionParte;
+    private final int partesPorSegmento;
+    private final Map<Path, Generada> generadas = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor de LlHlsService
+     *
+     * @param playlistCacheService Caché de listas HLS
+     * @param liveSegmentService   Anillo en memoria de los segmentos de directo
+     * @param duracionParte        Segundos de cada parte (0 = los directos usan
+     *                             HLS normal)
+     */
+    public LlHlsService(PlaylistCacheService playlistCacheService, LiveSegmentService liveSegmentService,
+            @Value("${streaming.live.ll-hls.part-seconds:0}") double duracionParte) {
+        this.playlistCacheService = playlistCacheService;
+        this.liveSegmentService = liveSegmentService;
+        this.duracionParte = duracionParte > 0 ? Math.min(duracionParte, SEGUNDOS_SEGMENTO) : 0;
+        this.partesPorSegmento = this.duracionParte > 0
+                ? Math.max(1, (int) Math.round(SEGUNDOS_SEGMENTO / this.duracionParte))
+                : 1;
+    }
+
+    /**
+     * Función para saber si los directos usan LL-HLS
+     *
+     * @return boolean true si FFmpeg tiene que escribir partes
+     */
+    public boolean isActivo() {
+        return this.duracionParte > 0;
+    }
+
+    /**
+     * Función para obtener la duración de las partes
+     *
+     * @return double con los segundos de cada parte
+     */
+    public double getDuracionParte() {
+        return this.duracionParte;
+    }
+
+    /**
+     * Función para obtener el tiempo máximo de una recarga bloqueante: tres
+     * veces la duración de un segmento
+     *
+     * @return long con los milisegundos
+     */
+    public long getEsperaMaxima() {
+        return 3L * SEGUNDOS_SEGMENTO * 1000;
+    }
+
+    /**
+     * Función para obtener una lista HLS.
+     * Las listas de partes de los directos se entregan como LL-HLS; el resto
+     * tal como están en la caché de listas.
+     *
+     * @param path Path de la lista
+     * @return byte[] con la lista, o null si no existe
+     */
+    public byte[] obtenerPlaylist(Path path) {
+        Generada generada = this.generada(path);
+        return generada != null ? generada.contenido() : null;
+    }
+
+    /**
+     * Función para saber si una lista ya tiene la parte pedida en una recarga
+     * bloqueante (_HLS_msn y _HLS_part)
+     *
+     * @param path  Path de la lista
+     * @param msn   long con el número del segmento
+     * @param parte int con la parte dentro del segmento (-1 = el segmento
+     *              completo)
+     * @return boolean true si la lista ya se puede entregar
+     */
+    public boolean disponible(Path path, long msn, int parte) {
+        Generada generada = this.generada(path);
+        if (generada == null) {
+            return false;
+        }
+        Lista lista = generada.lista();
+        if (lista == null || lista.fin()) {
+            return true;
+        }
+        int completos = lista.partes().size() / this.partesPorSegmento;
+        if (msn < completos) {
+            return true;
+        }
+        int pendientes = lista.partes().size() - completos * this.partesPorSegmento;
+        return msn == completos && parte >= 0 && parte < pendientes;
+    }
+
+    /**
+     * Función para saber si una recarga bloqueante pide un segmento más de dos
+     * por delante del último de la lista. LL-HLS obliga a responder a esas
+     * peticiones con un 400 en lugar de esperar.
+     *
+     * @param path Path de la lista
+     * @param msn  long con el número del segmento (_HLS_msn)
+     * @return boolean true si el segmento está demasiado lejos
+     */
+    public boolean demasiadoAdelantado(Path path, long msn) {
+        Generada generada = this.generada(path);
+        if (generada == null || generada.lista() == null || generada.lista().fin()) {
+            return false;
+        }
+        // El último segmento es el que se está escribiendo, si ya tiene partes
+        long ultimo = (generada.lista().partes().size() + this.partesPorSegmento - 1) / this.partesPorSegmento
+                - 1L;
+        return msn > ultimo + 2;
+    }
+
+    /**
+     * Función para recibir un aviso cuando FFmpeg escriba en una carpeta
+     *
+     * @param carpeta Path de la carpeta de la calidad
+     * @param aviso   Runnable a ejecutar con el próximo cambio
+     * @return boolean false si la carpeta no se puede vigilar
+     */
+    public boolean esperarCambio(Path carpeta, Runnable aviso) {
+        return this.playlistCacheService.avisarCambio(carpeta, aviso);
+    }
+
+    /**
+     * Función para leer un segmento de un directo uniendo sus partes.
+     * Las partes se toman del anillo en memoria y solo se leen de disco las que
+     * ya no están.
+     *
+     * @param carpeta Path de la carpeta de la calidad
+     * @param nombre  String con el nombre del segmento (partNNNNN-MMMMM.m4s)
+     * @return byte[] con el segmento, o null si no es un segmento de partes o
+     *         falta alguna
+     * @throws IOException
+     */
+    public byte[] leerSegmento(Path carpeta, String nombre) throws IOException {
+        Matcher matcher = SEGMENTO.matcher(nombre);
+        if (!matcher.matches()) {
+            return null;
+        }
+        int primera = Integer.parseInt(matcher.group(1));
+        int ultima = Integer.parseInt(matcher.group(2));
+        if (ultima < primera || ultima - primera >= MAX_PARTES_SEGMENTO) {
+            return null;
+        }
+        ByteArrayOutputStream segmento = new ByteArrayOutputStream();
+        for (int i = primera; i <= ultima; i++) {
+            Path parte = carpeta.resolve(String.format(FORMATO_PARTE, i));
+            ByteBuffer enMemoria = this.liveSegmentService.obtener(parte);
+            if (enMemoria != null) {
+                byte[] datos = new byte[enMemoria.remaining()];
+                enMemoria.get(datos);
+                segmento.write(datos);
+                continue;
+            }
+            try {
+                segmento.write(Files.readAllBytes(parte));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+        return segmento.toByteArray();
+    }
+
+    /**
+     * Función para cerrar la grabación de un directo LL-HLS.
+     * Al terminar el directo la clase queda como un video normal: las partes
+     * de cada segmento se unen en un fichero (dataNNNNN.m4s) y la lista de
+     * cada calidad se reescribe como lista VOD, de modo que los reproductores
+     * y el progreso cuentan segmentos de SEGUNDOS_SEGMENTO y no partes.
+     *
+     * @param carpeta Path de la carpeta de la clase
+     * @return int con el número de calidades cerradas
+     * @throws IOException Si no se puede leer o escribir alguna calidad
+     */
+    public int cerrarGrabacion(Path carpeta) throws IOException {
+        int cerradas = 0;
+        List<Path> calidades;
+        try (Stream<Path> hijos = Files.list(carpeta)) {
+            calidades = hijos.filter(hijo -> Files.isRegularFile(hijo.resolve(HlsStitcher.PLAYLIST))).toList();
+        }
+        for (Path calidad : calidades) {
+            Path stream = calidad.resolve(HlsStitcher.PLAYLIST);
+            Lista lista = leer(Files.readAllBytes(stream));
+            if (lista == null) {
+                continue;
+            }
+            this.escribirGrabacion(calidad, lista);
+            this.generadas.remove(stream.toAbsolutePath().normalize());
+            cerradas++;
+        }
+        return cerradas;
+    }
+
+    /**
+     * Función para escribir los segmentos y la lista VOD de una calidad y
+     * borrar sus partes
+     *
+     * @param calidad Path de la carpeta de la calidad
+     * @param lista   Lista con las partes de FFmpeg
+     * @throws IOException
+     */
+    private void escribirGrabacion(Path calidad, Lista lista) throws IOException {
+        List<Parte> partes = lista.partes();
+        int k = this.partesPorSegmento;
+        double maxSegmento = 0;
+        StringBuilder cuerpo = new StringBuilder(4096);
+        for (int s = 0; s * k < partes.size(); s++) {
+            List<Parte> grupo = partes.subList(s * k, Math.min(partes.size(), (s + 1) * k));
+            String nombre = String.format("data%05d.m4s", s);
+            double total = 0;
+            try (OutputStream salida = Files.newOutputStream(calidad.resolve(nombre))) {
+                for (Parte parte : grupo) {
+                    Files.copy(calidad.resolve(String.format(FORMATO_PARTE, parte.numero())), salida);
+                    total += parte.duracion();
+                }
+            }
+            maxSegmento = Math.max(maxSegmento, total);
+            if (grupo.get(0).fecha() != null) {
+                cuerpo.append(grupo.get(0).fecha()).append('\n');
+            }
+            cuerpo.append(EXTINF).append(numero(total)).append(",\n").append(nombre).append('\n');
+        }
+
+        StringBuilder sb = new StringBuilder(cuerpo.length() + 256);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:7\n");
+        sb.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxSegmento)).append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        sb.append(lista.map()).append('\n');
+        sb.append(cuerpo);
+        sb.append("#EXT-X-ENDLIST\n");
+
+        // La lista nueva sustituye a la de partes de una vez
+        Path temporal = calidad.resolve(HlsStitcher.PLAYLIST + ".tmp");
+        Files.writeString(temporal, sb, StandardCharsets.UTF_8);
+        Files.move(temporal, calidad.resolve(HlsStitcher.PLAYLIST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        try (Stream<Path> ficheros = Files.list(calidad)) {
+            for (Path fichero : ficheros.toList()) {
+                if (PARTE.matcher(fichero.getFileName().toString()).matches()) {
+                    Files.deleteIfExists(fichero);
+                }
+            }
+        }
+    }
+
+    /**
+     * Función para obtener la lista generada de una lista de la caché
+     *
+     * @param path Path de la lista
+     * @return Generada con la lista, o null si no existe
+     */
+    private Generada generada(Path path) {
+        byte[] origen = this.playlistCacheService.obtenerPlaylist(path);
+        if (origen == null) {
+            return null;
+        }
+        Path key = path.toAbsolutePath().normalize();
+        Generada generada = this.generadas.get(key);
+        // La caché de listas devuelve el mismo array mientras FFmpeg no la cambia
+        if (generada != null && generada.origen() == origen) {
+            return generada;
+        }
+        Lista lista = this.isActivo() ? leer(origen) : null;
+        if (lista == null) {
+            // Lista normal (VOD o maestra): se entrega tal cual y no se guarda
+            return new Generada(origen, null, origen);
+        }
+        generada = new Generada(origen, lista, this.generar(lista));
+        if (this.generadas.size() >= MAX_LISTAS) {
+            this.generadas.clear();
+        }
+        this.generadas.put(key, generada);
+        return generada;
+    }
+
+    /**
+     * Función para leer una lista de partes de FFmpeg
+     *
+     * @param origen byte[] con la lista
+     * @return Lista con las partes, o null si no es una lista de partes
+     */
+    private static Lista leer(byte[] origen) {
+        String map = null;
+        String tipo = null;
+        String fecha = null;
+        double duracion = 0;
+        boolean fin = false;
+        List<Parte> partes = new ArrayList<>();
+        // Se lee línea a línea: las listas normales se descartan en su primera URI
+        Iterable<String> lineas = new String(origen, StandardCharsets.UTF_8).lines()::iterator;
+        for (String linea : lineas) {
+            linea = linea.strip();
+            if (linea.isEmpty()) {
+                continue;
+            }
+            if (linea.startsWith("#EXT-X-MAP:")) {
+                map = linea;
+            } else if (linea.startsWith("#EXT-X-PLAYLIST-TYPE:")) {
+                tipo = linea;
+            } else if (linea.startsWith(FECHA)) {
+                fecha = linea;
+            } else if (linea.startsWith(EXTINF)) {
+                String valor = linea.substring(EXTINF.length());
+                int coma = valor.indexOf(',');
+                duracion = Double.parseDouble(coma >= 0 ? valor.substring(0, coma) : valor);
+            } else if (linea.startsWith("#EXT-X-ENDLIST")) {
+                fin = true;
+            } else if (!linea.startsWith("#")) {
+                Matcher matcher = PARTE.matcher(linea);
+                if (!matcher.matches()) {
+                    return null;
+                }
+                partes.add(new Parte(Integer.parseInt(matcher.group(1)), duracion, fecha));
+                fecha = null;
+            }
+        }
+        if (map == null || partes.isEmpty()) {
+            return null;
+        }
+        return new Lista(map, tipo, partes, fin);
+    }
+
+    /**
+     * Función para escribir la lista LL-HLS de una lista de partes
+     *
+     * @param lista Lista con las partes de FFmpeg
+     * @return byte[] con la lista LL-HLS
+     */
+    private byte[] generar(Lista lista) {
+        List<Parte> partes = lista.partes();
+        int k = this.partesPorSegmento;
+        int completos = lista.fin() ? (partes.size() + k - 1) / k : partes.size() / k;
+
+        double maxParte = this.duracionParte;
+        double maxSegmento = SEGUNDOS_SEGMENTO;
+        for (int s = 0; s < completos; s++) {
+            double total = 0;
+            for (Parte parte : partes.subList(s * k, Math.min(partes.size(), (s + 1) * k))) {
+                total += parte.duracion();
+            }
+            maxSegmento = Math.max(maxSegmento, total);
+        }
+        for (Parte parte : partes) {
+            maxParte = Math.max(maxParte, parte.duracion());
+        }
+        double objetivoParte = Math.ceil(maxParte * 1000) / 1000;
+
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:9\n");
+        sb.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxSegmento)).append('\n');
+        sb.append("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=")
+                .append(numero(3 * objetivoParte)).append('\n');
+        sb.append("#EXT-X-PART-INF:PART-TARGET=").append(numero(objetivoParte)).append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        if (lista.tipo() != null) {
+            sb.append(lista.tipo()).append('\n');
+        }
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        sb.append(lista.map()).append('\n');
+
+        for (int s = 0; s < completos; s++) {
+            List<Parte> grupo = partes.subList(s * k, Math.min(partes.size(), (s + 1) * k));
+            if (grupo.get(0).fecha() != null) {
+                sb.append(grupo.get(0).fecha()).append('\n');
+            }
+            boolean conPartes = !lista.fin() && s >= completos - SEGMENTOS_CON_PARTES;
+            double total = 0;
+            for (int i = 0; i < grupo.size(); i++) {
+                total += grupo.get(i).duracion();
+                if (conPartes) {
+                    escribirParte(sb, grupo.get(i), i == 0);
+                }
+            }
+            sb.append(EXTINF).append(numero(total)).append(",\n");
+            sb.append(String.format("part%05d-%05d.m4s", grupo.get(0).numero(), grupo.get(grupo.size() - 1).numero()))
+                    .append('\n');
+        }
+
+        if (lista.fin()) {
+            sb.append("#EXT-X-ENDLIST\n");
+        } else {
+            List<Parte> pendientes = partes.subList(completos * k, partes.size());
+            if (!pendientes.isEmpty() && pendientes.get(0).fecha() != null) {
+                sb.append(pendientes.get(0).fecha()).append('\n');
+            }
+            for (int i = 0; i < pendientes.size(); i++) {
+                escribirParte(sb, pendientes.get(i), i == 0);
+            }
+            sb.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"")
+                    .append(uriParte(partes.get(partes.size() - 1).numero() + 1)).append("\"\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Función para escribir una parte.
+     * Solo la primera parte de cada segmento empieza con un fotograma clave.
+     *
+     * @param sb            StringBuilder con la lista
+     * @param parte         Parte a escribir
+     * @param independiente Booleano para marcar la parte como INDEPENDENT
+     */
+    private static void escribirParte(StringBuilder sb, Parte parte, boolean independiente) {
+        sb.append("#EXT-X-PART:DURATION=").append(numero(parte.duracion()))
+                .append(",URI=\"").append(uriParte(parte.numero())).append('"');
+        if (independiente) {
+            sb.append(",INDEPENDENT=YES");
+        }
+        sb.append('\n');
+    }
+
+    private static String uriParte(int numero) {
+        return String.format(FORMATO_PARTE, numero) + "?" + PARAMETRO_ESPERA + "=1";
+    }
+
+    private static String numero(double valor) {
+        return String.format(Locale.ROOT, "%.3f", valor);
+    }
+}
@@ -0,0 +1,563 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sovereingschool.back_streaming.Utils.PionProtocol;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Grupo de procesos Pion (WebRTC a RTP para FFmpeg) de las emisiones de
+ * webcam.
+ * Cada emisión se asigna a un proceso por hash consistente de su streamId, así
+ * que un proceso caído o lento solo afecta a sus emisiones y al reiniciarlo no
+ * se mueven las de los demás. Cada proceso tiene su propia cola acotada de
+ * mensajes (si se llena, los mensajes de sus emisiones se rechazan en lugar de
+ * bloquear a los demás profesores), un hilo que la escribe en su stdin y una
+ * comprobación de salud con ping/pong que lo reinicia si no responde.
+ * Los mensajes van en tramas binarias (PionProtocol): el hilo lector de cada
+ * proceso solo lee la cabecera y pasa la trama al receptor de su emisión, que
+ * la procesa en un hilo virtual, en orden dentro de la emisión y sin
+ * esperar a las demás.
+ */
+@Service
+public class PionWorkerPool implements MeterBinder {
+
+    /**
+     * Puntos de cada proceso en el anillo del hash consistente
+     */
+    static final int NODOS_VIRTUALES = 64;
+
+    /**
+     * Comprobaciones seguidas sin pong tras las que un proceso se reinicia
+     */
+    static final int PONGS_PERDIDOS = 3;
+
+    private static final byte[] PING = PionProtocol.codificar(Tipo.PING, null, new byte[0]);
+
+    /**
+     * Destinatario de los mensajes de Pion de una emisión
+     */
+    public interface Receptor {
+
+        /**
+         * Función para recibir un mensaje de Pion de la emisión
+         *
+         * @param trama Trama con el mensaje
+         */
+        void recibir(Trama trama);
+
+        /**
+         * Función para avisar de que la emisión se ha perdido porque su
+         * proceso se ha reiniciado
+         */
+        void perdida();
+    }
+
+    /**
+     * Entrega en orden de los mensajes de una emisión a su receptor: como
+     * mucho una tarea por emisión en el ejecutor de despacho
+     */
+    private final class Canal implements Runnable {
+        private final Receptor receptor;
+        private final ConcurrentLinkedQueue<Trama> pendientes = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean activo = new AtomicBoolean();
+
+        private Canal(Receptor receptor) {
+            this.receptor = receptor;
+        }
+
+        private void entregar(Trama trama) {
+            this.pendientes.add(trama);
+            if (this.activo.compareAndSet(false, true)) {
+                despacho.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Trama trama;
+                while ((trama = this.pendientes.poll()) != null) {
+                    try {
+                        this.receptor.recibir(trama);
+                    } catch (RuntimeException e) {
+                        logger.error("Error procesando el mensaje {} de Pion para la emisión {}: {}", trama.tipo(),
+                                trama.streamId(), e.getMessage());
+                    }
+                }
+                this.activo.set(false);
+                // Una trama llegada entre el último poll y set(false) se entrega aquí
+            } while (!this.pendientes.isEmpty() && this.activo.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * Proceso Pion con su cola de mensajes
+     */
+    static final class Trabajador {
+        private final int indice;
+        private final BlockingQueue<byte[]> cola;
+        private volatile Process proceso;
+        private volatile Thread escritor;
+        private volatile long ultimoPong;
+        private volatile boolean sano;
+
+        private Trabajador(int indice, int capacidadCola) {
+            this.indice = indice;
+            this.cola = new ArrayBlockingQueue<>(capacidadCola);
+        }
+
+        int getIndice() {
+            return this.indice;
+        }
+
+        boolean isSano() {
+            return this.sano;
+        }
+
+        int getPendientes() {
+            return this.cola.size();
+        }
+    }
+
+    private final long intervaloMillis;
+    private final List<Trabajador> trabajadores = new ArrayList<>();
+    private final TreeMap<Integer, Trabajador> anillo = new TreeMap<>();
+    private final Map<String, Trabajador> asignaciones = new ConcurrentHashMap<>();
+    private final Map<String, Canal> canales = new ConcurrentHashMap<>();
+    private final ExecutorService despacho = Executors
+            .newThreadPerTaskExecutor(Thread.ofVirtual().name("PionDespacho-", 0).factory());
+
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder reinicios = new LongAdder();
+
+    private boolean arrancado;
+    private ScheduledExecutorService scheduler;
+
+    private Logger logger = LoggerFactory.getLogger(PionWorkerPool.class);
+
+    /**
+     * Constructor de PionWorkerPool
+     *
+     * @param numeroTrabajadores Número de procesos Pion
+     * @param capacidadCola      Mensajes pendientes por proceso antes de
+     *                           rechazar los nuevos
+     * @param intervaloMillis    Milisegundos entre comprobaciones de salud (0 =
+     *                           sin comprobación periódica)
+     */
+    public PionWorkerPool(@Value("${streaming.pion.workers:2}") int numeroTrabajadores,
+            @Value("${streaming.pion.queue-capacity:256}") int capacidadCola,
+            @Value("${streaming.pion.health-millis:10000}") long intervaloMillis) {
+        this.intervaloMillis = intervaloMillis;
+        for (int i = 0; i < Math.max(1, numeroTrabajadores); i++) {
+            Trabajador trabajador = new Trabajador(i, Math.max(1, capacidadCola));
+            this.trabajadores.add(trabajador);
+            for (int v = 0; v < NODOS_VIRTUALES; v++) {
+                this.anillo.put(hash("pion-" + i + "#" + v), trabajador);
+            }
+        }
+    }
+
+    /**
+     * Función para registrar el destinatario de los mensajes de Pion de una
+     * emisión. Los mensajes sin receptor se descartan.
+     *
+     * @param streamId String con el ID de la emisión
+     * @param receptor Receptor de los mensajes
+     */
+    public void registrar(String streamId, Receptor receptor) {
+        this.canales.put(streamId, new Canal(receptor));
+    }
+
+    /**
+     * Función para enviar un mensaje al proceso de una emisión.
+     * La primera vez se arrancan los procesos y se asigna la emisión.
+     *
+     * @param tipo      Tipo del mensaje
+     * @param streamId  String con el ID de la emisión
+     * @param contenido String con el contenido del mensaje
+     * @return boolean false si no hay ningún proceso sano o la cola del
+     *         proceso de la emisión está llena
+     */
+    public boolean enviar(Tipo tipo, String streamId, String contenido) {
+        this.arrancar();
+        Trabajador trabajador = this.asignar(streamId);
+        if (trabajador == null || !trabajador.cola.offer(PionProtocol.codificar(tipo, streamId, contenido))) {
+            this.rechazados.increment();
+            logger.warn("Mensaje rechazado para la emisión {}: {}", streamId,
+                    trabajador == null ? "no hay procesos Pion sanos" : "cola llena en Pion " + trabajador.indice);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Función para detener una emisión en su proceso y liberar su asignación
+     * y su receptor
+     *
+     * @param streamId String con el ID de la emisión
+     */
+    public void detener(String streamId) {
+        this.canales.remove(streamId);
+        Trabajador trabajador = this.asignaciones.remove(streamId);
+        if (trabajador == null) {
+            return;
+        }
+        if (!trabajador.cola.offer(PionProtocol.codificar(Tipo.STOP, streamId, new byte[0]))) {
+            this.rechazados.increment();
+            logger.warn("No se pudo avisar a Pion {} de que pare la emisión {}", trabajador.indice, streamId);
+        }
+    }
+
+    /**
+     * Función para obtener el proceso asignado a una emisión
+     *
+     * @param streamId String con el ID de la emisión
+     * @return Integer con el índice del proceso, o null si no está asignada
+     */
+    public Integer getTrabajador(String streamId) {
+        Trabajador trabajador = this.asignaciones.get(streamId);
+        return trabajador != null ? trabajador.indice : null;
+    }
+
+    /**
+     * Función para parar las comprobaciones de salud y los procesos
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.trabajadores.forEach(this::parar);
+        this.asignaciones.clear();
+        this.canales.clear();
+        this.despacho.shutdownNow();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("streaming.pion.workers.healthy", this.trabajadores,
+                lista -> lista.stream().filter(Trabajador::isSano).count())
+                .description("Procesos Pion sanos")
+                .register(registry);
+        Gauge.builder("streaming.pion.streams", this.asignaciones, Map::size)
+                .description("Emisiones de webcam asignadas a un proceso Pion")
+                .register(registry);
+        for (Trabajador trabajador : this.trabajadores) {
+            Gauge.builder("streaming.pion.queue", trabajador, Trabajador::getPendientes)
+                    .description("Mensajes pendientes de escribir en cada proceso Pion")
+                    .tag("trabajador", String.valueOf(trabajador.indice))
+                    .register(registry);
+        }
+        FunctionCounter.builder("streaming.pion.rejected", this.rechazados, LongAdder::sum)
+                .description("Mensajes rechazados por cola llena o sin procesos Pion sanos")
+                .register(registry);
+        FunctionCounter.builder("streaming.pion.restarts", this.reinicios, LongAdder::sum)
+                .description("Procesos Pion reiniciados por la comprobación de salud")
+                .register(registry);
+    }
+
+    /**
+     * Función para arrancar los procesos y la comprobación de salud la primera
+     * vez que se usan
+     */
+    protected synchronized void arrancar() {
+        if (this.arrancado) {
+            return;
+        }
+        this.arrancado = true;
+        this.trabajadores.forEach(this::iniciar);
+        if (this.intervaloMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "PionSalud");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::comprobarSalud, this.intervaloMillis, this.intervaloMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Función para comprobar la salud de los procesos: se reinician los que
+     * han terminado, no se pueden escribir o llevan PONGS_PERDIDOS
+     * comprobaciones sin responder al ping, y al resto se les envía otro ping
+     */
+    void comprobarSalud() {
+        long limite = TimeUnit.MILLISECONDS.toNanos(this.intervaloMillis * PONGS_PERDIDOS);
+        for (Trabajador trabajador : this.trabajadores) {
+            Process proceso = trabajador.proceso;
+            boolean vivo = proceso != null && proceso.isAlive() && trabajador.sano;
+            boolean mudo = limite > 0 && System.nanoTime() - trabajador.ultimoPong > limite;
+            if (!vivo || mudo) {
+                this.reiniciar(trabajador);
+            } else {
+                // Con la cola llena el ping se omite: el proceso está ocupado
+                trabajador.cola.offer(PING);
+            }
+        }
+    }
+
+    /**
+     * Función para reiniciar un proceso. Sus emisiones se pierden (la conexión
+     * WebRTC estaba en el proceso) y se avisa a sus receptores para que lo
+     * digan a sus profesores.
+     *
+     * @param trabajador Trabajador a reiniciar
+     */
+    synchronized void reiniciar(Trabajador trabajador) {
+        logger.warn("Reiniciando el proceso Pion {}", trabajador.indice);
+        this.reinicios.increment();
+        trabajador.sano = false;
+        List<String> perdidas = new ArrayList<>();
+        this.asignaciones.entrySet().removeIf(asignacion -> {
+            if (asignacion.getValue() != trabajador) {
+                return false;
+            }
+            perdidas.add(asignacion.getKey());
+            return true;
+        });
+        this.parar(trabajador);
+        this.iniciar(trabajador);
+        for (String streamId : perdidas) {
+            Canal canal = this.canales.remove(streamId);
+            if (canal != null) {
+                this.despacho.execute(canal.receptor::perdida);
+            }
+        }
+    }
+
+    /**
+     * Función para asignar una emisión al primer proceso sano desde su punto
+     * del anillo
+     *
+     * @param streamId String con el ID de la emisión
+     * @return Trabajador asignado, o null si no hay ninguno sano
+     */
+    Trabajador asignar(String streamId) {
+        Trabajador actual = this.asignaciones.get(streamId);
+        if (actual != null) {
+            return actual;
+        }
+        int punto = hash(streamId);
+        Trabajador elegido = null;
+        for (Trabajador candidato : this.anillo.tailMap(punto).values()) {
+            if (candidato.sano) {
+                elegido = candidato;
+                break;
+            }
+        }
+        if (elegido == null) {
+            for (Trabajador candidato : this.anillo.headMap(punto).values()) {
+                if (candidato.sano) {
+                    elegido = candidato;
+                    break;
+                }
+            }
+        }
+        if (elegido == null) {
+            return null;
+        }
+        Trabajador previo = this.asignaciones.putIfAbsent(streamId, elegido);
+        return previo != null ? previo : elegido;
+    }
+
+    List<Trabajador> getTrabajadores() {
+        return this.trabajadores;
+    }
+
+    /**
+     * Función para lanzar un proceso Pion.
+     * Se extrae a un método protegido para facilitar las pruebas unitarias.
+     *
+     * @param indice int con el índice del proceso
+     * @return Process lanzado
+     * @throws IOException
+     */
+    protected Process arrancarProceso(int indice) throws IOException {
+        ProcessBuilder pb;
+        // Detectar si estamos dentro de Docker
+        if (new File("/.dockerenv").exists()) {
+            // En Docker (prod), usar el binario compilado
+            String prodBinary = "/app/pion-server";
+            pb = new ProcessBuilder(prodBinary);
+            logger.info("Iniciando Pion {} desde binario compilado en Docker: {}", indice, prodBinary);
+        } else {
+            // En desarrollo, usar go run sobre el script
+            pb = new ProcessBuilder("/usr/local/go/bin/go", "run", "pion-server.go");
+            pb.directory(new File("src/main/resources/pion/"));
+            logger.info("Iniciando Pion {} en modo desarrollo con go run", indice);
+        }
+        pb.redirectErrorStream(false); // mantener stdout y stderr separados
+        return pb.start();
+    }
+
+    /**
+     * Función para lanzar el proceso de un trabajador y sus hilos de lectura y
+     * escritura
+     *
+     * @param trabajador Trabajador a iniciar
+     */
+    private void iniciar(Trabajador trabajador) {
+        Process proceso;
+        try {
+            proceso = this.arrancarProceso(trabajador.indice);
+        } catch (IOException e) {
+            // Se vuelve a intentar en la próxima comprobación de salud
+            logger.error("Error al iniciar el proceso Pion {}: {}", trabajador.indice, e.getMessage());
+            return;
+        }
+        trabajador.proceso = proceso;
+        trabajador.ultimoPong = System.nanoTime();
+        trabajador.sano = true;
+        trabajador.escritor = hilo("Pion-" + trabajador.indice + "-stdin", () -> this.escribir(trabajador, proceso));
+        hilo("Pion-" + trabajador.indice + "-stdout", () -> this.leer(trabajador, proceso));
+        hilo("Pion-" + trabajador.indice + "-stderr", () -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(proceso.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    logger.info("PION {} Log: {}", trabajador.indice, line);
+                }
+            } catch (IOException e) {
+                logger.error("Error leyendo stderr de Pion {}: {}", trabajador.indice, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Función para parar el proceso de un trabajador y descartar sus mensajes
+     * pendientes
+     *
+     * @param trabajador Trabajador a parar
+     */
+    private void parar(Trabajador trabajador) {
+        trabajador.sano = false;
+        Thread escritor = trabajador.escritor;
+        if (escritor != null) {
+            escritor.interrupt();
+        }
+        trabajador.cola.clear();
+        Process proceso = trabajador.proceso;
+        if (proceso != null) {
+            proceso.destroyForcibly();
+        }
+    }
+
+    /**
+     * Función para escribir en el stdin del proceso las tramas de su cola.
+     * El buffer se vacía cuando no quedan más tramas, así que una ráfaga de
+     * candidatos se escribe de una vez.
+     *
+     * @param trabajador Trabajador con la cola
+     * @param proceso    Process en el que escribir
+     */
+    private void escribir(Trabajador trabajador, Process proceso) {
+        try (OutputStream writer = new BufferedOutputStream(proceso.getOutputStream())) {
+            while (!Thread.currentThread().isInterrupted()) {
+                writer.write(trabajador.cola.take());
+                if (trabajador.cola.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (trabajador.proceso == proceso) {
+                logger.error("Error al escribir en Pion {}: {}", trabajador.indice, e.getMessage());
+                trabajador.sano = false;
+            }
+        }
+    }
+
+    /**
+     * Función para leer el stdout del proceso: los pong actualizan su salud y
+     * el resto de tramas se pasan al receptor de su emisión
+     *
+     * @param trabajador Trabajador del proceso
+     * @param proceso    Process del que leer
+     */
+    private void leer(Trabajador trabajador, Process proceso) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(proceso.getInputStream()))) {
+            Trama trama;
+            while ((trama = PionProtocol.leer(in)) != null) {
+                if (trama.tipo() == Tipo.PONG) {
+                    trabajador.ultimoPong = System.nanoTime();
+                    continue;
+                }
+                Canal canal = this.canales.get(trama.streamId());
+                if (canal != null) {
+                    canal.entregar(trama);
+                } else {
+                    logger.debug("Mensaje {} de Pion {} sin receptor para la emisión {}", trama.tipo(),
+                            trabajador.indice, trama.streamId());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error leyendo stdout de Pion {}: {}", trabajador.indice, e.getMessage());
+        }
+        // Sin stdout el proceso ha terminado
+        if (trabajador.proceso == proceso) {
+            trabajador.sano = false;
+        }
+    }
+
+    private static Thread hilo(String nombre, Runnable tarea) {
+        Thread thread = new Thread(tarea, nombre);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Función para calcular el punto de una clave en el anillo
+     *
+     * @param clave String con la clave
+     * @return int con el punto
+     */
+    static int hash(String clave) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(clave.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getInt();
+        } catch (NoSuchAlgorithmException e) {
+            return clave.hashCode();
+        }
+    }
+}
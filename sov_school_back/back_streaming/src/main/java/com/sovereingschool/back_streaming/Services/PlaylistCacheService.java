@@ -0,0 +1,336 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Caché en memoria de las listas HLS (master.m3u8 y stream.m3u8 de cada
+ * resolución).
+ * Cada carpeta con listas cacheadas se vigila con un WatchService: las listas
+ * VOD se leen una sola vez y las listas de directo (tipo event) solo se
+ * vuelven a leer cuando FFmpeg las modifica.
+ * Los mismos eventos avisan a las peticiones que esperan a que FFmpeg escriba
+ * una nueva parte de un directo (recarga bloqueante de LL-HLS) y entregan
+ * los ficheros nuevos a los observadores (anillo de segmentos de directo).
+ */
+@Service
+public class PlaylistCacheService {
+
+    /**
+     * Carpeta vigilada con su WatchKey y un contador de modificaciones
+     */
+    private record Carpeta(WatchKey key, AtomicLong generacion) {
+    }
+
+    private final Map<Path, byte[]> playlists = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Path, Carpeta> carpetas;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, List<Runnable>> avisos = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> observadores = new CopyOnWriteArrayList<>();
+
+    // Los avisos se ejecutan fuera del hilo que vigila las carpetas para que
+    // las esperas de una clase no retrasen las invalidaciones de las demás
+    private final ExecutorService avisadores = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("PlaylistAviso-", 0).factory());
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    private Logger logger = LoggerFactory.getLogger(PlaylistCacheService.class);
+
+    /**
+     * Constructor de PlaylistCacheService
+     *
+     * @param maxCarpetas Número máximo de carpetas vigiladas a la vez
+     */
+    public PlaylistCacheService(@Value("${streaming.playlist-cache.max-folders:1024}") int maxCarpetas) {
+        this.carpetas = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Carpeta> eldest) {
+                if (size() > maxCarpetas) {
+                    dejarDeVigilar(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Función para arrancar el hilo que vigila las carpetas
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.watcher = new Thread(this::bucleVigilancia, "PlaylistWatcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * Función para parar el hilo que vigila las carpetas
+     *
+     * @throws IOException
+     */
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (this.watchService != null) {
+            this.watchService.close();
+        }
+        this.avisadores.shutdownNow();
+    }
+
+    /**
+     * Función para obtener una lista HLS.
+     * Si no está en memoria se lee de disco y se empieza a vigilar su carpeta.
+     *
+     * @param path Path de la lista
+     * @return byte[] con el contenido de la lista, o null si no existe
+     */
+    public byte[] obtenerPlaylist(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        byte[] contenido = this.playlists.get(key);
+        if (contenido != null) {
+            return contenido;
+        }
+
+        Carpeta carpeta = this.vigilar(key.getParent());
+        if (carpeta == null) {
+            return null;
+        }
+        // Se vigila la carpeta antes de leer para no perder ninguna modificación
+        long generacion = carpeta.generacion().get();
+        try {
+            contenido = Files.readAllBytes(key);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.error("Error al leer la lista {}: {}", key, e.getMessage());
+            return null;
+        }
+        this.playlists.put(key, contenido);
+        if (carpeta.generacion().get() != generacion) {
+            // FFmpeg ha escrito mientras se leía: la próxima petición vuelve a leer
+            this.playlists.remove(key, contenido);
+        }
+        return contenido;
+    }
+
+    /**
+     * Función para recibir un aviso con el próximo cambio de una carpeta.
+     * El aviso se ejecuta una sola vez, en un hilo virtual aparte del que vigila
+     * las carpetas; para seguir esperando hay que volver a registrarlo.
+     *
+     * @param dir   Path de la carpeta
+     * @param aviso Runnable a ejecutar con el próximo cambio
+     * @return boolean false si la carpeta no se puede vigilar
+     */
+    public boolean avisarCambio(Path dir, Runnable aviso) {
+        Path key = dir.toAbsolutePath().normalize();
+        if (this.vigilar(key) == null) {
+            return false;
+        }
+        this.avisos.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(aviso);
+        return true;
+    }
+
+    /**
+     * Función para empezar a vigilar una carpeta sin leer ninguna lista
+     *
+     * @param dir Path de la carpeta
+     * @return boolean false si la carpeta no se puede vigilar
+     */
+    public boolean vigilarCarpeta(Path dir) {
+        return this.vigilar(dir.toAbsolutePath().normalize()) != null;
+    }
+
+    /**
+     * Función para recibir cada fichero creado en las carpetas vigiladas.
+     * El observador se ejecuta en el hilo que vigila las carpetas, antes de
+     * los avisos de cambio, así que no debe leer ni esperar.
+     *
+     * @param observador Consumer que recibe el Path del fichero creado
+     */
+    public void observarFicheros(Consumer<Path> observador) {
+        this.observadores.add(observador);
+    }
+
+    /**
+     * Función para obtener el número de listas cacheadas
+     *
+     * @return int con el número de listas
+     */
+    public int getNumeroPlaylists() {
+        return this.playlists.size();
+    }
+
+    /**
+     * Función para registrar una carpeta en el WatchService
+     *
+     * @param dir Path de la carpeta
+     * @return Carpeta registrada, o null si no existe
+     */
+    private synchronized Carpeta vigilar(Path dir) {
+        if (dir == null || this.watchService == null) {
+            return null;
+        }
+        Carpeta carpeta = this.carpetas.get(dir);
+        if (carpeta != null && carpeta.key().isValid()) {
+            return carpeta;
+        }
+        try {
+            WatchKey key = dir.register(this.watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            carpeta = new Carpeta(key, new AtomicLong());
+            this.keys.put(key, dir);
+            this.carpetas.put(dir, carpeta);
+            return carpeta;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | ClosedWatchServiceException e) {
+            logger.error("Error al vigilar la carpeta {}: {}", dir, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Función para dejar de vigilar una carpeta y olvidar sus listas
+     *
+     * @param dir     Path de la carpeta
+     * @param carpeta Carpeta registrada
+     */
+    private void dejarDeVigilar(Path dir, Carpeta carpeta) {
+        carpeta.key().cancel();
+        this.keys.remove(carpeta.key());
+        this.playlists.keySet().removeIf(path -> dir.equals(path.getParent()));
+        // Las peticiones que esperaban a esta carpeta terminan por tiempo
+        this.avisos.remove(dir);
+    }
+
+    /**
+     * Bucle del hilo que recibe los eventos del WatchService
+     */
+    private void bucleVigilancia() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = this.watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = this.keys.get(key);
+            if (dir != null) {
+                this.procesarEventos(dir, key);
+            }
+            if (!key.reset() && dir != null) {
+                // La carpeta se ha borrado
+                synchronized (this) {
+                    Carpeta carpeta = this.carpetas.remove(dir);
+                    if (carpeta != null) {
+                        this.dejarDeVigilar(dir, carpeta);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Función para invalidar las listas modificadas en una carpeta
+     *
+     * @param dir Path de la carpeta
+     * @param key WatchKey con los eventos pendientes
+     */
+    private void procesarEventos(Path dir, WatchKey key) {
+        Carpeta carpeta;
+        synchronized (this) {
+            carpeta = this.carpetas.get(dir);
+        }
+        if (carpeta != null) {
+            carpeta.generacion().incrementAndGet();
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                this.playlists.keySet().removeIf(path -> dir.equals(path.getParent()));
+            } else if (event.context() instanceof Path nombre) {
+                this.playlists.remove(dir.resolve(nombre));
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    this.observar(dir.resolve(nombre));
+                }
+            }
+        }
+        this.avisar(dir);
+    }
+
+    /**
+     * Función para entregar un fichero creado a los observadores
+     *
+     * @param fichero Path del fichero
+     */
+    private void observar(Path fichero) {
+        for (Consumer<Path> observador : this.observadores) {
+            try {
+                observador.accept(fichero);
+            } catch (RuntimeException e) {
+                logger.error("Error al observar el fichero {}: {}", fichero, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Función para ejecutar los avisos pendientes de una carpeta
+     *
+     * @param dir Path de la carpeta
+     */
+    private void avisar(Path dir) {
+        List<Runnable> pendientes = this.avisos.remove(dir);
+        if (pendientes == null) {
+            return;
+        }
+        try {
+            this.avisadores.execute(() -> {
+                for (Runnable aviso : pendientes) {
+                    try {
+                        aviso.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Error en el aviso de la carpeta {}: {}", dir, e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Apagando: las peticiones que esperaban terminan por tiempo
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Caché de los resultados de ffprobe por contenido del fichero.
+ * La clave es una huella del contenido (tamaño, primeros y últimos
+ * BYTES_MUESTRA bytes): ahí están las cabeceras del contenedor (moov al
+ * principio o al final) de las que ffprobe saca la resolución, los fps, el
+ * audio y la duración. Así un mismo video no se vuelve a analizar aunque se
+ * mueva de carpeta o se reintente su conversión.
+ */
+@Service
+public class ProbeCacheService implements MeterBinder {
+
+    static final int BYTES_MUESTRA = 64 * 1024;
+
+    /**
+     * Resultados de ffprobe de un contenido
+     *
+     * @param ajustes  String[] con ancho, alto, fps y códec de audio, o null si
+     *                 no se ha analizado
+     * @param duracion Double con la duración en segundos, o null si no se ha
+     *                 analizado
+     */
+    private record Sonda(String[] ajustes, Double duracion) {
+    }
+
+    private final Map<String, Sonda> sondas;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private Logger logger = LoggerFactory.getLogger(ProbeCacheService.class);
+
+    /**
+     * Constructor de ProbeCacheService
+     *
+     * @param maxEntradas Número máximo de contenidos guardados
+     */
+    public ProbeCacheService(@Value("${streaming.probe-cache.max-entries:1024}") int maxEntradas) {
+        this.sondas = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Sonda> eldest) {
+                return size() > maxEntradas;
+            }
+        };
+    }
+
+    /**
+     * Función para calcular la huella del contenido de un video
+     *
+     * @param ruta String con la ruta del video
+     * @return String con la huella, o null si no es un fichero (RTMP, pipe) o
+     *         no se puede leer
+     */
+    public String huella(String ruta) {
+        if (ruta == null || ruta.contains("://") || ruta.startsWith("pipe:")) {
+            return null;
+        }
+        Path path = Paths.get(ruta);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+            leerMuestra(channel, 0, digest);
+            if (size > BYTES_MUESTRA) {
+                leerMuestra(channel, Math.max(BYTES_MUESTRA, size - BYTES_MUESTRA), digest);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warn("No se pudo calcular la huella de {}: {}", ruta, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Función para obtener los ajustes (ancho, alto, fps y audio) de un
+     * contenido
+     *
+     * @param huella String con la huella del contenido
+     * @return String[] con los ajustes, o null si no se han analizado
+     */
+    public String[] obtenerAjustes(String huella) {
+        Sonda sonda = this.buscar(huella);
+        if (sonda == null || sonda.ajustes() == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return sonda.ajustes().clone();
+    }
+
+    /**
+     * Función para guardar los ajustes de un contenido
+     *
+     * @param huella  String con la huella del contenido
+     * @param ajustes String[] con los ajustes
+     */
+    public void guardarAjustes(String huella, String[] ajustes) {
+        if (huella == null || ajustes == null) {
+            return;
+        }
+        synchronized (this.sondas) {
+            Sonda anterior = this.sondas.get(huella);
+            this.sondas.put(huella, new Sonda(ajustes.clone(), anterior != null ? anterior.duracion() : null));
+        }
+    }
+
+    /**
+     * Función para obtener la duración de un contenido
+     *
+     * @param huella String con la huella del contenido
+     * @return Double con la duración en segundos, o null si no se ha analizado
+     */
+    public Double obtenerDuracion(String huella) {
+        Sonda sonda = this.buscar(huella);
+        if (sonda == null || sonda.duracion() == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return sonda.duracion();
+    }
+
+    /**
+     * Función para guardar la duración de un contenido
+     *
+     * @param huella   String con la huella del contenido
+     * @param duracion double con la duración en segundos
+     */
+    public void guardarDuracion(String huella, double duracion) {
+        if (huella == null) {
+            return;
+        }
+        synchronized (this.sondas) {
+            Sonda anterior = this.sondas.get(huella);
+            this.sondas.put(huella, new Sonda(anterior != null ? anterior.ajustes() : null, duracion));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("streaming.probe.cache.hits", this.hits, LongAdder::sum)
+                .description("Análisis de ffprobe reutilizados")
+                .register(registry);
+        FunctionCounter.builder("streaming.probe.cache.misses", this.misses, LongAdder::sum)
+                .description("Análisis de ffprobe que hubo que ejecutar")
+                .register(registry);
+    }
+
+    private Sonda buscar(String huella) {
+        if (huella == null) {
+            return null;
+        }
+        synchronized (this.sondas) {
+            return this.sondas.get(huella);
+        }
+    }
+
+    /**
+     * Función para añadir a la huella BYTES_MUESTRA bytes desde una posición
+     *
+     * @param channel  FileChannel del video
+     * @param posicion long con la posición de inicio
+     * @param digest   MessageDigest de la huella
+     * @throws IOException
+     */
+    private static void leerMuestra(FileChannel channel, long posicion, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES_MUESTRA);
+        while (buffer.hasRemaining()) {
+            int leidos = channel.read(buffer, posicion + buffer.position());
+            if (leidos < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
+    }
+}
@@ -0,0 +1,230 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+import com.sovereingschool.back_streaming.Models.ProgresoPendiente;
+import com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Buffer de escritura diferida para el progreso de las clases.
+ * Cada alumno registra un fragmento cada 2 segundos; en lugar de lanzar una
+ * actualización a Mongo por cada uno, los fragmentos se agrupan por usuario y
+ * clase y se guardan periódicamente en una sola operación bulk.
+ */
+@Service
+public class ProgresoBufferService implements MeterBinder {
+
+    /**
+     * Clave del buffer: qué usuario ha visto qué clase de qué curso
+     */
+    private record Clave(Long idUsuario, Long idCurso, Long idClase) {
+    }
+
+    private final Map<Clave, ProgresoBitmap> pendientes = new ConcurrentHashMap<>();
+    private final ProgresoClaseRepository progresoClaseRepository;
+    private final MongoTemplate mongoTemplate;
+    private final long intervaloMillis;
+    private final int maxEntradas;
+
+    private final LongAdder escrituras = new LongAdder();
+    private final LongAdder fragmentos = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder sinClase = new LongAdder();
+    private Timer flushTimer;
+
+    private ScheduledExecutorService scheduler;
+
+    private Logger logger = LoggerFactory.getLogger(ProgresoBufferService.class);
+
+    /**
+     * Constructor de ProgresoBufferService
+     *
+     * @param progresoClaseRepository Repositorio del progreso de las clases
+     * @param mongoTemplate           MongoTemplate para operaciones de base de
+     *                                datos
+     * @param intervaloMillis         Milisegundos entre cada volcado a Mongo
+     * @param maxEntradas             Número máximo de pares usuario-clase
+     *                                pendientes antes de forzar un volcado
+     */
+    public ProgresoBufferService(ProgresoClaseRepository progresoClaseRepository,
+            MongoTemplate mongoTemplate,
+            @Value("${streaming.progress-buffer.flush-millis:2000}") long intervaloMillis,
+            @Value("${streaming.progress-buffer.max-entries:50000}") int maxEntradas) {
+        this.progresoClaseRepository = progresoClaseRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.intervaloMillis = intervaloMillis;
+        this.maxEntradas = maxEntradas;
+    }
+
+    /**
+     * Función para arrancar el volcado periódico
+     */
+    @PostConstruct
+    public void init() {
+        if (this.intervaloMillis <= 0) {
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ProgresoFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, this.intervaloMillis, this.intervaloMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Función para parar el volcado periódico y guardar lo pendiente
+     */
+    @PreDestroy
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+            try {
+                this.scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.flush();
+    }
+
+    /**
+     * Función para registrar un fragmento visto
+     *
+     * @param idUsuario    ID del usuario
+     * @param idCurso      ID del curso
+     * @param idClase      ID de la clase
+     * @param segmentIndex Índice del fragmento reproducido
+     */
+    public void registrar(Long idUsuario, Long idCurso, Long idClase, int segmentIndex) {
+        this.pendientes.compute(new Clave(idUsuario, idCurso, idClase), (clave, segmentos) -> {
+            ProgresoBitmap bitmap = segmentos != null ? segmentos : new ProgresoBitmap();
+            bitmap.add(segmentIndex);
+            return bitmap;
+        });
+        // Sin volcado periódico, o con el buffer lleno, se escribe en el propio hilo
+        if (this.scheduler == null || this.pendientes.size() >= this.maxEntradas) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Función para guardar en Mongo todo el progreso pendiente
+     */
+    public synchronized void flush() {
+        if (this.pendientes.isEmpty()) {
+            return;
+        }
+        List<ProgresoPendiente> lote = new ArrayList<>(this.pendientes.size());
+        int numFragmentos = 0;
+        for (Clave clave : this.pendientes.keySet()) {
+            ProgresoBitmap segmentos = this.pendientes.remove(clave);
+            if (segmentos != null) {
+                lote.add(new ProgresoPendiente(clave.idUsuario(), clave.idCurso(), clave.idClase(), segmentos));
+                numFragmentos += segmentos.cardinality();
+            }
+        }
+        if (lote.isEmpty()) {
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        try {
+            int sinDocumento = this.progresoClaseRepository.updateProgressBatch(lote, this.mongoTemplate);
+            if (sinDocumento > 0) {
+                // Clases borradas o sin matrícula: el progreso no crea documentos
+                logger.warn("Descartado el progreso de {} clases sin matrícula", sinDocumento);
+                this.sinClase.add(sinDocumento);
+            }
+            this.escrituras.add(lote.size());
+            this.fragmentos.add(numFragmentos);
+        } catch (RuntimeException e) {
+            logger.error("Error al guardar el progreso de {} clases: {}", lote.size(), e.getMessage());
+            this.reencolar(lote);
+        } finally {
+            if (this.flushTimer != null) {
+                this.flushTimer.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Función para obtener el número de pares usuario-clase pendientes
+     *
+     * @return int con el número de entradas del buffer
+     */
+    public int getNumeroPendientes() {
+        return this.pendientes.size();
+    }
+
+    /**
+     * Función para registrar las métricas del buffer
+     *
+     * @param registry MeterRegistry de la aplicación
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("streaming.progress.buffer.pending", this, ProgresoBufferService::getNumeroPendientes)
+                .description("Pares usuario-clase pendientes de guardar")
+                .register(registry);
+        FunctionCounter.builder("streaming.progress.buffer.writes", this.escrituras, LongAdder::sum)
+                .description("Actualizaciones enviadas a Mongo")
+                .register(registry);
+        FunctionCounter.builder("streaming.progress.buffer.segments", this.fragmentos, LongAdder::sum)
+                .description("Fragmentos guardados en Mongo")
+                .register(registry);
+        FunctionCounter.builder("streaming.progress.buffer.dropped", this.descartados, LongAdder::sum)
+                .description("Actualizaciones descartadas con el buffer lleno")
+                .register(registry);
+        FunctionCounter.builder("streaming.progress.buffer.unmatched", this.sinClase, LongAdder::sum)
+                .description("Actualizaciones de clases sin matrícula")
+                .register(registry);
+        this.flushTimer = Timer.builder("streaming.progress.buffer.flush")
+                .description("Duración de cada volcado a Mongo")
+                .register(registry);
+    }
+
+    /**
+     * Función para devolver al buffer un lote que no se ha podido guardar.
+     * Si el buffer está lleno el lote se descarta: el alumno volverá a
+     * registrar esos fragmentos la próxima vez que vea la clase.
+     *
+     * @param lote Lista con el progreso que no se ha guardado
+     */
+    private void reencolar(List<ProgresoPendiente> lote) {
+        for (ProgresoPendiente pendiente : lote) {
+            if (this.pendientes.size() >= this.maxEntradas) {
+                this.descartados.increment();
+                continue;
+            }
+            this.pendientes.merge(new Clave(pendiente.idUsuario(), pendiente.idCurso(), pendiente.idClase()),
+                    pendiente.segmentos(), (actuales, fallidos) -> {
+                        actuales.or(fallidos);
+                        return actuales;
+                    });
+        }
+    }
+}
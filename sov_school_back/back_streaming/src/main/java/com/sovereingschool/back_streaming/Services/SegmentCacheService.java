@@ -0,0 +1,353 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Caché LRU de segmentos HLS en memoria fuera del heap.
+ * Un segmento solo entra en la caché cuando se ha pedido al menos
+ * {@code minHits} veces, para que las visualizaciones sueltas no expulsen a
+ * los segmentos que están viendo muchos alumnos a la vez.
+ * Las peticiones simultáneas de un segmento que no está en memoria comparten
+ * una sola lectura de disco, entre o no el segmento en la caché; si la lectura
+ * tarda demasiado, las que esperan lo sirven desde disco.
+ */
+@Service
+public class SegmentCacheService implements MeterBinder {
+
+    /**
+     * Segmento cacheado junto con los atributos del fichero al cargarlo
+     */
+    private record Entrada(ByteBuffer datos, long size, long lastModified) {
+    }
+
+    private final long maxBytes;
+    private final long maxSegmentBytes;
+    private final int minHits;
+    private final long esperaMillis;
+
+    private final LinkedHashMap<Path, Entrada> segmentos = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<Path, Integer> candidatos;
+    private final Map<Path, CompletableFuture<Entrada>> cargas = new HashMap<>();
+    private long bytesUsados = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder colapsadas = new LongAdder();
+
+    private Logger logger = LoggerFactory.getLogger(SegmentCacheService.class);
+
+    /**
+     * Constructor de SegmentCacheService
+     *
+     * @param maxBytes        Presupuesto máximo de bytes de la caché
+     * @param maxSegmentBytes Tamaño máximo de un segmento para entrar en la caché
+     * @param minHits         Número de peticiones necesarias para admitir un
+     *                        segmento
+     * @param maxCandidatos   Número máximo de segmentos candidatos a los que se
+     *                        sigue la pista
+     * @param esperaMillis    Milisegundos que una petición espera a la lectura
+     *                        de otra antes de ir a disco
+     */
+    public SegmentCacheService(
+            @Value("${streaming.segment-cache.max-bytes:268435456}") long maxBytes,
+            @Value("${streaming.segment-cache.max-segment-bytes:8388608}") long maxSegmentBytes,
+            @Value("${streaming.segment-cache.min-hits:2}") int minHits,
+            @Value("${streaming.segment-cache.max-candidates:8192}") int maxCandidatos,
+            @Value("${streaming.segment-cache.wait-millis:2000}") long esperaMillis) {
+        this.maxBytes = maxBytes;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.minHits = minHits;
+        this.esperaMillis = esperaMillis;
+        this.candidatos = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Integer> eldest) {
+                return size() > maxCandidatos;
+            }
+        };
+    }
+
+    /**
+     * Función para obtener un segmento de la caché.
+     * Si el segmento no está cacheado se lee una sola vez de disco para todas
+     * las peticiones que llegan durante la lectura, y se guarda si cumple la
+     * política de admisión.
+     *
+     * @param path Path del segmento
+     * @return ByteBuffer de solo lectura con el segmento, o null si hay que
+     *         servirlo desde disco
+     * @throws IOException
+     */
+    public ByteBuffer obtenerSegmento(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (attrs.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        CompletableFuture<Entrada> carga;
+        CompletableFuture<Entrada> propia = null;
+        boolean guardar = false;
+        synchronized (this) {
+            Entrada entrada = this.segmentos.get(key);
+            if (entrada != null) {
+                if (entrada.size() == attrs.size() && entrada.lastModified() == lastModified) {
+                    this.hits.increment();
+                    return entrada.datos().duplicate();
+                }
+                // El fichero ha cambiado en disco
+                this.eliminar(key);
+            }
+            carga = this.cargas.get(key);
+            if (carga != null) {
+                this.colapsadas.increment();
+            } else {
+                this.misses.increment();
+                guardar = this.admitir(key, attrs.size());
+                propia = new CompletableFuture<>();
+                this.cargas.put(key, propia);
+            }
+        }
+        if (propia != null) {
+            return this.cargarCompartido(key, attrs.size(), lastModified, propia, guardar);
+        }
+        return this.esperarCarga(carga, attrs.size(), lastModified);
+    }
+
+    /**
+     * Función para eliminar de la caché todos los segmentos de una carpeta.
+     * Se llama cuando StreamingService vuelve a escribir la carpeta de una clase.
+     *
+     * @param carpeta Path de la carpeta
+     */
+    public synchronized void invalidarCarpeta(Path carpeta) {
+        Path prefijo = carpeta.toAbsolutePath().normalize();
+        int eliminados = 0;
+        Iterator<Map.Entry<Path, Entrada>> it = this.segmentos.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Entrada> entry = it.next();
+            if (entry.getKey().startsWith(prefijo)) {
+                this.bytesUsados -= entry.getValue().size();
+                it.remove();
+                eliminados++;
+            }
+        }
+        this.candidatos.keySet().removeIf(path -> path.startsWith(prefijo));
+        if (eliminados > 0) {
+            logger.debug("Eliminados {} segmentos de la caché para {}", eliminados, prefijo);
+        }
+    }
+
+    /**
+     * Función para obtener los bytes ocupados por la caché
+     *
+     * @return long con los bytes ocupados
+     */
+    public synchronized long getBytesUsados() {
+        return this.bytesUsados;
+    }
+
+    /**
+     * Función para obtener el número de peticiones que compartieron la lectura
+     * de otra
+     *
+     * @return long con el número de peticiones colapsadas
+     */
+    public long getColapsadas() {
+        return this.colapsadas.sum();
+    }
+
+    /**
+     * Función para obtener el número de segmentos cacheados
+     *
+     * @return int con el número de segmentos
+     */
+    public synchronized int getNumeroSegmentos() {
+        return this.segmentos.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("streaming.segment.cache.hits", this.hits, LongAdder::sum)
+                .description("Segmentos servidos desde memoria")
+                .register(registry);
+        FunctionCounter.builder("streaming.segment.cache.misses", this.misses, LongAdder::sum)
+                .description("Segmentos no encontrados en la caché")
+                .register(registry);
+        FunctionCounter.builder("streaming.segment.cache.evictions", this.evictions, LongAdder::sum)
+                .description("Segmentos expulsados por falta de espacio")
+                .register(registry);
+        FunctionCounter.builder("streaming.segment.cache.collapsed", this.colapsadas, LongAdder::sum)
+                .description("Peticiones que esperaron a la lectura en curso del mismo segmento")
+                .register(registry);
+        Gauge.builder("streaming.segment.cache.bytes", this, SegmentCacheService::getBytesUsados)
+                .description("Bytes fuera del heap ocupados por la caché")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("streaming.segment.cache.entries", this, SegmentCacheService::getNumeroSegmentos)
+                .description("Segmentos cacheados")
+                .register(registry);
+    }
+
+    /**
+     * Función para decidir si un segmento leído de disco se guarda en la caché
+     *
+     * @param key  Path normalizado del segmento
+     * @param size long con el tamaño del segmento
+     * @return true si el segmento cumple la política de admisión
+     */
+    private boolean admitir(Path key, long size) {
+        if (this.maxBytes <= 0 || size > this.maxSegmentBytes || size > this.maxBytes
+                || this.candidatos.merge(key, 1, Integer::sum) < this.minHits) {
+            return false;
+        }
+        this.candidatos.remove(key);
+        return true;
+    }
+
+    /**
+     * Función para esperar a la lectura de un segmento que ha empezado otra
+     * petición. Si tarda más de esperaMillis, el segmento se sirve desde disco
+     * para no dejar bloqueado el hilo de la petición.
+     *
+     * @param carga        CompletableFuture de la lectura en curso
+     * @param size         long con el tamaño del segmento
+     * @param lastModified long con la fecha de modificación del segmento
+     * @return ByteBuffer de solo lectura con el segmento, o null si hay que
+     *         servirlo desde disco
+     */
+    private ByteBuffer esperarCarga(CompletableFuture<Entrada> carga, long size, long lastModified) {
+        Entrada compartida;
+        try {
+            compartida = carga.get(this.esperaMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (compartida == null || compartida.size() != size || compartida.lastModified() != lastModified) {
+            return null;
+        }
+        return compartida.datos().duplicate();
+    }
+
+    /**
+     * Función para cargar un segmento y entregarlo a las peticiones que esperan
+     * la misma carga
+     *
+     * @param key          Path normalizado del segmento
+     * @param size         long con el tamaño del segmento
+     * @param lastModified long con la fecha de modificación del segmento
+     * @param carga        CompletableFuture que comparten las peticiones
+     * @param guardar      Booleano para guardar el segmento en la caché
+     * @return ByteBuffer de solo lectura con el segmento, o null si hay que
+     *         servirlo desde disco
+     * @throws IOException
+     */
+    private ByteBuffer cargarCompartido(Path key, long size, long lastModified, CompletableFuture<Entrada> carga,
+            boolean guardar) throws IOException {
+        Entrada entrada = null;
+        try {
+            // Solo lo que se queda en la caché va fuera del heap
+            ByteBuffer datos = this.cargar(key, size, guardar);
+            if (datos == null) {
+                return null;
+            }
+            entrada = new Entrada(datos, size, lastModified);
+            if (!guardar) {
+                return datos.duplicate();
+            }
+            synchronized (this) {
+                Entrada anterior = this.segmentos.put(key, entrada);
+                if (anterior != null) {
+                    this.bytesUsados -= anterior.size();
+                }
+                this.bytesUsados += size;
+                this.expulsar();
+            }
+            return datos.duplicate();
+        } finally {
+            synchronized (this) {
+                this.cargas.remove(key, carga);
+            }
+            // Si la lectura falla, las demás peticiones van a disco
+            carga.complete(entrada);
+        }
+    }
+
+    /**
+     * Función para leer un segmento de disco a un buffer
+     *
+     * @param path         Path del segmento
+     * @param size         long con el tamaño del segmento
+     * @param fueraDelHeap Booleano para leerlo a un buffer fuera del heap
+     * @return ByteBuffer de solo lectura, o null si el fichero ha cambiado
+     *         mientras se leía
+     * @throws IOException
+     */
+    protected ByteBuffer cargar(Path path, long size, boolean fueraDelHeap) throws IOException {
+        ByteBuffer buffer = fueraDelHeap ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Función para expulsar los segmentos menos usados hasta respetar el
+     * presupuesto de bytes
+     */
+    private void expulsar() {
+        Iterator<Map.Entry<Path, Entrada>> it = this.segmentos.entrySet().iterator();
+        while (this.bytesUsados > this.maxBytes && it.hasNext()) {
+            Map.Entry<Path, Entrada> entry = it.next();
+            this.bytesUsados -= entry.getValue().size();
+            it.remove();
+            this.evictions.increment();
+        }
+    }
+
+    /**
+     * Función para eliminar un segmento de la caché
+     *
+     * @param key Path del segmento
+     */
+    private void eliminar(Path key) {
+        Entrada entrada = this.segmentos.remove(key);
+        if (entrada != null) {
+            this.bytesUsados -= entrada.size();
+        }
+    }
+}
@@ -13,20 +13,29 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.FileSystemUtils;
 
 import com.sovereingschool.back_common.Exceptions.InternalServerException;
 import com.sovereingschool.back_common.Exceptions.NotFoundException;
@@ -34,18 +43,49 @@ import com.sovereingschool.back_common.Exceptions.RepositoryException;
 import com.sovereingschool.back_common.Models.Clase;
 import com.sovereingschool.back_common.Models.Curso;
 import com.sovereingschool.back_common.Repositories.ClaseRepository;
-import com.sovereingschool.back_streaming.Models.ResolutionProfile;
-import com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository;
+import com.sovereingschool.back_streaming.Models.Rendition;
+import com.sovereingschool.back_streaming.Models.TranscodingJob;
 import com.sovereingschool.back_streaming.Utils.GPUDetector;
+import com.sovereingschool.back_streaming.Utils.DashManifest;
+import com.sovereingschool.back_streaming.Utils.HlsStitcher;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 @Service
 @Transactional
-public class StreamingService {
+public class StreamingService implements MeterBinder {
+    /** Grupo y carpeta de la calidad de audio compartida */
+    public static final String GRUPO_AUDIO = "audio";
+
+    private static final String MODO_COMPLETO = "completo";
+    private static final String MODO_PARTES = "partes";
+
+    /**
+     * Split del video decodificado en el grafo de filtros de la escalera
+     */
+    private static final Pattern SPLIT = Pattern.compile("split=(\\d+)((?:\\[v\\d+\\])+)");
+
+    /**
+     * Alto y fps de la previsualización de OBS con los codificadores saturados
+     */
+    private static final int PREVIEW_ALTO_REDUCIDA = 360;
+    private static final int PREVIEW_FPS_REDUCIDA = 15;
+
     private final Map<String, Process> ffmpegProcesses = new ConcurrentHashMap<>();
 
     private final ClaseRepository claseRepo;
-    private final UsuarioCursosRepository usuarioCursosRepository;
-    private final MongoTemplate mongoTemplate;
+    private final SegmentCacheService segmentCacheService;
+    private final AccessCacheService accessCacheService;
+    private final ProgresoBufferService progresoBufferService;
+    private final TranscodingQueueService transcodingQueueService;
+    private final LadderService ladderService;
+    private final LlHlsService llHlsService;
+    private final LiveSegmentService liveSegmentService;
+    private final ProbeCacheService probeCacheService;
+    private final FFmpegTelemetryService ffmpegTelemetryService;
 
     private Logger logger = LoggerFactory.getLogger(StreamingService.class);
 
@@ -53,42 +93,90 @@ public class StreamingService {
 
     private Executor executor;
 
+    private final int segundosParte;
+    private final int maxPartes;
+    private final boolean dash;
+
+    private final Map<String, Timer> tiempos = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> velocidades = new ConcurrentHashMap<>();
+
     /**
      * Constructor de StreamingService
      *
-     * @param uploadDir               Ruta de carga de archivos
-     * @param claseRepo               Repositorio de clases
-     * @param usuarioCursosRepository Repositorio de usuarios y cursos
-     * @param mongoTemplate           MongoTemplate para operaciones de base de
-     *                                datos
+     * @param uploadDir             Ruta de carga de archivos
+     * @param claseRepo             Repositorio de clases
+     * @param segmentCacheService   Caché de segmentos HLS
+     * @param accessCacheService    Caché de accesos a las clases
+     * @param progresoBufferService   Buffer de escritura del progreso
+     * @param transcodingQueueService Cola de conversión de videos
+     * @param ladderService           Motor de la escalera de calidades
+     * @param llHlsService            Servicio de LL-HLS de los directos
+     * @param liveSegmentService      Anillo en memoria de los segmentos de
+     *                                directo
+     * @param probeCacheService       Caché de los resultados de ffprobe
+     * @param ffmpegTelemetryService  Telemetría de los procesos FFmpeg
+     * @param segundosParte           Duración mínima de cada parte al convertir
+     *                                por partes (0 = siempre en un solo proceso)
+     * @param maxPartes               Número máximo de partes por video
+     *                                (0 = la mitad de los núcleos)
+     * @param dash                    Booleano para escribir también el
+     *                                manifiesto DASH de los cursos CMAF
      */
     public StreamingService(
             @Value("${variable.VIDEOS_DIR}") String uploadDir,
             ClaseRepository claseRepo,
-            UsuarioCursosRepository usuarioCursosRepository,
-            MongoTemplate mongoTemplate) {
+            SegmentCacheService segmentCacheService,
+            AccessCacheService accessCacheService,
+            ProgresoBufferService progresoBufferService,
+            TranscodingQueueService transcodingQueueService,
+            LadderService ladderService,
+            LlHlsService llHlsService,
+            LiveSegmentService liveSegmentService,
+            ProbeCacheService probeCacheService,
+            FFmpegTelemetryService ffmpegTelemetryService,
+            @Value("${streaming.transcoding.chunk-seconds:300}") int segundosParte,
+            @Value("${streaming.transcoding.max-chunks:0}") int maxPartes,
+            @Value("${streaming.dash.enabled:true}") boolean dash) {
         this.uploadDir = uploadDir;
+        this.dash = dash;
+        this.segundosParte = segundosParte;
+        this.maxPartes = maxPartes > 0 ? maxPartes
+                : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
         this.claseRepo = claseRepo;
-        this.usuarioCursosRepository = usuarioCursosRepository;
-        this.mongoTemplate = mongoTemplate;
-        // Cambiar si hay más de una GPU, o si se procesan todos los videos con CPU
-        this.executor = Executors.newFixedThreadPool(1);
+        this.segmentCacheService = segmentCacheService;
+        this.accessCacheService = accessCacheService;
+        this.progresoBufferService = progresoBufferService;
+        this.transcodingQueueService = transcodingQueueService;
+        this.ladderService = ladderService;
+        this.llHlsService = llHlsService;
+        this.liveSegmentService = liveSegmentService;
+        this.probeCacheService = probeCacheService;
+        this.ffmpegTelemetryService = ffmpegTelemetryService;
+        // Un hilo por directo para leer la salida de FFmpeg; las conversiones
+        // van por la cola de conversión
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "FFmpegLog-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
-     * Función para convertir los videos de un curso en paralelo.
+     * Función para encolar la conversión de los videos de un curso.
+     * Las conversiones se ejecutan en la cola de conversión según las plazas
+     * libres de cada recurso.
      * 
      * @param curso Curso con los videos
      * @throws NotFoundException Si no hay clases en el curso
      */
-    @Async
     public void convertVideos(Curso curso) throws NotFoundException {
         if (curso.getClasesCurso() == null || curso.getClasesCurso().isEmpty()) {
             throw new NotFoundException("Curso sin clases");
         }
 
         Path baseUploadDir = Paths.get(uploadDir);
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int encolados = 0;
 
         for (Clase clase : curso.getClasesCurso()) {
             Path destinationPath = baseUploadDir.resolve(curso.getIdCurso().toString())
@@ -101,23 +189,53 @@ public class StreamingService {
                     !direccion.contains(".")) {
                 continue;
             }
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                String originalName = Thread.currentThread().getName();
-                try {
-                    Thread.currentThread().setName(originalName + "-Conv-Clase-" + clase.getIdClase());
-                    processSingleClase(curso, clase, baseUploadDir, destinationPath);
-                } catch (Exception e) {
-                    logger.error("Error en conversión de clase {}: {}", clase.getIdClase(), e.getMessage());
-                } finally {
-                    Thread.currentThread().setName(originalName);
-                }
-            }, this.executor);
-
-            futures.add(future);
+            this.transcodingQueueService.encolar(curso.getIdCurso(), clase.getIdClase(), direccion);
+            encolados++;
         }
 
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        logger.info("Finalizado proceso paralelo para curso {}", curso.getIdCurso());
+        logger.info("Encoladas {} conversiones del curso {}", encolados, curso.getIdCurso());
+    }
+
+    /**
+     * Función para registrar este servicio como procesador de la cola de
+     * conversión. Se registra el bean del contexto, no this, para que cada
+     * trabajo pase por el proxy transaccional; y antes de que la cola arranque
+     * y retome los trabajos pendientes.
+     *
+     * @param event ApplicationReadyEvent con el contexto de la aplicación
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void registrarProcesador(ApplicationReadyEvent event) {
+        StreamingService proxy = event.getApplicationContext().getBean(StreamingService.class);
+        this.transcodingQueueService.registrarProcesador(proxy::procesarTrabajo);
+    }
+
+    /**
+     * Función para convertir el video de un trabajo de la cola
+     * 
+     * @param job TranscodingJob con la clase a convertir
+     * @throws InternalServerException Si la conversión falla
+     */
+    public void procesarTrabajo(TranscodingJob job) throws InternalServerException {
+        Clase clase = this.claseRepo.findById(job.getIdClase())
+                .orElseThrow(() -> new InternalServerException("No existe la clase " + job.getIdClase()));
+        Curso curso = clase.getCursoClase();
+        if (curso == null) {
+            curso = new Curso();
+            curso.setIdCurso(job.getIdCurso());
+        }
+        clase.setDireccionClase(job.getOrigen());
+        Path baseUploadDir = Paths.get(uploadDir);
+        Path destinationPath = baseUploadDir.resolve(job.getIdCurso().toString())
+                .resolve(job.getIdClase().toString());
+        String originalName = Thread.currentThread().getName();
+        try {
+            Thread.currentThread().setName(originalName + "-Conv-Clase-" + job.getIdClase());
+            this.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+        } finally {
+            Thread.currentThread().setName(originalName);
+        }
     }
 
     /**
@@ -134,6 +252,28 @@ public class StreamingService {
     public void startLiveStreamingFromStream(String streamId, Object inputStream, String[] videoSetting)
             throws IOException, IllegalArgumentException, RepositoryException,
             InternalServerException {
+        this.startLiveStreamingFromStream(streamId, inputStream, videoSetting, null);
+    }
+
+    /**
+     * Función para iniciar la transmisión en vivo escribiendo también la
+     * previsualización de OBS.
+     * El mismo FFmpeg lee y decodifica el flujo una sola vez para la escalera y
+     * para la previsualización.
+     * 
+     * @param streamId     ID del flujo
+     * @param inputStream  InputStream con el flujo
+     * @param videoSetting String[] con la configuración de la transmisión
+     * @param preview      Path de la lista de la previsualización (null = sin
+     *                     previsualización)
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws RepositoryException
+     * @throws InternalServerException
+     */
+    public void startLiveStreamingFromStream(String streamId, Object inputStream, String[] videoSetting,
+            Path preview) throws IOException, IllegalArgumentException, RepositoryException,
+            InternalServerException {
         Clase clase = claseRepo.findByDireccionClase(streamId).orElseThrow(
                 () -> new RepositoryException("No se encuentra la clase con la dirección " + streamId));
         Long idCurso = clase.getCursoClase().getIdCurso();
@@ -143,47 +283,72 @@ public class StreamingService {
         claseRepo.updateClase(idClase, clase.getNombreClase(), clase.getTipoClase(),
                 outputDir.toString() + "/master.m3u8",
                 clase.getPosicionClase());
+        this.accessCacheService.invalidarClase(idCurso, idClase);
 
         if (!Files.exists(outputDir)) {
             Files.createDirectories(outputDir);
         }
+        // FFmpeg va a volver a escribir los segmentos de la clase
+        this.segmentCacheService.invalidarCarpeta(outputDir);
 
         List<String> ffmpegCommand;
         if (inputStream instanceof String str) {
             ffmpegCommand = this.creaComandoFFmpeg(str, true, videoSetting);
+            if (preview != null) {
+                ffmpegCommand = this.anadirPreview(ffmpegCommand, preview);
+            }
         } else if (inputStream instanceof InputStream) {
             ffmpegCommand = this.creaComandoFFmpeg("pipe:0", true, videoSetting);
         } else {
             logger.error("Tipo de entrada no soportado");
             return;
         }
-        ProcessBuilder processBuilder = new ProcessBuilder(ffmpegCommand);
+        ProcessBuilder processBuilder = new ProcessBuilder(conProgreso(ffmpegCommand));
 
         processBuilder.directory(outputDir.toFile());
         processBuilder.redirectErrorStream(true);
 
-        Process process = processBuilder.start();
+        // Los segmentos del directo se copian a memoria según FFmpeg los termina
+        this.liveSegmentService.iniciar(outputDir);
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            this.liveSegmentService.finalizar(outputDir);
+            throw e;
+        }
         String processKey = streamId.substring(streamId.lastIndexOf("_") + 1);
         ffmpegProcesses.put(processKey, process);
+        TranscodingJob job = this.transcodingQueueService.iniciarDirecto(idCurso, idClase);
+        FFmpegTelemetryService.Trabajo trabajo = this.ffmpegTelemetryService.iniciar("directo clase " + idClase,
+                true);
 
         executor.execute(() -> {
             String originalName = Thread.currentThread().getName();
             Thread.currentThread().setName("FFmpegLog-" + processKey);
+            String error = null;
 
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 String line;
                 boolean sdpSent = false;
                 while ((line = reader.readLine()) != null) {
-                    System.out.println("FFmpeg clase " + clase.getIdClase() + ": " + line);
+                    trabajo.procesarLinea(line);
                     if (!sdpSent && inputStream instanceof InputStream sdpStream && line.contains("ffmpeg version")) {
                         sdpSent = this.sendSDP(process, sdpStream);
                     }
                 }
             } catch (IOException e) {
+                error = e.getMessage();
                 logger.error("Error leyendo salida de FFmpeg para el stream {}: {}", processKey, e.getMessage());
             } finally {
                 Thread.currentThread().setName(originalName);
                 ffmpegProcesses.remove(processKey);
+                this.ffmpegTelemetryService.finalizar(trabajo);
+                this.liveSegmentService.finalizar(outputDir);
+                if (this.llHlsService.isActivo()) {
+                    this.cerrarGrabacion(outputDir, "clase " + idClase);
+                }
+                this.transcodingQueueService.finalizarDirecto(job, error);
             }
         });
     }
@@ -213,30 +378,45 @@ public class StreamingService {
     }
 
     /**
-     * Función para obtener la URL de la previsualización
+     * Función para obtener la URL de la previsualización.
+     * No espera a que FFmpeg la escriba: de eso se encarga la respuesta
+     * diferida del controlador.
      * 
      * @param idPreview ID de la previsualización
      * @return Path con la URL de la previsualización
-     * @throws InternalServerException
      */
-    public Path getPreview(String idPreview) throws InternalServerException {
+    public Path getPreview(String idPreview) {
         Path baseUploadDir = Paths.get(uploadDir);
         Path previewDir = baseUploadDir.resolve("previews");
-        Path m3u8 = previewDir.resolve(idPreview + ".m3u8");
-        while (!Files.exists(m3u8)) {
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new InternalServerException("Error al esperar a que se genere el preview: " + e.getMessage());
-            }
-        }
-        return m3u8;
+        return previewDir.resolve(idPreview + ".m3u8");
     }
 
+    /**
+     * Función para registrar un fragmento visto.
+     * El progreso se acumula en memoria y se guarda en Mongo por lotes.
+     *
+     * @param idUsuario    ID del usuario
+     * @param idCurso      ID del curso
+     * @param idClase      ID de la clase
+     * @param segmentIndex Índice del fragmento reproducido
+     */
     public void registrarProgreso(Long idUsuario, Long idCurso, Long idClase, int segmentIndex) {
-        // Delegar la actualización a la capa de repositorio
-        usuarioCursosRepository.updateProgress(idUsuario, idCurso, idClase, segmentIndex, mongoTemplate);
+        this.progresoBufferService.registrar(idUsuario, idCurso, idClase, segmentIndex);
+    }
+
+    /**
+     * Función para crear el comando FFmpeg con las tasas de bits completas de
+     * los perfiles
+     * 
+     * @param inputFilePath String con la ruta del flujo
+     * @param live          Booleano con el tipo de transmisión
+     * @param videoSetting  String[] con la configuración de la transmisión
+     * @return List<String> con el comando FFmpeg
+     * @throws InternalServerException
+     */
+    protected List<String> creaComandoFFmpeg(String inputFilePath, boolean live, String[] videoSetting)
+            throws InternalServerException {
+        return this.creaComandoFFmpeg(inputFilePath, live, videoSetting, 1.0, false);
     }
 
     /**
@@ -245,13 +425,17 @@ public class StreamingService {
      * @param inputFilePath String con la ruta del flujo
      * @param live          Booleano con el tipo de transmisión
      * @param videoSetting  String[] con la configuración de la transmisión
+     * @param complejidad   double con la complejidad del video para recortar las
+     *                      tasas de bits (1 = las de los perfiles)
+     * @param cmaf          Booleano para generar segmentos fMP4 (CMAF) en lugar
+     *                      de MPEG-TS
      * @return List<String> con el comando FFmpeg
      * @throws IOException
      * @throws InterruptedException
      * @throws InternalServerException
      */
-    protected List<String> creaComandoFFmpeg(String inputFilePath, boolean live, String[] videoSetting)
-            throws InternalServerException {
+    protected List<String> creaComandoFFmpeg(String inputFilePath, boolean live, String[] videoSetting,
+            double complejidad, boolean cmaf) throws InternalServerException {
 
         String[] settings;
         boolean tieneAudio;
@@ -276,7 +460,8 @@ public class StreamingService {
         int inputFps = Integer.parseInt(settings[2]);
 
         // 2. Calcular perfiles y detectar aceleración
-        List<ResolutionProfile> resolutionPairs = this.calculateResolutionPairs(inputWidth * inputHeight, inputFps);
+        List<Rendition> resolutionPairs = this.ladderService.seleccionar(inputWidth, inputHeight, inputFps,
+                complejidad);
         GPUDetector.VideoAcceleration accel = GPUDetector.detectAcceleration();
 
         // 3. Construcción del comando base
@@ -295,18 +480,45 @@ public class StreamingService {
         command.add(buildStreamMap(resolutionPairs, tieneAudio));
 
         // 5. Configuración HLS
+        // En LL-HLS FFmpeg escribe las partes como segmentos fMP4 cortados por
+        // tiempo y LlHlsService las agrupa en segmentos que empiezan en un
+        // fotograma clave.
+        // En los directos temp_file hace que cada segmento aparezca completo de
+        // una vez, que es cuando LiveSegmentService lo copia a memoria
+        boolean llHls = live && this.llHlsService.isActivo();
         String hlsPlaylistType = live ? "event" : "vod";
-        String hlsFlags = live ? "independent_segments+append_list+program_date_time" : "independent_segments";
+        String hlsTime = llHls ? String.format(Locale.ROOT, "%.3f", this.llHlsService.getDuracionParte())
+                : String.valueOf(LlHlsService.SEGUNDOS_SEGMENTO);
+        String hlsFlags;
+        if (llHls) {
+            hlsFlags = "split_by_time+append_list+program_date_time+temp_file";
+        } else {
+            hlsFlags = live ? "independent_segments+append_list+program_date_time+temp_file"
+                    : "independent_segments";
+        }
 
+        if (llHls) {
+            command.addAll(List.of("-force_key_frames",
+                    "expr:gte(t,n_forced*" + LlHlsService.SEGUNDOS_SEGMENTO + ")"));
+        }
         command.addAll(List.of(
                 "-master_pl_name", "master.m3u8",
                 "-f", "hls",
-                "-hls_time", "2",
+                "-hls_time", hlsTime,
                 "-hls_playlist_type", hlsPlaylistType,
-                "-hls_flags", hlsFlags,
-                "-hls_segment_type", "mpegts",
-                "-hls_segment_filename", "%v/data%05d.ts",
-                "%v/stream.m3u8"));
+                "-hls_flags", hlsFlags));
+        if (cmaf || llHls) {
+            // Un segmento de inicialización por calidad y fragmentos .m4s
+            command.addAll(List.of(
+                    "-hls_segment_type", "fmp4",
+                    "-hls_fmp4_init_filename", "init_%v.mp4",
+                    "-hls_segment_filename", "%v/" + (llHls ? LlHlsService.FORMATO_PARTE : "data%05d.m4s")));
+        } else {
+            command.addAll(List.of(
+                    "-hls_segment_type", "mpegts",
+                    "-hls_segment_filename", "%v/data%05d.ts"));
+        }
+        command.add("%v/stream.m3u8");
 
         // Guardar original si es live (RTMP o WebRTC)
         if (live) {
@@ -320,6 +532,154 @@ public class StreamingService {
         return command;
     }
 
+    /**
+     * Función para crear el comando FFmpeg de la previsualización de OBS antes
+     * de empezar el directo.
+     * Usa la misma aceleración que los directos y, en las máquinas sin GPU,
+     * libx264 ultrafast/zerolatency.
+     * 
+     * @param rtmpUrl String con la URL del flujo RTMP
+     * @param m3u8    Path de la lista de la previsualización
+     * @return List<String> con el comando FFmpeg
+     */
+    public List<String> creaComandoPreview(String rtmpUrl, Path m3u8) {
+        return this.creaComandoPreview(rtmpUrl, m3u8, this.codificadorSaturado());
+    }
+
+    /**
+     * Función para crear el comando FFmpeg de la previsualización de OBS con
+     * una calidad concreta.
+     * El manejador de OBS la vuelve a crear cuando cambia la saturación de
+     * los codificadores.
+     * 
+     * @param rtmpUrl  String con la URL del flujo RTMP
+     * @param m3u8     Path de la lista de la previsualización
+     * @param reducida Booleano para bajar la previsualización a
+     *                 PREVIEW_ALTO_REDUCIDA líneas y PREVIEW_FPS_REDUCIDA fps
+     * @return List<String> con el comando FFmpeg
+     */
+    public List<String> creaComandoPreview(String rtmpUrl, Path m3u8, boolean reducida) {
+        GPUDetector.VideoAcceleration accel = GPUDetector.detectAcceleration();
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.addAll(List.of("-loglevel", "warning"));
+        applyHardwareAcceleration(command, accel);
+        command.addAll(List.of("-re", "-fflags", "nobuffer", "-i", rtmpUrl));
+
+        String subida = switch (accel) {
+            case VAAPI -> "format=nv12,hwupload";
+            case NVIDIA -> "format=nv12,hwupload_cuda";
+            default -> "format=yuv420p";
+        };
+        command.addAll(List.of("-vf", reducida ? subida + "," + filtroPreviewReducida(accel) : subida));
+        command.addAll(opcionesPreview(accel, m3u8));
+        if (logger.isInfoEnabled()) {
+            logger.info("Comando FFmpeg de la previsualización{}: {}", reducida ? " (reducida)" : "",
+                    String.join(" ", command));
+        }
+        return command;
+    }
+
+    /**
+     * Función para añadir al comando de un directo la salida de la
+     * previsualización de OBS.
+     * La previsualización es una rama más del split del grafo de filtros: usa
+     * los fotogramas ya decodificados (y subidos a la GPU) de la escalera y se
+     * codifica en HLS de baja latencia con el codificador de la aceleración.
+     * La calidad de la rama se decide al empezar el directo: cambiarla después
+     * obligaría a reiniciar el FFmpeg de la clase y cortar la emisión.
+     * 
+     * @param command List<String> con el comando FFmpeg del directo
+     * @param m3u8    Path de la lista de la previsualización
+     * @return List<String> con el comando FFmpeg con la salida de la
+     *         previsualización, o el mismo comando si no tiene split
+     */
+    protected List<String> anadirPreview(List<String> command, Path m3u8) {
+        int grafo = command.indexOf("-filter_complex") + 1;
+        Matcher split = grafo > 0 ? SPLIT.matcher(command.get(grafo)) : null;
+        if (split == null || !split.find()) {
+            logger.warn("El comando del directo no tiene split, se omite la previsualización");
+            return command;
+        }
+        GPUDetector.VideoAcceleration accel = GPUDetector.detectAcceleration();
+        int ramas = Integer.parseInt(split.group(1)) + 1;
+        String rama = split.replaceFirst("split=" + ramas + "$2[vprev]");
+        String salida = "[vprev]";
+        if (this.codificadorSaturado()) {
+            rama += ";[vprev]" + filtroPreviewReducida(accel) + "[vprevout]";
+            salida = "[vprevout]";
+        }
+        List<String> resultado = new ArrayList<>(command);
+        resultado.set(grafo, rama);
+        resultado.addAll(List.of("-map", salida));
+        resultado.addAll(opcionesPreview(accel, m3u8));
+        return resultado;
+    }
+
+    /**
+     * Función para saber si los codificadores de la máquina están saturados:
+     * no quedan plazas de su recurso en la cola de conversión o algún directo
+     * no llega al tiempo real
+     * 
+     * @return boolean true si la previsualización debe ser más ligera
+     */
+    public boolean codificadorSaturado() {
+        Integer libres = this.transcodingQueueService.getPlazasLibres()
+                .get(this.transcodingQueueService.getRecurso());
+        return (libres != null && libres <= 0) || this.ffmpegTelemetryService.hayRetrasados();
+    }
+
+    /**
+     * Función para crear el filtro que reduce la previsualización cuando los
+     * codificadores están saturados: PREVIEW_ALTO_REDUCIDA líneas a
+     * PREVIEW_FPS_REDUCIDA fps
+     * 
+     * @param accel GPUDetector.VideoAcceleration con la aceleración de hardware
+     * @return String con el filtro, sobre fotogramas ya subidos a la GPU
+     */
+    private static String filtroPreviewReducida(GPUDetector.VideoAcceleration accel) {
+        String fps = "fps=" + PREVIEW_FPS_REDUCIDA + ",";
+        return switch (accel) {
+            case VAAPI -> fps + "scale_vaapi=w=-2:h=" + PREVIEW_ALTO_REDUCIDA;
+            case NVIDIA -> fps + "scale_cuda=w=-2:h=" + PREVIEW_ALTO_REDUCIDA;
+            default -> fps + "scale=w=-2:h=" + PREVIEW_ALTO_REDUCIDA;
+        };
+    }
+
+    /**
+     * Función para crear las opciones de salida de la previsualización: audio,
+     * codificador de la aceleración y HLS de baja latencia
+     * 
+     * @param accel GPUDetector.VideoAcceleration con la aceleración de hardware
+     * @param m3u8  Path de la lista de la previsualización
+     * @return List<String> con las opciones de FFmpeg
+     */
+    private static List<String> opcionesPreview(GPUDetector.VideoAcceleration accel, Path m3u8) {
+        String nombre = m3u8.getFileName().toString();
+        String previewId = nombre.substring(0, nombre.length() - ".m3u8".length());
+        Path segmentos = m3u8.toAbsolutePath().resolveSibling(previewId);
+        List<String> opciones = new ArrayList<>(List.of("-map", "0:a:0?"));
+        opciones.addAll(switch (accel) {
+            case VAAPI -> List.of("-c:v", "h264_vaapi", "-qp", "24");
+            case NVIDIA -> List.of("-c:v", "h264_nvenc", "-preset", "p1", "-tune", "ll");
+            default -> List.of("-c:v", "libx264", "-preset", "ultrafast", "-tune", "zerolatency");
+        });
+        // append_list continúa la numeración de la previsualización que había
+        // antes de empezar el directo
+        opciones.addAll(List.of(
+                "-c:a", "aac",
+                "-g", "10",
+                "-f", "hls",
+                "-hls_time", "0.5",
+                "-hls_list_size", "2",
+                "-hls_flags", "delete_segments+independent_segments+program_date_time+append_list",
+                "-hls_segment_type", "mpegts",
+                "-hls_segment_filename", segmentos + "/%03d.ts",
+                "-hls_base_url", previewId + "/",
+                m3u8.toAbsolutePath().toString()));
+        return opciones;
+    }
+
     /**
      * Función para aplicar la aceleración de hardware
      * 
@@ -365,12 +725,12 @@ public class StreamingService {
      * Función para resolver los filtros
      * 
      * @param accel    GPUDetector.VideoAcceleration con la aceleración de hardware
-     * @param profiles List<ResolutionProfile> con los perfiles de resolución
+     * @param profiles List<Rendition> con los perfiles de resolución
      * @return List<String> con los filtros FFmpeg
      * @throws IOException
      * @throws InterruptedException
      */
-    protected List<String> resolveFilters(GPUDetector.VideoAcceleration accel, List<ResolutionProfile> profiles) {
+    protected List<String> resolveFilters(GPUDetector.VideoAcceleration accel, List<Rendition> profiles) {
         return switch (accel) {
             case VAAPI -> createIntelGPUFilter(profiles);
             case NVIDIA -> createNvidiaGPUFilter(profiles);
@@ -379,29 +739,50 @@ public class StreamingService {
     }
 
     /**
-     * Función para construir el stream map
+     * Función para construir el stream map.
+     * Con audio, todas las calidades de video comparten una única calidad de
+     * audio en el grupo GRUPO_AUDIO (EXT-X-MEDIA en la lista maestra).
      * 
-     * @param profiles   List<ResolutionProfile> con los perfiles de resolución
+     * @param profiles   List<Rendition> con los perfiles de resolución
      * @param tieneAudio Booleano con si hay audio
      * @return String con el stream map
      */
-    protected String buildStreamMap(List<ResolutionProfile> profiles, boolean tieneAudio) {
+    protected String buildStreamMap(List<Rendition> profiles, boolean tieneAudio) {
         StringBuilder sb = new StringBuilder();
+        // Si no hay audio, NO incluimos la referencia 'a:' en el stream map
+        if (tieneAudio) {
+            sb.append(String.format("a:0,agroup:%s,default:yes,name:%s", GRUPO_AUDIO, GRUPO_AUDIO));
+        }
         for (int i = 0; i < profiles.size(); i++) {
-            ResolutionProfile p = profiles.get(i);
-            if (i > 0)
+            Rendition p = profiles.get(i);
+            if (sb.length() > 0)
                 sb.append(" ");
-
-            // Si no hay audio, NO incluimos la referencia 'a:' en el stream map
+            sb.append("v:").append(i);
             if (tieneAudio) {
-                sb.append(String.format("v:%d,a:%d,name:%dx%d@%d", i, i, p.getWidth(), p.getHeight(), p.getFps()));
-            } else {
-                sb.append(String.format("v:%d,name:%dx%d@%d", i, p.getWidth(), p.getHeight(), p.getFps()));
+                sb.append(",agroup:").append(GRUPO_AUDIO);
             }
+            sb.append(String.format(",name:%dx%d@%d", p.getWidth(), p.getHeight(), p.getFps()));
         }
         return sb.toString();
     }
 
+    /**
+     * Función para mapear el audio una sola vez para todas las calidades.
+     * Se codifica con la tasa de la calidad mayor.
+     * 
+     * @param profiles List<Rendition> con los perfiles de resolución, de mayor a
+     *                 menor
+     * @return List<String> con las opciones de audio de FFmpeg
+     */
+    protected List<String> createAudioMap(List<Rendition> profiles) {
+        if (profiles == null || profiles.isEmpty())
+            return Collections.emptyList();
+        // Usamos '?' para que no falle si no hay audio, aunque en var_stream_map ya lo
+        // gestionamos
+        return Arrays.asList("-map", "0:a:0?", "-c:a:0", "aac", "-b:a:0", profiles.get(0).getAudioBitrate(),
+                "-ac", "2");
+    }
+
     /**
      * Función para enviar el SDP a FFmpeg
      * 
@@ -430,7 +811,8 @@ public class StreamingService {
     }
 
     /**
-     * Función para obtener la información de la resolución del video
+     * Función para obtener la información de la resolución del video.
+     * El resultado se guarda en ProbeCacheService por contenido.
      * 
      * @param inputFilePath String con la ruta del flujo
      * @return String[] con la información de la resolución del video
@@ -445,6 +827,14 @@ public class StreamingService {
         String fps = null;
         String audioCodec = null;
 
+        // Un video ya analizado (reintento, otra clase con el mismo fichero) no
+        // lanza otro ffprobe
+        String huella = this.probeCacheService.huella(inputFilePath);
+        String[] cacheados = this.probeCacheService.obtenerAjustes(huella);
+        if (cacheados != null) {
+            return cacheados;
+        }
+
         logger.info("Obteniendo la resolución del video con ffprobe");
         // Buscamos info de video y audio simultáneamente
         ProcessBuilder processBuilder = new ProcessBuilder("ffprobe",
@@ -488,7 +878,9 @@ public class StreamingService {
 
             logger.info("Resolución: {}x{}@{} | Audio: {}", width, height, fps,
                     (audioCodec != null ? audioCodec : "NONE"));
-            return new String[] { width, height, fps, audioCodec };
+            String[] ajustes = new String[] { width, height, fps, audioCodec };
+            this.probeCacheService.guardarAjustes(huella, ajustes);
+            return ajustes;
         } catch (IOException e) {
             throw new InternalServerException("Error al leer la salida de ffprobe: " + e.getMessage());
         } catch (InterruptedException e) {
@@ -497,28 +889,13 @@ public class StreamingService {
         }
     }
 
-    /**
-     * Función para calcular los perfiles de resolución
-     * 
-     * @param totalPixels Integer con el número total de píxeles
-     * @param inputFps    Integer con el FPS del flujo
-     * @return List<ResolutionProfile> con los perfiles de resolución
-     */
-    protected List<ResolutionProfile> calculateResolutionPairs(int totalPixels, int inputFps) {
-        return Arrays.stream(ResolutionProfile.values())
-                .filter(r -> r.getWidth() * r.getHeight() <= totalPixels
-                        && (r.getFps() == 30 || r.getFps() <= inputFps))
-                .sorted((a, b) -> Integer.compare(b.getWidth() * b.getHeight(), a.getWidth() * a.getHeight()))
-                .distinct().toList();
-    }
-
     /**
      * Función para crear el filtro CPU
      * 
-     * @param profiles List<ResolutionProfile> con los perfiles de resolución
+     * @param profiles List<Rendition> con los perfiles de resolución
      * @return List<String> con los filtros FFmpeg
      */
-    protected List<String> createCPUFilter(List<ResolutionProfile> profiles) {
+    protected List<String> createCPUFilter(List<Rendition> profiles) {
         if (profiles == null || profiles.isEmpty())
             return Collections.emptyList();
         int n = profiles.size();
@@ -528,36 +905,31 @@ public class StreamingService {
         for (int i = 0; i < n; i++)
             graph.append("[v").append(i + 1).append("]");
         for (int i = 0; i < n; i++) {
-            ResolutionProfile rp = profiles.get(i);
+            Rendition rp = profiles.get(i);
             graph.append(";[v").append(i + 1).append("]scale=w=").append(rp.getWidth()).append(":h=")
                     .append(rp.getHeight()).append("[v").append(i + 1).append("out]");
         }
         filters.add(graph.toString());
 
         for (int i = 0; i < n; i++) {
-            ResolutionProfile rp = profiles.get(i);
+            Rendition rp = profiles.get(i);
             filters.addAll(Arrays.asList("-map", "[v" + (i + 1) + "out]", "-c:v:" + i, "libx264", "-profile:v:" + i,
                     rp.getProfile(), "-level:v:" + i, rp.getLevel(), "-b:v:" + i, rp.getBitrate(), "-maxrate:v:" + i,
                     rp.getMaxrate(), "-bufsize:v:" + i, rp.getBufsize(), "-g", String.valueOf(rp.getFps()),
                     "-keyint_min", String.valueOf(rp.getFps())));
         }
 
-        for (int i = 0; i < n; i++) {
-            filters.addAll(Arrays.asList("-map", "0:a:0?", "-c:a:" + i, "aac", "-b:a:" + i,
-                    profiles.get(i).getAudioBitrate()));
-            if (i == 0)
-                filters.addAll(Arrays.asList("-ac", "2"));
-        }
+        filters.addAll(createAudioMap(profiles));
         return filters;
     }
 
     /**
      * Función para crear el filtro GPU Intel
      * 
-     * @param profiles List<ResolutionProfile> con los perfiles de resolución
+     * @param profiles List<Rendition> con los perfiles de resolución
      * @return List<String> con los filtros FFmpeg
      */
-    protected List<String> createIntelGPUFilter(List<ResolutionProfile> profiles) {
+    protected List<String> createIntelGPUFilter(List<Rendition> profiles) {
         List<String> filters = new ArrayList<>();
         // Forzamos nv12 para compatibilidad con streams yuv444p
         StringBuilder filtroBuilder = new StringBuilder("[0:v]format=nv12,hwupload,split=");
@@ -572,31 +944,24 @@ public class StreamingService {
         filters.add(filtroBuilder.toString());
 
         for (int i = 0; i < profiles.size(); i++) {
-            ResolutionProfile rp = profiles.get(i);
+            Rendition rp = profiles.get(i);
             filters.addAll(Arrays.asList("-map", "[v" + (i + 1) + "out]", "-c:v:" + i, "h264_vaapi", "-profile:v:" + i,
                     rp.getProfile(), "-level:v:" + i, rp.getLevel(), "-b:v:" + i, rp.getBitrate(), "-maxrate:v:" + i,
                     rp.getMaxrate(), "-bufsize:v:" + i, rp.getBufsize(), "-g", String.valueOf(rp.getFps()),
                     "-keyint_min", String.valueOf(rp.getFps())));
         }
 
-        for (int i = 0; i < profiles.size(); i++) {
-            // Usamos '?' para que no falle si no hay audio, aunque en var_stream_map ya lo
-            // gestionamos
-            filters.addAll(Arrays.asList("-map", "0:a:0?", "-c:a:" + i, "aac", "-b:a:" + i,
-                    profiles.get(i).getAudioBitrate()));
-            if (i == 0)
-                filters.addAll(Arrays.asList("-ac", "2"));
-        }
+        filters.addAll(createAudioMap(profiles));
         return filters;
     }
 
     /**
      * Función para crear el filtro GPU NVIDIA
      * 
-     * @param profiles List<ResolutionProfile> con los perfiles de resolución
+     * @param profiles List<Rendition> con los perfiles de resolución
      * @return List<String> con los filtros FFmpeg
      */
-    protected List<String> createNvidiaGPUFilter(List<ResolutionProfile> profiles) {
+    protected List<String> createNvidiaGPUFilter(List<Rendition> profiles) {
         if (profiles == null || profiles.isEmpty())
             return Collections.emptyList();
         List<String> filters = new ArrayList<>();
@@ -606,26 +971,21 @@ public class StreamingService {
         for (int i = 0; i < n; i++)
             filtro.append("[v").append(i + 1).append("]");
         for (int i = 0; i < n; i++) {
-            ResolutionProfile rp = profiles.get(i);
+            Rendition rp = profiles.get(i);
             filtro.append(";[v").append(i + 1).append("]").append("scale_cuda=w=").append(rp.getWidth()).append(":h=")
                     .append(rp.getHeight()).append("[v").append(i + 1).append("out]");
         }
         filters.add(filtro.toString());
 
         for (int i = 0; i < n; i++) {
-            ResolutionProfile rp = profiles.get(i);
+            Rendition rp = profiles.get(i);
             filters.addAll(Arrays.asList("-map", "[v" + (i + 1) + "out]", "-c:v:" + i, "h264_nvenc", "-profile:v:" + i,
                     rp.getProfile(), "-level:v:" + i, rp.getLevel(), "-b:v:" + i, rp.getBitrate(), "-maxrate:v:" + i,
                     rp.getMaxrate(), "-bufsize:v:" + i, rp.getBufsize(), "-g", String.valueOf(rp.getFps()),
                     "-keyint_min", String.valueOf(rp.getFps())));
         }
 
-        for (int i = 0; i < n; i++) {
-            filters.addAll(Arrays.asList("-map", "0:a:0?", "-c:a:" + i, "aac", "-b:a:" + i,
-                    profiles.get(i).getAudioBitrate()));
-            if (i == 0)
-                filters.addAll(Arrays.asList("-ac", "2"));
-        }
+        filters.addAll(createAudioMap(profiles));
         return filters;
     }
 
@@ -647,50 +1007,410 @@ public class StreamingService {
         try {
             Files.createDirectories(destinationPath);
             targetPath = destinationPath.resolve(inputPath.getFileName());
-            Files.move(inputPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            // En un reintento el video ya puede estar movido
+            if (!Files.exists(targetPath) || Files.exists(inputPath)) {
+                Files.move(inputPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (Exception e) {
             logger.error("Error en mover el video de la clase {}: {}", clase.getIdClase(), e.getMessage());
             throw new InternalServerException("Error en mover el video de la clase " + clase.getIdClase());
         }
 
-        List<String> ffmpegCommand = this.creaComandoFFmpeg(targetPath.toAbsolutePath().toString(), false, null);
-
-        if (ffmpegCommand != null) {
-            ProcessBuilder processBuilder = new ProcessBuilder(ffmpegCommand);
-            processBuilder.directory(destinationPath.toFile());
-            processBuilder.redirectErrorStream(true);
-            try {
-                Process process = processBuilder.start();
-
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.out.println("FFmpeg [Clase " + clase.getIdClase() + "]: " + line);
-                    }
-                } catch (IOException e) {
-                    process.destroy();
-                    logger.error("Error leyendo salida de FFmpeg en clase {}: {}", clase.getIdClase(), e.getMessage());
+        // FFmpeg va a volver a escribir los segmentos de la clase
+        this.segmentCacheService.invalidarCarpeta(destinationPath);
+
+        String input = targetPath.toAbsolutePath().toString();
+        String etiqueta = "clase " + clase.getIdClase();
+        long inicio = System.nanoTime();
+        // La duración sirve para partir el video y para analizar su centro
+        double duracion = this.duracionVideo(input);
+        // Una sola medida por video para que todas las partes usen la misma escalera
+        double complejidad = this.ladderService.analizarComplejidad(input, duracion);
+        boolean cmaf = Boolean.TRUE.equals(curso.getCmafCurso());
+        // El trabajo ya ocupa una plaza; cada parte más ocupa otra plaza libre
+        // de la cola, y si no las hay se convierte en menos partes
+        int extra = this.transcodingQueueService.reservarPlazas(this.calcularPartes(duracion) - 1);
+        int partes = 1 + extra;
+        try {
+            if (partes > 1) {
+                this.convertirPorPartes(input, destinationPath, duracion, partes, complejidad, cmaf, etiqueta);
+            } else {
+                List<String> ffmpegCommand = this.creaComandoFFmpeg(input, false, null, complejidad, cmaf);
+                if (ffmpegCommand == null) {
                     return;
                 }
+                this.ejecutarFFmpeg(ffmpegCommand, destinationPath, etiqueta, null);
+            }
+        } finally {
+            this.transcodingQueueService.liberarPlazas(extra);
+        }
+        if (cmaf && this.dash) {
+            this.escribirManifiestoDash(destinationPath, etiqueta);
+        }
 
-                int exitCode = process.waitFor();
-                if (exitCode != 0) {
-                    logger.warn("FFmpeg terminó con errores (code {}) en clase {}", exitCode, clase.getIdClase());
-                    return;
+        clase.setDireccionClase(destinationPath.resolve("master.m3u8").toString());
+        clase.setCursoClase(curso);
+        this.claseRepo.save(clase);
+        this.accessCacheService.invalidarClase(curso.getIdCurso(), clase.getIdClase());
+        this.registrarConversion(partes > 1 ? MODO_PARTES : MODO_COMPLETO, duracion, System.nanoTime() - inicio);
+        logger.info("Clase {} convertida con éxito en {} parte(s).", clase.getIdClase(), partes);
+    }
+
+    /**
+     * Función para dejar la grabación de un directo LL-HLS como un video
+     * normal, con segmentos completos en lugar de partes. Si no se puede, la
+     * clase sigue disponible con la lista de partes.
+     *
+     * @param destino  Path de la carpeta de la clase
+     * @param etiqueta String para identificar el directo en los logs
+     */
+    protected void cerrarGrabacion(Path destino, String etiqueta) {
+        try {
+            int calidades = this.llHlsService.cerrarGrabacion(destino);
+            this.segmentCacheService.invalidarCarpeta(destino);
+            logger.info("Grabación de la {} cerrada en {} calidad(es)", etiqueta, calidades);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("No se pudo cerrar la grabación de la {}: {}", etiqueta, e.getMessage());
+        }
+    }
+
+    /**
+     * Función para escribir el manifiesto DASH junto a master.m3u8.
+     * Reutiliza los fragmentos fMP4 de HLS; si no se puede escribir la clase
+     * sigue disponible por HLS.
+     *
+     * @param destino  Path de la carpeta de la clase
+     * @param etiqueta String para identificar la conversión en los logs
+     */
+    protected void escribirManifiestoDash(Path destino, String etiqueta) {
+        try {
+            DashManifest.escribir(destino);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("No se pudo escribir el manifiesto DASH de la {}: {}", etiqueta, e.getMessage());
+        }
+    }
+
+    /**
+     * Función para calcular en cuántas partes se convierte un video.
+     * Solo se parte en CPU: los codificadores de GPU ya van más rápido que el
+     * tiempo real y sus sesiones las limita la cola de conversión.
+     *
+     * @param duracion double con la duración del video en segundos
+     * @return int con el número de partes, 1 para convertir en un solo proceso
+     */
+    protected int calcularPartes(double duracion) {
+        if (this.segundosParte <= 0 || duracion < 2.0 * this.segundosParte
+                || this.transcodingQueueService.getRecurso() != GPUDetector.VideoAcceleration.CPU) {
+            return 1;
+        }
+        return (int) Math.min(this.maxPartes, Math.floor(duracion / this.segundosParte));
+    }
+
+    /**
+     * Función para convertir un video por partes.
+     * Corta el video en los keyframes sin recodificar, convierte las partes en
+     * paralelo con la misma escalera de calidades y une las salidas HLS.
+     *
+     * @param input       String con la ruta del video
+     * @param destino     Path de la carpeta de la clase
+     * @param duracion    double con la duración del video en segundos
+     * @param partes      int con el número de partes
+     * @param complejidad double con la complejidad del video
+     * @param cmaf        Booleano para generar segmentos fMP4
+     * @param etiqueta    String con la clase para los logs
+     * @throws InternalServerException Si falla el corte, alguna parte o la
+     *                                 unión
+     */
+    protected void convertirPorPartes(String input, Path destino, double duracion, int partes, double complejidad,
+            boolean cmaf, String etiqueta) throws InternalServerException {
+        Path trabajo = destino.resolve(".partes");
+        try {
+            FileSystemUtils.deleteRecursively(trabajo);
+            Files.createDirectories(trabajo);
+        } catch (IOException e) {
+            logger.error("Error al preparar las partes de la {}: {}", etiqueta, e.getMessage());
+            throw new InternalServerException("Error al preparar las partes de la " + etiqueta);
+        }
+
+        try {
+            // 1. Cortar en los keyframes sin recodificar
+            this.ejecutarFFmpeg(List.of("ffmpeg", "-loglevel", "error", "-i", input,
+                    "-map", "0:v:0", "-map", "0:a:0?", "-c", "copy",
+                    "-f", "segment", "-segment_time", String.format(Locale.ROOT, "%.3f", duracion / partes),
+                    "-reset_timestamps", "1",
+                    "-segment_list", "partes.csv", "-segment_list_type", "csv",
+                    "parte%03d.mkv"), trabajo, "corte de la " + etiqueta, null);
+            List<String[]> cortes = this.leerCortes(trabajo.resolve("partes.csv"), etiqueta);
+
+            // 2. Convertir las partes en paralelo
+            List<Path> carpetas = new ArrayList<>();
+            List<Process> procesos = Collections.synchronizedList(new ArrayList<>());
+            int hilos = this.transcodingQueueService.getHilosPorPlaza();
+            try (ExecutorService pool = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("FFmpegParte-", 0).factory())) {
+                List<Future<Void>> futuros = new ArrayList<>();
+                for (int i = 0; i < cortes.size(); i++) {
+                    String[] corte = cortes.get(i);
+                    Path carpeta = trabajo.resolve(String.format("%03d", i));
+                    carpetas.add(carpeta);
+                    String etiquetaParte = "parte " + i + " de la " + etiqueta;
+                    futuros.add(pool.submit(() -> {
+                        this.convertirParte(trabajo.resolve(corte[0]), carpeta, corte[1], complejidad, cmaf, hilos,
+                                etiquetaParte, procesos);
+                        return null;
+                    }));
                 }
+                this.esperarPartes(futuros, procesos, etiqueta);
+            }
 
-                clase.setDireccionClase(destinationPath.resolve("master.m3u8").toString());
-                clase.setCursoClase(curso);
-                this.claseRepo.save(clase);
-                logger.info("Clase {} convertida con éxito.", clase.getIdClase());
+            // 3. Unir las salidas con la numeración de segmentos continua
+            HlsStitcher.unir(carpetas, destino);
+        } catch (IOException e) {
+            logger.error("Error al unir las partes de la {}: {}", etiqueta, e.getMessage());
+            throw new InternalServerException("Error al unir las partes de la " + etiqueta);
+        } finally {
+            // Las partes ocupan tanto como el video: no se dejan aunque falle
+            try {
+                FileSystemUtils.deleteRecursively(trabajo);
             } catch (IOException e) {
-                logger.error("Error al convertir la clase {}: {}", clase.getIdClase(), e.getMessage());
-                throw new InternalServerException("Error al convertir la clase " + clase.getIdClase());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.error("Error al convertir la clase {}: {}", clase.getIdClase(), e.getMessage());
-                throw new InternalServerException("Error al convertir la clase " + clase.getIdClase());
+                logger.warn("No se pudieron borrar las partes de la {}: {}", etiqueta, e.getMessage());
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Función para convertir una parte de un video
+     *
+     * @param parte       Path del fichero de la parte
+     * @param carpeta     Path de la carpeta de salida de la parte
+     * @param inicio      String con el segundo del video en el que empieza la
+     *                    parte
+     * @param complejidad double con la complejidad del video
+     * @param cmaf        Booleano para generar segmentos fMP4
+     * @param hilos       int con los hilos de x264 de la parte (0 sin límite)
+     * @param etiqueta    String con la parte para los logs
+     * @param procesos    List<Process> donde se registra el proceso FFmpeg
+     * @throws InternalServerException Si la conversión falla
+     * @throws IOException             Si no se puede crear la carpeta
+     */
+    private void convertirParte(Path parte, Path carpeta, String inicio, double complejidad, boolean cmaf,
+            int hilos, String etiqueta, List<Process> procesos) throws InternalServerException, IOException {
+        Files.createDirectories(carpeta);
+        String ruta = parte.toAbsolutePath().toString();
+        List<String> comando = new ArrayList<>(this.creaComandoFFmpeg(ruta, false, null, complejidad, cmaf));
+        // Mantener la línea de tiempo del video original entre partes
+        List<String> opciones = new ArrayList<>(List.of("-output_ts_offset", inicio));
+        if (hilos > 0) {
+            // Cada parte usa solo los núcleos de su plaza
+            opciones.addAll(List.of("-threads", String.valueOf(hilos)));
+        }
+        comando.addAll(comando.indexOf(ruta) + 1, opciones);
+        this.ejecutarFFmpeg(comando, carpeta, etiqueta, procesos);
+    }
+
+    /**
+     * Función para esperar a que terminen las partes.
+     * Si una falla se paran las demás.
+     *
+     * @param futuros  List<Future<Void>> con las conversiones de las partes
+     * @param procesos List<Process> con los procesos FFmpeg de las partes
+     * @param etiqueta String con la clase para los logs
+     * @throws InternalServerException Si alguna parte falla
+     */
+    private void esperarPartes(List<Future<Void>> futuros, List<Process> procesos, String etiqueta)
+            throws InternalServerException {
+        try {
+            for (Future<Void> futuro : futuros) {
+                futuro.get();
+            }
+        } catch (ExecutionException e) {
+            this.pararPartes(futuros, procesos);
+            if (e.getCause() instanceof InternalServerException ise) {
+                throw ise;
+            }
+            logger.error("Error al convertir las partes de la {}: {}", etiqueta, e.getCause().getMessage());
+            throw new InternalServerException("Error al convertir las partes de la " + etiqueta);
+        } catch (InterruptedException e) {
+            this.pararPartes(futuros, procesos);
+            Thread.currentThread().interrupt();
+            throw new InternalServerException("Error al convertir la " + etiqueta);
+        }
+    }
+
+    private void pararPartes(List<Future<Void>> futuros, List<Process> procesos) {
+        futuros.forEach(futuro -> futuro.cancel(true));
+        synchronized (procesos) {
+            procesos.forEach(Process::destroy);
+        }
+    }
+
+    /**
+     * Función para leer la lista de partes que escribe el corte de FFmpeg
+     *
+     * @param csv      Path de la lista con nombre,inicio,fin de cada parte
+     * @param etiqueta String con la clase para los logs
+     * @return List<String[]> con el nombre y el inicio de cada parte
+     * @throws IOException
+     * @throws InternalServerException Si el corte no ha generado partes
+     */
+    protected List<String[]> leerCortes(Path csv, String etiqueta) throws IOException, InternalServerException {
+        List<String[]> cortes = new ArrayList<>();
+        for (String linea : Files.readAllLines(csv)) {
+            String[] campos = linea.split(",");
+            if (campos.length >= 2) {
+                cortes.add(new String[] { campos[0], campos[1] });
+            }
+        }
+        if (cortes.isEmpty()) {
+            throw new InternalServerException("El corte de la " + etiqueta + " no ha generado partes");
+        }
+        return cortes;
+    }
+
+    /**
+     * Función para ejecutar FFmpeg y esperar a que termine.
+     * El progreso se publica en FFmpegTelemetryService y el log de FFmpeg solo
+     * se escribe si termina con error.
+     *
+     * @param command    List<String> con el comando FFmpeg
+     * @param directorio Path donde se ejecuta FFmpeg
+     * @param etiqueta   String con lo que se convierte, para los logs
+     * @param procesos   List<Process> donde registrar el proceso, o null
+     * @throws InternalServerException Si FFmpeg no arranca o termina con error
+     */
+    protected void ejecutarFFmpeg(List<String> command, Path directorio, String etiqueta, List<Process> procesos)
+            throws InternalServerException {
+        ProcessBuilder processBuilder = new ProcessBuilder(conProgreso(command));
+        processBuilder.directory(directorio.toFile());
+        processBuilder.redirectErrorStream(true);
+        FFmpegTelemetryService.Trabajo trabajo = this.ffmpegTelemetryService.iniciar(etiqueta);
+        try {
+            Process process = processBuilder.start();
+            if (procesos != null) {
+                procesos.add(process);
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    trabajo.procesarLinea(line);
+                }
+            } catch (IOException e) {
+                process.destroy();
+                logger.error("Error leyendo salida de FFmpeg en la {}: {}", etiqueta, e.getMessage());
+                throw new InternalServerException("Error leyendo la salida de FFmpeg en la " + etiqueta);
+            }
+
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                logger.warn("FFmpeg terminó con errores (code {}) en la {}:\n{}", exitCode, etiqueta,
+                        String.join("\n", trabajo.getUltimasLineas()));
+                throw new InternalServerException("FFmpeg terminó con el código " + exitCode + " en la " + etiqueta);
+            }
+        } catch (IOException e) {
+            logger.error("Error al convertir la {}: {}", etiqueta, e.getMessage());
+            throw new InternalServerException("Error al convertir la " + etiqueta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Error al convertir la {}: {}", etiqueta, e.getMessage());
+            throw new InternalServerException("Error al convertir la " + etiqueta);
+        } finally {
+            this.ffmpegTelemetryService.finalizar(trabajo);
+        }
+    }
+
+    /**
+     * Función para pedir a FFmpeg el progreso por su salida estándar en lugar
+     * de la línea de estadísticas
+     *
+     * @param comando List<String> con el comando FFmpeg
+     * @return List<String> con el comando y las opciones de progreso
+     */
+    private static List<String> conProgreso(List<String> comando) {
+        List<String> conProgreso = new ArrayList<>(comando);
+        conProgreso.addAll(1, FFmpegTelemetryService.OPCIONES_PROGRESO);
+        return conProgreso;
+    }
+
+    /**
+     * Función para obtener la duración de un video con ffprobe.
+     * Si no se puede leer devuelve 0 y el video se convierte en un solo proceso.
+     * El resultado se guarda en ProbeCacheService por contenido.
+     *
+     * @param inputFilePath String con la ruta del video
+     * @return double con la duración en segundos
+     */
+    protected double duracionVideo(String inputFilePath) {
+        String huella = this.probeCacheService.huella(inputFilePath);
+        Double cacheada = this.probeCacheService.obtenerDuracion(huella);
+        if (cacheada != null) {
+            return cacheada;
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder("ffprobe",
+                "-v", "error",
+                "-show_entries", "format=duration",
+                "-of", "csv=p=0", inputFilePath);
+        processBuilder.redirectErrorStream(true);
+        try {
+            Process process = processBuilder.start();
+            String salida;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                salida = reader.readLine();
+            }
+            process.waitFor();
+            if (salida == null) {
+                return 0;
+            }
+            double duracion = Double.parseDouble(salida.trim());
+            this.probeCacheService.guardarDuracion(huella, duracion);
+            return duracion;
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("No se pudo obtener la duración de {}: {}", inputFilePath, e.getMessage());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * Función para registrar el tiempo de una conversión y su velocidad
+     * respecto al tiempo real, para comparar la conversión por partes con la
+     * de un solo proceso
+     *
+     * @param modo     String con el modo de conversión
+     * @param duracion double con la duración del video en segundos (0 si no se
+     *                 conoce)
+     * @param nanos    long con el tiempo de conversión en nanosegundos
+     */
+    private void registrarConversion(String modo, double duracion, long nanos) {
+        Timer tiempo = this.tiempos.get(modo);
+        if (tiempo != null) {
+            tiempo.record(nanos, TimeUnit.NANOSECONDS);
+        }
+        DistributionSummary velocidad = this.velocidades.get(modo);
+        if (velocidad != null && duracion > 0 && nanos > 0) {
+            velocidad.record(duracion / (nanos / 1e9));
+        }
+        if (duracion > 0 && logger.isInfoEnabled()) {
+            logger.info("Conversión ({}) de {} s de video en {} s: {}x tiempo real", modo,
+                    String.format(Locale.ROOT, "%.1f", duracion),
+                    String.format(Locale.ROOT, "%.1f", nanos / 1e9),
+                    String.format(Locale.ROOT, "%.2f", duracion / (nanos / 1e9)));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (String modo : List.of(MODO_COMPLETO, MODO_PARTES)) {
+            this.tiempos.put(modo, Timer.builder("streaming.transcoding.time")
+                    .description("Tiempo de conversión de un video")
+                    .tag("modo", modo)
+                    .register(registry));
+            this.velocidades.put(modo, DistributionSummary.builder("streaming.transcoding.speed")
+                    .description("Segundos de video convertidos por segundo")
+                    .tag("modo", modo)
+                    .register(registry));
+        }
+    }
+}
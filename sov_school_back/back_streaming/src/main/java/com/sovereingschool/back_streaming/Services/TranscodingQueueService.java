@@ -0,0 +1,548 @@
+package com.sovereingschool.back_streaming.Services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.sovereingschool.back_common.Exceptions.InternalServerException;
+import com.sovereingschool.back_streaming.Models.TranscodingJob;
+import com.sovereingschool.back_streaming.Repositories.TranscodingJobRepository;
+import com.sovereingschool.back_streaming.Utils.GPUDetector;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Cola persistente de trabajos de conversión.
+ * Cada clase a convertir se guarda como un {@link TranscodingJob} en Mongo y
+ * se ejecuta por orden de prioridad, con un número máximo de conversiones
+ * simultáneas por recurso (CPU, VAAPI o NVENC). Cada clase se convierte de una
+ * en una: si se sube otro video mientras se convierte el anterior, el nuevo
+ * espera a que termine. Los trabajos que fallan se reintentan tras una espera
+ * creciente y los que quedaron a medias al apagar se retoman al arrancar.
+ */
+@Service
+public class TranscodingQueueService {
+
+    /**
+     * Función que convierte el video de un trabajo
+     */
+    @FunctionalInterface
+    public interface Procesador {
+        void procesar(TranscodingJob job) throws InternalServerException;
+    }
+
+    private final PriorityBlockingQueue<TranscodingJob> cola = new PriorityBlockingQueue<>(16,
+            TranscodingJob.PRIORIDAD);
+    private final Map<String, TranscodingJob> enCurso = new ConcurrentHashMap<>();
+    // Clases con una conversión lanzada y el siguiente trabajo de cada una,
+    // protegidos por el cerrojo de aplazados
+    private final Set<Long> clasesEnCurso = new HashSet<>();
+    private final Map<Long, TranscodingJob> aplazados = new HashMap<>();
+    private final Map<Long, TranscodingJob> reintentos = new ConcurrentHashMap<>();
+    private final Map<GPUDetector.VideoAcceleration, Semaphore> plazas = new EnumMap<>(
+            GPUDetector.VideoAcceleration.class);
+    private final TranscodingJobRepository transcodingJobRepository;
+    private final int maxIntentos;
+    private final int hilosPorPlaza;
+    private final long esperaReintento;
+    private final ScheduledExecutorService temporizador;
+
+    private GPUDetector.VideoAcceleration recurso = GPUDetector.VideoAcceleration.CPU;
+    private volatile Procesador procesador;
+    private ExecutorService trabajadores;
+    private Thread despachador;
+    private volatile boolean detenido;
+
+    private Logger logger = LoggerFactory.getLogger(TranscodingQueueService.class);
+
+    /**
+     * Constructor de TranscodingQueueService
+     *
+     * @param transcodingJobRepository Repositorio de los trabajos
+     * @param plazasCpu                Conversiones simultáneas con CPU (0 para
+     *                                 una por cada 4 núcleos)
+     * @param plazasVaapi              Conversiones simultáneas con VAAPI
+     * @param plazasNvenc              Conversiones simultáneas con NVENC
+     * @param maxIntentos              Intentos de cada trabajo antes de darlo
+     *                                 por fallido
+     * @param esperaReintento          Segundos antes del primer reintento; se
+     *                                 duplican en cada intento
+     */
+    public TranscodingQueueService(TranscodingJobRepository transcodingJobRepository,
+            @Value("${streaming.transcoding.cpu-slots:0}") int plazasCpu,
+            @Value("${streaming.transcoding.vaapi-slots:1}") int plazasVaapi,
+            @Value("${streaming.transcoding.nvenc-slots:2}") int plazasNvenc,
+            @Value("${streaming.transcoding.max-attempts:3}") int maxIntentos,
+            @Value("${streaming.transcoding.retry-delay-seconds:30}") long esperaReintento) {
+        this.transcodingJobRepository = transcodingJobRepository;
+        this.maxIntentos = Math.max(1, maxIntentos);
+        this.esperaReintento = Math.max(0, esperaReintento);
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TranscodingRetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        int cpu = plazasCpu > 0 ? plazasCpu : Math.max(1, nucleos / 4);
+        this.hilosPorPlaza = Math.max(1, nucleos / cpu);
+        this.plazas.put(GPUDetector.VideoAcceleration.CPU, new Semaphore(cpu, true));
+        this.plazas.put(GPUDetector.VideoAcceleration.VAAPI, new Semaphore(Math.max(1, plazasVaapi), true));
+        this.plazas.put(GPUDetector.VideoAcceleration.NVIDIA, new Semaphore(Math.max(1, plazasNvenc), true));
+    }
+
+    /**
+     * Función para registrar quién convierte los videos de la cola
+     *
+     * @param procesador Procesador de los trabajos
+     */
+    public void registrarProcesador(Procesador procesador) {
+        this.procesador = procesador;
+    }
+
+    /**
+     * Función para arrancar la cola: detecta el recurso de codificación y
+     * empieza a despachar trabajos
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void arrancar() {
+        if (this.despachador != null) {
+            return;
+        }
+        this.recurso = GPUDetector.detectAcceleration();
+        logger.info("Cola de conversión con {} ({} plazas)", this.recurso,
+                this.plazas.get(this.recurso).availablePermits());
+
+        AtomicInteger contador = new AtomicInteger();
+        this.trabajadores = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Transcoding-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.despachador = new Thread(this::despachar, "TranscodingDispatcher");
+        this.despachador.setDaemon(true);
+        this.despachador.start();
+    }
+
+    /**
+     * Función para parar la cola. Los trabajos a medias quedan pendientes en
+     * Mongo y se retoman en el siguiente arranque.
+     */
+    @PreDestroy
+    public synchronized void detener() {
+        this.detenido = true;
+        if (this.despachador != null) {
+            this.despachador.interrupt();
+        }
+        if (this.trabajadores != null) {
+            this.trabajadores.shutdownNow();
+        }
+        this.temporizador.shutdownNow();
+    }
+
+    /**
+     * Función para encolar la conversión del video de una clase
+     *
+     * @param idCurso ID del curso
+     * @param idClase ID de la clase
+     * @param origen  Ruta del video original
+     * @return TranscodingJob encolado
+     */
+    public TranscodingJob encolar(Long idCurso, Long idClase, String origen) {
+        long tamano;
+        try {
+            tamano = Files.size(Paths.get(origen));
+        } catch (IOException | RuntimeException e) {
+            tamano = Long.MAX_VALUE;
+        }
+        TranscodingJob job = TranscodingJob.builder()
+                .idClase(idClase)
+                .idCurso(idCurso)
+                .tipo(TranscodingJob.Tipo.VOD)
+                .estado(TranscodingJob.Estado.PENDIENTE)
+                .origen(origen)
+                .tamano(tamano)
+                .creado(Instant.now())
+                .build();
+        // Si la clase ya estaba en cola se sustituye por el video nuevo
+        this.cola.removeIf(pendiente -> pendiente.getIdClase().equals(idClase));
+        this.reintentos.remove(idClase);
+        synchronized (this.aplazados) {
+            this.aplazados.remove(idClase);
+        }
+        this.transcodingJobRepository.deleteByIdClaseAndEstado(idClase, TranscodingJob.Estado.PENDIENTE);
+        this.transcodingJobRepository.save(job);
+        this.cola.add(job);
+        return job;
+    }
+
+    /**
+     * Función para registrar un directo. Los directos no esperan en la cola:
+     * ocupan una plaza de su recurso si la hay, de modo que las conversiones
+     * de videos esperan hasta que el directo termine.
+     *
+     * @param idCurso ID del curso
+     * @param idClase ID de la clase
+     * @return TranscodingJob del directo
+     */
+    public TranscodingJob iniciarDirecto(Long idCurso, Long idClase) {
+        TranscodingJob job = TranscodingJob.builder()
+                .idClase(idClase)
+                .idCurso(idCurso)
+                .tipo(TranscodingJob.Tipo.LIVE)
+                .estado(TranscodingJob.Estado.EN_CURSO)
+                .recurso(this.recurso)
+                .intentos(1)
+                .creado(Instant.now())
+                .iniciado(Instant.now())
+                .build();
+        job.setPlazaReservada(this.plazas.get(this.recurso).tryAcquire());
+        if (!job.isPlazaReservada()) {
+            logger.warn("Directo de la clase {} sin plaza libre de {}", idClase, this.recurso);
+        }
+        this.enCurso.put(job.getId(), job);
+        this.guardar(job);
+        return job;
+    }
+
+    /**
+     * Función para registrar el final de un directo
+     *
+     * @param job   TranscodingJob del directo
+     * @param error Mensaje de error, o null si terminó bien
+     */
+    public void finalizarDirecto(TranscodingJob job, String error) {
+        if (job.isPlazaReservada()) {
+            job.setPlazaReservada(false);
+            this.plazas.get(job.getRecurso()).release();
+        }
+        this.enCurso.remove(job.getId(), job);
+        job.setEstado(error == null ? TranscodingJob.Estado.COMPLETADO : TranscodingJob.Estado.FALLIDO);
+        job.setError(error);
+        job.setTerminado(Instant.now());
+        this.guardar(job);
+    }
+
+    /**
+     * Función para reservar plazas extra del recurso para convertir un video
+     * por partes. No espera: reserva solo las que estén libres, y ninguna si
+     * hay trabajos esperando, que tienen preferencia.
+     *
+     * @param maximo Número máximo de plazas a reservar
+     * @return int con las plazas reservadas
+     */
+    public int reservarPlazas(int maximo) {
+        Semaphore semaforo = this.plazas.get(this.recurso);
+        int reservadas = 0;
+        while (reservadas < maximo && this.cola.isEmpty() && !semaforo.hasQueuedThreads()
+                && semaforo.tryAcquire()) {
+            reservadas++;
+        }
+        return reservadas;
+    }
+
+    /**
+     * Función para devolver las plazas extra reservadas con reservarPlazas
+     *
+     * @param reservadas Número de plazas a devolver
+     */
+    public void liberarPlazas(int reservadas) {
+        if (reservadas > 0) {
+            this.plazas.get(this.recurso).release(reservadas);
+        }
+    }
+
+    /**
+     * Función para obtener los hilos de CPU que corresponden a cada plaza de
+     * conversión con CPU
+     *
+     * @return int con los núcleos de la máquina entre las plazas de CPU
+     */
+    public int getHilosPorPlaza() {
+        return this.hilosPorPlaza;
+    }
+
+    /**
+     * Función para obtener los trabajos en cola, en orden de ejecución
+     *
+     * @return Lista de TranscodingJob
+     */
+    public List<TranscodingJob> getEnCola() {
+        List<TranscodingJob> trabajos = new ArrayList<>(this.cola);
+        trabajos.addAll(this.reintentos.values());
+        synchronized (this.aplazados) {
+            trabajos.addAll(this.aplazados.values());
+        }
+        trabajos.sort(TranscodingJob.PRIORIDAD);
+        return trabajos;
+    }
+
+    /**
+     * Función para obtener los trabajos en ejecución
+     *
+     * @return Lista de TranscodingJob
+     */
+    public List<TranscodingJob> getEnCurso() {
+        return new ArrayList<>(this.enCurso.values());
+    }
+
+    /**
+     * Función para obtener los últimos trabajos terminados
+     *
+     * @return Lista de TranscodingJob
+     */
+    public List<TranscodingJob> getTerminados() {
+        return this.transcodingJobRepository.findTop50ByEstadoInOrderByTerminadoDesc(
+                List.of(TranscodingJob.Estado.COMPLETADO, TranscodingJob.Estado.FALLIDO));
+    }
+
+    /**
+     * Función para obtener las plazas libres de cada recurso
+     *
+     * @return Map con el recurso y sus plazas libres
+     */
+    public Map<GPUDetector.VideoAcceleration, Integer> getPlazasLibres() {
+        Map<GPUDetector.VideoAcceleration, Integer> libres = new EnumMap<>(GPUDetector.VideoAcceleration.class);
+        this.plazas.forEach((acel, semaforo) -> libres.put(acel, semaforo.availablePermits()));
+        return libres;
+    }
+
+    /**
+     * Función para obtener el recurso de codificación de la máquina
+     *
+     * @return GPUDetector.VideoAcceleration detectado al arrancar
+     */
+    public GPUDetector.VideoAcceleration getRecurso() {
+        return this.recurso;
+    }
+
+    /**
+     * Bucle del despachador: saca los trabajos por prioridad y los lanza en
+     * cuanto hay una plaza libre de su recurso
+     */
+    private void despachar() {
+        this.recuperar();
+        while (!this.detenido) {
+            TranscodingJob job;
+            try {
+                job = this.cola.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!this.lanzarClase(job)) {
+                // La clase ya se está convirtiendo: espera a que termine
+                continue;
+            }
+            job.setRecurso(this.recurso);
+            Semaphore semaforo = this.plazas.get(job.getRecurso());
+            try {
+                semaforo.acquire();
+            } catch (InterruptedException e) {
+                // Se queda pendiente en Mongo para el siguiente arranque
+                Thread.currentThread().interrupt();
+                return;
+            }
+            job.setPlazaReservada(true);
+            try {
+                this.trabajadores.execute(() -> this.ejecutar(job));
+            } catch (RuntimeException e) {
+                semaforo.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Función para marcar la clase de un trabajo como en conversión. Si ya lo
+     * estaba, el trabajo se aparta hasta que termine la conversión en curso,
+     * para que dos FFmpeg no escriban en la misma carpeta.
+     *
+     * @param job TranscodingJob sacado de la cola
+     * @return true si el trabajo se puede lanzar
+     */
+    private boolean lanzarClase(TranscodingJob job) {
+        synchronized (this.aplazados) {
+            if (this.clasesEnCurso.add(job.getIdClase())) {
+                return true;
+            }
+            this.aplazados.put(job.getIdClase(), job);
+            return false;
+        }
+    }
+
+    /**
+     * Función para liberar la clase de un trabajo terminado
+     *
+     * @param job TranscodingJob terminado
+     * @return TranscodingJob que esperaba a la clase, o null
+     */
+    private TranscodingJob terminarClase(TranscodingJob job) {
+        synchronized (this.aplazados) {
+            this.clasesEnCurso.remove(job.getIdClase());
+            return this.aplazados.remove(job.getIdClase());
+        }
+    }
+
+    /**
+     * Función para volver a encolar un trabajo fallido tras una espera que se
+     * duplica en cada intento, para que un fallo que se repite no agote los
+     * intentos en segundos
+     *
+     * @param job TranscodingJob a reintentar
+     */
+    private void reintentar(TranscodingJob job) {
+        long espera = this.esperaReintento << Math.min(Math.max(0, job.getIntentos() - 1), 10);
+        if (espera <= 0) {
+            this.cola.add(job);
+            return;
+        }
+        this.reintentos.put(job.getIdClase(), job);
+        try {
+            this.temporizador.schedule(() -> {
+                // Si mientras tanto se ha subido otro video, este ya no se reintenta
+                if (this.reintentos.remove(job.getIdClase(), job)) {
+                    this.cola.add(job);
+                }
+            }, espera, TimeUnit.SECONDS);
+        } catch (RuntimeException e) {
+            // Queda pendiente en Mongo para el siguiente arranque
+            this.reintentos.remove(job.getIdClase(), job);
+        }
+    }
+
+    /**
+     * Función para volver a encolar los trabajos que quedaron pendientes o a
+     * medias en el último apagado
+     */
+    private void recuperar() {
+        List<TranscodingJob> pendientes;
+        try {
+            pendientes = this.transcodingJobRepository.findByEstadoIn(
+                    List.of(TranscodingJob.Estado.PENDIENTE, TranscodingJob.Estado.EN_CURSO));
+        } catch (RuntimeException e) {
+            logger.error("Error al recuperar los trabajos de conversión: {}", e.getMessage());
+            return;
+        }
+        for (TranscodingJob job : pendientes) {
+            if (job.getIdClase() == null) {
+                // Trabajo antiguo, con el id de la clase como _id: se borra abajo
+                continue;
+            }
+            if (job.getTipo() == TranscodingJob.Tipo.LIVE) {
+                // El directo terminó con el servidor
+                job.setEstado(TranscodingJob.Estado.FALLIDO);
+                job.setError("Servidor reiniciado durante el directo");
+                job.setTerminado(Instant.now());
+            } else {
+                job.setEstado(TranscodingJob.Estado.PENDIENTE);
+                this.cola.add(job);
+            }
+            this.guardar(job);
+        }
+        long sinClase = pendientes.stream().filter(job -> job.getIdClase() == null).count();
+        if (sinClase > 0) {
+            logger.warn("Descartados {} trabajos de conversión sin clase", sinClase);
+            try {
+                this.transcodingJobRepository.deleteByIdClaseIsNull();
+            } catch (RuntimeException e) {
+                logger.error("Error al borrar los trabajos sin clase: {}", e.getMessage());
+            }
+        }
+        if (pendientes.size() > sinClase) {
+            logger.info("Recuperados {} trabajos de conversión", pendientes.size() - sinClase);
+        }
+    }
+
+    /**
+     * Función para ejecutar un trabajo y decidir si se reintenta
+     *
+     * @param job TranscodingJob a ejecutar
+     */
+    protected void ejecutar(TranscodingJob job) {
+        job.setEstado(TranscodingJob.Estado.EN_CURSO);
+        job.setIntentos(job.getIntentos() + 1);
+        job.setIniciado(Instant.now());
+        job.setError(null);
+        this.enCurso.put(job.getId(), job);
+        this.guardar(job);
+        TranscodingJob siguiente = null;
+        try {
+            if (this.procesador == null) {
+                throw new InternalServerException("No hay procesador de conversiones");
+            }
+            this.procesador.procesar(job);
+            job.setEstado(TranscodingJob.Estado.COMPLETADO);
+            job.setTerminado(Instant.now());
+        } catch (Exception e) {
+            job.setError(e.getMessage());
+            if (this.detenido) {
+                job.setEstado(TranscodingJob.Estado.PENDIENTE);
+            } else if (job.getIntentos() < this.maxIntentos) {
+                logger.warn("Reintentando la conversión de la clase {} ({}/{}): {}", job.getIdClase(),
+                        job.getIntentos(), this.maxIntentos, e.getMessage());
+                job.setEstado(TranscodingJob.Estado.PENDIENTE);
+            } else {
+                logger.error("Conversión de la clase {} fallida tras {} intentos: {}", job.getIdClase(),
+                        job.getIntentos(), e.getMessage());
+                job.setEstado(TranscodingJob.Estado.FALLIDO);
+                job.setTerminado(Instant.now());
+            }
+        } finally {
+            siguiente = this.terminarClase(job);
+            if (siguiente != null && job.getEstado() == TranscodingJob.Estado.PENDIENTE) {
+                // Ya hay un video más nuevo de la clase: este no se reintenta
+                job.setEstado(TranscodingJob.Estado.FALLIDO);
+                job.setError("Sustituido por un video nuevo de la clase");
+                job.setTerminado(Instant.now());
+            }
+            if (job.isPlazaReservada()) {
+                job.setPlazaReservada(false);
+                this.plazas.get(job.getRecurso()).release();
+            }
+            this.enCurso.remove(job.getId(), job);
+            this.guardar(job);
+        }
+        if (siguiente != null) {
+            this.cola.add(siguiente);
+        } else if (job.getEstado() == TranscodingJob.Estado.PENDIENTE && !this.detenido) {
+            this.reintentar(job);
+        }
+    }
+
+    /**
+     * Función para guardar un trabajo sin interrumpir la conversión si Mongo
+     * falla
+     *
+     * @param job TranscodingJob a guardar
+     */
+    private void guardar(TranscodingJob job) {
+        try {
+            this.transcodingJobRepository.save(job);
+        } catch (RuntimeException e) {
+            logger.error("Error al guardar el trabajo de la clase {}: {}", job.getIdClase(), e.getMessage());
+        }
+    }
+}
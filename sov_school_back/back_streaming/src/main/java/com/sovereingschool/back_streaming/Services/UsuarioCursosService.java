@@ -1,22 +1,29 @@
 package com.sovereingschool.back_streaming.Services;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import com.mongodb.client.result.UpdateResult;
 import com.sovereingschool.back_common.Exceptions.InternalServerException;
 import com.sovereingschool.back_common.Exceptions.NotFoundException;
 import com.sovereingschool.back_common.Models.Clase;
@@ -27,9 +34,12 @@ import com.sovereingschool.back_common.Repositories.ClaseRepository;
 import com.sovereingschool.back_common.Repositories.CursoRepository;
 import com.sovereingschool.back_common.Repositories.UsuarioRepository;
 import com.sovereingschool.back_streaming.Interfaces.IUsuarioCursosService;
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+import com.sovereingschool.back_streaming.Models.ProgresoClase;
 import com.sovereingschool.back_streaming.Models.StatusClase;
 import com.sovereingschool.back_streaming.Models.StatusCurso;
 import com.sovereingschool.back_streaming.Models.UsuarioCursos;
+import com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository;
 import com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository;
 
 import jakarta.persistence.EntityNotFoundException;
@@ -39,15 +49,20 @@ import jakarta.transaction.Transactional;
 @Transactional
 public class UsuarioCursosService implements IUsuarioCursosService {
 
-    private static final String ID_CURSO_CRITERIA = "cursos.id_curso";
+    private static final String ID_CURSO_CRITERIA = "cursos.idCurso";
+    private static final String CLASES_CURSO = "cursos.$[curso].clases";
+    private static final String FILTRO_CURSO = "curso.idCurso";
     private static final String NO_DOCUMENT_FOUND = "No se encontró el documento.";
+    private static final String USER_COURSES = "user_courses";
 
     private StreamingService streamingService;
     private UsuarioRepository usuarioRepository; // Repositorio de PostgreSQL para usuarios
     private CursoRepository cursoRepository; // Repositorio de PostgreSQL para clases
     private ClaseRepository claseRepository; // Repositorio de PostgreSQL para clases
     private UsuarioCursosRepository usuarioCursosRepository; // Repositorio de MongoDB
+    private ProgresoClaseRepository progresoClaseRepository; // Progreso por usuario y clase
     private MongoTemplate mongoTemplate;
+    private AccessCacheService accessCacheService;
 
     private Logger logger = LoggerFactory.getLogger(UsuarioCursosService.class);
 
@@ -59,18 +74,23 @@ public class UsuarioCursosService implements IUsuarioCursosService {
      * @param cursoRepository         Repositorio de cursos
      * @param claseRepository         Repositorio de clases
      * @param usuarioCursosRepository Repositorio de usuarios de cursos
+     * @param progresoClaseRepository Repositorio del progreso de las clases
      * @param mongoTemplate           Template de MongoDB
+     * @param accessCacheService      Caché de accesos a las clases
      */
     public UsuarioCursosService(StreamingService streamingService, UsuarioRepository usuarioRepository,
             CursoRepository cursoRepository,
             ClaseRepository claseRepository, UsuarioCursosRepository usuarioCursosRepository,
-            MongoTemplate mongoTemplate) {
+            ProgresoClaseRepository progresoClaseRepository, MongoTemplate mongoTemplate,
+            AccessCacheService accessCacheService) {
         this.usuarioRepository = usuarioRepository;
         this.cursoRepository = cursoRepository;
         this.claseRepository = claseRepository;
         this.usuarioCursosRepository = usuarioCursosRepository;
+        this.progresoClaseRepository = progresoClaseRepository;
         this.mongoTemplate = mongoTemplate;
         this.streamingService = streamingService;
+        this.accessCacheService = accessCacheService;
     }
 
     /**
@@ -78,21 +98,20 @@ public class UsuarioCursosService implements IUsuarioCursosService {
      */
     @Override
     public void syncUserCourses() {
+        int migrados = this.migrarProgresoClases();
+        if (migrados > 0) {
+            logger.info("Progreso migrado a {} en {} usuarios", ProgresoClaseRepository.COLLECTION, migrados);
+        }
         List<Usuario> users = usuarioRepository.findAll();
         for (Usuario user : users) {
             if (usuarioCursosRepository.findByIdUsuario(user.getIdUsuario()).isPresent())
                 continue;
             List<Curso> courses = user.getCursosUsuario();
+            List<ProgresoClase> progresos = new ArrayList<>();
             List<StatusCurso> courseStatuses = courses.stream().map(course -> {
                 List<Clase> classes = course.getClasesCurso();
-                List<StatusClase> classStatuses = classes.stream().map(clazz -> {
-                    StatusClase classStatus = new StatusClase();
-                    classStatus.setIdClase(clazz.getIdClase());
-                    classStatus.setCompleted(false);
-                    classStatus.setProgress(new HashSet<>());
-                    classStatus.setTotalSegments(this.getTotalSegments(clazz));
-                    return classStatus;
-                }).toList();
+                List<StatusClase> classStatuses = classes.stream().map(this::mapToStatusClase).toList();
+                progresos.addAll(this.crearProgresos(user.getIdUsuario(), course.getIdCurso(), classes));
 
                 StatusCurso courseStatus = new StatusCurso();
                 courseStatus.setIdCurso(course.getIdCurso());
@@ -105,6 +124,7 @@ public class UsuarioCursosService implements IUsuarioCursosService {
             userCourses.setRolUsuario(user.getRollUsuario());
             userCourses.setCursos(courseStatuses);
             usuarioCursosRepository.save(userCourses);
+            progresoClaseRepository.upsertClases(progresos, mongoTemplate);
         }
     }
 
@@ -130,6 +150,7 @@ public class UsuarioCursosService implements IUsuarioCursosService {
                 });
 
         this.updateCursosUsuario(usuario, usuarioCursos);
+        this.accessCacheService.invalidarUsuario(usuario.getIdUsuario());
         return "Nuevo Usuario Insertado con Exito!!!";
     }
 
@@ -145,17 +166,30 @@ public class UsuarioCursosService implements IUsuarioCursosService {
      */
     @Override
     public String getClase(Long idUsuario, Long idCurso, Long idClase) throws InternalServerException {
-        UsuarioCursos usuario = this.usuarioCursosRepository.findByIdUsuario(idUsuario).orElseThrow(() -> {
+        // Durante la reproducción se pide la misma clase en cada segmento
+        String cached = this.accessCacheService.getDireccion(idUsuario, idCurso, idClase);
+        if (cached != null) {
+            return cached;
+        }
+
+        UsuarioCursos usuario = this.usuarioCursosRepository.findRolByIdUsuario(idUsuario).orElseThrow(() -> {
             logger.error("Error en obtener el usuario del streaming. idUsuario: {}", idUsuario);
             throw new EntityNotFoundException("Error en obtener el usuario del streaming");
         });
 
+        boolean privilegiado = usuario.getRolUsuario() == RoleEnum.PROF || usuario.getRolUsuario() == RoleEnum.ADMIN;
+        // Los alumnos solo pueden ver los cursos en los que están matriculados
+        if (!privilegiado && !this.usuarioCursosRepository.existsByIdUsuarioAndIdCurso(idUsuario, idCurso)) {
+            logger.error("El usuario {} no está matriculado en el curso {}", idUsuario, idCurso);
+            throw new EntityNotFoundException("Curso no encontrado con id " + idCurso);
+        }
+
         Long resolvedIdClase = idClase;
 
         // Si no se pide una clase
         if (resolvedIdClase == 0) {
             // Si es un profesor o admin, obtenemos la primera clase del curso
-            if (usuario.getRolUsuario() == RoleEnum.PROF || usuario.getRolUsuario() == RoleEnum.ADMIN) {
+            if (privilegiado) {
                 Curso curso = cursoRepository.findById(idCurso)
                         .orElseThrow(() -> new EntityNotFoundException(
                                 "Curso con id " + idCurso + " no encontrado el en repositorio"));
@@ -167,30 +201,23 @@ public class UsuarioCursosService implements IUsuarioCursosService {
                 resolvedIdClase = curso.getClasesCurso().get(0).getIdClase();
             } else {
                 // Si es un usuario normal, obtenemos la clase actual
-                StatusCurso cursoStatus = usuario.getCursos().stream()
-                        .filter(c -> c.getIdCurso().equals(idCurso))
-                        .findFirst()
+                resolvedIdClase = this.findNextOrFirstClase(idUsuario, idCurso)
                         .orElseThrow(() -> new EntityNotFoundException("Curso no encontrado con id " + idCurso));
-
-                if (cursoStatus.getClases().isEmpty()) {
-                    throw new InternalServerException("El curso no tiene clases registradas");
-                }
-
-                resolvedIdClase = cursoStatus.getClases().stream()
-                        .filter(c -> !c.isCompleted())
-                        .findFirst()
-                        .orElseGet(() -> cursoStatus.getClases().get(0))
-                        .getIdClase();
             }
         }
 
         Clase clase = claseRepository.findById(resolvedIdClase).orElseThrow(
                 () -> new EntityNotFoundException("Clase no encontrada con id " + idClase));
+        if (!privilegiado && clase.getCursoClase() != null && !idCurso.equals(clase.getCursoClase().getIdCurso())) {
+            logger.error("La clase {} no pertenece al curso {}", clase.getIdClase(), idCurso);
+            throw new EntityNotFoundException("Clase no encontrada con id " + idClase);
+        }
         String direccion = clase.getDireccionClase();
         if (direccion == null) {
             logger.error("Clase sin direccion");
             return null;
         }
+        this.accessCacheService.putDireccion(idUsuario, idCurso, idClase, direccion);
         return direccion;
     }
 
@@ -216,32 +243,23 @@ public class UsuarioCursosService implements IUsuarioCursosService {
                 return false;
             }
 
-            // Encuentra el documento que contiene el curso específico
-            Query query = new Query();
-            query.addCriteria(Criteria.where(ID_CURSO_CRITERIA).is(idCurso));
-            List<UsuarioCursos> usuarioCursos = mongoTemplate.find(query, UsuarioCursos.class);
+            // Añade la clase en Mongo a todos los usuarios del curso en una sola operación
+            Query query = new Query(Criteria.where(ID_CURSO_CRITERIA).is(idCurso));
+            Update update = new Update()
+                    .addToSet(CLASES_CURSO, this.mapToStatusClase(clase))
+                    .filterArray(Criteria.where(FILTRO_CURSO).is(idCurso));
+            UpdateResult result = mongoTemplate.updateMulti(query, update, UsuarioCursos.class);
 
-            if (usuarioCursos.isEmpty()) {
+            if (result.getMatchedCount() == 0) {
                 logger.error(NO_DOCUMENT_FOUND);
                 return false;
             }
 
-            boolean found = false;
-            for (UsuarioCursos usuario : usuarioCursos) {
-                for (StatusCurso curso : usuario.getCursos()) {
-                    if (curso.getIdCurso().equals(idCurso)) {
-                        curso.getClases()
-                                .add(new StatusClase(clase.getIdClase(), false, this.getTotalSegments(clase),
-                                        new HashSet<>()));
-                        mongoTemplate.save(usuario);
-                        found = true;
-                        break;
-                    }
-                }
-                if (found)
-                    break;
-            }
-            return found;
+            List<Long> idUsuarios = mongoTemplate.findDistinct(query, "idUsuario", UsuarioCursos.class, Long.class);
+            this.progresoClaseRepository.upsertClases(this.crearProgresos(idUsuarios, idCurso, List.of(clase)),
+                    mongoTemplate);
+            this.accessCacheService.invalidarCurso(idCurso);
+            return true;
         } catch (Exception e) {
             logger.error("Error en añadir la cueva clase: {}", e.getMessage());
             return false;
@@ -258,24 +276,20 @@ public class UsuarioCursosService implements IUsuarioCursosService {
     @Override
     public boolean deleteClase(Long idCurso, Long idClase) {
         try {
-            // Encuentra el documento que contiene el curso específico
-            Query query = new Query();
-            query.addCriteria(Criteria.where(ID_CURSO_CRITERIA).is(idCurso));
-            List<UsuarioCursos> usuarioCursos = mongoTemplate.find(query, UsuarioCursos.class);
-
-            if (usuarioCursos.isEmpty()) {
+            // Quita la clase en Mongo a todos los usuarios del curso en una sola operación
+            Query query = new Query(Criteria.where(ID_CURSO_CRITERIA).is(idCurso));
+            Update update = new Update()
+                    .pull(CLASES_CURSO, new Document("idClase", idClase))
+                    .filterArray(Criteria.where(FILTRO_CURSO).is(idCurso));
+            UpdateResult result = mongoTemplate.updateMulti(query, update, UsuarioCursos.class);
+
+            if (result.getMatchedCount() == 0) {
                 logger.error(NO_DOCUMENT_FOUND);
                 return false;
             }
 
-            for (UsuarioCursos usuario : usuarioCursos) {
-                usuario.getCursos().stream()
-                        .filter(c -> c.getIdCurso().equals(idCurso))
-                        .findFirst()
-                        .ifPresent(curso -> curso.getClases().removeIf(c -> c.getIdClase().equals(idClase)));
-
-                mongoTemplate.save(usuario);
-            }
+            this.progresoClaseRepository.deleteByIdCursoAndIdClase(idCurso, idClase);
+            this.accessCacheService.invalidarCurso(idCurso);
             return true;
         } catch (Exception e) {
             logger.error("Error en borrar la clase: {}", e.getMessage());
@@ -293,7 +307,7 @@ public class UsuarioCursosService implements IUsuarioCursosService {
      */
     @Override
     public Long getStatus(Long idUsuario, Long idCurso) throws InternalServerException {
-        UsuarioCursos usuarioCursos = usuarioCursosRepository.findByIdUsuario(idUsuario)
+        UsuarioCursos usuarioCursos = usuarioCursosRepository.findRolByIdUsuario(idUsuario)
                 .orElseThrow(() -> {
                     logger.error("Usuario no encontrado para streaming: {}", idUsuario);
                     return new EntityNotFoundException("Error en obtener el usuario del streaming");
@@ -304,12 +318,8 @@ public class UsuarioCursosService implements IUsuarioCursosService {
             return getFirstClaseIdFromCurso(idCurso);
         }
 
-        // 2. Lógica para Alumnos (usando Streams para mayor claridad)
-        return usuarioCursos.getCursos().stream()
-                .filter(sc -> sc.getIdCurso().equals(idCurso))
-                .findFirst()
-                .map(this::findNextOrFirstClase)
-                .orElse(0L);
+        // 2. Lógica para Alumnos: consulta indexada sobre su progreso en el curso
+        return this.findNextOrFirstClase(idUsuario, idCurso).orElse(0L);
     }
 
     /**
@@ -330,9 +340,18 @@ public class UsuarioCursosService implements IUsuarioCursosService {
             // SonarQube S2118: Es mucho más eficiente guardar la lista completa fuera del
             // bucle
             this.usuarioCursosRepository.saveAll(usuarios);
+
+            // 3. Actualizar las clases del progreso sin perder lo ya visto
+            List<Clase> clases = curso.getClasesCurso() != null ? curso.getClasesCurso() : List.of();
+            List<Long> idUsuarios = usuarios.stream().map(UsuarioCursos::getIdUsuario).toList();
+            this.progresoClaseRepository.upsertClases(this.crearProgresos(idUsuarios, curso.getIdCurso(), clases),
+                    mongoTemplate);
+            this.progresoClaseRepository.deleteByIdCursoAndIdClaseNotIn(curso.getIdCurso(),
+                    clases.stream().map(Clase::getIdClase).toList());
         }
+        this.accessCacheService.invalidarCurso(curso.getIdCurso());
 
-        // 3. Convertir los videos del curso
+        // 4. Convertir los videos del curso
         procesarVideosAsync(curso);
     }
 
@@ -350,6 +369,8 @@ public class UsuarioCursosService implements IUsuarioCursosService {
         });
 
         this.usuarioCursosRepository.delete(usuarioCursos);
+        this.progresoClaseRepository.deleteByIdUsuario(idUsuario);
+        this.accessCacheService.invalidarUsuario(idUsuario);
         return true;
     }
 
@@ -361,27 +382,93 @@ public class UsuarioCursosService implements IUsuarioCursosService {
      */
     @Override
     public boolean deleteCurso(Long id) {
-        // Encuentra el documento que contiene el curso específico
-        Query query = new Query();
-        query.addCriteria(Criteria.where(ID_CURSO_CRITERIA).is(id));
-        List<UsuarioCursos> usuarioCursos = mongoTemplate.find(query, UsuarioCursos.class);
+        // Quita el curso en Mongo a todos sus usuarios en una sola operación
+        Query query = new Query(Criteria.where(ID_CURSO_CRITERIA).is(id));
+        Update update = new Update().pull("cursos", new Document("idCurso", id));
+        UpdateResult result = mongoTemplate.updateMulti(query, update, UsuarioCursos.class);
 
-        if (usuarioCursos.isEmpty()) {
+        if (result.getMatchedCount() == 0) {
             logger.error(NO_DOCUMENT_FOUND);
             return false;
         }
 
-        for (UsuarioCursos usrCursos : usuarioCursos) {
-            List<StatusCurso> statusCurso = usrCursos.getCursos();
-            for (int i = 0; i < statusCurso.size(); i++) {
-                if (statusCurso.get(i).getIdCurso().equals(id)) {
-                    statusCurso.remove(i);
-                    this.usuarioCursosRepository.save(usrCursos);
-                    break;
+        this.progresoClaseRepository.deleteByIdCurso(id);
+        this.accessCacheService.invalidarCurso(id);
+        return true;
+    }
+
+    /**
+     * Función para pasar el progreso guardado dentro de user_courses a la
+     * colección progreso_clases y quitarlo de user_courses
+     * 
+     * @return int con el número de documentos migrados
+     */
+    protected int migrarProgresoClases() {
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("cursos.clases.progress").exists(true),
+                Criteria.where("cursos.clases.progressBits").exists(true),
+                Criteria.where("cursos.clases.totalSegments").exists(true)));
+        int migrados = 0;
+        try (Stream<Document> documentos = mongoTemplate.stream(query, Document.class, USER_COURSES)) {
+            for (Document documento : (Iterable<Document>) documentos::iterator) {
+                Long idUsuario = ((Number) documento.get("idUsuario")).longValue();
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                        ProgresoClaseRepository.COLLECTION);
+                for (Document curso : documento.getList("cursos", Document.class, List.of())) {
+                    Long idCurso = ((Number) curso.get("idCurso")).longValue();
+                    List<Document> clases = curso.getList("clases", Document.class, List.of());
+                    for (int i = 0; i < clases.size(); i++) {
+                        bulk.upsert(new Query(Criteria.where("idUsuario").is(idUsuario)
+                                .and("idCurso").is(idCurso)
+                                .and("idClase").is(clases.get(i).get("idClase"))),
+                                this.migrarProgresoClase(clases.get(i), i));
+                    }
                 }
+                bulk.execute();
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(documento.get("_id"))),
+                        new Update()
+                                .unset("cursos.$[].clases.$[].progress")
+                                .unset("cursos.$[].clases.$[].progressBits")
+                                .unset("cursos.$[].clases.$[].totalSegments")
+                                .unset("cursos.$[].clases.$[].completed"),
+                        USER_COURSES);
+                migrados++;
             }
         }
-        return true;
+        return migrados;
+    }
+
+    /**
+     * Función para crear la actualización de progreso_clases a partir de una
+     * clase de user_courses en bruto
+     * 
+     * @param clase    Document con el estado de la clase
+     * @param posicion int con la posición de la clase en el curso
+     * @return Update con los datos de la clase y el progreso unido con $bit
+     */
+    private Update migrarProgresoClase(Document clase, int posicion) {
+        Map<Integer, Long> palabras = new HashMap<>();
+        if (clase.get("progressBits") instanceof Document actuales) {
+            actuales.forEach((indice, palabra) -> {
+                if (palabra instanceof Number numero) {
+                    palabras.put(Integer.valueOf(indice), numero.longValue());
+                }
+            });
+        }
+        ProgresoBitmap bitmap = ProgresoBitmap.fromPalabras(palabras);
+        if (clase.get("progress") instanceof List<?> segmentos) {
+            for (Object segmento : segmentos) {
+                if (segmento instanceof Number numero && ProgresoBitmap.esValido(numero.intValue())) {
+                    bitmap.add(numero.intValue());
+                }
+            }
+        }
+        Update update = new Update()
+                .set("posicion", posicion)
+                .set("totalSegments", clase.get("totalSegments") instanceof Number n ? n.intValue() : 0)
+                .set("completed", Boolean.TRUE.equals(clase.get("completed")));
+        bitmap.getPalabras().forEach((indice, palabra) -> update.bitwise("progressBits." + indice).or(palabra));
+        return update;
     }
 
     protected Long getFirstClaseIdFromCurso(Long idCurso) throws InternalServerException {
@@ -394,19 +481,21 @@ public class UsuarioCursosService implements IUsuarioCursosService {
         return curso.getClasesCurso().get(0).getIdClase();
     }
 
-    protected Long findNextOrFirstClase(StatusCurso statusCurso) {
-        List<StatusClase> clases = statusCurso.getClases();
-        if (clases == null || clases.isEmpty()) {
-            return 0L;
-        }
-
-        // Buscamos la primera clase no completada, si todas están completas, devolvemos
-        // la primera
-        return clases.stream()
-                .filter(scl -> !scl.isCompleted())
-                .map(StatusClase::getIdClase)
-                .findFirst()
-                .orElseGet(() -> clases.get(0).getIdClase());
+    /**
+     * Función para obtener la primera clase no completada de un curso, o la
+     * primera si ya están todas completadas
+     * 
+     * @param idUsuario ID del usuario
+     * @param idCurso   ID del curso
+     * @return Optional con el ID de la clase, vacío si el usuario no tiene el
+     *         curso
+     */
+    protected Optional<Long> findNextOrFirstClase(Long idUsuario, Long idCurso) {
+        return this.progresoClaseRepository
+                .findFirstByIdUsuarioAndIdCursoAndCompletedFalseOrderByPosicionAsc(idUsuario, idCurso)
+                .or(() -> this.progresoClaseRepository.findFirstByIdUsuarioAndIdCursoOrderByPosicionAsc(idUsuario,
+                        idCurso))
+                .map(ProgresoClase::getIdClase);
     }
 
     protected void updateCursosUsuario(Usuario usuario, UsuarioCursos usuarioCursos) {
@@ -421,8 +510,11 @@ public class UsuarioCursosService implements IUsuarioCursosService {
                 // Es un curso nuevo, creamos el StatusCurso
                 StatusCurso cursoStatus = new StatusCurso();
                 cursoStatus.setIdCurso(curso.getIdCurso());
-                List<StatusClase> clases = this.createClasesCurso(curso);
-                cursoStatus.setClases(clases);
+                List<Clase> clases = this.cursoRepository.findClasesCursoById(curso.getIdCurso());
+                cursoStatus.setClases(new ArrayList<>(clases.stream().map(this::mapToStatusClase).toList()));
+                this.progresoClaseRepository.upsertClases(
+                        this.crearProgresos(usuarioCursos.getIdUsuario(), curso.getIdCurso(), clases),
+                        mongoTemplate);
                 // Añadimos el StatusCurso al usuario
                 usuarioCursos.getCursos().add(cursoStatus);
             }
@@ -431,16 +523,45 @@ public class UsuarioCursosService implements IUsuarioCursosService {
         this.usuarioCursosRepository.save(usuarioCursos);
     }
 
-    protected List<StatusClase> createClasesCurso(Curso curso) {
-        List<Clase> clases = this.cursoRepository.findClasesCursoById(curso.getIdCurso());
-        return clases.stream().map(clazz -> {
-            StatusClase classStatus = new StatusClase();
-            classStatus.setIdClase(clazz.getIdClase());
-            classStatus.setCompleted(false);
-            classStatus.setTotalSegments(this.getTotalSegments(clazz));
-            classStatus.setProgress(new HashSet<>());
-            return classStatus;
-        }).toList();
+    /**
+     * Función para crear el progreso vacío de un usuario en unas clases
+     * 
+     * @param idUsuario ID del usuario
+     * @param idCurso   ID del curso
+     * @param clases    Lista de clases del curso en orden
+     * @return Lista de ProgresoClase
+     */
+    protected List<ProgresoClase> crearProgresos(Long idUsuario, Long idCurso, List<Clase> clases) {
+        return this.crearProgresos(Collections.singletonList(idUsuario), idCurso, clases);
+    }
+
+    /**
+     * Función para crear el progreso vacío de varios usuarios en unas clases.
+     * Los fragmentos de cada clase se cuentan una sola vez para todos los
+     * usuarios.
+     * 
+     * @param idUsuarios Lista con los IDs de los usuarios
+     * @param idCurso    ID del curso
+     * @param clases     Lista de clases del curso en orden
+     * @return Lista de ProgresoClase
+     */
+    protected List<ProgresoClase> crearProgresos(List<Long> idUsuarios, Long idCurso, List<Clase> clases) {
+        List<ProgresoClase> progresos = new ArrayList<>(clases.size() * idUsuarios.size());
+        for (int i = 0; i < clases.size(); i++) {
+            Clase clase = clases.get(i);
+            int posicion = clase.getPosicionClase() != null ? clase.getPosicionClase() : i;
+            int totalSegments = this.getTotalSegments(clase);
+            for (Long idUsuario : idUsuarios) {
+                progresos.add(ProgresoClase.builder()
+                        .idUsuario(idUsuario)
+                        .idCurso(idCurso)
+                        .idClase(clase.getIdClase())
+                        .posicion(posicion)
+                        .totalSegments(totalSegments)
+                        .build());
+            }
+        }
+        return progresos;
     }
 
     /**
@@ -474,9 +595,6 @@ public class UsuarioCursosService implements IUsuarioCursosService {
     protected StatusClase mapToStatusClase(Clase clase) {
         StatusClase claseStatus = new StatusClase();
         claseStatus.setIdClase(clase.getIdClase());
-        claseStatus.setCompleted(false);
-        claseStatus.setTotalSegments(this.getTotalSegments(clase));
-        claseStatus.setProgress(new HashSet<>());
         return claseStatus;
     }
 
@@ -492,6 +610,15 @@ public class UsuarioCursosService implements IUsuarioCursosService {
         }
     }
 
+    /**
+     * Función para contar los segmentos de una clase.
+     * Se cuentan las URIs de la lista de la primera calidad de video de
+     * master.m3u8: la carpeta de la clase también tiene el audio y, a veces,
+     * restos de una conversión, y el orden de Files.list no está definido.
+     *
+     * @param clase Clase con la ruta de su master.m3u8
+     * @return int con el número de segmentos, 0 si no se pueden contar
+     */
     protected int getTotalSegments(Clase clase) {
         String fullPath = clase.getDireccionClase();
         if (fullPath == null || !fullPath.contains("/")) {
@@ -499,39 +626,54 @@ public class UsuarioCursosService implements IUsuarioCursosService {
             return 0;
         }
 
-        // 1. Obtenemos la carpeta de la clase
-        Path claseDir = Paths.get(fullPath).getParent();
+        // 1. Obtenemos la lista maestra y la carpeta de la clase
+        Path master = Paths.get(fullPath);
+        Path claseDir = master.getParent();
 
-        if (claseDir == null || !Files.exists(claseDir)) {
-            logger.error("No existe el directorio de la clase: {}", claseDir);
+        if (claseDir == null || !Files.exists(master)) {
+            logger.error("No existe la lista maestra de la clase: {}", master);
             return 0;
         }
 
-        try (Stream<Path> subDirs = Files.list(claseDir)) {
-            // 2. Buscamos la primera carpeta de resolución (ej. 720p/)
-            Optional<Path> resolutionDir = subDirs
-                    .filter(Files::isDirectory)
-                    .findFirst();
-
-            if (resolutionDir.isPresent()) {
-                Path targetDir = resolutionDir.get();
-
-                try (Stream<Path> segments = Files.list(targetDir)) {
-                    // 3. Contamos todos los archivos y restamos 1 (.m3u8 de la resolución)
-                    long count = segments.count();
-                    int total = (int) (count > 0 ? count - 1 : 0);
-
-                    logger.info("Total de segmentos detectados en {}: {}", targetDir.getFileName(), total);
-                    return total;
-                }
-            } else {
-                logger.warn("No se encontraron carpetas de resolución dentro de {}", claseDir);
+        try {
+            // 2. Buscamos la primera calidad de video (el audio va en EXT-X-MEDIA)
+            String variante = primeraVariante(Files.readAllLines(master, StandardCharsets.UTF_8));
+            if (variante == null) {
+                logger.warn("No se encontraron calidades de video en {}", master);
                 return 0;
             }
 
+            // 3. Contamos las URIs de sus segmentos (sin etiquetas ni el init de CMAF)
+            Path lista = claseDir.resolve(variante);
+            int total = (int) Files.readAllLines(lista, StandardCharsets.UTF_8).stream()
+                    .map(String::strip)
+                    .filter(linea -> !linea.isEmpty() && !linea.startsWith("#"))
+                    .count();
+
+            logger.info("Total de segmentos detectados en {}: {}", variante, total);
+            return total;
         } catch (IOException e) {
             logger.error("Error al acceder al sistema de archivos para la clase {}", clase.getIdClase(), e);
             return 0;
         }
     }
+
+    /**
+     * Función para obtener la lista de la primera calidad de una lista maestra
+     *
+     * @param lineas List<String> con las líneas de master.m3u8
+     * @return String con la URI de la lista, o null si no hay calidades
+     */
+    private static String primeraVariante(List<String> lineas) {
+        boolean variante = false;
+        for (String linea : lineas) {
+            linea = linea.strip();
+            if (linea.startsWith("#EXT-X-STREAM-INF:")) {
+                variante = true;
+            } else if (variante && !linea.isEmpty() && !linea.startsWith("#")) {
+                return linea;
+            }
+        }
+        return null;
+    }
 }
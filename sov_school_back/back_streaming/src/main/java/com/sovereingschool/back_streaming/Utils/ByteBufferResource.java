@@ -0,0 +1,91 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Resource de Spring respaldado por un ByteBuffer (por ejemplo un segmento de
+ * la caché fuera del heap). Cada llamada a getInputStream lee una vista
+ * independiente del buffer, por lo que se puede servir a varias peticiones a
+ * la vez.
+ */
+public class ByteBufferResource extends AbstractResource {
+
+    private final ByteBuffer buffer;
+    private final String filename;
+
+    /**
+     * Constructor de ByteBufferResource
+     *
+     * @param buffer   ByteBuffer con el contenido
+     * @param filename String con el nombre del fichero original
+     */
+    public ByteBufferResource(ByteBuffer buffer, String filename) {
+        this.buffer = buffer.duplicate();
+        this.filename = filename;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(this.buffer.duplicate());
+    }
+
+    @Override
+    public long contentLength() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public String getFilename() {
+        return this.filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "ByteBuffer resource [" + this.filename + "]";
+    }
+
+    /**
+     * InputStream sobre un ByteBuffer con skip en O(1) para las peticiones con
+     * rango
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+}
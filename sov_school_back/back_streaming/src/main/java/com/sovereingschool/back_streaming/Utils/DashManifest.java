@@ -0,0 +1,365 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utilidad para escribir el manifiesto MPEG-DASH de una clase a partir de su
+ * salida HLS en fMP4 (CMAF). DASH y HLS comparten los segmentos de
+ * inicialización y los fragmentos .m4s, así que no hace falta volver a
+ * codificar: el MPD solo describe los ficheros que ya hay en cada calidad.
+ * Cada #EXT-X-DISCONTINUITY (conversión por partes) empieza un Period nuevo
+ * porque cada parte tiene su propio segmento de inicialización.
+ */
+public class DashManifest {
+
+    public static final String MPD = "manifest.mpd";
+
+    private static final int TIMESCALE = 1000;
+    private static final String CODEC_VIDEO = "avc1.640028";
+    private static final String CODEC_AUDIO = "mp4a.40.2";
+    private static final long BANDWIDTH_AUDIO = 128000;
+
+    private static final String EXTINF = "#EXTINF:";
+    private static final String MAP = "#EXT-X-MAP:";
+    private static final String MEDIA = "#EXT-X-MEDIA:";
+    private static final String STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final Pattern ATRIBUTO = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+
+    /**
+     * Segmentos de una calidad entre dos #EXT-X-DISCONTINUITY
+     */
+    private record Seccion(String init, List<Double> duraciones, List<String> segmentos) {
+    }
+
+    /**
+     * Calidad de la lista maestra con los atributos que usa el MPD
+     */
+    private record Variante(String nombre, boolean audio, Map<String, String> atributos, List<Seccion> secciones) {
+    }
+
+    private DashManifest() {
+    }
+
+    /**
+     * Función para escribir el manifiesto DASH de una clase
+     *
+     * @param carpeta Path de la carpeta con master.m3u8 y una carpeta por
+     *                calidad
+     * @return Path del manifiesto escrito
+     * @throws IOException Si falta alguna lista o los segmentos no son fMP4
+     */
+    public static Path escribir(Path carpeta) throws IOException {
+        List<Variante> variantes = leerVariantes(carpeta);
+        List<Variante> videos = variantes.stream().filter(v -> !v.audio()).toList();
+        List<Variante> audios = variantes.stream().filter(Variante::audio).toList();
+        if (videos.isEmpty()) {
+            throw new IOException("No hay calidades de video en " + carpeta);
+        }
+        int periodos = videos.get(0).secciones().size();
+        for (Variante variante : variantes) {
+            if (variante.secciones().size() != periodos) {
+                throw new IOException("Las calidades de " + carpeta + " no tienen las mismas partes");
+            }
+        }
+
+        List<Double> inicios = new ArrayList<>();
+        double total = 0;
+        for (Seccion seccion : videos.get(0).secciones()) {
+            inicios.add(total);
+            total += seccion.duraciones().stream().mapToDouble(Double::doubleValue).sum();
+        }
+
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\"")
+                .append(" type=\"static\" minBufferTime=\"PT4S\" mediaPresentationDuration=\"")
+                .append(duracion(total)).append("\">\n");
+        for (int p = 0; p < periodos; p++) {
+            double fin = p + 1 < periodos ? inicios.get(p + 1) : total;
+            sb.append("  <Period id=\"").append(p).append("\" start=\"").append(duracion(inicios.get(p)))
+                    .append("\" duration=\"").append(duracion(fin - inicios.get(p))).append("\">\n");
+            sb.append("    <AdaptationSet id=\"0\" contentType=\"video\" mimeType=\"video/mp4\"")
+                    .append(" segmentAlignment=\"true\" startWithSAP=\"1\">\n");
+            for (Variante video : videos) {
+                escribirRepresentacion(sb, carpeta, video, p, inicios.get(p));
+            }
+            sb.append("    </AdaptationSet>\n");
+            if (!audios.isEmpty()) {
+                sb.append("    <AdaptationSet id=\"1\" contentType=\"audio\" mimeType=\"audio/mp4\"")
+                        .append(" segmentAlignment=\"true\" startWithSAP=\"1\">\n");
+                for (Variante audio : audios) {
+                    escribirRepresentacion(sb, carpeta, audio, p, inicios.get(p));
+                }
+                sb.append("    </AdaptationSet>\n");
+            }
+            sb.append("  </Period>\n");
+        }
+        sb.append("</MPD>\n");
+
+        Path mpd = carpeta.resolve(MPD);
+        Files.writeString(mpd, sb.toString(), StandardCharsets.UTF_8);
+        return mpd;
+    }
+
+    /**
+     * Función para leer las calidades de la lista maestra y sus listas
+     *
+     * @param carpeta Path de la carpeta de la clase
+     * @return List<Variante> con las calidades en el orden de la lista maestra
+     * @throws IOException
+     */
+    private static List<Variante> leerVariantes(Path carpeta) throws IOException {
+        List<String> master = Files.readAllLines(carpeta.resolve(HlsStitcher.MASTER), StandardCharsets.UTF_8);
+        List<Variante> variantes = new ArrayList<>();
+        Map<String, String> pendiente = null;
+        for (String linea : master) {
+            linea = linea.strip();
+            if (linea.startsWith(MEDIA)) {
+                Map<String, String> atributos = atributos(linea.substring(MEDIA.length()));
+                if ("AUDIO".equals(atributos.get("TYPE")) && atributos.containsKey("URI")) {
+                    variantes.add(leerVariante(carpeta, atributos.get("URI"), true, atributos));
+                }
+            } else if (linea.startsWith(STREAM_INF)) {
+                pendiente = atributos(linea.substring(STREAM_INF.length()));
+            } else if (pendiente != null && !linea.isEmpty() && !linea.startsWith("#")) {
+                variantes.add(leerVariante(carpeta, linea, false, pendiente));
+                pendiente = null;
+            }
+        }
+        return variantes;
+    }
+
+    /**
+     * Función para leer la lista de una calidad y partirla en secciones
+     *
+     * @param carpeta   Path de la carpeta de la clase
+     * @param uri       String con la ruta de la lista relativa a la carpeta
+     * @param audio     Booleano para indicar si es la pista de audio
+     * @param atributos Map<String, String> con los atributos de la lista
+     *                  maestra
+     * @return Variante con sus secciones
+     * @throws IOException Si la lista no usa segmentos fMP4
+     */
+    private static Variante leerVariante(Path carpeta, String uri, boolean audio, Map<String, String> atributos)
+            throws IOException {
+        Path lista = carpeta.resolve(uri);
+        String nombre = carpeta.relativize(lista.getParent()).toString();
+        List<Seccion> secciones = new ArrayList<>();
+        Seccion actual = null;
+        double duracion = 0;
+        for (String linea : Files.readAllLines(lista, StandardCharsets.UTF_8)) {
+            linea = linea.strip();
+            if (linea.equals("#EXT-X-DISCONTINUITY")) {
+                actual = null;
+            } else if (linea.startsWith(MAP)) {
+                actual = new Seccion(atributos(linea.substring(MAP.length())).get("URI"), new ArrayList<>(),
+                        new ArrayList<>());
+                secciones.add(actual);
+            } else if (linea.startsWith(EXTINF)) {
+                String valor = linea.substring(EXTINF.length());
+                int coma = valor.indexOf(',');
+                duracion = Double.parseDouble(coma >= 0 ? valor.substring(0, coma) : valor);
+            } else if (!linea.isEmpty() && !linea.startsWith("#")) {
+                if (actual == null) {
+                    throw new IOException("La lista " + lista + " no tiene segmentos fMP4");
+                }
+                actual.duraciones().add(duracion);
+                actual.segmentos().add(linea);
+            }
+        }
+        return new Variante(nombre, audio, atributos, secciones);
+    }
+
+    /**
+     * Función para escribir la Representation de una calidad en un Period.
+     * Los tiempos de la SegmentTimeline son los de la presentación completa
+     * (las partes se convierten con -output_ts_offset), y el
+     * presentationTimeOffset los lleva al inicio del Period.
+     *
+     * @param sb       StringBuilder con el MPD
+     * @param carpeta  Path de la carpeta de la clase
+     * @param variante Variante a escribir
+     * @param periodo  int con el índice del Period
+     * @param inicio   double con el inicio del Period en segundos
+     * @throws IOException
+     */
+    private static void escribirRepresentacion(StringBuilder sb, Path carpeta, Variante variante, int periodo,
+            double inicio) throws IOException {
+        Seccion seccion = variante.secciones().get(periodo);
+        Map<String, String> atributos = variante.atributos();
+        String prefijo = variante.nombre().isEmpty() ? "" : variante.nombre() + "/";
+
+        sb.append("      <Representation id=\"").append(xml(variante.nombre())).append("\"");
+        if (variante.audio()) {
+            sb.append(" codecs=\"").append(codec(atributos, "mp4a", CODEC_AUDIO)).append("\"")
+                    .append(" bandwidth=\"").append(bandwidthAudio(carpeta.resolve(prefijo), seccion)).append("\"")
+                    .append(" audioSamplingRate=\"48000\"");
+        } else {
+            sb.append(" codecs=\"").append(codec(atributos, "avc1", CODEC_VIDEO)).append("\"")
+                    .append(" bandwidth=\"").append(atributos.getOrDefault("BANDWIDTH", "0")).append("\"");
+            String resolucion = atributos.get("RESOLUTION");
+            if (resolucion != null && resolucion.contains("x")) {
+                String[] partes = resolucion.split("x");
+                sb.append(" width=\"").append(partes[0]).append("\" height=\"").append(partes[1]).append("\"");
+            }
+            String fps = frameRate(variante);
+            if (fps != null) {
+                sb.append(" frameRate=\"").append(fps).append("\"");
+            }
+        }
+        sb.append(">\n");
+
+        long tiempo = Math.round(inicio * TIMESCALE);
+        sb.append("        <SegmentList timescale=\"").append(TIMESCALE)
+                .append("\" presentationTimeOffset=\"").append(tiempo).append("\">\n");
+        sb.append("          <Initialization sourceURL=\"").append(xml(prefijo + seccion.init())).append("\"/>\n");
+        sb.append("          <SegmentTimeline>\n");
+        double acumulado = inicio;
+        long anterior = -1;
+        int repeticiones = 0;
+        long t = tiempo;
+        for (double duracion : seccion.duraciones()) {
+            acumulado += duracion;
+            long fin = Math.round(acumulado * TIMESCALE);
+            long d = fin - tiempo;
+            if (d == anterior) {
+                repeticiones++;
+            } else {
+                escribirS(sb, t, anterior, repeticiones);
+                t = tiempo;
+                anterior = d;
+                repeticiones = 0;
+            }
+            tiempo = fin;
+        }
+        escribirS(sb, t, anterior, repeticiones);
+        sb.append("          </SegmentTimeline>\n");
+        for (String segmento : seccion.segmentos()) {
+            sb.append("          <SegmentURL media=\"").append(xml(prefijo + segmento)).append("\"/>\n");
+        }
+        sb.append("        </SegmentList>\n");
+        sb.append("      </Representation>\n");
+    }
+
+    /**
+     * Función para escribir una entrada de la SegmentTimeline
+     *
+     * @param sb           StringBuilder con el MPD
+     * @param t            long con el inicio del primer segmento
+     * @param d            long con la duración de los segmentos (-1 = nada que
+     *                     escribir)
+     * @param repeticiones int con los segmentos seguidos de la misma duración
+     */
+    private static void escribirS(StringBuilder sb, long t, long d, int repeticiones) {
+        if (d < 0) {
+            return;
+        }
+        sb.append("            <S t=\"").append(t).append("\" d=\"").append(d).append("\"");
+        if (repeticiones > 0) {
+            sb.append(" r=\"").append(repeticiones).append("\"");
+        }
+        sb.append("/>\n");
+    }
+
+    /**
+     * Función para calcular la tasa de la pista de audio con el tamaño de sus
+     * fragmentos (la lista maestra no la indica)
+     *
+     * @param carpeta Path de la carpeta del audio
+     * @param seccion Seccion del audio
+     * @return long con los bits por segundo
+     * @throws IOException
+     */
+    private static long bandwidthAudio(Path carpeta, Seccion seccion) throws IOException {
+        double segundos = seccion.duraciones().stream().mapToDouble(Double::doubleValue).sum();
+        long bytes = 0;
+        for (String segmento : seccion.segmentos()) {
+            Path path = carpeta.resolve(segmento);
+            if (Files.exists(path)) {
+                bytes += Files.size(path);
+            }
+        }
+        return bytes > 0 && segundos > 0 ? Math.round(bytes * 8 / segundos) : BANDWIDTH_AUDIO;
+    }
+
+    /**
+     * Función para obtener el códec de un tipo de los CODECS de la lista
+     * maestra
+     *
+     * @param atributos Map<String, String> con los atributos de la calidad
+     * @param prefijo   String con el prefijo del códec (avc1, mp4a)
+     * @param defecto   String con el códec si la lista no lo indica
+     * @return String con el códec
+     */
+    private static String codec(Map<String, String> atributos, String prefijo, String defecto) {
+        String codecs = atributos.get("CODECS");
+        if (codecs != null) {
+            for (String codec : codecs.split(",")) {
+                if (codec.strip().startsWith(prefijo)) {
+                    return codec.strip();
+                }
+            }
+        }
+        return defecto;
+    }
+
+    /**
+     * Función para obtener los fps de una calidad: del FRAME-RATE de la lista
+     * maestra o del nombre de la carpeta (WxH@fps)
+     *
+     * @param variante Variante de video
+     * @return String con los fps, o null si no se conocen
+     */
+    private static String frameRate(Variante variante) {
+        String fps = variante.atributos().get("FRAME-RATE");
+        if (fps == null && variante.nombre().contains("@")) {
+            fps = variante.nombre().substring(variante.nombre().lastIndexOf('@') + 1);
+        }
+        if (fps == null || fps.isEmpty()) {
+            return null;
+        }
+        try {
+            double valor = Double.parseDouble(fps);
+            return valor == Math.rint(valor) ? String.valueOf((long) valor) : fps;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Función para leer los atributos de una etiqueta HLS
+     *
+     * @param lista String con los atributos separados por comas
+     * @return Map<String, String> con los atributos sin comillas
+     */
+    private static Map<String, String> atributos(String lista) {
+        Map<String, String> atributos = new HashMap<>();
+        Matcher matcher = ATRIBUTO.matcher(lista);
+        while (matcher.find()) {
+            String valor = matcher.group(2);
+            if (valor.length() >= 2 && valor.startsWith("\"") && valor.endsWith("\"")) {
+                valor = valor.substring(1, valor.length() - 1);
+            }
+            atributos.put(matcher.group(1), valor);
+        }
+        return atributos;
+    }
+
+    private static String duracion(double segundos) {
+        return String.format(Locale.ROOT, "PT%.3fS", segundos);
+    }
+
+    private static String xml(String valor) {
+        return valor.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -3,7 +3,19 @@ package com.sovereingschool.back_streaming.Utils;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detección del hardware de codificación.
+ * La sonda (dispositivos y codificadores/filtros de FFmpeg) se ejecuta una sola
+ * vez, al arrancar la cola de conversión, y el resultado se reutiliza en cada
+ * comando FFmpeg.
+ */
 public class GPUDetector {
 
     public enum VideoAcceleration {
@@ -12,31 +24,137 @@ public class GPUDetector {
         CPU
     }
 
+    /**
+     * Resultado de la sonda de hardware
+     *
+     * @param aceleracion   VideoAcceleration elegida
+     * @param codificadores Set<String> con los codificadores de FFmpeg (vacío si
+     *                      no se pudieron listar)
+     * @param filtros       Set<String> con los filtros de FFmpeg (vacío si no se
+     *                      pudieron listar)
+     */
+    public record Capacidades(VideoAcceleration aceleracion, Set<String> codificadores, Set<String> filtros) {
+
+        /**
+         * Función para saber si FFmpeg tiene un codificador.
+         * Si no se pudo listar se supone que sí, como antes de la sonda.
+         *
+         * @param nombre String con el nombre del codificador
+         * @return boolean true si está disponible
+         */
+        public boolean tieneCodificador(String nombre) {
+            return this.codificadores.isEmpty() || this.codificadores.contains(nombre);
+        }
+
+        /**
+         * Función para saber si FFmpeg tiene un filtro.
+         * Si no se pudo listar se supone que sí, como antes de la sonda.
+         *
+         * @param nombre String con el nombre del filtro
+         * @return boolean true si está disponible
+         */
+        public boolean tieneFiltro(String nombre) {
+            return this.filtros.isEmpty() || this.filtros.contains(nombre);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(GPUDetector.class);
+
+    private static volatile Capacidades capacidades;
+
+    private GPUDetector() {
+    }
+
     public static VideoAcceleration detectAcceleration() {
-        if (isVaapiAvailable()) {
-            return VideoAcceleration.VAAPI;
+        return getCapacidades().aceleracion();
+    }
+
+    /**
+     * Función para obtener las capacidades de codificación.
+     * La primera llamada ejecuta la sonda; las demás devuelven el mismo
+     * resultado sin lanzar procesos.
+     *
+     * @return Capacidades detectadas
+     */
+    public static Capacidades getCapacidades() {
+        Capacidades actuales = capacidades;
+        if (actuales == null) {
+            synchronized (GPUDetector.class) {
+                actuales = capacidades;
+                if (actuales == null) {
+                    actuales = sondear();
+                    capacidades = actuales;
+                }
+            }
         }
-        if (isNvidiaAvailable()) {
-            return VideoAcceleration.NVIDIA;
+        return actuales;
+    }
+
+    /**
+     * Función para elegir la aceleración: hace falta el dispositivo y, si se
+     * pudieron listar, el codificador y el filtro de escalado que usan los
+     * comandos de StreamingService
+     *
+     * @param dri           Booleano con si hay un dispositivo /dev/dri/render*
+     * @param nvidia        Booleano con si nvidia-smi lista alguna GPU
+     * @param codificadores Set<String> con los codificadores de FFmpeg
+     * @param filtros       Set<String> con los filtros de FFmpeg
+     * @return Capacidades con la aceleración elegida
+     */
+    static Capacidades elegir(boolean dri, boolean nvidia, Set<String> codificadores, Set<String> filtros) {
+        Capacidades cpu = new Capacidades(VideoAcceleration.CPU, codificadores, filtros);
+        if (dri && cpu.tieneCodificador("h264_vaapi") && cpu.tieneFiltro("scale_vaapi")) {
+            return new Capacidades(VideoAcceleration.VAAPI, codificadores, filtros);
         }
-        return VideoAcceleration.CPU;
+        if (nvidia && cpu.tieneCodificador("h264_nvenc") && cpu.tieneFiltro("scale_cuda")) {
+            return new Capacidades(VideoAcceleration.NVIDIA, codificadores, filtros);
+        }
+        return cpu;
     }
 
-    private static boolean isVaapiAvailable() {
-        try {
-            Process process = new ProcessBuilder("bash", "-c", "ls /dev/dri/render* 2>/dev/null").start();
-            return readProcessOutput(process).contains("renderD");
-        } catch (IOException e) {
-            return false;
+    /**
+     * Función para leer los nombres de la salida de "ffmpeg -encoders" o
+     * "ffmpeg -filters": cada línea empieza por las banderas y sigue con el
+     * nombre; las líneas de la leyenda llevan "=" en su lugar
+     *
+     * @param salida String con la salida de FFmpeg
+     * @return Set<String> con los nombres
+     */
+    static Set<String> leerNombres(String salida) {
+        Set<String> nombres = new HashSet<>();
+        for (String linea : salida.split("\n")) {
+            String[] partes = linea.trim().split("\\s+");
+            if (partes.length >= 2 && partes[0].matches("[A-Z.|]{3,6}") && !"=".equals(partes[1])) {
+                nombres.add(partes[1]);
+            }
         }
+        return Collections.unmodifiableSet(nombres);
+    }
+
+    private static Capacidades sondear() {
+        Set<String> codificadores = leerNombres(ejecutar("ffmpeg", "-hide_banner", "-encoders"));
+        Set<String> filtros = leerNombres(ejecutar("ffmpeg", "-hide_banner", "-filters"));
+        Capacidades resultado = elegir(isVaapiAvailable(), isNvidiaAvailable(), codificadores, filtros);
+        logger.info("Aceleración de video: {} (h264_vaapi={}, h264_nvenc={}, scale_vaapi={}, scale_cuda={})",
+                resultado.aceleracion(), codificadores.contains("h264_vaapi"), codificadores.contains("h264_nvenc"),
+                filtros.contains("scale_vaapi"), filtros.contains("scale_cuda"));
+        return resultado;
+    }
+
+    private static boolean isVaapiAvailable() {
+        return ejecutar("bash", "-c", "ls /dev/dri/render* 2>/dev/null").contains("renderD");
     }
 
     private static boolean isNvidiaAvailable() {
+        return ejecutar("bash", "-c", "nvidia-smi -L").contains("GPU");
+    }
+
+    private static String ejecutar(String... comando) {
         try {
-            Process process = new ProcessBuilder("bash", "-c", "nvidia-smi -L").start();
-            return readProcessOutput(process).contains("GPU");
+            Process process = new ProcessBuilder(comando).start();
+            return readProcessOutput(process);
         } catch (IOException e) {
-            return false;
+            return "";
         }
     }
 
@@ -50,4 +168,4 @@ public class GPUDetector {
             return result.toString();
         }
     }
-}
\ No newline at end of file
+}
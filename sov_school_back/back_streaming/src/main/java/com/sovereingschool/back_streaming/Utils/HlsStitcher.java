@@ -0,0 +1,204 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Utilidad para unir en una sola salida HLS las conversiones de las partes de
+ * un video. Cada parte tiene su master.m3u8 y una carpeta por calidad con su
+ * stream.m3u8 y sus segmentos; la salida mantiene la misma estructura con los
+ * segmentos numerados de forma continua.
+ */
+public class HlsStitcher {
+
+    public static final String MASTER = "master.m3u8";
+    public static final String PLAYLIST = "stream.m3u8";
+
+    private static final String EXTINF = "#EXTINF:";
+    private static final String TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String MAP = "#EXT-X-MAP:";
+    private static final String STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final Pattern URI_ATRIBUTO = Pattern.compile("URI=\"([^\"]*)\"");
+
+    // Etiquetas de cabecera que se reescriben en la lista unida
+    private static final List<String> CABECERA = List.of("#EXTM3U", "#EXT-X-VERSION", "#EXT-X-TARGETDURATION",
+            "#EXT-X-MEDIA-SEQUENCE", "#EXT-X-PLAYLIST-TYPE", "#EXT-X-INDEPENDENT-SEGMENTS", "#EXT-X-ENDLIST");
+
+    private HlsStitcher() {
+    }
+
+    /**
+     * Función para unir las conversiones de las partes de un video.
+     * Los segmentos se mueven a la carpeta de destino.
+     *
+     * @param partes  List<Path> con las carpetas de las partes, en orden
+     * @param destino Path de la carpeta de salida
+     * @throws IOException Si falta alguna lista o no se puede escribir la
+     *                     salida
+     */
+    public static void unir(List<Path> partes, Path destino) throws IOException {
+        if (partes.isEmpty()) {
+            throw new IOException("No hay partes que unir");
+        }
+        for (String variante : variantes(partes.get(0))) {
+            unirVariante(partes, destino, variante);
+        }
+        unirMaster(partes, destino);
+    }
+
+    /**
+     * Función para obtener las calidades de una parte
+     *
+     * @param parte Path de la carpeta de la parte
+     * @return List<String> con los nombres de las carpetas de cada calidad
+     * @throws IOException
+     */
+    protected static List<String> variantes(Path parte) throws IOException {
+        try (Stream<Path> hijos = Files.list(parte)) {
+            return hijos.filter(hijo -> Files.isRegularFile(hijo.resolve(PLAYLIST)))
+                    .map(hijo -> hijo.getFileName().toString())
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Función para unir la lista de una calidad.
+     * Cada parte empieza tras un #EXT-X-DISCONTINUITY porque su codificador
+     * arranca de cero.
+     *
+     * @param partes   List<Path> con las carpetas de las partes
+     * @param destino  Path de la carpeta de salida
+     * @param variante String con el nombre de la calidad
+     * @throws IOException
+     */
+    protected static void unirVariante(List<Path> partes, Path destino, String variante) throws IOException {
+        Path salida = destino.resolve(variante);
+        Files.createDirectories(salida);
+
+        String version = null;
+        boolean independientes = false;
+        int duracionMaxima = 0;
+        int segmento = 0;
+        List<String> cuerpo = new ArrayList<>();
+
+        for (int i = 0; i < partes.size(); i++) {
+            Path carpeta = partes.get(i).resolve(variante);
+            List<String> lineas = Files.readAllLines(carpeta.resolve(PLAYLIST), StandardCharsets.UTF_8);
+            if (i > 0) {
+                cuerpo.add("#EXT-X-DISCONTINUITY");
+            }
+            for (String linea : lineas) {
+                if (linea.isBlank()) {
+                    continue;
+                }
+                if (linea.startsWith("#EXT-X-VERSION:") && version == null) {
+                    version = linea;
+                } else if (linea.startsWith("#EXT-X-INDEPENDENT-SEGMENTS")) {
+                    independientes = true;
+                } else if (linea.startsWith(TARGET_DURATION)) {
+                    duracionMaxima = Math.max(duracionMaxima,
+                            Integer.parseInt(linea.substring(TARGET_DURATION.length()).trim()));
+                } else if (linea.startsWith(MAP)) {
+                    // Cada parte tiene su propio segmento de inicialización
+                    Matcher matcher = URI_ATRIBUTO.matcher(linea);
+                    if (matcher.find()) {
+                        String nombre = String.format("init%03d%s", i, extension(matcher.group(1)));
+                        mover(carpeta.resolve(matcher.group(1)), salida.resolve(nombre));
+                        linea = linea.substring(0, matcher.start(1)) + nombre + linea.substring(matcher.end(1));
+                    }
+                    cuerpo.add(linea);
+                } else if (linea.startsWith("#")) {
+                    if (CABECERA.stream().noneMatch(linea::startsWith)) {
+                        cuerpo.add(linea);
+                    }
+                } else {
+                    String nombre = String.format("data%05d%s", segmento++, extension(linea));
+                    mover(carpeta.resolve(linea), salida.resolve(nombre));
+                    cuerpo.add(nombre);
+                }
+            }
+        }
+
+        List<String> lista = new ArrayList<>();
+        lista.add("#EXTM3U");
+        lista.add(version != null ? version : "#EXT-X-VERSION:3");
+        lista.add(TARGET_DURATION + duracionMaxima);
+        lista.add("#EXT-X-MEDIA-SEQUENCE:0");
+        lista.add("#EXT-X-PLAYLIST-TYPE:VOD");
+        if (independientes) {
+            lista.add("#EXT-X-INDEPENDENT-SEGMENTS");
+        }
+        lista.addAll(cuerpo);
+        lista.add("#EXT-X-ENDLIST");
+        Files.write(salida.resolve(PLAYLIST), lista, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Función para unir las listas maestras.
+     * Las partes comparten la escalera de calidades, así que se toma la de la
+     * primera parte con el BANDWIDTH máximo de cada calidad entre todas ellas.
+     *
+     * @param partes  List<Path> con las carpetas de las partes
+     * @param destino Path de la carpeta de salida
+     * @throws IOException
+     */
+    protected static void unirMaster(List<Path> partes, Path destino) throws IOException {
+        List<List<String>> masters = new ArrayList<>();
+        for (Path parte : partes) {
+            masters.add(Files.readAllLines(parte.resolve(MASTER), StandardCharsets.UTF_8));
+        }
+
+        List<String> master = new ArrayList<>(masters.get(0));
+        for (int i = 0; i < master.size(); i++) {
+            String linea = master.get(i);
+            if (!linea.startsWith(STREAM_INF)) {
+                continue;
+            }
+            for (List<String> otra : masters) {
+                if (otra.size() > i) {
+                    linea = maximo(linea, otra.get(i), "AVERAGE-BANDWIDTH");
+                    linea = maximo(linea, otra.get(i), "BANDWIDTH");
+                }
+            }
+            master.set(i, linea);
+        }
+        Files.write(destino.resolve(MASTER), master, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Función para quedarse con el mayor valor de un atributo entre dos líneas
+     *
+     * @param linea    String con la línea a actualizar
+     * @param otra     String con la línea de la otra parte
+     * @param atributo String con el nombre del atributo
+     * @return String con la línea actualizada
+     */
+    private static String maximo(String linea, String otra, String atributo) {
+        Pattern pattern = Pattern.compile("(?<=[:,])" + atributo + "=(\\d+)");
+        Matcher actual = pattern.matcher(linea);
+        Matcher nuevo = pattern.matcher(otra);
+        if (!actual.find() || !nuevo.find()) {
+            return linea;
+        }
+        long valor = Math.max(Long.parseLong(actual.group(1)), Long.parseLong(nuevo.group(1)));
+        return linea.substring(0, actual.start(1)) + valor + linea.substring(actual.end(1));
+    }
+
+    private static void mover(Path origen, Path destino) throws IOException {
+        Files.move(origen, destino, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String extension(String nombre) {
+        int punto = nombre.lastIndexOf('.');
+        return punto >= 0 ? nombre.substring(punto) : "";
+    }
+}
@@ -0,0 +1,169 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo binario entre Java y pion-server.go por stdin/stdout.
+ * Cada mensaje es una trama:
+ *
+ * <pre>
+ * int32  longitud del resto de la trama (big-endian)
+ * uint8  tipo de mensaje
+ * uint16 longitud del streamId
+ * bytes  streamId en UTF-8
+ * bytes  contenido: SDP o candidato en texto, o JSON en OFFER, CANDIDATE y RTP_SDP
+ * </pre>
+ *
+ * El lector sabe el tipo y la emisión de cada mensaje sin parsear el
+ * contenido y lo lee de una vez en lugar de buscar el salto de línea.
+ * pion-server.go usa los mismos códigos (writeFrame/readFrame).
+ */
+public final class PionProtocol {
+
+    /**
+     * Tamaño máximo de una trama: un SDP con muchos candidatos no llega a
+     * decenas de KB, así que más es un flujo corrupto
+     */
+    public static final int MAX_TRAMA = 1 << 20;
+
+    private static final int CABECERA = 1 + 2;
+
+    public enum Tipo {
+        // Java -> Pion
+        PING(0x01),
+        OFFER(0x02),
+        CANDIDATE(0x03),
+        STOP(0x04),
+        // Pion -> Java
+        PONG(0x81),
+        ANSWER(0x82),
+        RTP_SDP(0x83),
+        LOCAL_CANDIDATE(0x84);
+
+        private final byte codigo;
+
+        Tipo(int codigo) {
+            this.codigo = (byte) codigo;
+        }
+
+        public byte getCodigo() {
+            return this.codigo;
+        }
+
+        /**
+         * Función para obtener el tipo de un código
+         *
+         * @param codigo byte con el código de la trama
+         * @return Tipo del código, o null si es desconocido
+         */
+        public static Tipo de(byte codigo) {
+            for (Tipo tipo : values()) {
+                if (tipo.codigo == codigo) {
+                    return tipo;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Mensaje del protocolo
+     *
+     * @param tipo      Tipo del mensaje
+     * @param streamId  String con la emisión (vacío en PING y PONG)
+     * @param contenido byte[] con el contenido
+     */
+    public record Trama(Tipo tipo, String streamId, byte[] contenido) {
+
+        /**
+         * Función para obtener el contenido como texto
+         *
+         * @return String con el contenido en UTF-8
+         */
+        public String texto() {
+            return new String(this.contenido, StandardCharsets.UTF_8);
+        }
+    }
+
+    private PionProtocol() {
+    }
+
+    /**
+     * Función para codificar una trama
+     *
+     * @param tipo      Tipo del mensaje
+     * @param streamId  String con la emisión (null o vacío si no tiene)
+     * @param contenido String con el contenido (null si no tiene)
+     * @return byte[] con la trama completa, longitud incluida
+     */
+    public static byte[] codificar(Tipo tipo, String streamId, String contenido) {
+        return codificar(tipo, streamId,
+                contenido != null ? contenido.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    /**
+     * Función para codificar una trama
+     *
+     * @param tipo      Tipo del mensaje
+     * @param streamId  String con la emisión (null o vacío si no tiene)
+     * @param contenido byte[] con el contenido
+     * @return byte[] con la trama completa, longitud incluida
+     */
+    public static byte[] codificar(Tipo tipo, String streamId, byte[] contenido) {
+        byte[] id = streamId != null ? streamId.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (id.length > 0xFFFF) {
+            throw new IllegalArgumentException("streamId demasiado largo: " + id.length + " bytes");
+        }
+        int longitud = CABECERA + id.length + contenido.length;
+        if (longitud > MAX_TRAMA) {
+            throw new IllegalArgumentException("Trama demasiado larga: " + longitud + " bytes");
+        }
+        return ByteBuffer.allocate(Integer.BYTES + longitud)
+                .putInt(longitud)
+                .put(tipo.codigo)
+                .putShort((short) id.length)
+                .put(id)
+                .put(contenido)
+                .array();
+    }
+
+    /**
+     * Función para leer la siguiente trama. Las de tipo desconocido se
+     * saltan.
+     *
+     * @param in DataInputStream del que leer
+     * @return Trama leída, o null si el flujo ha terminado entre tramas
+     * @throws IOException si el flujo termina a mitad de una trama o la
+     *                     longitud no es válida
+     */
+    public static Trama leer(DataInputStream in) throws IOException {
+        while (true) {
+            int longitud;
+            try {
+                longitud = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (longitud < CABECERA || longitud > MAX_TRAMA) {
+                throw new IOException("Longitud de trama no válida: " + longitud);
+            }
+            byte codigo = in.readByte();
+            int largoId = in.readUnsignedShort();
+            if (CABECERA + largoId > longitud) {
+                throw new IOException("streamId fuera de la trama: " + largoId + " de " + longitud + " bytes");
+            }
+            byte[] id = new byte[largoId];
+            in.readFully(id);
+            byte[] contenido = new byte[longitud - CABECERA - largoId];
+            in.readFully(contenido);
+            Tipo tipo = Tipo.de(codigo);
+            if (tipo != null) {
+                return new Trama(tipo, new String(id, StandardCharsets.UTF_8), contenido);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.sovereingschool.back_streaming.Models.PlaybackToken;
+
+/**
+ * Utilidad para firmar y verificar los tokens de reproducción.
+ * El token se entrega al pedir la lista de la clase y se añade a las URLs de
+ * las listas y los segmentos, de forma que cada segmento se autoriza con un
+ * solo HMAC sin consultar las bases de datos.
+ */
+@Component
+public class PlaybackTokenUtil {
+
+    public static final String PARAMETRO = "pt";
+
+    private static final String ALGORITMO = "HmacSHA256";
+    private static final Pattern URI_ATRIBUTO = Pattern.compile("URI=\"([^\"]*)\"");
+    private static final Pattern URL_DASH = Pattern.compile("\\b(sourceURL|media)=\"([^\"]*)\"");
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec clave;
+    private final long ttlSegundos;
+
+    /**
+     * Constructor de PlaybackTokenUtil
+     *
+     * @param privateKey  Clave privada de los JWT
+     * @param ttlSegundos Segundos de validez de cada token
+     */
+    public PlaybackTokenUtil(@Value("${security.jwt.private.key}") String privateKey,
+            @Value("${streaming.playback-token.ttl-seconds:10800}") long ttlSegundos) {
+        // Subclave propia para que una firma de reproducción nunca valga como firma
+        // de un JWT
+        byte[] subclave = hmac(new SecretKeySpec(privateKey.getBytes(StandardCharsets.UTF_8), ALGORITMO),
+                "sovereign-school-playback".getBytes(StandardCharsets.UTF_8));
+        this.clave = new SecretKeySpec(subclave, ALGORITMO);
+        this.ttlSegundos = ttlSegundos;
+    }
+
+    /**
+     * Función para generar un token de reproducción
+     *
+     * @param idUsuario ID del usuario
+     * @param idCurso   ID del curso
+     * @param idClase   ID de la clase tal y como aparece en la URL
+     * @param carpeta   String con la carpeta de la clase
+     * @return String con el token firmado
+     */
+    public String generar(Long idUsuario, Long idCurso, Long idClase, String carpeta) {
+        long expira = System.currentTimeMillis() / 1000 + this.ttlSegundos;
+        byte[] payload = (idUsuario + "|" + idCurso + "|" + idClase + "|" + expira + "|" + carpeta)
+                .getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(hmac(this.clave, payload));
+    }
+
+    /**
+     * Función para verificar un token de reproducción
+     *
+     * @param token String con el token
+     * @return PlaybackToken con los datos del token, o null si no es válido o ha
+     *         caducado
+     */
+    public PlaybackToken verificar(String token) {
+        if (token == null) {
+            return null;
+        }
+        int punto = token.indexOf('.');
+        if (punto <= 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, punto));
+            byte[] firma = DECODER.decode(token.substring(punto + 1));
+            if (!MessageDigest.isEqual(hmac(this.clave, payload), firma)) {
+                return null;
+            }
+            String[] campos = new String(payload, StandardCharsets.UTF_8).split("\\|", 5);
+            if (campos.length != 5) {
+                return null;
+            }
+            long expira = Long.parseLong(campos[3]);
+            if (expira < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return new PlaybackToken(Long.valueOf(campos[0]), Long.valueOf(campos[1]), Long.valueOf(campos[2]),
+                    expira, campos[4]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Función para añadir el token a todas las URIs de una lista HLS
+     *
+     * @param playlist byte[] con la lista
+     * @param token    String con el token
+     * @return byte[] con la lista firmada
+     */
+    public byte[] firmarPlaylist(byte[] playlist, String token) {
+        String contenido = new String(playlist, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(contenido.length() + 256);
+        for (String linea : contenido.split("\n", -1)) {
+            if (!sb.isEmpty()) {
+                sb.append('\n');
+            }
+            String limpia = linea.strip();
+            if (limpia.isEmpty()) {
+                sb.append(linea);
+            } else if (limpia.startsWith("#")) {
+                Matcher m = URI_ATRIBUTO.matcher(linea);
+                sb.append(m.replaceAll(r -> Matcher.quoteReplacement(
+                        "URI=\"" + conToken(r.group(1), token) + "\"")));
+            } else {
+                sb.append(conToken(limpia, token));
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Función para añadir el token a todas las URLs de un manifiesto DASH
+     * (segmentos de inicialización y fragmentos)
+     *
+     * @param mpd   byte[] con el manifiesto
+     * @param token String con el token
+     * @return byte[] con el manifiesto firmado
+     */
+    public byte[] firmarManifiesto(byte[] mpd, String token) {
+        Matcher m = URL_DASH.matcher(new String(mpd, StandardCharsets.UTF_8));
+        // En XML el separador de parámetros va escapado
+        return m.replaceAll(r -> Matcher.quoteReplacement(r.group(1) + "=\""
+                + conToken(r.group(2), token).replace("&" + PARAMETRO, "&amp;" + PARAMETRO) + "\""))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Función para añadir el token como parámetro de una URI
+     *
+     * @param uri   String con la URI
+     * @param token String con el token
+     * @return String con la URI firmada
+     */
+    private static String conToken(String uri, String token) {
+        return uri + (uri.contains("?") ? "&" : "?") + PARAMETRO + "=" + token;
+    }
+
+    /**
+     * Función para calcular un HMAC-SHA256
+     *
+     * @param clave SecretKeySpec con la clave
+     * @param datos byte[] con los datos
+     * @return byte[] con la firma
+     */
+    private static byte[] hmac(SecretKeySpec clave, byte[] datos) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITMO);
+            mac.init(clave);
+            return mac.doFinal(datos);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("No se puede calcular el HMAC: " + e.getMessage(), e);
+        }
+    }
+}
@@ -2,8 +2,10 @@ package main
 
 import (
 	"bufio"
+	"encoding/binary"
 	"encoding/json"
 	"fmt"
+	"io"
 	"net"
 	"os"
 	"strconv"
@@ -23,6 +25,58 @@ func logStream(streamID string, format string, a ...interface{}) {
 	fmt.Fprintf(os.Stderr, "[%s] %s\n", streamID, strings.TrimSuffix(msg, "\n"))
 }
 
+// ---------- protocolo con Java ----------
+// Cada mensaje es una trama (igual que PionProtocol.java):
+// uint32 longitud del resto | uint8 tipo | uint16 longitud del streamId | streamId | contenido
+const (
+	tipoPing           = 0x01
+	tipoOffer          = 0x02 // contenido: JSON {sdp, videoSettings}
+	tipoCandidate      = 0x03 // contenido: JSON RTCIceCandidateInit
+	tipoStop           = 0x04
+	tipoPong           = 0x81
+	tipoAnswer         = 0x82 // contenido: SDP
+	tipoRTPSDP         = 0x83 // contenido: JSON {sdp, videoSettings}
+	tipoLocalCandidate = 0x84 // contenido: candidato
+	maxTrama           = 1 << 20
+)
+
+var stdoutMu sync.Mutex
+
+// writeFrame escribe una trama completa en stdout de una vez
+func writeFrame(tipo byte, streamID string, contenido []byte) {
+	trama := make([]byte, 7+len(streamID)+len(contenido))
+	binary.BigEndian.PutUint32(trama[0:4], uint32(len(trama)-4))
+	trama[4] = tipo
+	binary.BigEndian.PutUint16(trama[5:7], uint16(len(streamID)))
+	copy(trama[7:], streamID)
+	copy(trama[7+len(streamID):], contenido)
+
+	stdoutMu.Lock()
+	defer stdoutMu.Unlock()
+	_, _ = os.Stdout.Write(trama)
+}
+
+// readFrame lee la siguiente trama de stdin
+func readFrame(r io.Reader) (byte, string, []byte, error) {
+	var cabecera [4]byte
+	if _, err := io.ReadFull(r, cabecera[:]); err != nil {
+		return 0, "", nil, err
+	}
+	longitud := binary.BigEndian.Uint32(cabecera[:])
+	if longitud < 3 || longitud > maxTrama {
+		return 0, "", nil, fmt.Errorf("longitud de trama no válida: %d", longitud)
+	}
+	cuerpo := make([]byte, longitud)
+	if _, err := io.ReadFull(r, cuerpo); err != nil {
+		return 0, "", nil, err
+	}
+	largoID := int(binary.BigEndian.Uint16(cuerpo[1:3]))
+	if 3+largoID > len(cuerpo) {
+		return 0, "", nil, fmt.Errorf("streamId fuera de la trama: %d de %d bytes", largoID, longitud)
+	}
+	return cuerpo[0], string(cuerpo[3 : 3+largoID]), cuerpo[3+largoID:], nil
+}
+
 // ---------- estructuras ----------
 type OfferRequest struct {
 	StreamID      string   `json:"streamId"`
@@ -74,51 +128,33 @@ func handleRemoteCandidate(streamID string, ice webrtc.ICECandidateInit) {
 // ---------- main ----------
 func main() {
 	baseAPI := webrtc.NewAPI()
-	reader := bufio.NewReader(os.Stdin)
+	reader := bufio.NewReaderSize(os.Stdin, 64*1024)
 
 	for {
-		line, err := reader.ReadBytes('\n')
+		tipo, streamID, contenido, err := readFrame(reader)
 		if err != nil {
+			fmt.Fprintf(os.Stderr, "Fin de la entrada de control: %v\n", err)
 			return
 		}
-		lineStr := strings.TrimSpace(string(line))
-		if lineStr == "" {
-			continue
-		}
-
-		var generic map[string]json.RawMessage
-		if err := json.Unmarshal(line, &generic); err != nil {
-			continue
-		}
-
-		var msgType string
-		if err := json.Unmarshal(generic["type"], &msgType); err != nil {
-			continue
-		}
 
-		switch msgType {
-		case "candidate":
-			var c struct {
-				StreamID  string                  `json:"streamId"`
-				Candidate webrtc.ICECandidateInit `json:"candidate"`
-			}
-			if err := json.Unmarshal(line, &c); err == nil {
-				handleRemoteCandidate(c.StreamID, c.Candidate)
+		switch tipo {
+		case tipoPing:
+			// Comprobación de salud del grupo de procesos de Java
+			writeFrame(tipoPong, "", nil)
+		case tipoCandidate:
+			var c webrtc.ICECandidateInit
+			if err := json.Unmarshal(contenido, &c); err == nil {
+				handleRemoteCandidate(streamID, c)
 			}
-		case "offer":
+		case tipoOffer:
 			var req OfferRequest
-			if err := json.Unmarshal(line, &req); err == nil {
+			if err := json.Unmarshal(contenido, &req); err == nil {
+				req.StreamID = streamID
 				go handleOffer(baseAPI, req)
 			}
-		case "stopStreamByID": // admite dos nombres si el front usa otro
-			// Intentamos primero parsear el formato esperado: {"type":"stopStreamByID","streamId":"..."}
-			var payload struct {
-				StreamID string `json:"streamId"`
-			}
-			if err := json.Unmarshal(line, &payload); err == nil && payload.StreamID != "" {
-				logStream(payload.StreamID, "Mensaje stop recibido -> deteniendo sesión")
-				go stopStreamByID(payload.StreamID)
-			}
+		case tipoStop:
+			logStream(streamID, "Mensaje stop recibido -> deteniendo sesión")
+			go stopStreamByID(streamID)
 		}
 	}
 }
@@ -169,13 +205,7 @@ func handleOffer(_api *webrtc.API, req OfferRequest) {
 		if c == nil {
 			return
 		}
-		j := map[string]string{
-			"type":      "candidate",
-			"streamId":  req.StreamID,
-			"candidate": c.ToJSON().Candidate,
-		}
-		b, _ := json.Marshal(j)
-		fmt.Println(string(b))
+		writeFrame(tipoLocalCandidate, req.StreamID, []byte(c.ToJSON().Candidate))
 	})
 
 	cancel := make(chan struct{})
@@ -336,10 +366,8 @@ func handleOffer(_api *webrtc.API, req OfferRequest) {
 	}
 
 	<-webrtc.GatheringCompletePromise(pc)
-	resp := map[string]string{"type": "webrtc-answer", "streamId": req.StreamID, "sdp": pc.LocalDescription().SDP}
-	b, _ := json.Marshal(resp)
 	logStream(req.StreamID, "Enviando webrtc-answer al frontend")
-	fmt.Println(string(b))
+	writeFrame(tipoAnswer, req.StreamID, []byte(pc.LocalDescription().SDP))
 
 	// Espera a que la sesión sea cancelada; cuando ocurra, cleanup.
 	<-cancel
@@ -613,18 +641,14 @@ a=recvonly
 
 func sendSDPResponse(streamID, sdpText string, videoSettings []string) {
 	resp := struct {
-		Type          string   `json:"type"`
-		StreamID      string   `json:"streamId"`
 		SDP           string   `json:"sdp"`
 		VideoSettings []string `json:"videoSettings"`
 	}{
-		Type:          "rtp-sdp",
-		StreamID:      streamID,
 		SDP:           sdpText,
 		VideoSettings: videoSettings,
 	}
 	b, _ := json.Marshal(resp)
-	fmt.Println(string(b))
+	writeFrame(tipoRTPSDP, streamID, b)
 }
 
 func sendPLIPeriodically(pc *webrtc.PeerConnection, track *webrtc.TrackRemote, cancel <-chan struct{}) {
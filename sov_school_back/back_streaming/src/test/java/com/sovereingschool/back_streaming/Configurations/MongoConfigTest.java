@@ -0,0 +1,42 @@
+package com.sovereingschool.back_streaming.Configurations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+
+/**
+ * Tests para validar la configuración de Mongo.
+ * 
+ * Verifica que el mapa de bits del progreso se guarde y se lea con las mismas
+ * palabras.
+ */
+@DisplayName("MongoConfig - Conversiones de Mongo")
+class MongoConfigTest {
+
+    @Test
+    @DisplayName("debe registrar las conversiones personalizadas")
+    void shouldCreateCustomConversions() {
+        assertNotNull(new MongoConfig().mongoCustomConversions(),
+                "Las conversiones no deben ser null");
+    }
+
+    @Test
+    @DisplayName("debe guardar y leer el mapa de bits sin perder fragmentos")
+    void shouldRoundTripBitmap() {
+        ProgresoBitmap bitmap = ProgresoBitmap.of(List.of(0, 1, 64 * 3));
+
+        Document document = MongoConfig.ProgresoBitmapWriter.INSTANCE.convert(bitmap);
+
+        assertEquals(new Document("0", 3L).append("3", 1L), document,
+                "Solo deben guardarse las palabras no vacías");
+        assertEquals(bitmap, MongoConfig.ProgresoBitmapReader.INSTANCE.convert(document),
+                "El mapa leído debe ser igual al guardado");
+    }
+}
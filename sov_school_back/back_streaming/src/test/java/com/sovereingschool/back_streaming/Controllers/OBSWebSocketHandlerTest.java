@@ -16,20 +16,27 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -74,7 +81,7 @@ class OBSWebSocketHandlerTest {
 
     @BeforeEach
     void setUp() {
-        handler = new OBSWebSocketHandler(executor, streamingService, RTMP_URL, RTMP_DOCKER, uploadDir);
+        handler = new OBSWebSocketHandler(executor, streamingService, RTMP_URL, RTMP_DOCKER, uploadDir, 5000);
     }
 
     @AfterEach
@@ -366,7 +373,51 @@ class OBSWebSocketHandlerTest {
         // Execute the captured runnable to test startFFmpegProcessForUser
         runnableCaptor.getValue().run();
 
-        verify(streamingService).startLiveStreamingFromStream(eq(streamId), any(), any());
+        verify(streamingService).startLiveStreamingFromStream(eq(streamId), any(), any(),
+                eq(Paths.get(uploadDir, "previews", streamId + ".m3u8")));
+    }
+
+    /**
+     * Prueba que al emitir se detiene el FFmpeg de la previsualización, porque
+     * la escribe el FFmpeg del directo.
+     */
+    @Test
+    void handleEmitirOBS_ShouldHandOverPreviewToLiveProcess() throws Exception {
+        String streamId = "1_session123";
+        Process mockProcess = mock(Process.class);
+        OutputStream mockOs = mock(OutputStream.class);
+        when(mockProcess.isAlive()).thenReturn(true);
+        when(mockProcess.getOutputStream()).thenReturn(mockOs);
+        when(mockProcess.waitFor(anyLong(), any())).thenReturn(true);
+        handler.previewProcesses.put("session123", mockProcess);
+
+        handler.handleEmitirOBS(session, "{\"type\":\"emitirOBS\", \"rtmpUrl\":\"rtmp://localhost/" + streamId + "\"}");
+        verify(executor).execute(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        org.mockito.InOrder orden = org.mockito.Mockito.inOrder(mockOs, streamingService);
+        orden.verify(mockOs).write('q');
+        orden.verify(streamingService).startLiveStreamingFromStream(eq(streamId), eq(RTMP_DOCKER + streamId), any(),
+                any(Path.class));
+        assertFalse(handler.previewProcesses.containsKey("session123"));
+    }
+
+    /**
+     * Prueba que al detener el directo vuelve a lanzarse el FFmpeg de la
+     * previsualización.
+     */
+    @Test
+    void handleDetenerStreamOBS_ShouldRelaunchPreview() throws Exception {
+        String streamId = "1_session123";
+        String payload = "{\"type\":\"emitirOBS\", \"rtmpUrl\":\"rtmp://localhost/" + streamId + "\"}";
+        handler.handleEmitirOBS(session, payload);
+        verify(executor).execute(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        handler.handleDetenerStreamOBS(session, payload);
+
+        verify(streamingService).stopFFmpegProcessForUser(streamId);
+        verify(executor, org.mockito.Mockito.times(2)).execute(any());
     }
 
     @Test
@@ -564,7 +615,7 @@ class OBSWebSocketHandlerTest {
     void startFFmpegProcessForUser_ServiceThrows_ShouldInterruptThread() throws Exception {
         String streamId = "1_session123";
         doThrow(new RuntimeException("service error")).when(streamingService).startLiveStreamingFromStream(any(), any(),
-                any());
+                any(), any());
 
         handler.handleEmitirOBS(session, "{\"type\":\"emitirOBS\", \"rtmpUrl\":\"rtmp://localhost/" + streamId + "\"}");
         verify(executor).execute(runnableCaptor.capture());
@@ -575,4 +626,56 @@ class OBSWebSocketHandlerTest {
             assertEquals("Error al iniciar FFmpeg para usuario 1: service error", e.getMessage());
         }
     }
+
+    @Test
+    void startPreview_SaturationChanges_ShouldRestartReduced(@TempDir Path tempDir) throws Exception {
+        Process completa = procesoPreview();
+        Process reducida = procesoPreview();
+        when(completa.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(false, false, true);
+        when(completa.isAlive()).thenReturn(true);
+        when(completa.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(reducida.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(streamingService.codificadorSaturado()).thenReturn(false, false, true);
+        List<Boolean> calidades = new ArrayList<>();
+        Iterator<Process> procesos = List.of(completa, reducida).iterator();
+        OBSWebSocketHandler vigilado = new OBSWebSocketHandler(executor, streamingService, RTMP_URL, RTMP_DOCKER,
+                tempDir.toString(), 1) {
+            @Override
+            protected Process arrancarPreview(String rtmpUrl, Path m3u8, boolean reducidaPreview) {
+                calidades.add(reducidaPreview);
+                return procesos.next();
+            }
+        };
+
+        vigilado.startPreview("rtmp://localhost/live/1_session123");
+
+        // Empieza completa y, al saturarse los codificadores, se reinicia reducida
+        assertEquals(List.of(false, true), calidades);
+        assertEquals(reducida, vigilado.previewProcesses.get("session123"));
+        verify(reducida, never()).getOutputStream();
+    }
+
+    @Test
+    void reiniciarPreview_AlreadyStopped_ShouldNotRestart(@TempDir Path tempDir) throws Exception {
+        Process process = mock(Process.class);
+        OBSWebSocketHandler vigilado = new OBSWebSocketHandler(executor, streamingService, RTMP_URL, RTMP_DOCKER,
+                tempDir.toString(), 1) {
+            @Override
+            protected Process arrancarPreview(String rtmpUrl, Path m3u8, boolean reducida) {
+                throw new AssertionError("No debe arrancar otra previsualización");
+            }
+        };
+
+        // stopPreview ya la ha quitado: empieza el directo
+        assertNull(vigilado.reiniciarPreview("session123", process, "rtmp://localhost/live/1_session123",
+                tempDir.resolve("1_session123.m3u8"), true));
+        assertFalse(vigilado.previewProcesses.containsKey("session123"));
+        verify(process, never()).getOutputStream();
+    }
+
+    private static Process procesoPreview() {
+        Process process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        return process;
+    }
 }
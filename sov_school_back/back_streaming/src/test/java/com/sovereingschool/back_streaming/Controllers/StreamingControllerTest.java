@@ -6,13 +6,17 @@ import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Collections;
@@ -27,9 +31,11 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -37,8 +43,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sovereingschool.back_common.Models.Clase;
 import com.sovereingschool.back_common.Models.Curso;
 import com.sovereingschool.back_common.Models.Usuario;
+import com.sovereingschool.back_streaming.Configurations.Filters.PlaybackTokenFilter;
+import com.sovereingschool.back_streaming.Models.PlaybackToken;
+import com.sovereingschool.back_streaming.Services.LiveSegmentService;
+import com.sovereingschool.back_streaming.Services.LlHlsService;
+import com.sovereingschool.back_streaming.Services.PlaylistCacheService;
+import com.sovereingschool.back_streaming.Services.ProgresoBufferService;
+import com.sovereingschool.back_streaming.Services.SegmentCacheService;
 import com.sovereingschool.back_streaming.Services.StreamingService;
 import com.sovereingschool.back_streaming.Services.UsuarioCursosService;
+import com.sovereingschool.back_streaming.Utils.PlaybackTokenUtil;
 
 import jakarta.persistence.EntityManagerFactory;
 
@@ -49,6 +63,8 @@ import jakarta.persistence.EntityManagerFactory;
                 HibernateJpaAutoConfiguration.class
 })
 @AutoConfigureMockMvc(addFilters = false)
+@Import({ PlaybackTokenUtil.class, LlHlsService.class })
+@TestPropertySource(properties = "streaming.live.ll-hls.part-seconds=0.5")
 class StreamingControllerTest {
 
         @TestConfiguration
@@ -71,12 +87,30 @@ class StreamingControllerTest {
         @MockitoBean
         private StreamingService streamingService;
 
+        @MockitoBean
+        private SegmentCacheService segmentCacheService;
+
+        @MockitoBean
+        private PlaylistCacheService playlistCacheService;
+
+        @MockitoBean
+        private LiveSegmentService liveSegmentService;
+
+        @MockitoBean
+        private ProgresoBufferService progresoBufferService;
+
+        @MockitoBean
+        private com.sovereingschool.back_streaming.Services.TranscodingQueueService transcodingQueueService;
+
         @MockitoBean
         private com.sovereingschool.back_streaming.Repositories.PresetRepository presetRepository;
 
         @MockitoBean
         private com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository usuarioCursosRepository;
 
+        @MockitoBean
+        private com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository progresoClaseRepository;
+
         @MockitoBean
         private com.sovereingschool.back_streaming.Services.UsuarioPresetsService usuarioPresetsService;
 
@@ -299,10 +333,43 @@ class StreamingControllerTest {
 
                 when(streamingService.getPreview(idPreview)).thenReturn(mockPath);
 
-                mockMvc.perform(get("/getPreview/{idPreview}", idPreview))
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/getPreview/{idPreview}", idPreview))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                mockMvc.perform(asyncDispatch(resultado))
                                 .andExpect(status().isOk());
         }
 
+        /**
+         * Prueba que la lista de una previsualización que FFmpeg aún no ha escrito
+         * se entrega con el aviso de la carpeta, sin ningún hilo esperando.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testGetPreviewList_WaitsForFFmpeg() throws Exception {
+                java.nio.file.Path carpeta = java.nio.file.Files
+                                .createDirectories(java.nio.file.Paths.get("/tmp/previews-test"));
+                java.nio.file.Path m3u8 = carpeta.resolve("preview2.m3u8");
+                java.nio.file.Files.deleteIfExists(m3u8);
+                when(streamingService.getPreview("preview2")).thenReturn(m3u8);
+                org.mockito.ArgumentCaptor<Runnable> aviso = org.mockito.ArgumentCaptor.forClass(Runnable.class);
+                when(playlistCacheService.avisarCambio(eq(carpeta), aviso.capture())).thenReturn(true);
+
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/getPreview/{idPreview}", "preview2"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                // FFmpeg escribe la lista
+                java.nio.file.Files.writeString(m3u8, "#EXTM3U");
+                aviso.getValue().run();
+
+                mockMvc.perform(asyncDispatch(resultado))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("#EXTM3U"));
+        }
+
         /**
          * Prueba la obtención exitosa de las partes de una previsualización.
          */
@@ -575,6 +642,372 @@ class StreamingControllerTest {
                                 .andExpect(content().string("test content"));
         }
 
+        /**
+         * Prueba la transmisión de video con un rango que empieza fuera del fichero.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_RangeNotSatisfiable() throws Exception {
+                Long idCurso = 105L;
+                Long idClase = 1L;
+                String lista = "playlist.m3u8";
+                String video = "segment1.ts";
+
+                String mockDireccion = "/tmp/courses/105/video.mp4";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/105/" + lista + "/" + video);
+                if (!java.nio.file.Files.exists(videoPath.getParent())) {
+                        java.nio.file.Files.createDirectories(videoPath.getParent());
+                }
+                java.nio.file.Files.write(videoPath, "test content".getBytes());
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video)
+                                .header("Range", "bytes=100-200"))
+                                .andExpect(status().isRequestedRangeNotSatisfiable())
+                                .andExpect(header().string("Content-Range", "bytes */12"));
+        }
+
+        /**
+         * Prueba que el rango se delega en sendfile cuando el conector lo soporta.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_RangeWithSendfile() throws Exception {
+                Long idCurso = 106L;
+                Long idClase = 1L;
+                String lista = "playlist.m3u8";
+                String video = "segment1.ts";
+
+                String mockDireccion = "/tmp/courses/106/video.mp4";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/106/" + lista + "/" + video);
+                if (!java.nio.file.Files.exists(videoPath.getParent())) {
+                        java.nio.file.Files.createDirectories(videoPath.getParent());
+                }
+                java.nio.file.Files.write(videoPath, new byte[200 * 1024]);
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video)
+                                .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                                .header("Range", "bytes=1024-"))
+                                .andExpect(status().isPartialContent())
+                                .andExpect(header().string("Content-Range", "bytes 1024-204799/204800"))
+                                .andExpect(header().longValue("Content-Length", 203776L))
+                                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename",
+                                                videoPath.toString()))
+                                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 1024L))
+                                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 204800L))
+                                .andExpect(content().bytes(new byte[0]));
+        }
+
+        /**
+         * Prueba que los segmentos cacheados se sirven desde memoria.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_FromSegmentCache() throws Exception {
+                Long idCurso = 107L;
+                Long idClase = 1L;
+                String lista = "1920x1080@30";
+                String video = "data00000.ts";
+
+                String mockDireccion = "/tmp/courses/107/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/107/" + lista + "/" + video);
+                if (!java.nio.file.Files.exists(videoPath.getParent())) {
+                        java.nio.file.Files.createDirectories(videoPath.getParent());
+                }
+                java.nio.file.Files.write(videoPath, "disk content".getBytes());
+                when(segmentCacheService.obtenerSegmento(videoPath))
+                                .thenReturn(java.nio.ByteBuffer.wrap("cached content".getBytes()));
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video)
+                                .header("Range", "bytes=7-"))
+                                .andExpect(status().isPartialContent())
+                                .andExpect(content().string("content"));
+        }
+
+        /**
+         * Prueba que los segmentos recientes de un directo se sirven del anillo en
+         * memoria sin mirar el disco.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_FromLiveRing() throws Exception {
+                Long idCurso = 112L;
+                Long idClase = 1L;
+                String lista = "1280x720@30";
+                String video = "data00007.ts";
+
+                String mockDireccion = "/tmp/courses/112/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/112/" + lista + "/" + video);
+                when(liveSegmentService.obtener(videoPath))
+                                .thenReturn(java.nio.ByteBuffer.wrap("live segment".getBytes()));
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Type", "video/mp2t"))
+                                .andExpect(content().string("live segment"));
+                verify(segmentCacheService, never()).obtenerSegmento(any());
+        }
+
+        /**
+         * Prueba que los fragmentos CMAF se sirven desde memoria con su tipo y por
+         * rangos.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_CmafFragment() throws Exception {
+                Long idCurso = 111L;
+                Long idClase = 1L;
+                String lista = "1920x1080@30";
+                String video = "data00000.m4s";
+
+                String mockDireccion = "/tmp/courses/111/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/111/" + lista + "/" + video);
+                if (!java.nio.file.Files.exists(videoPath.getParent())) {
+                        java.nio.file.Files.createDirectories(videoPath.getParent());
+                }
+                java.nio.file.Files.write(videoPath, "moof mdat".getBytes());
+                when(segmentCacheService.obtenerSegmento(videoPath))
+                                .thenReturn(java.nio.ByteBuffer.wrap("moof mdat".getBytes()));
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video)
+                                .header("Range", "bytes=5-"))
+                                .andExpect(status().isPartialContent())
+                                .andExpect(header().string("Content-Type", "video/iso.segment"))
+                                .andExpect(content().string("mdat"));
+        }
+
+        /**
+         * Prueba que las listas cacheadas se sirven desde memoria.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_FromPlaylistCache() throws Exception {
+                Long idCurso = 108L;
+                Long idClase = 1L;
+                String lista = "1920x1080@30";
+                String video = "stream.m3u8";
+
+                String mockDireccion = "/tmp/courses/108/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(
+                                java.nio.file.Paths.get("/tmp/courses/108/" + lista + "/" + video)))
+                                .thenReturn("#EXTM3U".getBytes());
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Type", "application/vnd.apple.mpegurl"))
+                                .andExpect(content().string("#EXTM3U"));
+        }
+
+        /**
+         * Prueba que las listas se entregan con el token de reproducción en sus URIs.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testStreamVideo_PlaylistSigned() throws Exception {
+                Long idCurso = 109L;
+                Long idClase = 1L;
+                String lista = "1920x1080@30";
+                String video = "stream.m3u8";
+
+                String mockDireccion = "/tmp/courses/109/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(
+                                java.nio.file.Paths.get("/tmp/courses/109/" + lista + "/" + video)))
+                                .thenReturn("#EXTM3U\n#EXTINF:2.0,\ndata00000.ts\n".getBytes());
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string(org.hamcrest.Matchers.containsString("data00000.ts?pt=")));
+        }
+
+        /**
+         * Prueba que el manifiesto DASH se sirve con su tipo y con el token de
+         * reproducción en las URLs de los fragmentos.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testGetListas_DashManifest() throws Exception {
+                Long idCurso = 112L;
+                Long idClase = 1L;
+
+                String mockDireccion = "/tmp/courses/112/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(idCurso), eq(idClase))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(java.nio.file.Paths.get("/tmp/courses/112/manifest.mpd")))
+                                .thenReturn(("<MPD><Initialization sourceURL=\"720p/init_0.mp4\"/>"
+                                                + "<SegmentURL media=\"720p/data00000.m4s\"/></MPD>").getBytes());
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}", idCurso, idClase, "manifest.mpd"))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Type", "application/dash+xml"))
+                                .andExpect(content().string(org.hamcrest.Matchers.containsString("init_0.mp4?pt=")))
+                                .andExpect(content().string(
+                                                org.hamcrest.Matchers.containsString("data00000.m4s?pt=")));
+        }
+
+        /**
+         * Prueba que una recarga bloqueante LL-HLS se responde en cuanto la lista
+         * tiene la parte pedida.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testRecargaBloqueante_Ready() throws Exception {
+                String mockDireccion = "/tmp/courses/113/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(113L), eq(1L))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(java.nio.file.Paths.get("/tmp/courses/113/720p/stream.m3u8")))
+                                .thenReturn(listaPartes(6));
+
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/{idCurso}/{idClase}/{lista}/{video}", 113L, 1L, "720p", "stream.m3u8")
+                                                .param("_HLS_msn", "1").param("_HLS_part", "1"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                mockMvc.perform(asyncDispatch(resultado))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Type", "application/vnd.apple.mpegurl"))
+                                .andExpect(content().string(org.hamcrest.Matchers.containsString(
+                                                "#EXT-X-PART:DURATION=0.500,URI=\"part00005.m4s?espera=1&pt=")));
+        }
+
+        /**
+         * Prueba que una recarga bloqueante espera sin hilo al próximo cambio de la
+         * carpeta y entonces entrega la lista nueva.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testRecargaBloqueante_WaitsForNextPart() throws Exception {
+                String mockDireccion = "/tmp/courses/114/master.m3u8";
+                java.nio.file.Path stream = java.nio.file.Paths.get("/tmp/courses/114/720p/stream.m3u8");
+                when(usuarioCursosService.getClase(any(), eq(114L), eq(1L))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(stream)).thenReturn(listaPartes(4));
+                org.mockito.ArgumentCaptor<Runnable> aviso = org.mockito.ArgumentCaptor.forClass(Runnable.class);
+                when(playlistCacheService.avisarCambio(eq(stream.getParent()), aviso.capture())).thenReturn(true);
+
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/{idCurso}/{idClase}/{lista}/{video}", 114L, 1L, "720p", "stream.m3u8")
+                                                .param("_HLS_msn", "1").param("_HLS_part", "0"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                // FFmpeg escribe la parte 0 del segmento 1
+                when(playlistCacheService.obtenerPlaylist(stream)).thenReturn(listaPartes(5));
+                aviso.getValue().run();
+
+                mockMvc.perform(asyncDispatch(resultado))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string(org.hamcrest.Matchers.containsString("part00004.m4s?espera=1")));
+        }
+
+        /**
+         * Prueba que una recarga bloqueante de un segmento más de dos por delante
+         * del último se rechaza sin esperar.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testRecargaBloqueante_TooFarAhead() throws Exception {
+                String mockDireccion = "/tmp/courses/114/master.m3u8";
+                java.nio.file.Path stream = java.nio.file.Paths.get("/tmp/courses/114/720p/stream.m3u8");
+                when(usuarioCursosService.getClase(any(), eq(114L), eq(1L))).thenReturn(mockDireccion);
+                when(playlistCacheService.obtenerPlaylist(stream)).thenReturn(listaPartes(4));
+
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/{idCurso}/{idClase}/{lista}/{video}", 114L, 1L, "720p", "stream.m3u8")
+                                                .param("_HLS_msn", "3"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                mockMvc.perform(asyncDispatch(resultado))
+                                .andExpect(status().isBadRequest());
+                verify(playlistCacheService, never()).avisarCambio(any(), any());
+        }
+
+        /**
+         * Prueba que la pista de la próxima parte se sirve cuando FFmpeg la escribe
+         * y que los segmentos del directo se sirven uniendo sus partes.
+         */
+        @Test
+        @WithMockUser(roles = "USER")
+        void testEsperarParte_AndJoinedSegment() throws Exception {
+                String mockDireccion = "/tmp/courses/115/master.m3u8";
+                when(usuarioCursosService.getClase(any(), eq(115L), eq(1L))).thenReturn(mockDireccion);
+                java.nio.file.Path carpeta = java.nio.file.Files
+                                .createDirectories(java.nio.file.Paths.get("/tmp/courses/115/720p"));
+                java.nio.file.Files.writeString(carpeta.resolve("part00000.m4s"), "moof0");
+                java.nio.file.Files.writeString(carpeta.resolve("part00001.m4s"), "moof1");
+
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/{idCurso}/{idClase}/{lista}/{video}", 115L, 1L, "720p", "part00001.m4s")
+                                                .param("espera", "1"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                mockMvc.perform(asyncDispatch(resultado))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Type", "video/iso.segment"))
+                                .andExpect(content().string("moof1"));
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", 115L, 1L, "720p", "part00000-00001.m4s"))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("moof0moof1"));
+        }
+
+        /**
+         * Crea la lista de partes de 0.5 segundos que escribe FFmpeg en un directo.
+         */
+        private static byte[] listaPartes(int partes) {
+                StringBuilder sb = new StringBuilder("#EXTM3U\n#EXT-X-PLAYLIST-TYPE:EVENT\n#EXT-X-MAP:URI=\"init_0.mp4\"\n");
+                for (int i = 0; i < partes; i++) {
+                        sb.append("#EXTINF:0.500000,\n").append(String.format("part%05d.m4s", i)).append('\n');
+                }
+                return sb.toString().getBytes();
+        }
+
+        /**
+         * Prueba que un segmento con token de reproducción no consulta la sesión ni
+         * las bases de datos.
+         */
+        @Test
+        void testStreamVideo_WithPlaybackToken() throws Exception {
+                Long idCurso = 110L;
+                Long idClase = 1L;
+                String lista = "1920x1080@30";
+                String video = "data00000.ts";
+
+                java.nio.file.Path videoPath = java.nio.file.Paths.get("/tmp/courses/110/" + lista + "/" + video);
+                if (!java.nio.file.Files.exists(videoPath.getParent())) {
+                        java.nio.file.Files.createDirectories(videoPath.getParent());
+                }
+                java.nio.file.Files.write(videoPath, "segment".getBytes());
+                PlaybackToken token = new PlaybackToken(5L, idCurso, idClase, Long.MAX_VALUE, "/tmp/courses/110");
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", idCurso, idClase, lista, video)
+                                .requestAttr(PlaybackTokenFilter.ATRIBUTO_TOKEN, token))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("segment"));
+
+                verify(usuarioCursosService, times(0)).getClase(any(), any(), any());
+        }
+
+        /**
+         * Prueba que el token de una clase no sirve para otra.
+         */
+        @Test
+        void testStreamVideo_WithPlaybackTokenOtherClase() throws Exception {
+                PlaybackToken token = new PlaybackToken(5L, 110L, 2L, Long.MAX_VALUE, "/tmp/courses/110");
+
+                mockMvc.perform(get("/{idCurso}/{idClase}/{lista}/{video}", 110L, 1L, "1920x1080@30", "data00000.ts")
+                                .requestAttr(PlaybackTokenFilter.ATRIBUTO_TOKEN, token))
+                                .andExpect(status().isUnauthorized());
+        }
+
         /**
          * Prueba el error cuando no se encuentra la lista de previsualización.
          */
@@ -582,7 +1015,11 @@ class StreamingControllerTest {
         @WithMockUser(roles = "USER")
         void testGetPreviewList_NotFound() throws Exception {
                 when(streamingService.getPreview(any())).thenReturn(null);
-                mockMvc.perform(get("/getPreview/missing"))
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/getPreview/missing"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                mockMvc.perform(asyncDispatch(resultado))
                                 .andExpect(status().isNotFound());
         }
 
@@ -593,7 +1030,11 @@ class StreamingControllerTest {
         @WithMockUser(roles = "USER")
         void testGetPreviewList_Exception() throws Exception {
                 when(streamingService.getPreview(any())).thenThrow(new RuntimeException("error"));
-                mockMvc.perform(get("/getPreview/error"))
+                org.springframework.test.web.servlet.MvcResult resultado = mockMvc
+                                .perform(get("/getPreview/error"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                mockMvc.perform(asyncDispatch(resultado))
                                 .andExpect(status().isInternalServerError());
         }
 
@@ -679,22 +1120,17 @@ class StreamingControllerTest {
                 Long idClase = 1L;
                 Long idUsuario = 1L;
 
-                com.sovereingschool.back_streaming.Models.UsuarioCursos usuarioCursos = new com.sovereingschool.back_streaming.Models.UsuarioCursos();
-                usuarioCursos.setIdUsuario(idUsuario);
-
-                com.sovereingschool.back_streaming.Models.StatusCurso statusCurso = new com.sovereingschool.back_streaming.Models.StatusCurso();
-                statusCurso.setIdCurso(idCurso);
-
-                com.sovereingschool.back_streaming.Models.StatusClase statusClase = new com.sovereingschool.back_streaming.Models.StatusClase();
-                statusClase.setIdClase(idClase);
-                statusClase.setTotalSegments(10);
-                statusClase.getProgress().add(1);
+                com.sovereingschool.back_streaming.Models.ProgresoClase progresoClase = com.sovereingschool.back_streaming.Models.ProgresoClase
+                                .builder()
+                                .idUsuario(idUsuario)
+                                .idCurso(idCurso)
+                                .idClase(idClase)
+                                .totalSegments(10)
+                                .build();
+                progresoClase.getProgress().add(1);
 
-                statusCurso.setClases(java.util.List.of(statusClase));
-                usuarioCursos.setCursos(java.util.List.of(statusCurso));
-
-                when(usuarioCursosRepository.findByIdUsuario(idUsuario))
-                                .thenReturn(java.util.Optional.of(usuarioCursos));
+                when(progresoClaseRepository.findByIdUsuarioAndIdCursoAndIdClase(idUsuario, idCurso, idClase))
+                                .thenReturn(java.util.Optional.of(progresoClase));
 
                 mockMvc.perform(get("/progreso/{idCurso}/{idClase}", idCurso, idClase)
                                 .with(request -> {
@@ -716,7 +1152,7 @@ class StreamingControllerTest {
         @Test
         @WithMockUser
         void getProgresoClase_error() throws Exception {
-                when(usuarioCursosRepository.findByIdUsuario(any())).thenThrow(new RuntimeException("error"));
+                when(progresoClaseRepository.findByIdUsuarioAndIdCursoAndIdClase(any(), any(), any())).thenThrow(new RuntimeException("error"));
 
                 mockMvc.perform(get("/progreso/1/1")
                                 .with(request -> {
@@ -766,4 +1202,28 @@ class StreamingControllerTest {
 
                 verify(streamingService, times(1)).registrarProgreso(1L, idCurso, idClase, segment);
         }
+
+        @Test
+        @WithMockUser
+        void pingFragmento_outOfRange() throws Exception {
+                mockMvc.perform(post("/registrar-fragmento")
+                                .param("idCurso", "1")
+                                .param("idClase", "1")
+                                .param("segment", String.valueOf(Integer.MAX_VALUE))
+                                .with(request -> {
+                                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+                                                        "1", null,
+                                                        java.util.List.of(
+                                                                        new org.springframework.security.core.authority.SimpleGrantedAuthority(
+                                                                                        "ROLE_USER")));
+                                        org.springframework.security.core.context.SecurityContextHolder.getContext()
+                                                        .setAuthentication(auth);
+                                        request.setUserPrincipal(auth);
+                                        return request;
+                                })
+                                .contentType(MediaType.APPLICATION_JSON))
+                                .andExpect(status().isBadRequest());
+
+                verify(streamingService, never()).registrarProgreso(anyLong(), anyLong(), anyLong(), anyInt());
+        }
 }
@@ -1,9 +1,11 @@
 package com.sovereingschool.back_streaming.Controllers;
 
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
@@ -12,14 +14,10 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 
@@ -37,7 +35,10 @@ import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
+import com.sovereingschool.back_streaming.Services.PionWorkerPool;
 import com.sovereingschool.back_streaming.Services.StreamingService;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
 
 @ExtendWith(MockitoExtension.class)
 class WebRTCSignalingHandlerTest {
@@ -48,6 +49,9 @@ class WebRTCSignalingHandlerTest {
     @Mock
     private StreamingService streamingService;
 
+    @Mock
+    private PionWorkerPool pionWorkerPool;
+
     @Mock
     private WebSocketSession session;
 
@@ -138,73 +142,28 @@ class WebRTCSignalingHandlerTest {
     }
 
     @Test
-    void testPionStdoutReading_RtpSdp() throws Exception {
-        // Setup
+    void recibir_RtpSdp_ShouldStartFFmpeg() throws Exception {
         when(session.getId()).thenReturn("session123");
-        when(session.getAttributes()).thenReturn(sessionAttributes);
-        sessionAttributes.put("idUsuario", 1L);
+        PionWorkerPool.Receptor receptor = this.ofertar();
 
-        Process mockProcess = mock(Process.class);
-        String stdoutContent = "{\"type\":\"rtp-sdp\", \"streamId\":\"1_session123\", \"sdp\":\"rtp_sdp_content\", \"videoSettings\":[\"1280\", \"720\", \"30\"]}\n";
-        InputStream stdoutStream = new java.io.ByteArrayInputStream(stdoutContent.getBytes(StandardCharsets.UTF_8));
-
-        when(mockProcess.getInputStream()).thenReturn(stdoutStream);
-        when(mockProcess.getOutputStream()).thenReturn(new java.io.ByteArrayOutputStream());
-        when(mockProcess.getErrorStream()).thenReturn(new java.io.ByteArrayInputStream("".getBytes()));
-        doReturn(mockProcess).when(handler).startProcess(any());
-
-        // Trigger startPion
-        String settingsPayload = "{\"type\":\"emitir\", \"streamId\":\"1_session123\", \"videoSettings\":{\"width\":\"1280\",\"height\":\"720\",\"fps\":\"30\"}}";
-        handler.handleTextMessage(session, new TextMessage(settingsPayload));
-        String offerPayload = "{\"type\":\"offer\", \"streamId\":\"1_session123\", \"sdp\":\"v=0...\"}";
-        handler.handleTextMessage(session, new TextMessage(offerPayload));
-        String userIdPayload = "{\"type\":\"userId\", \"idUsuario\":1}";
-        handler.handleTextMessage(session, new TextMessage(userIdPayload));
+        receptor.recibir(new Trama(Tipo.RTP_SDP, "1_session123",
+                "{\"sdp\":\"rtp_sdp_content\", \"videoSettings\":[\"1280\", \"720\", \"30\"]}".getBytes()));
 
-        // Capture and run stdout reader
+        // El mensaje de Pion lanza FFmpeg en el executor
         ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(executor, org.mockito.Mockito.atLeastOnce()).execute(runnableCaptor.capture());
-        List<Runnable> tasks = runnableCaptor.getAllValues();
-        Runnable stdoutReader = tasks.get(tasks.size() - 1);
-        stdoutReader.run();
+        verify(executor).execute(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
 
-        // The stdoutReader submits another task to the executor to start streaming.
-        verify(executor, org.mockito.Mockito.atLeastOnce()).execute(runnableCaptor.capture());
-        runnableCaptor.getAllValues().forEach(Runnable::run);
-
-        verify(streamingService).startLiveStreamingFromStream(anyString(), any(InputStream.class), any(String[].class));
+        verify(streamingService).startLiveStreamingFromStream(eq("1_session123"), any(InputStream.class),
+                argThat(settings -> settings.length == 3 && "720".equals(settings[1])));
     }
 
     @Test
-    void testPionStdoutReading_Candidate() throws Exception {
-        // Setup
+    void recibir_Candidate_ShouldForwardToSession() throws Exception {
         when(session.getId()).thenReturn("session123");
-        when(session.getAttributes()).thenReturn(sessionAttributes);
-        sessionAttributes.put("idUsuario", 1L);
-
-        Process mockProcess = mock(Process.class);
-        String stdoutContent = "{\"type\":\"candidate\", \"streamId\":\"1_session123\", \"candidate\":\"candidate_string\"}\n";
-        InputStream stdoutStream = new java.io.ByteArrayInputStream(stdoutContent.getBytes(StandardCharsets.UTF_8));
-
-        when(mockProcess.getInputStream()).thenReturn(stdoutStream);
-        when(mockProcess.getOutputStream()).thenReturn(new java.io.ByteArrayOutputStream());
-        when(mockProcess.getErrorStream()).thenReturn(new java.io.ByteArrayInputStream("".getBytes()));
-        doReturn(mockProcess).when(handler).startProcess(any());
-
-        // Trigger startPion
-        String settingsPayload = "{\"type\":\"emitir\", \"streamId\":\"1_session123\", \"videoSettings\":{\"width\":\"1280\",\"height\":\"720\",\"fps\":\"30\"}}";
-        handler.handleTextMessage(session, new TextMessage(settingsPayload));
-        String offerPayload = "{\"type\":\"offer\", \"streamId\":\"1_session123\", \"sdp\":\"v=0...\"}";
-        handler.handleTextMessage(session, new TextMessage(offerPayload));
-        String userIdPayload = "{\"type\":\"userId\", \"idUsuario\":1}";
-        handler.handleTextMessage(session, new TextMessage(userIdPayload));
+        PionWorkerPool.Receptor receptor = this.ofertar();
 
-        // Capture and run stdout reader
-        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
-        verify(executor, org.mockito.Mockito.atLeastOnce()).execute(runnableCaptor.capture());
-        List<Runnable> tasks = runnableCaptor.getAllValues();
-        Runnable stdoutReader = tasks.get(tasks.size() - 1);
-        stdoutReader.run();
+        receptor.recibir(new Trama(Tipo.LOCAL_CANDIDATE, "1_session123", "candidate_string".getBytes()));
 
         verify(session).sendMessage(argThat(msg -> {
             if (msg instanceof TextMessage) {
@@ -216,53 +175,42 @@ class WebRTCSignalingHandlerTest {
     }
 
     @Test
-    void startPion_ShouldHandleIOException() throws Exception {
-        // Setup: make session valid for compruebaSesion
-        lenient().when(session.getAttributes()).thenReturn(sessionAttributes);
-        sessionAttributes.put("idUsuario", 1L);
-        lenient().when(session.getId()).thenReturn("session123");
+    void recibir_Answer_ShouldForwardSdpToSession() throws Exception {
+        when(session.getId()).thenReturn("session123");
+        PionWorkerPool.Receptor receptor = this.ofertar();
 
-        // Setup: make startProcess throw IOException
-        doThrow(new IOException("Failed to start process")).when(handler).startProcess(any());
+        receptor.recibir(new Trama(Tipo.ANSWER, "1_session123", "answer_sdp".getBytes()));
 
-        // Trigger startPion by sending first an emit message and then an offer
-        String emitPayload = "{\"type\":\"emitir\", \"streamId\":\"1_session123\", \"videoSettings\":{\"width\":\"1280\",\"height\":\"720\",\"fps\":\"30\"}}";
-        handler.handleTextMessage(session, new TextMessage(emitPayload));
-        String offerPayload = "{\"type\":\"offer\", \"streamId\":\"1_session123\", \"sdp\":\"v=0...\"}";
-        handler.handleTextMessage(session, new TextMessage(offerPayload));
+        verify(session).sendMessage(argThat(msg -> ((TextMessage) msg).getPayload()
+                .equals("{\"type\":\"webrtc-answer\",\"sdp\":\"answer_sdp\"}")));
+    }
+
+    @Test
+    void handleTextMessage_Offer_ShouldSendToPool() throws Exception {
+        when(session.getId()).thenReturn("session123");
 
-        // Verify it doesn't crash and logs error
-        verify(handler).startProcess(any());
-        verify(executor, never()).execute(any(Runnable.class));
+        this.ofertar();
+
+        verify(pionWorkerPool).enviar(eq(Tipo.OFFER), eq("1_session123"),
+                argThat(json -> json.contains("v=0...") && json.contains("1280")));
+        verify(session, never()).sendMessage(argThat(msg -> ((TextMessage) msg).getPayload().contains("error")));
     }
 
     @Test
-    void afterConnectionClosed_ShouldCleanupResources() throws Exception {
-        // Setup resources
-        Process mockProcess = mock(Process.class);
-        BufferedReader mockReader = mock(BufferedReader.class);
-        BufferedWriter mockWriter = mock(BufferedWriter.class);
-        BufferedReader mockErrorReader = mock(BufferedReader.class);
-
-        // We need to inject these into the handler.
-        // Since they are private, we can use reflection or just trigger startPion with
-        // a mock process.
-        doReturn(mockProcess).when(handler).startProcess(any());
-        when(mockProcess.getInputStream()).thenReturn(new java.io.ByteArrayInputStream(new byte[0]));
-        when(mockProcess.getOutputStream()).thenReturn(new java.io.ByteArrayOutputStream());
-        when(mockProcess.getErrorStream()).thenReturn(new java.io.ByteArrayInputStream(new byte[0]));
-
-        // Trigger startPion to initialize the fields
-        handler.startPion();
-
-        // Now close the connection
+    void afterConnectionClosed_ShouldOnlyStopStreamsOfSession() throws Exception {
+        WebSocketSession otherSession = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("session123");
+        when(session.getAttributes()).thenReturn(sessionAttributes);
+        sessionAttributes.put("idUsuario", 1L);
+        when(otherSession.getId()).thenReturn("session456");
+        when(otherSession.getAttributes()).thenReturn(Map.of("idUsuario", 2L));
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"userId\"}"));
+        handler.handleTextMessage(otherSession, new TextMessage("{\"type\":\"userId\"}"));
+
         handler.afterConnectionClosed(session, CloseStatus.NORMAL);
 
-        // Verify cleanup
-        verify(mockProcess).destroy();
-        // Note: the readers/writers are created internally, so we can't easily verify
-        // their close()
-        // unless we mock the streams they are based on.
+        verify(pionWorkerPool).detener("1_session123");
+        verify(pionWorkerPool, never()).detener("2_session456");
     }
 
     @Test
@@ -270,11 +218,12 @@ class WebRTCSignalingHandlerTest {
         String payload = "{\"type\":\"candidate\", \"streamId\":\"1_session123\", \"candidate\":{\"candidate\":\"abc\", \"sdpMid\":\"0\", \"sdpMLineIndex\":0}}";
         TextMessage message = new TextMessage(payload);
         when(session.getId()).thenReturn("session123");
+        when(pionWorkerPool.enviar(eq(Tipo.CANDIDATE), eq("1_session123"), anyString())).thenReturn(true);
 
         handler.handleTextMessage(session, message);
 
-        // We can't easily verify pionWriter without reflection, but it should not
-        // crash.
+        verify(pionWorkerPool).enviar(eq(Tipo.CANDIDATE), eq("1_session123"),
+                argThat(json -> json.contains("\"candidate\":\"abc\"")));
     }
 
     @Test
@@ -286,23 +235,18 @@ class WebRTCSignalingHandlerTest {
 
         handler.handleTextMessage(session, message);
 
+        verify(pionWorkerPool).detener(streamId);
         verify(streamingService).stopFFmpegProcessForUser(streamId);
         verify(session).close();
     }
 
     @Test
-    void handleTextMessage_DetenerStreamWebRTC_PionWriterThrows_ShouldLog() throws Exception {
+    void handleTextMessage_DetenerStreamWebRTC_PoolThrows_ShouldLog() throws Exception {
         String streamId = "1_session123";
         String payload = "{\"type\":\"detenerStreamWebRTC\", \"streamId\":\"" + streamId + "\"}";
         TextMessage message = new TextMessage(payload);
         when(session.getId()).thenReturn("session123");
-
-        // Mock pionWriter to throw IOException
-        BufferedWriter mockWriter = mock(BufferedWriter.class);
-        java.lang.reflect.Field writerField = WebRTCSignalingHandler.class.getDeclaredField("pionWriter");
-        writerField.setAccessible(true);
-        writerField.set(handler, mockWriter);
-        doThrow(new IOException("write error")).when(mockWriter).write(anyString());
+        doThrow(new IllegalStateException("pool error")).when(pionWorkerPool).detener(streamId);
 
         handler.handleTextMessage(session, message);
 
@@ -324,9 +268,10 @@ class WebRTCSignalingHandlerTest {
     }
 
     @Test
-    void handleTextMessage_Offer_PionWriterNull_ShouldLog() throws Exception {
+    void handleTextMessage_Offer_PoolRejects_ShouldNotifySession() throws Exception {
         when(session.getId()).thenReturn("session123");
-        // Forzamos pionWriter a null (ya lo es por defecto si no llamamos a startPion)
+        // Cola del proceso llena o ningún proceso sano
+        when(pionWorkerPool.enviar(eq(Tipo.OFFER), eq("1_session123"), anyString())).thenReturn(false);
 
         TextMessage message = new TextMessage(
                 "{\"type\":\"offer\",\"streamId\":\"1_session123\",\"sdp\":\"offer-sdp\"}");
@@ -334,15 +279,35 @@ class WebRTCSignalingHandlerTest {
         handler.handleTextMessage(session, new TextMessage("{\"type\":\"emitir\",\"streamId\":\"1_session123\"}"));
 
         handler.handleTextMessage(session, message);
-        // Debería loguear "No se pudo enviar offer a Pion porque pionWriter es null"
+
+        verify(session).sendMessage(argThat(msg -> ((TextMessage) msg).getPayload().contains("saturado")));
+        verify(pionWorkerPool).detener("1_session123");
     }
 
     @Test
-    void handleTextMessage_Candidate_PionWriterNull_ShouldLog() throws Exception {
+    void handleTextMessage_Candidate_PoolRejects_ShouldLog() throws Exception {
         when(session.getId()).thenReturn("session123");
+        when(pionWorkerPool.enviar(eq(Tipo.CANDIDATE), eq("1_session123"), anyString())).thenReturn(false);
         TextMessage message = new TextMessage(
                 "{\"type\":\"candidate\",\"streamId\":\"1_session123\",\"candidate\":{}}");
         handler.handleTextMessage(session, message);
+
+        verify(session, never()).close();
+    }
+
+    @Test
+    void perdida_ShouldStopFFmpegAndNotifySession() throws Exception {
+        when(session.getId()).thenReturn("session123");
+        when(session.getAttributes()).thenReturn(sessionAttributes);
+        sessionAttributes.put("idUsuario", 1L);
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"userId\"}"));
+        PionWorkerPool.Receptor receptor = this.ofertar();
+
+        receptor.perdida();
+
+        verify(streamingService).stopFFmpegProcessForUser("1_session123");
+        verify(session).sendMessage(argThat(msg -> ((TextMessage) msg).getPayload().contains("perdido")));
+        verify(session).close(CloseStatus.SERVER_ERROR);
     }
 
     @Test
@@ -362,31 +327,14 @@ class WebRTCSignalingHandlerTest {
     }
 
     @Test
-    void afterConnectionClosed_CleanupExceptions_ShouldNotThrow() throws Exception {
+    void afterConnectionClosed_PoolThrows_ShouldNotThrow() throws Exception {
         when(session.getId()).thenReturn("session123");
-        // Para probar los catch de close()
-        BufferedWriter mockWriter = mock(BufferedWriter.class);
-        doThrow(new IOException("writer error")).when(mockWriter).close();
-
-        BufferedReader mockReader = mock(BufferedReader.class);
-        doThrow(new IOException("reader error")).when(mockReader).close();
-
-        // Inyectamos los mocks vía reflexión o simplemente usamos el proceso ya
-        // iniciado
-        // Como son campos privados, usaremos reflexión para testing de cobertura
-        // extrema
-        java.lang.reflect.Field writerField = WebRTCSignalingHandler.class.getDeclaredField("pionWriter");
-        writerField.setAccessible(true);
-        writerField.set(handler, mockWriter);
-
-        java.lang.reflect.Field readerField = WebRTCSignalingHandler.class.getDeclaredField("pionReader");
-        readerField.setAccessible(true);
-        readerField.set(handler, mockReader);
-
-        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        when(session.getAttributes()).thenReturn(sessionAttributes);
+        sessionAttributes.put("idUsuario", 1L);
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"userId\"}"));
+        doThrow(new IllegalStateException("pool error")).when(pionWorkerPool).detener("1_session123");
 
-        verify(mockWriter).close();
-        verify(mockReader).close();
+        assertDoesNotThrow(() -> handler.afterConnectionClosed(session, CloseStatus.NORMAL));
     }
 
     @Test
@@ -398,4 +346,20 @@ class WebRTCSignalingHandlerTest {
 
         verify(session).close();
     }
+
+    /**
+     * Envía emitir y offer para la emisión 1_session123 y devuelve el receptor
+     * registrado en el grupo de Pion
+     */
+    private PionWorkerPool.Receptor ofertar() throws Exception {
+        when(pionWorkerPool.enviar(eq(Tipo.OFFER), eq("1_session123"), anyString())).thenReturn(true);
+        String emitPayload = "{\"type\":\"emitir\", \"streamId\":\"1_session123\", \"videoSettings\":{\"width\":\"1280\",\"height\":\"720\",\"fps\":\"30\"}}";
+        handler.handleTextMessage(session, new TextMessage(emitPayload));
+        String offerPayload = "{\"type\":\"offer\", \"streamId\":\"1_session123\", \"sdp\":\"v=0...\"}";
+        handler.handleTextMessage(session, new TextMessage(offerPayload));
+
+        ArgumentCaptor<PionWorkerPool.Receptor> receptor = ArgumentCaptor.forClass(PionWorkerPool.Receptor.class);
+        verify(pionWorkerPool).registrar(eq("1_session123"), receptor.capture());
+        return receptor.getValue();
+    }
 }
@@ -0,0 +1,79 @@
+package com.sovereingschool.back_streaming.Models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Clase de pruebas unitarias para el modelo ProgresoBitmap.
+ */
+class ProgresoBitmapTest {
+
+    /**
+     * Prueba que un fragmento repetido no cuenta dos veces.
+     */
+    @Test
+    void testAdd_IgnoresDuplicates() {
+        ProgresoBitmap bitmap = new ProgresoBitmap();
+
+        assertTrue(bitmap.add(5), "El primer registro debe marcar el fragmento.");
+        assertFalse(bitmap.add(5), "El segundo registro no debe cambiar nada.");
+        assertTrue(bitmap.contains(5), "El fragmento debe estar marcado.");
+        assertFalse(bitmap.contains(6), "El fragmento siguiente no debe estar marcado.");
+        assertEquals(1, bitmap.cardinality(), "Solo debe haber un fragmento.");
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(ProgresoBitmap.MAX_SEGMENTOS));
+    }
+
+    /**
+     * Prueba que un fragmento alto solo crea su palabra y que las posiciones
+     * fuera de rango de un documento se ignoran.
+     */
+    @Test
+    void testSparse_HighIndexAndCraftedWords() {
+        int ultimo = ProgresoBitmap.MAX_SEGMENTOS - 1;
+        ProgresoBitmap bitmap = ProgresoBitmap.of(List.of(ultimo, 3));
+
+        assertEquals(Map.of(0, 8L, ProgresoBitmap.indicePalabra(ultimo), 1L << 63), bitmap.getPalabras(),
+                "Solo deben existir las dos palabras con fragmentos.");
+        assertTrue(bitmap.contains(ultimo), "El último fragmento debe estar marcado.");
+        assertFalse(bitmap.contains(Integer.MAX_VALUE), "Un fragmento fuera de rango no está marcado.");
+
+        ProgresoBitmap leido = ProgresoBitmap.fromPalabras(Map.of(-1, 1L, 1, 4L, Integer.MAX_VALUE, -1L));
+        assertEquals(Map.of(1, 4L), leido.getPalabras(), "Solo debe quedar la palabra válida.");
+    }
+
+    /**
+     * Prueba que solo se guardan las palabras con algún fragmento.
+     */
+    @Test
+    void testGetPalabras_OnlyNonEmptyWords() {
+        ProgresoBitmap bitmap = ProgresoBitmap.of(List.of(0, 63, 64 * 10 + 1));
+
+        Map<Integer, Long> palabras = bitmap.getPalabras();
+
+        assertEquals(Map.of(0, 1L | (1L << 63), 10, 2L), palabras, "Deben quedar las palabras 0 y 10.");
+        assertEquals(bitmap, ProgresoBitmap.fromPalabras(palabras), "Debe reconstruirse desde sus palabras.");
+    }
+
+    /**
+     * Prueba la unión de dos mapas de bits de distinto tamaño.
+     */
+    @Test
+    void testOr_MergesBothBitmaps() {
+        ProgresoBitmap corto = ProgresoBitmap.of(List.of(1, 2));
+        ProgresoBitmap largo = ProgresoBitmap.of(List.of(2, 500));
+
+        corto.or(largo);
+
+        assertEquals(3, corto.cardinality(), "La unión debe tener 3 fragmentos.");
+        assertTrue(corto.contains(500), "La unión debe incluir los fragmentos del más largo.");
+        assertTrue(new ProgresoBitmap().isEmpty(), "Un mapa nuevo debe estar vacío.");
+    }
+}
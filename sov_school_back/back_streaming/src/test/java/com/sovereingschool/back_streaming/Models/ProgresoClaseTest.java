@@ -0,0 +1,114 @@
+package com.sovereingschool.back_streaming.Models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Clase de pruebas unitarias para el modelo ProgresoClase.
+ * Verifica la lógica de cálculo de progreso y el comportamiento de los métodos
+ * generados por Lombok.
+ */
+class ProgresoClaseTest {
+
+    /**
+     * Prueba que el porcentaje de progreso sea 0 cuando no hay segmentos totales.
+     */
+    @Test
+    void testGetProgressPercentage_ZeroSegments() {
+        ProgresoClase status = new ProgresoClase();
+        status.setTotalSegments(0);
+        assertEquals(0.0, status.getProgressPercentage(),
+                "El porcentaje de progreso debe ser 0.0 cuando no hay segmentos totales.");
+    }
+
+    /**
+     * Prueba que el porcentaje de progreso sea 0 cuando los segmentos totales son
+     * negativos.
+     */
+    @Test
+    void testGetProgressPercentage_NegativeSegments() {
+        ProgresoClase status = new ProgresoClase();
+        status.setTotalSegments(-1);
+        assertEquals(0.0, status.getProgressPercentage(),
+                "El porcentaje de progreso debe ser 0.0 cuando los segmentos totales son negativos.");
+    }
+
+    /**
+     * Prueba el cálculo normal del porcentaje de progreso con algunos segmentos
+     * completados.
+     */
+    @Test
+    void testGetProgressPercentage_NormalProgress() {
+        ProgresoClase status = new ProgresoClase();
+        status.setTotalSegments(10);
+        status.setProgress(ProgresoBitmap.of(List.of(1, 2)));
+
+        assertEquals(20.0, status.getProgressPercentage(),
+                "El porcentaje de progreso debe ser 20.0 para 2 de 10 segmentos.");
+    }
+
+    /**
+     * Prueba que el porcentaje de progreso sea 100 cuando todos los segmentos están
+     * completados.
+     */
+    @Test
+    void testGetProgressPercentage_FullProgress() {
+        ProgresoClase status = new ProgresoClase();
+        status.setTotalSegments(2);
+        status.setProgress(ProgresoBitmap.of(List.of(0, 1)));
+
+        assertEquals(100.0, status.getProgressPercentage(),
+                "El porcentaje de progreso debe ser 100.0 cuando todos los segmentos están completados.");
+    }
+
+    /**
+     * Prueba que el porcentaje de progreso se limite a 100 cuando hay más segmentos
+     * completados que totales.
+     */
+    @Test
+    void testGetProgressPercentage_OverProgress() {
+        ProgresoClase status = new ProgresoClase();
+        status.setTotalSegments(1);
+        status.setProgress(ProgresoBitmap.of(List.of(0, 1))); // More than total
+
+        assertEquals(100.0, status.getProgressPercentage(), "El porcentaje de progreso debe limitarse a 100.0.");
+    }
+
+    /**
+     * Prueba los métodos generados por Lombok (getters, setters, equals, hashCode,
+     * toString).
+     */
+    @Test
+    void testLombokMethods() {
+        ProgresoClase progreso1 = ProgresoClase.builder()
+                .idUsuario(1L)
+                .idCurso(2L)
+                .idClase(1L)
+                .completed(true)
+                .totalSegments(100)
+                .build();
+
+        assertEquals(1L, progreso1.getIdClase(), "El ID de la clase debe coincidir.");
+        assertTrue(progreso1.isCompleted(), "El estado debe ser completado.");
+        assertEquals(100, progreso1.getTotalSegments(), "El total de segmentos debe ser 100.");
+        assertNotNull(progreso1.getProgress(), "El conjunto de progreso no debe ser nulo.");
+
+        ProgresoClase progreso2 = new ProgresoClase(null, 1L, 2L, 2L, 1, false, 50, new ProgresoBitmap());
+        assertEquals(2L, progreso2.getIdClase(), "El ID de la clase debe coincidir.");
+        assertFalse(progreso2.isCompleted(), "El estado no debe ser completado.");
+
+        progreso1.setIdClase(3L);
+        assertEquals(3L, progreso1.getIdClase(), "El ID de la clase actualizado debe coincidir.");
+
+        assertNotEquals(progreso1, progreso2, "Los progresos deben ser diferentes.");
+        assertNotNull(progreso1.toString(), "La representación en cadena no debe ser nula.");
+        assertEquals(progreso1.hashCode(), progreso1.hashCode(), "El hashCode debe ser consistente.");
+    }
+}
@@ -0,0 +1,114 @@
+package com.sovereingschool.back_streaming.Repositories;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+import com.sovereingschool.back_streaming.Models.ProgresoClase;
+import com.sovereingschool.back_streaming.Models.ProgresoPendiente;
+
+/**
+ * Pruebas unitarias para {@link ProgresoClaseRepository}.
+ */
+class ProgresoClaseRepositoryTest {
+
+    /**
+     * Verifica que el progreso acumulado se envíe en una sola operación bulk.
+     */
+    @Test
+    void testUpdateProgressBatch_ShouldUseSingleBulk() {
+        // Given
+        final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        final BulkOperations bulk = mock(BulkOperations.class);
+        final ProgresoClaseRepository repository = mock(ProgresoClaseRepository.class);
+        doCallRealMethod().when(repository).updateProgressBatch(any(), any(MongoTemplate.class));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "progreso_clases")).thenReturn(bulk);
+        when(bulk.execute()).thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+        final List<ProgresoPendiente> pendientes = List.of(
+                new ProgresoPendiente(1L, 2L, 3L, ProgresoBitmap.of(List.of(4, 5, 70))),
+                new ProgresoPendiente(6L, 2L, 3L, ProgresoBitmap.of(List.of(7))));
+
+        // When
+        final int sinDocumento = repository.updateProgressBatch(pendientes, mongoTemplate);
+
+        // Then
+        final ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).updateOne(queryCaptor.capture(), updateCaptor.capture());
+        verify(bulk, never()).upsert(any(Query.class), any(Update.class));
+        verify(bulk).execute();
+        if (sinDocumento != 1)
+            throw new AssertionError("Una de las dos clases no tiene documento");
+
+        final org.bson.Document filtro = queryCaptor.getAllValues().get(0).getQueryObject();
+        if (!Long.valueOf(1L).equals(filtro.get("idUsuario")) || !Long.valueOf(3L).equals(filtro.get("idClase")))
+            throw new AssertionError("Debería buscar por usuario, curso y clase");
+
+        final Update primera = updateCaptor.getAllValues().get(0);
+        final org.bson.Document bit = (org.bson.Document) primera.getUpdateObject().get("$bit");
+        assertNotNull(bit, "Debería usar $bit");
+        // Los fragmentos 4 y 5 están en la palabra 0 y el 70 en la palabra 1
+        assertNotNull(bit.get("progressBits.0"), "Debería unir la palabra 0");
+        assertNotNull(bit.get("progressBits.1"), "Debería unir la palabra 1");
+    }
+
+    /**
+     * Verifica que un lote vacío no llegue a Mongo.
+     */
+    @Test
+    void testUpdateProgressBatch_EmptyDoesNothing() {
+        final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        final ProgresoClaseRepository repository = mock(ProgresoClaseRepository.class);
+        doCallRealMethod().when(repository).updateProgressBatch(any(), any(MongoTemplate.class));
+
+        repository.updateProgressBatch(List.of(), mongoTemplate);
+
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), any(String.class));
+    }
+
+    /**
+     * Verifica que al sincronizar las clases no se pise el progreso guardado.
+     */
+    @Test
+    void testUpsertClases_ShouldKeepProgress() {
+        final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        final BulkOperations bulk = mock(BulkOperations.class);
+        final ProgresoClaseRepository repository = mock(ProgresoClaseRepository.class);
+        doCallRealMethod().when(repository).upsertClases(any(), any(MongoTemplate.class));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "progreso_clases")).thenReturn(bulk);
+
+        repository.upsertClases(List.of(ProgresoClase.builder()
+                .idUsuario(1L).idCurso(2L).idClase(3L).posicion(0).totalSegments(10).build()), mongoTemplate);
+
+        final ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(bulk).upsert(any(Query.class), updateCaptor.capture());
+        verify(bulk).execute();
+
+        final org.bson.Document update = updateCaptor.getValue().getUpdateObject();
+        assertNotNull(update.get("$set"), "Debería actualizar la posición y los fragmentos totales");
+        assertNotNull(update.get("$setOnInsert"), "Debería marcar como no completada solo al crear");
+        if (update.containsKey("$bit") || ((org.bson.Document) update.get("$set")).containsKey("progressBits"))
+            throw new AssertionError("No debería tocar el progreso");
+    }
+
+    private void assertNotNull(final Object obj, final String message) {
+        if (obj == null)
+            throw new AssertionError(message);
+    }
+}
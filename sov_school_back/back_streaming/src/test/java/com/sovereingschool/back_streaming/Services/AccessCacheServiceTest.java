@@ -0,0 +1,74 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas unitarias para {@link AccessCacheService}.
+ */
+class AccessCacheServiceTest {
+
+    /**
+     * Prueba que se devuelve la dirección guardada.
+     */
+    @Test
+    void getDireccion_ShouldReturnStoredAccess() {
+        AccessCacheService cache = new AccessCacheService(30, 10);
+        cache.putDireccion(1L, 2L, 3L, "/videos/2/3/master.m3u8");
+
+        assertEquals("/videos/2/3/master.m3u8", cache.getDireccion(1L, 2L, 3L));
+        assertNull(cache.getDireccion(9L, 2L, 3L), "Otro usuario no comparte el acceso");
+    }
+
+    /**
+     * Prueba que los accesos caducan.
+     */
+    @Test
+    void getDireccion_ShouldExpire() {
+        AccessCacheService cache = new AccessCacheService(0, 10);
+        cache.putDireccion(1L, 2L, 3L, "/videos/2/3/master.m3u8");
+
+        assertNull(cache.getDireccion(1L, 2L, 3L));
+    }
+
+    /**
+     * Prueba las invalidaciones por curso, clase y usuario.
+     */
+    @Test
+    void invalidar_ShouldRemoveMatchingAccesses() {
+        AccessCacheService cache = new AccessCacheService(30, 10);
+        cache.putDireccion(1L, 2L, 3L, "a");
+        cache.putDireccion(1L, 2L, 0L, "a");
+        cache.putDireccion(1L, 2L, 4L, "b");
+        cache.putDireccion(1L, 5L, 6L, "c");
+        cache.putDireccion(7L, 5L, 6L, "c");
+
+        cache.invalidarClase(2L, 3L);
+        assertNull(cache.getDireccion(1L, 2L, 3L));
+        assertNull(cache.getDireccion(1L, 2L, 0L), "La clase actual puede ser la modificada");
+        assertEquals("b", cache.getDireccion(1L, 2L, 4L));
+
+        cache.invalidarCurso(2L);
+        assertNull(cache.getDireccion(1L, 2L, 4L));
+
+        cache.invalidarUsuario(1L);
+        assertNull(cache.getDireccion(1L, 5L, 6L));
+        assertEquals("c", cache.getDireccion(7L, 5L, 6L));
+    }
+
+    /**
+     * Prueba que la caché no supera el número máximo de entradas.
+     */
+    @Test
+    void putDireccion_ShouldStayBounded() {
+        AccessCacheService cache = new AccessCacheService(30, 3);
+        for (long i = 0; i < 10; i++) {
+            cache.putDireccion(i, 1L, 1L, "a");
+        }
+
+        assertTrue(cache.size() <= 3);
+    }
+}
@@ -0,0 +1,101 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Pruebas unitarias para {@link FFmpegTelemetryService}.
+ */
+class FFmpegTelemetryServiceTest {
+
+    private final FFmpegTelemetryService telemetria = new FFmpegTelemetryService(2);
+
+    /**
+     * Prueba que las líneas de -progress actualizan el trabajo y el resto va al
+     * buffer circular.
+     */
+    @Test
+    void procesarLinea_ShouldParseProgress() {
+        FFmpegTelemetryService.Trabajo trabajo = telemetria.iniciar("clase 1");
+
+        for (String linea : List.of("ffmpeg version 7.0", "Input #0, mov,mp4, from 'video.mp4':",
+                "frame=120", "fps=59.94", "stream_0_0_q=23.0", "bitrate=2500.5kbits/s", "total_size=1048576",
+                "out_time_us=4000000", "out_time=00:00:04.000000", "dup_frames=1", "drop_frames=3",
+                "speed=2.01x", "progress=continue", "[hls @ 0x1] Opening '720p/data00001.ts' for writing")) {
+            trabajo.procesarLinea(linea);
+        }
+
+        Map<String, Object> resumen = telemetria.getTrabajos().get(0);
+        assertEquals("clase 1", resumen.get("trabajo"));
+        assertEquals(120L, resumen.get("frame"));
+        assertEquals(59.94, resumen.get("fps"));
+        assertEquals(2.01, resumen.get("speed"));
+        assertEquals(2500.5, resumen.get("bitrateKbps"));
+        assertEquals(4.0, resumen.get("outTime"));
+        assertEquals(3L, resumen.get("dropFrames"));
+        assertEquals(false, resumen.get("terminado"));
+        // Solo las dos últimas líneas del log
+        assertEquals(List.of("Input #0, mov,mp4, from 'video.mp4':",
+                "[hls @ 0x1] Opening '720p/data00001.ts' for writing"), telemetria.getLineas("clase 1"));
+
+        trabajo.procesarLinea("speed=N/A");
+        trabajo.procesarLinea("progress=end");
+        assertEquals(2.01, trabajo.getSpeed());
+        assertTrue(trabajo.isTerminado());
+    }
+
+    /**
+     * Prueba que cada trabajo en curso tiene su fila en las métricas y que
+     * desaparece al terminar.
+     */
+    @Test
+    void bindTo_ShouldPublishOneRowPerJob() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        telemetria.bindTo(registry);
+
+        FFmpegTelemetryService.Trabajo trabajo = telemetria.iniciar("clase 2");
+        trabajo.procesarLinea("fps=30");
+
+        assertEquals(30.0, registry.get("streaming.ffmpeg.fps").tags(Tags.of("trabajo", "clase 2")).gauge().value());
+        assertEquals(1.0, registry.get("streaming.ffmpeg.active").gauge().value());
+
+        telemetria.finalizar(trabajo);
+
+        assertTrue(registry.find("streaming.ffmpeg.fps").gauges().isEmpty());
+        assertNull(telemetria.getLineas("clase 2"));
+    }
+
+    /**
+     * Prueba que solo cuenta como saturación un directo que va más lento que
+     * su entrada.
+     */
+    @Test
+    void hayRetrasados_ShouldOnlyCountRealTimeJobs() {
+        FFmpegTelemetryService.Trabajo conversion = telemetria.iniciar("clase 3");
+        conversion.procesarLinea("speed=0.5x");
+        FFmpegTelemetryService.Trabajo directo = telemetria.iniciar("directo clase 4", true);
+        directo.procesarLinea("speed=N/A");
+
+        assertFalse(telemetria.hayRetrasados());
+
+        directo.procesarLinea("speed=0.98x");
+        assertFalse(telemetria.hayRetrasados());
+
+        directo.procesarLinea("speed=0.7x");
+        assertTrue(telemetria.hayRetrasados());
+        assertEquals(true, directo.resumen().get("tiempoReal"));
+
+        telemetria.finalizar(directo);
+        assertFalse(telemetria.hayRetrasados());
+    }
+}
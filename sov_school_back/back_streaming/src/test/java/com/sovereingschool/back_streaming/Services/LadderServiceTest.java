@@ -0,0 +1,165 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+import com.sovereingschool.back_streaming.Models.Rendition;
+
+/**
+ * Pruebas unitarias para {@link LadderService}.
+ */
+class LadderServiceTest {
+
+    private final LadderService ladderService = new LadderService(4, 1.75, 10, 1200);
+
+    @Nested
+    class SeleccionarTests {
+        /**
+         * Prueba que un video 1080p60 complejo recibe como mucho cuatro calidades
+         * y solo las grandes mantienen los 60 fps.
+         */
+        @Test
+        void seleccionar_ShouldBoundLadder() {
+            List<Rendition> escalera = ladderService.seleccionar(1920, 1080, 60, 1.0);
+
+            assertEquals(List.of("1920x1080@60", "1280x720@60", "854x480@30", "640x360@30"), nombres(escalera));
+            assertEquals("15000k", escalera.get(0).getBitrate());
+        }
+
+        /**
+         * Prueba que un video simple recibe menos calidades y tasas recortadas.
+         */
+        @Test
+        void seleccionar_ShouldCapSimpleVideo() {
+            List<Rendition> escalera = ladderService.seleccionar(1920, 1080, 30, 0.1);
+
+            assertEquals(List.of("1920x1080@30", "854x480@30"), nombres(escalera));
+            assertEquals("4000k", escalera.get(0).getBitrate());
+            assertEquals("4400k", escalera.get(0).getMaxrate());
+            assertEquals("96k", escalera.get(0).getAudioBitrate());
+        }
+
+        /**
+         * Prueba que no se pasa de 60 fps ni del número máximo de calidades.
+         */
+        @Test
+        void seleccionar_ShouldRespectLimits() {
+            LadderService dosCalidades = new LadderService(2, 1.75, 0, 1200);
+
+            List<Rendition> escalera = dosCalidades.seleccionar(3840, 2160, 144, 1.0);
+
+            assertEquals(List.of("3840x2160@60", "2560x1440@60"), nombres(escalera));
+        }
+
+        /**
+         * Prueba que un video menor que todas las calidades se convierte a la
+         * menor.
+         */
+        @Test
+        void seleccionar_ShouldUseSmallestForTinyVideo() {
+            List<Rendition> escalera = ladderService.seleccionar(320, 240, 25, 1.0);
+
+            assertEquals(List.of("480x320@30"), nombres(escalera));
+        }
+    }
+
+    @Nested
+    class AnalizarComplejidadTests {
+        /**
+         * Prueba que la complejidad sale de los kbps del análisis.
+         */
+        @Test
+        void analizarComplejidad_ShouldScaleByReference() throws Exception {
+            assertEquals(0.5, analizar("frame=  300 fps=0.0 q=-1.0 Lsize=N/A\nvideo:732KiB audio:0KiB\n", 0), 0.01);
+            assertEquals(1.0, analizar("video:5000KiB audio:0KiB\n", 0), 0.0);
+            assertEquals(LadderService.COMPLEJIDAD_MINIMA, analizar("video:10kB audio:0kB\n", 0), 0.0);
+        }
+
+        /**
+         * Prueba que se analiza el centro del video y que los kbps salen del
+         * tiempo codificado de verdad.
+         */
+        @Test
+        void analizarComplejidad_ShouldUseMiddleAndEncodedTime() throws Exception {
+            String salida = "out_time_us=2500000\nprogress=continue\nout_time_us=5000000\nprogress=end\n"
+                    + "video:366KiB audio:0KiB\n";
+            Process process = mock(Process.class);
+            when(process.getInputStream()).thenReturn(new ByteArrayInputStream(salida.getBytes()));
+            when(process.waitFor()).thenReturn(0);
+            List<String> comando = new ArrayList<>();
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
+                    (mock, context) -> {
+                        comando.addAll(Arrays.asList((String[]) context.arguments().get(0)));
+                        when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
+                        when(mock.start()).thenReturn(process);
+                    })) {
+                // 366 KiB en 5 segundos codificados son ~600 kbps
+                assertEquals(0.5, ladderService.analizarComplejidad("video.mp4", 600), 0.01);
+            }
+            assertEquals("295.000", comando.get(comando.indexOf("-ss") + 1));
+            assertEquals("10.000", comando.get(comando.indexOf("-t") + 1));
+        }
+
+        /**
+         * Prueba que si FFmpeg falla se usan las tasas completas.
+         */
+        @Test
+        void analizarComplejidad_ShouldFallbackOnError() throws Exception {
+            assertEquals(1.0, analizar("Invalid data found when processing input\n", 1), 0.0);
+
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
+                    (mock, context) -> {
+                        when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
+                        when(mock.start()).thenThrow(new IOException("ffmpeg no encontrado"));
+                    })) {
+                assertEquals(1.0, ladderService.analizarComplejidad("video.mp4", 600));
+            }
+        }
+
+        /**
+         * Prueba que sin segundos de análisis no se lanza FFmpeg.
+         */
+        @Test
+        void analizarComplejidad_ShouldSkipWhenDisabled() {
+            LadderService sinAnalisis = new LadderService(4, 1.75, 0, 1200);
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class)) {
+                assertEquals(1.0, sinAnalisis.analizarComplejidad("video.mp4", 600));
+                assertTrue(pbMock.constructed().isEmpty());
+            }
+        }
+
+        /**
+         * Ejecuta el análisis con un FFmpeg simulado.
+         */
+        private double analizar(String salida, int exitCode) throws Exception {
+            Process process = mock(Process.class);
+            when(process.getInputStream()).thenReturn(new ByteArrayInputStream(salida.getBytes()));
+            when(process.waitFor()).thenReturn(exitCode);
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
+                    (mock, context) -> {
+                        when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
+                        when(mock.start()).thenReturn(process);
+                    })) {
+                return ladderService.analizarComplejidad("video.mp4", 0);
+            }
+        }
+    }
+
+    private static List<String> nombres(List<Rendition> escalera) {
+        return escalera.stream().map(r -> r.getWidth() + "x" + r.getHeight() + "@" + r.getFps()).toList();
+    }
+}
@@ -0,0 +1,178 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link LiveSegmentService}.
+ */
+class LiveSegmentServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final PlaylistCacheService playlistCacheService = mock(PlaylistCacheService.class);
+    // Un solo hilo de copia para que las copias terminen en orden
+    private final LiveSegmentService liveSegmentService = new LiveSegmentService(playlistCacheService, 2, 1024, 1);
+
+    private Path variante;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        liveSegmentService.iniciar(tempDir);
+        variante = Files.createDirectories(tempDir.resolve("1280x720@30"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        liveSegmentService.destroy();
+    }
+
+    /**
+     * Prueba que el anillo guarda los últimos segmentos de cada calidad y
+     * descarta los más antiguos.
+     */
+    @Test
+    void capturar_ShouldKeepLastSegments() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            liveSegmentService.capturar(segmento(String.format("data%05d.ts", i), 100));
+        }
+        esperarCopia(variante.resolve("data00002.ts"));
+
+        assertNull(liveSegmentService.obtener(variante.resolve("data00000.ts")));
+        ByteBuffer ultimo = liveSegmentService.obtener(variante.resolve("data00002.ts"));
+        assertNotNull(ultimo);
+        assertEquals(100, ultimo.remaining());
+        assertNotNull(liveSegmentService.obtener(variante.resolve("data00001.ts")));
+        assertEquals(200, liveSegmentService.getBytesUsados());
+    }
+
+    /**
+     * Prueba que solo se guardan los segmentos de los directos y de tamaño
+     * razonable.
+     */
+    @Test
+    void capturar_ShouldIgnoreOtherFiles() throws Exception {
+        Path otra = Files.createDirectories(tempDir.resolveSibling("vod").resolve("720p"));
+        Path vod = Files.write(otra.resolve("data00000.ts"), new byte[10]);
+
+        liveSegmentService.capturar(vod);
+        liveSegmentService.capturar(segmento("stream.m3u8", 10));
+        liveSegmentService.capturar(segmento("data00000.ts.tmp", 10));
+        liveSegmentService.capturar(segmento("data00001.ts", 2048));
+        liveSegmentService.capturar(segmento("data00002.ts", 10));
+        esperarCopia(variante.resolve("data00002.ts"));
+
+        assertNull(liveSegmentService.obtener(vod));
+        assertNull(liveSegmentService.obtener(variante.resolve("data00001.ts")));
+        assertEquals(10, liveSegmentService.getBytesUsados());
+    }
+
+    /**
+     * Prueba que las calidades que crea FFmpeg se empiezan a vigilar.
+     */
+    @Test
+    void capturar_ShouldWatchNewRenditions() {
+        liveSegmentService.capturar(variante);
+
+        verify(playlistCacheService).vigilarCarpeta(variante);
+    }
+
+    /**
+     * Prueba que al terminar el directo se libera la memoria.
+     */
+    @Test
+    void finalizar_ShouldFreeMemory() throws Exception {
+        liveSegmentService.capturar(segmento("part00000.m4s", 50));
+        esperarCopia(variante.resolve("part00000.m4s"));
+
+        liveSegmentService.finalizar(tempDir);
+
+        assertNull(liveSegmentService.obtener(variante.resolve("part00000.m4s")));
+        assertEquals(0, liveSegmentService.getBytesUsados());
+        liveSegmentService.capturar(segmento("part00001.m4s", 50));
+        assertEquals(0, liveSegmentService.getBytesUsados());
+    }
+
+    /**
+     * Prueba que la copia a memoria no se hace en el hilo que avisa del
+     * fichero nuevo.
+     */
+    @Test
+    void capturar_ShouldCopyOffWatcherThread() throws Exception {
+        CountDownLatch soltar = new CountDownLatch(1);
+        List<String> hilos = new CopyOnWriteArrayList<>();
+        LiveSegmentService lenta = new LiveSegmentService(playlistCacheService, 2, 1024, 1) {
+            @Override
+            protected void copiar(Path fichero, Path carpeta, String nombre) {
+                hilos.add(Thread.currentThread().getName());
+                try {
+                    soltar.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.copiar(fichero, carpeta, nombre);
+            }
+        };
+        try {
+            lenta.iniciar(tempDir);
+            Path fichero = segmento("data00000.ts", 100);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> lenta.capturar(fichero));
+            soltar.countDown();
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (lenta.obtener(fichero) == null && System.nanoTime() < limite) {
+                Thread.sleep(10);
+            }
+
+            assertNotNull(lenta.obtener(fichero));
+            assertTrue(hilos.get(0).startsWith("LiveSegmentCopy-"));
+        } finally {
+            soltar.countDown();
+            lenta.destroy();
+        }
+    }
+
+    /**
+     * Espera a que el hilo de copia guarde un segmento en memoria.
+     *
+     * @param path Path del segmento
+     */
+    private void esperarCopia(Path path) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (liveSegmentService.obtener(path) == null && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+        assertNotNull(liveSegmentService.obtener(path), "El segmento debería copiarse a memoria");
+    }
+
+    /**
+     * Crea un segmento en la carpeta de la calidad.
+     *
+     * @param nombre Nombre del fichero
+     * @param size   Tamaño en bytes
+     */
+    private Path segmento(String nombre, int size) throws IOException {
+        return Files.write(variante.resolve(nombre), new byte[size]);
+    }
+}
@@ -0,0 +1,191 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link LlHlsService}.
+ */
+class LlHlsServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final PlaylistCacheService playlistCacheService = mock(PlaylistCacheService.class);
+    private final LiveSegmentService liveSegmentService = mock(LiveSegmentService.class);
+    private final LlHlsService llHlsService = new LlHlsService(playlistCacheService, liveSegmentService, 0.5);
+
+    @Nested
+    class ObtenerPlaylistTests {
+        /**
+         * Prueba que una lista de partes se entrega como LL-HLS: segmentos de
+         * cuatro partes, las partes del segmento en curso y la pista de la
+         * próxima.
+         */
+        @Test
+        void obtenerPlaylist_ShouldBuildLowLatencyPlaylist() {
+            Path stream = stream(10, false);
+
+            String lista = new String(llHlsService.obtenerPlaylist(stream));
+
+            assertTrue(lista.contains("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.500\n"));
+            assertTrue(lista.contains("#EXT-X-PART-INF:PART-TARGET=0.500\n"));
+            assertTrue(lista.contains("#EXT-X-MAP:URI=\"init_0.mp4\"\n"));
+            assertTrue(lista.contains("#EXTINF:2.000,\npart00000-00003.m4s\n"));
+            assertTrue(lista.contains("#EXTINF:2.000,\npart00004-00007.m4s\n"));
+            assertTrue(lista.contains("#EXT-X-PART:DURATION=0.500,URI=\"part00008.m4s?espera=1\",INDEPENDENT=YES\n"
+                    + "#EXT-X-PART:DURATION=0.500,URI=\"part00009.m4s?espera=1\"\n"));
+            assertTrue(lista.endsWith("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part00010.m4s?espera=1\"\n"));
+        }
+
+        /**
+         * Prueba que al terminar el directo la última parte forma un segmento y
+         * no hay pista de la próxima parte.
+         */
+        @Test
+        void obtenerPlaylist_ShouldCloseFinishedLive() {
+            Path stream = stream(6, true);
+
+            String lista = new String(llHlsService.obtenerPlaylist(stream));
+
+            assertTrue(lista.contains("#EXTINF:1.000,\npart00004-00005.m4s\n"));
+            assertFalse(lista.contains("#EXT-X-PART:"));
+            assertFalse(lista.contains("PRELOAD-HINT"));
+            assertTrue(lista.endsWith("#EXT-X-ENDLIST\n"));
+        }
+
+        /**
+         * Prueba que las listas normales se entregan tal cual.
+         */
+        @Test
+        void obtenerPlaylist_ShouldKeepRegularPlaylists() {
+            Path stream = tempDir.resolve("stream.m3u8");
+            byte[] vod = "#EXTM3U\n#EXT-X-MAP:URI=\"init_0.mp4\"\n#EXTINF:2.0,\ndata00000.m4s\n".getBytes();
+            when(playlistCacheService.obtenerPlaylist(stream)).thenReturn(vod);
+
+            assertArrayEquals(vod, llHlsService.obtenerPlaylist(stream));
+            assertTrue(llHlsService.disponible(stream, 100, 0));
+        }
+    }
+
+    /**
+     * Prueba qué recargas bloqueantes se pueden responder ya.
+     */
+    @Test
+    void disponible_ShouldWaitForRequestedPart() {
+        Path stream = stream(10, false);
+
+        assertTrue(llHlsService.disponible(stream, 1, -1));
+        assertTrue(llHlsService.disponible(stream, 2, 1));
+        assertFalse(llHlsService.disponible(stream, 2, 2));
+        assertFalse(llHlsService.disponible(stream, 2, -1));
+        assertFalse(llHlsService.disponible(stream, 3, 0));
+        assertFalse(llHlsService.disponible(tempDir.resolve("otra.m3u8"), 0, 0));
+    }
+
+    /**
+     * Prueba que solo se rechazan las recargas de más de dos segmentos por
+     * delante del último.
+     */
+    @Test
+    void demasiadoAdelantado_ShouldAllowTwoSegmentsAhead() {
+        Path stream = stream(10, false);
+
+        assertFalse(llHlsService.demasiadoAdelantado(stream, 4));
+        assertTrue(llHlsService.demasiadoAdelantado(stream, 5));
+        assertFalse(llHlsService.demasiadoAdelantado(stream(6, true), 100));
+        assertFalse(llHlsService.demasiadoAdelantado(tempDir.resolve("otra.m3u8"), 100));
+    }
+
+    /**
+     * Prueba que un segmento se lee uniendo sus partes.
+     */
+    @Test
+    void leerSegmento_ShouldJoinParts() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            Files.writeString(tempDir.resolve(String.format("part%05d.m4s", i)), String.valueOf(i));
+        }
+
+        assertArrayEquals("0123".getBytes(), llHlsService.leerSegmento(tempDir, "part00000-00003.m4s"));
+        assertNull(llHlsService.leerSegmento(tempDir, "part00002-00005.m4s"));
+        assertNull(llHlsService.leerSegmento(tempDir, "data00000.m4s"));
+        assertNull(llHlsService.leerSegmento(tempDir, "part00000-99999.m4s"));
+    }
+
+    /**
+     * Prueba que al cerrar la grabación las partes se unen en segmentos y la
+     * lista queda como VOD.
+     */
+    @Test
+    void cerrarGrabacion_ShouldWriteSegmentPlaylist() throws IOException {
+        Path calidad = Files.createDirectories(tempDir.resolve("720p"));
+        List<String> lineas = new ArrayList<>(List.of("#EXTM3U", "#EXT-X-VERSION:7", "#EXT-X-TARGETDURATION:1",
+                "#EXT-X-MEDIA-SEQUENCE:0", "#EXT-X-PLAYLIST-TYPE:EVENT", "#EXT-X-MAP:URI=\"init_0.mp4\""));
+        for (int i = 0; i < 6; i++) {
+            lineas.add("#EXTINF:0.500000,");
+            lineas.add(String.format("part%05d.m4s", i));
+            Files.writeString(calidad.resolve(String.format("part%05d.m4s", i)), String.valueOf(i));
+        }
+        Files.write(calidad.resolve("stream.m3u8"), lineas);
+        Files.write(tempDir.resolve("master.m3u8"), List.of("#EXTM3U"));
+
+        assertEquals(1, llHlsService.cerrarGrabacion(tempDir));
+
+        String lista = Files.readString(calidad.resolve("stream.m3u8"));
+        assertTrue(lista.contains("#EXT-X-PLAYLIST-TYPE:VOD\n"));
+        assertTrue(lista.contains("#EXT-X-MAP:URI=\"init_0.mp4\"\n"));
+        assertTrue(lista.contains("#EXTINF:2.000,\ndata00000.m4s\n#EXTINF:1.000,\ndata00001.m4s\n"));
+        assertTrue(lista.endsWith("#EXT-X-ENDLIST\n"));
+        assertEquals("0123", Files.readString(calidad.resolve("data00000.m4s")));
+        assertEquals("45", Files.readString(calidad.resolve("data00001.m4s")));
+        assertFalse(Files.exists(calidad.resolve("part00000.m4s")));
+        // Una lista ya cerrada no se vuelve a tocar
+        assertEquals(0, llHlsService.cerrarGrabacion(tempDir));
+    }
+
+    /**
+     * Prueba que sin duración de parte los directos no usan LL-HLS.
+     */
+    @Test
+    void isActivo_ShouldDependOnPartSeconds() {
+        assertTrue(llHlsService.isActivo());
+        assertEquals(0.5, llHlsService.getDuracionParte());
+        assertFalse(new LlHlsService(playlistCacheService, liveSegmentService, 0).isActivo());
+    }
+
+    /**
+     * Crea la lista de partes que escribe FFmpeg.
+     *
+     * @param partes Número de partes de 0.5 segundos
+     * @param fin    Booleano para terminar la lista con #EXT-X-ENDLIST
+     */
+    private Path stream(int partes, boolean fin) {
+        Path stream = tempDir.resolve("stream.m3u8");
+        List<String> lineas = new ArrayList<>(List.of("#EXTM3U", "#EXT-X-VERSION:7", "#EXT-X-TARGETDURATION:1",
+                "#EXT-X-MEDIA-SEQUENCE:0", "#EXT-X-PLAYLIST-TYPE:EVENT", "#EXT-X-MAP:URI=\"init_0.mp4\""));
+        for (int i = 0; i < partes; i++) {
+            lineas.add("#EXTINF:0.500000,");
+            lineas.add(String.format("part%05d.m4s", i));
+        }
+        if (fin) {
+            lineas.add("#EXT-X-ENDLIST");
+        }
+        when(playlistCacheService.obtenerPlaylist(stream)).thenReturn((String.join("\n", lineas) + "\n").getBytes());
+        return stream;
+    }
+}
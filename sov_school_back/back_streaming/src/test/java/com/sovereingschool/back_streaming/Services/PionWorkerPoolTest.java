@@ -0,0 +1,319 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import com.sovereingschool.back_streaming.Utils.PionProtocol;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Pruebas unitarias para {@link PionWorkerPool}.
+ * Los procesos Pion se sustituyen por procesos falsos con tuberías en memoria.
+ */
+@Timeout(10)
+class PionWorkerPoolTest {
+
+    /**
+     * Proceso falso: lo que el grupo escribe en su stdin va a stdin y lo que
+     * la prueba escribe en stdout lo lee el grupo
+     */
+    static final class FakeProceso extends Process {
+        private final OutputStream stdin;
+        private final PipedOutputStream stdout = new PipedOutputStream();
+        private final PipedInputStream stdoutGrupo;
+        private volatile boolean vivo = true;
+
+        FakeProceso(OutputStream stdin) throws IOException {
+            this.stdin = stdin;
+            this.stdoutGrupo = new PipedInputStream(this.stdout);
+        }
+
+        void escribir(Tipo tipo, String streamId, String contenido) throws IOException {
+            this.stdout.write(PionProtocol.codificar(tipo, streamId, contenido));
+            this.stdout.flush();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return this.stdin;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return this.stdoutGrupo;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return this.vivo;
+        }
+
+        @Override
+        public void destroy() {
+            this.vivo = false;
+        }
+    }
+
+    /**
+     * Receptor de una emisión que guarda lo recibido
+     */
+    static final class Recibidos implements PionWorkerPool.Receptor {
+        private final BlockingQueue<Trama> tramas = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Boolean> perdida = new CompletableFuture<>();
+
+        @Override
+        public void recibir(Trama trama) {
+            this.tramas.add(trama);
+        }
+
+        @Override
+        public void perdida() {
+            this.perdida.complete(true);
+        }
+    }
+
+    private final List<PionWorkerPool> pools = new ArrayList<>();
+    private final AtomicInteger arranques = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        this.pools.forEach(PionWorkerPool::destroy);
+    }
+
+    /**
+     * Prueba que cada emisión se queda en su proceso y que las emisiones se
+     * reparten entre todos.
+     */
+    @Test
+    void asignar_ShouldBeStickyAndSpread() {
+        PionWorkerPool pool = this.pool(3, 16, i -> this.fake());
+        pool.arrancar();
+
+        Map<Integer, Integer> porTrabajador = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            String streamId = i + "_sesion" + i;
+            int indice = pool.asignar(streamId).getIndice();
+            assertEquals(indice, pool.asignar(streamId).getIndice());
+            assertEquals(indice, pool.getTrabajador(streamId));
+            porTrabajador.merge(indice, 1, Integer::sum);
+        }
+
+        assertEquals(3, porTrabajador.size(), "Todos los procesos reciben emisiones");
+        porTrabajador.values().forEach(n -> assertTrue(n > 30, "Reparto desequilibrado: " + porTrabajador));
+    }
+
+    /**
+     * Prueba que un proceso que no arranca no recibe emisiones y que solo se
+     * mueven las emisiones que le tocaban a él.
+     */
+    @Test
+    void asignar_ShouldSkipUnhealthyWorkerAndKeepTheRest() {
+        PionWorkerPool todos = this.pool(3, 16, i -> this.fake());
+        PionWorkerPool sinCero = this.pool(3, 16, i -> i == 0 ? null : this.fake());
+        todos.arrancar();
+        sinCero.arrancar();
+
+        for (int i = 0; i < 200; i++) {
+            String streamId = i + "_sesion" + i;
+            int antes = todos.asignar(streamId).getIndice();
+            int despues = sinCero.asignar(streamId).getIndice();
+            assertTrue(despues != 0, "El proceso caído no recibe emisiones");
+            if (antes != 0) {
+                assertEquals(antes, despues, "Las emisiones de los procesos sanos no se mueven");
+            }
+        }
+    }
+
+    /**
+     * Prueba que los mensajes se escriben en el stdin del proceso de la emisión
+     * y que las tramas de Pion llegan en orden al receptor de su emisión, salvo
+     * los pong.
+     */
+    @Test
+    void enviar_ShouldWriteToProcessAndDispatchPerStream() throws Exception {
+        PipedOutputStream stdin = new PipedOutputStream();
+        DataInputStream escrito = new DataInputStream(new PipedInputStream(stdin));
+        FakeProceso proceso = new FakeProceso(stdin);
+        Recibidos emision = new Recibidos();
+        Recibidos otra = new Recibidos();
+        PionWorkerPool pool = this.pool(1, 16, i -> proceso);
+        pool.registrar("1_sesion", emision);
+        pool.registrar("2_sesion", otra);
+
+        assertTrue(pool.enviar(Tipo.OFFER, "1_sesion", "{\"sdp\":\"v=0\"}"));
+        Trama offer = PionProtocol.leer(escrito);
+        assertEquals(Tipo.OFFER, offer.tipo());
+        assertEquals("1_sesion", offer.streamId());
+        assertEquals("{\"sdp\":\"v=0\"}", offer.texto());
+
+        proceso.escribir(Tipo.PONG, null, null);
+        proceso.escribir(Tipo.LOCAL_CANDIDATE, "1_sesion", "candidate:1");
+        proceso.escribir(Tipo.ANSWER, "1_sesion", "v=0");
+        proceso.escribir(Tipo.ANSWER, "3_desconocida", "v=0");
+
+        Trama primera = emision.tramas.poll(5, TimeUnit.SECONDS);
+        Trama segunda = emision.tramas.poll(5, TimeUnit.SECONDS);
+        assertNotNull(primera);
+        assertNotNull(segunda);
+        assertEquals(Tipo.LOCAL_CANDIDATE, primera.tipo());
+        assertEquals("candidate:1", primera.texto());
+        assertEquals(Tipo.ANSWER, segunda.tipo());
+        assertNull(emision.tramas.poll(100, TimeUnit.MILLISECONDS), "El pong no llega a las emisiones");
+        assertTrue(otra.tramas.isEmpty(), "Cada emisión solo recibe sus tramas");
+
+        pool.detener("1_sesion");
+        Trama stop = PionProtocol.leer(escrito);
+        assertEquals(Tipo.STOP, stop.tipo());
+        assertEquals("1_sesion", stop.streamId());
+        assertNull(pool.getTrabajador("1_sesion"));
+    }
+
+    /**
+     * Prueba que con la cola del proceso llena los mensajes se rechazan en
+     * lugar de bloquear al que los envía.
+     */
+    @Test
+    void enviar_ShouldRejectWhenQueueIsFull() throws Exception {
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        OutputStream atascado = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    bloqueo.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        };
+        PionWorkerPool pool = this.pool(1, 2, i -> {
+            try {
+                return new FakeProceso(atascado);
+            } catch (IOException e) {
+                return null;
+            }
+        });
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+
+        try {
+            assertTrue(pool.enviar(Tipo.CANDIDATE, "1_sesion", "primero"));
+            // El hilo escritor se queda atascado con el primer mensaje
+            while (pool.getTrabajadores().get(0).getPendientes() > 0) {
+                Thread.sleep(5);
+            }
+            assertTrue(pool.enviar(Tipo.CANDIDATE, "1_sesion", "segundo"));
+            assertTrue(pool.enviar(Tipo.CANDIDATE, "1_sesion", "tercero"));
+            assertFalse(pool.enviar(Tipo.CANDIDATE, "1_sesion", "cuarto"));
+
+            assertEquals(1.0, registry.get("streaming.pion.rejected").functionCounter().count());
+            assertEquals(2.0, registry.get("streaming.pion.queue").tag("trabajador", "0").gauge().value());
+        } finally {
+            bloqueo.countDown();
+        }
+    }
+
+    /**
+     * Prueba que la comprobación de salud envía ping a los procesos vivos y
+     * reinicia los caídos avisando de sus emisiones perdidas.
+     */
+    @Test
+    void comprobarSalud_ShouldPingAliveAndRestartDead() throws Exception {
+        PipedOutputStream stdin = new PipedOutputStream();
+        DataInputStream escrito = new DataInputStream(new PipedInputStream(stdin));
+        FakeProceso proceso = new FakeProceso(stdin);
+        Recibidos emision = new Recibidos();
+        PionWorkerPool pool = this.pool(1, 16, i -> this.arranques.get() == 1 ? proceso : this.fake());
+        pool.registrar("1_sesion", emision);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+        pool.arrancar();
+        pool.asignar("1_sesion");
+
+        pool.comprobarSalud();
+        assertEquals(Tipo.PING, PionProtocol.leer(escrito).tipo());
+        assertEquals(1, this.arranques.get());
+
+        proceso.destroy();
+        pool.comprobarSalud();
+
+        assertEquals(2, this.arranques.get());
+        assertTrue(emision.perdida.get(5, TimeUnit.SECONDS));
+        assertNull(pool.getTrabajador("1_sesion"));
+        assertEquals(1.0, registry.get("streaming.pion.restarts").functionCounter().count());
+        assertEquals(1.0, registry.get("streaming.pion.workers.healthy").gauge().value());
+    }
+
+    private PionWorkerPool pool(int trabajadores, int capacidad, IntFunction<Process> procesos) {
+        PionWorkerPool pool = new PionWorkerPool(trabajadores, capacidad, 0) {
+            @Override
+            protected Process arrancarProceso(int indice) throws IOException {
+                arranques.incrementAndGet();
+                Process proceso = procesos.apply(indice);
+                if (proceso == null) {
+                    throw new IOException("No se pudo lanzar Pion");
+                }
+                return proceso;
+            }
+        };
+        this.pools.add(pool);
+        return pool;
+    }
+
+    private FakeProceso fake() {
+        try {
+            return new FakeProceso(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
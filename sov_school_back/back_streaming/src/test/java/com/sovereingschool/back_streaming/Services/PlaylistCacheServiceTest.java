@@ -0,0 +1,167 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link PlaylistCacheService}.
+ */
+class PlaylistCacheServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PlaylistCacheService playlistCacheService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        playlistCacheService = new PlaylistCacheService(16);
+        playlistCacheService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        playlistCacheService.destroy();
+    }
+
+    /**
+     * Prueba que la lista se lee de disco una sola vez.
+     */
+    @Test
+    void obtenerPlaylist_ShouldServeFromMemory() throws IOException {
+        Path master = tempDir.resolve("master.m3u8");
+        Files.writeString(master, "#EXTM3U\n");
+
+        byte[] primera = playlistCacheService.obtenerPlaylist(master);
+        byte[] segunda = playlistCacheService.obtenerPlaylist(master);
+
+        assertArrayEquals("#EXTM3U\n".getBytes(), primera);
+        assertSame(primera, segunda, "La segunda petición debería salir de memoria");
+        assertEquals(1, playlistCacheService.getNumeroPlaylists());
+    }
+
+    /**
+     * Prueba que una lista que no existe no se cachea.
+     */
+    @Test
+    void obtenerPlaylist_ShouldReturnNullWhenMissing() {
+        assertNull(playlistCacheService.obtenerPlaylist(tempDir.resolve("stream.m3u8")));
+        assertNull(playlistCacheService.obtenerPlaylist(tempDir.resolve("noexiste").resolve("stream.m3u8")));
+        assertEquals(0, playlistCacheService.getNumeroPlaylists());
+    }
+
+    /**
+     * Prueba que la lista se vuelve a leer cuando FFmpeg la modifica.
+     */
+    @Test
+    void obtenerPlaylist_ShouldReloadWhenModified() throws Exception {
+        Path stream = tempDir.resolve("stream.m3u8");
+        Files.writeString(stream, "#EXTM3U\n#EXT-X-PLAYLIST-TYPE:EVENT\n");
+        playlistCacheService.obtenerPlaylist(stream);
+
+        String actualizada = "#EXTM3U\n#EXT-X-PLAYLIST-TYPE:EVENT\n#EXTINF:2.0,\ndata00000.ts\n";
+        Files.writeString(stream, actualizada);
+
+        // El WatchService avisa de forma asíncrona
+        long limite = System.currentTimeMillis() + 10_000;
+        byte[] contenido = playlistCacheService.obtenerPlaylist(stream);
+        while (!actualizada.equals(new String(contenido)) && System.currentTimeMillis() < limite) {
+            Thread.sleep(50);
+            contenido = playlistCacheService.obtenerPlaylist(stream);
+        }
+
+        assertEquals(actualizada, new String(contenido));
+    }
+
+    /**
+     * Prueba que el aviso se ejecuta una vez con el próximo cambio de la
+     * carpeta.
+     */
+    @Test
+    void avisarCambio_ShouldRunOnNextChange() throws Exception {
+        CountDownLatch aviso = new CountDownLatch(1);
+
+        assertTrue(playlistCacheService.avisarCambio(tempDir, aviso::countDown));
+        Files.writeString(tempDir.resolve("part00000.m4s"), "moof");
+
+        assertTrue(aviso.await(10, TimeUnit.SECONDS), "El aviso debería llegar con el cambio");
+        assertFalse(playlistCacheService.avisarCambio(tempDir.resolve("noexiste"), aviso::countDown));
+    }
+
+    /**
+     * Prueba que un aviso lento de una carpeta no retrasa los avisos de las
+     * demás ni se ejecuta en el hilo que vigila las carpetas.
+     */
+    @Test
+    void avisarCambio_ShouldNotBlockOtherFolders() throws Exception {
+        Path lenta = Files.createDirectories(tempDir.resolve("lenta"));
+        Path rapida = Files.createDirectories(tempDir.resolve("rapida"));
+        CountDownLatch soltar = new CountDownLatch(1);
+        CountDownLatch avisada = new CountDownLatch(1);
+        List<String> hilos = new CopyOnWriteArrayList<>();
+        assertTrue(playlistCacheService.avisarCambio(lenta, () -> {
+            hilos.add(Thread.currentThread().getName());
+            try {
+                soltar.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(playlistCacheService.avisarCambio(rapida, avisada::countDown));
+
+        try {
+            Files.writeString(lenta.resolve("part00000.m4s"), "moof");
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (hilos.isEmpty() && System.nanoTime() < limite) {
+                Thread.sleep(10);
+            }
+            Files.writeString(rapida.resolve("part00000.m4s"), "moof");
+
+            assertTrue(avisada.await(10, TimeUnit.SECONDS), "El aviso de la otra carpeta no debería esperar");
+            assertFalse(hilos.contains("PlaylistWatcher"));
+        } finally {
+            soltar.countDown();
+        }
+    }
+
+    /**
+     * Prueba que los observadores reciben el fichero final cuando FFmpeg
+     * renombra el temporal.
+     */
+    @Test
+    void observarFicheros_ShouldReceiveRenamedSegment() throws Exception {
+        List<Path> creados = new CopyOnWriteArrayList<>();
+        playlistCacheService.observarFicheros(creados::add);
+
+        assertTrue(playlistCacheService.vigilarCarpeta(tempDir));
+        Path temporal = Files.writeString(tempDir.resolve("data00000.ts.tmp"), "ts");
+        Path segmento = tempDir.resolve("data00000.ts");
+        Files.move(temporal, segmento, StandardCopyOption.ATOMIC_MOVE);
+
+        // Los eventos del temporal y del renombrado pueden llegar en tandas distintas
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!creados.contains(segmento.toAbsolutePath().normalize()) && System.nanoTime() < limite) {
+            Thread.sleep(20);
+        }
+        assertTrue(creados.contains(segmento.toAbsolutePath().normalize()));
+        assertFalse(playlistCacheService.vigilarCarpeta(tempDir.resolve("noexiste")));
+    }
+}
@@ -0,0 +1,66 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link ProbeCacheService}.
+ */
+class ProbeCacheServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ProbeCacheService probeCacheService = new ProbeCacheService(2);
+
+    /**
+     * Prueba que la huella depende del contenido y no de la ruta.
+     */
+    @Test
+    void huella_ShouldDependOnContent() throws IOException {
+        byte[] contenido = new byte[3 * ProbeCacheService.BYTES_MUESTRA];
+        contenido[contenido.length - 1] = 1;
+        Path video = Files.write(tempDir.resolve("video.mp4"), contenido);
+        Path copia = Files.write(tempDir.resolve("copia.mp4"), contenido);
+        contenido[contenido.length - 1] = 2;
+        Path otro = Files.write(tempDir.resolve("otro.mp4"), contenido);
+
+        String huella = probeCacheService.huella(video.toString());
+
+        assertNotNull(huella);
+        assertEquals(huella, probeCacheService.huella(copia.toString()));
+        assertNotEquals(huella, probeCacheService.huella(otro.toString()));
+        assertNull(probeCacheService.huella("rtmp://servidor/live/clase"));
+        assertNull(probeCacheService.huella("pipe:0"));
+        assertNull(probeCacheService.huella(tempDir.resolve("noexiste.mp4").toString()));
+    }
+
+    /**
+     * Prueba que se guardan los ajustes y la duración de cada contenido y se
+     * expulsan los más antiguos.
+     */
+    @Test
+    void guardar_ShouldKeepAjustesAndDuracion() {
+        probeCacheService.guardarAjustes("a", new String[] { "1280", "720", "30", "aac" });
+        probeCacheService.guardarDuracion("a", 12.5);
+
+        assertArrayEquals(new String[] { "1280", "720", "30", "aac" }, probeCacheService.obtenerAjustes("a"));
+        assertEquals(12.5, probeCacheService.obtenerDuracion("a"));
+        assertNull(probeCacheService.obtenerDuracion("b"));
+        assertNull(probeCacheService.obtenerAjustes(null));
+
+        probeCacheService.guardarDuracion("b", 1);
+        probeCacheService.guardarDuracion("c", 2);
+        assertNull(probeCacheService.obtenerAjustes("a"), "La entrada más antigua se expulsa");
+    }
+}
@@ -0,0 +1,143 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.sovereingschool.back_streaming.Models.ProgresoBitmap;
+import com.sovereingschool.back_streaming.Models.ProgresoPendiente;
+import com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Pruebas unitarias para {@link ProgresoBufferService}.
+ */
+@ExtendWith(MockitoExtension.class)
+class ProgresoBufferServiceTest {
+
+    @Mock
+    private ProgresoClaseRepository progresoClaseRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ProgresoBufferService progresoBufferService;
+
+    @BeforeEach
+    void setUp() {
+        // Con un intervalo largo el volcado solo se hace al llamar a flush()
+        progresoBufferService = new ProgresoBufferService(progresoClaseRepository, mongoTemplate, 60_000, 100);
+        progresoBufferService.init();
+    }
+
+    /**
+     * Prueba que los fragmentos de un mismo usuario y clase se agrupan en una
+     * sola actualización.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldMergePingsPerUserAndClass() {
+        progresoBufferService.registrar(1L, 2L, 3L, 0);
+        progresoBufferService.registrar(1L, 2L, 3L, 1);
+        progresoBufferService.registrar(1L, 2L, 3L, 1);
+        progresoBufferService.registrar(9L, 2L, 3L, 0);
+
+        verify(progresoClaseRepository, never()).updateProgressBatch(anyList(), any());
+        assertEquals(2, progresoBufferService.getNumeroPendientes());
+
+        progresoBufferService.flush();
+
+        ArgumentCaptor<List<ProgresoPendiente>> captor = ArgumentCaptor.forClass(List.class);
+        verify(progresoClaseRepository).updateProgressBatch(captor.capture(), any());
+        List<ProgresoPendiente> lote = captor.getValue();
+        assertEquals(2, lote.size());
+        ProgresoPendiente usuario1 = lote.stream().filter(p -> p.idUsuario() == 1L).findFirst().orElseThrow();
+        assertEquals(ProgresoBitmap.of(List.of(0, 1)), usuario1.segmentos());
+        assertEquals(0, progresoBufferService.getNumeroPendientes());
+    }
+
+    /**
+     * Prueba que un lote que falla vuelve al buffer para el siguiente volcado.
+     */
+    @Test
+    void flush_ShouldRequeueOnError() {
+        doThrow(new IllegalStateException("Mongo caído")).doReturn(0)
+                .when(progresoClaseRepository).updateProgressBatch(anyList(), any());
+        progresoBufferService.registrar(1L, 2L, 3L, 0);
+
+        progresoBufferService.flush();
+        assertEquals(1, progresoBufferService.getNumeroPendientes());
+
+        progresoBufferService.flush();
+        assertEquals(0, progresoBufferService.getNumeroPendientes());
+        verify(progresoClaseRepository, times(2)).updateProgressBatch(anyList(), any());
+    }
+
+    /**
+     * Prueba que con el buffer lleno se vuelca en el propio hilo.
+     */
+    @Test
+    void registrar_ShouldFlushWhenFull() {
+        ProgresoBufferService lleno = new ProgresoBufferService(progresoClaseRepository, mongoTemplate, 60_000, 2);
+        lleno.init();
+
+        lleno.registrar(1L, 2L, 3L, 0);
+        lleno.registrar(2L, 2L, 3L, 0);
+
+        verify(progresoClaseRepository).updateProgressBatch(anyList(), any());
+        assertEquals(0, lleno.getNumeroPendientes());
+        lleno.destroy();
+    }
+
+    /**
+     * Prueba que al apagar la aplicación se guarda lo pendiente y se publican
+     * las métricas.
+     */
+    @Test
+    void destroy_ShouldFlushPendingAndRecordMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        progresoBufferService.bindTo(registry);
+        progresoBufferService.registrar(1L, 2L, 3L, 0);
+        assertEquals(1.0, registry.get("streaming.progress.buffer.pending").gauge().value());
+
+        progresoBufferService.destroy();
+
+        verify(progresoClaseRepository).updateProgressBatch(anyList(), any());
+        assertEquals(1L, registry.get("streaming.progress.buffer.flush").timer().count());
+        assertEquals(0.0, registry.get("streaming.progress.buffer.unmatched").functionCounter().count());
+        assertEquals(1.0, registry.get("streaming.progress.buffer.segments").functionCounter().count());
+    }
+
+    /**
+     * Prueba que el progreso de una clase sin documento se descarta y se
+     * cuenta, sin volver al buffer.
+     */
+    @Test
+    void flush_ShouldCountUnmatchedClasses() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        progresoBufferService.bindTo(registry);
+        when(progresoClaseRepository.updateProgressBatch(anyList(), any())).thenReturn(1);
+        progresoBufferService.registrar(1L, 2L, 3L, 0);
+
+        progresoBufferService.flush();
+
+        assertEquals(0, progresoBufferService.getNumeroPendientes());
+        assertEquals(1.0, registry.get("streaming.progress.buffer.unmatched").functionCounter().count());
+    }
+}
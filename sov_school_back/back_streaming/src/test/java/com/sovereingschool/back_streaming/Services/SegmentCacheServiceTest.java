@@ -0,0 +1,267 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Pruebas unitarias para {@link SegmentCacheService}.
+ */
+class SegmentCacheServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SegmentCacheService segmentCacheService;
+
+    @BeforeEach
+    void setUp() {
+        segmentCacheService = new SegmentCacheService(100, 60, 2, 16, 2000);
+    }
+
+    @Nested
+    class AdmisionTests {
+        /**
+         * Prueba que un segmento solo entra en la caché a partir de la segunda
+         * petición.
+         */
+        @Test
+        void obtenerSegmento_ShouldAdmitOnSecondRequest() throws IOException {
+            Path segmento = crearSegmento("data00000.ts", 40);
+
+            assertEquals(40, segmentCacheService.obtenerSegmento(segmento).remaining());
+            assertEquals(0, segmentCacheService.getBytesUsados(), "La primera petición no se guarda");
+            ByteBuffer datos = segmentCacheService.obtenerSegmento(segmento);
+
+            assertNotNull(datos, "La segunda petición debería cargar el segmento");
+            assertEquals(40, datos.remaining());
+            assertEquals(40, segmentCacheService.getBytesUsados());
+            assertNotNull(segmentCacheService.obtenerSegmento(segmento), "La tercera petición es un hit");
+        }
+
+        /**
+         * Prueba que los segmentos mayores que el límite no se cachean.
+         */
+        @Test
+        void obtenerSegmento_ShouldSkipLargeSegments() throws IOException {
+            Path segmento = crearSegmento("data00000.ts", 80);
+
+            segmentCacheService.obtenerSegmento(segmento);
+            assertEquals(80, segmentCacheService.obtenerSegmento(segmento).remaining());
+            assertEquals(0, segmentCacheService.getNumeroSegmentos());
+        }
+    }
+
+    @Nested
+    class ExpulsionTests {
+        /**
+         * Prueba que se expulsa el segmento menos usado al superar el presupuesto.
+         */
+        @Test
+        void obtenerSegmento_ShouldEvictLeastRecentlyUsed() throws IOException {
+            Path primero = crearSegmento("data00000.ts", 40);
+            Path segundo = crearSegmento("data00001.ts", 40);
+            Path tercero = crearSegmento("data00002.ts", 40);
+            admitir(primero);
+            admitir(segundo);
+            segmentCacheService.obtenerSegmento(primero);
+            admitir(tercero);
+
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            segmentCacheService.bindTo(registry);
+
+            assertEquals(2, segmentCacheService.getNumeroSegmentos());
+            assertEquals(80, segmentCacheService.getBytesUsados());
+            assertEquals(1.0, registry.get("streaming.segment.cache.evictions").functionCounter().count());
+            assertEquals(1.0, registry.get("streaming.segment.cache.hits").functionCounter().count());
+        }
+
+        /**
+         * Prueba que un segmento modificado en disco se vuelve a leer.
+         */
+        @Test
+        void obtenerSegmento_ShouldDropModifiedSegment() throws IOException {
+            Path segmento = crearSegmento("data00000.ts", 40);
+            admitir(segmento);
+
+            Files.write(segmento, new byte[20]);
+            Files.setLastModifiedTime(segmento, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+            assertEquals(20, segmentCacheService.obtenerSegmento(segmento).remaining());
+            assertEquals(0, segmentCacheService.getBytesUsados());
+        }
+
+        /**
+         * Prueba que se eliminan los segmentos de la carpeta de una clase.
+         */
+        @Test
+        void invalidarCarpeta_ShouldRemoveClassSegments() throws IOException {
+            Path segmento = crearSegmento("data00000.ts", 40);
+            admitir(segmento);
+
+            segmentCacheService.invalidarCarpeta(tempDir);
+
+            assertEquals(0, segmentCacheService.getNumeroSegmentos());
+            assertEquals(0, segmentCacheService.getBytesUsados());
+            segmentCacheService.obtenerSegmento(segmento);
+            assertEquals(0, segmentCacheService.getNumeroSegmentos(), "Tiene que volver a pasar la admisión");
+        }
+    }
+
+    @Nested
+    class ColapsoTests {
+        /**
+         * Prueba que las peticiones simultáneas de un segmento que se está
+         * cargando comparten una sola lectura de disco y que se guarda cuando
+         * pasa la admisión.
+         */
+        @Test
+        void obtenerSegmento_ShouldCollapseConcurrentLoads() throws Exception {
+            LecturaLenta lenta = new LecturaLenta(100, 60, 2000);
+            Path segmento = crearSegmento("data00000.ts", 40);
+            lenta.continuar.countDown();
+            lenta.obtenerSegmento(segmento);
+            lenta.reiniciar();
+
+            colapsar(lenta, segmento, 40);
+
+            assertEquals(1, lenta.lecturas.get(), "Solo la primera petición admitida lee de disco");
+            assertEquals(40, lenta.getBytesUsados());
+        }
+
+        /**
+         * Prueba que también se comparte la lectura de los segmentos que no se
+         * guardan: la primera petición, los segmentos grandes y la caché
+         * desactivada.
+         */
+        @Test
+        void obtenerSegmento_ShouldCollapseWithoutAdmission() throws Exception {
+            Path segmento = crearSegmento("data00000.ts", 40);
+            Path grande = crearSegmento("data00001.ts", 80);
+            for (LecturaLenta lenta : List.of(new LecturaLenta(100, 60, 2000), new LecturaLenta(0, 60, 2000))) {
+                colapsar(lenta, segmento, 40);
+                lenta.reiniciar();
+                colapsar(lenta, grande, 80);
+
+                assertEquals(0, lenta.getBytesUsados());
+                assertEquals(4, lenta.getColapsadas());
+            }
+        }
+
+        /**
+         * Prueba que una petición no espera más de wait-millis a la lectura de
+         * otra y se sirve desde disco.
+         */
+        @Test
+        void obtenerSegmento_ShouldFallBackToDiskAfterTimeout() throws Exception {
+            LecturaLenta lenta = new LecturaLenta(100, 60, 50);
+            Path segmento = crearSegmento("data00000.ts", 40);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<ByteBuffer> primera = executor.submit(() -> lenta.obtenerSegmento(segmento));
+                assertTrue(lenta.leyendo.await(10, TimeUnit.SECONDS));
+
+                assertNull(lenta.obtenerSegmento(segmento), "Pasado el tiempo de espera va a disco");
+
+                lenta.continuar.countDown();
+                assertEquals(40, primera.get(10, TimeUnit.SECONDS).remaining());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Lanza una lectura que se queda parada, dos peticiones más del mismo
+         * segmento, y comprueba que las tres reciben el segmento.
+         */
+        private void colapsar(LecturaLenta lenta, Path segmento, int size) throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            long colapsadas = lenta.getColapsadas();
+            try {
+                Future<ByteBuffer> primera = executor.submit(() -> lenta.obtenerSegmento(segmento));
+                assertTrue(lenta.leyendo.await(10, TimeUnit.SECONDS));
+                List<Future<ByteBuffer>> esperando = List.of(
+                        executor.submit(() -> lenta.obtenerSegmento(segmento)),
+                        executor.submit(() -> lenta.obtenerSegmento(segmento)));
+                long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (lenta.getColapsadas() < colapsadas + 2 && System.nanoTime() < limite) {
+                    Thread.sleep(10);
+                }
+                lenta.continuar.countDown();
+
+                assertEquals(size, primera.get(10, TimeUnit.SECONDS).remaining());
+                for (Future<ByteBuffer> peticion : esperando) {
+                    assertEquals(size, peticion.get(10, TimeUnit.SECONDS).remaining());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(1, lenta.lecturas.get(), "Solo una petición lee de disco");
+            assertEquals(colapsadas + 2, lenta.getColapsadas());
+        }
+    }
+
+    /**
+     * Caché cuya lectura de disco se para hasta que el test la deja seguir.
+     */
+    private static class LecturaLenta extends SegmentCacheService {
+        private CountDownLatch leyendo = new CountDownLatch(1);
+        private CountDownLatch continuar = new CountDownLatch(1);
+        private final AtomicInteger lecturas = new AtomicInteger();
+
+        LecturaLenta(long maxBytes, long maxSegmentBytes, long esperaMillis) {
+            super(maxBytes, maxSegmentBytes, 2, 16, esperaMillis);
+        }
+
+        void reiniciar() {
+            this.leyendo = new CountDownLatch(1);
+            this.continuar = new CountDownLatch(1);
+            this.lecturas.set(0);
+        }
+
+        @Override
+        protected ByteBuffer cargar(Path path, long size, boolean fueraDelHeap) throws IOException {
+            this.lecturas.incrementAndGet();
+            this.leyendo.countDown();
+            try {
+                this.continuar.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.cargar(path, size, fueraDelHeap);
+        }
+    }
+
+    private Path crearSegmento(String nombre, int size) throws IOException {
+        Path segmento = tempDir.resolve("1920x1080@30").resolve(nombre);
+        Files.createDirectories(segmento.getParent());
+        Files.write(segmento, new byte[size]);
+        return segmento;
+    }
+
+    private void admitir(Path segmento) throws IOException {
+        segmentCacheService.obtenerSegmento(segmento);
+        assertNotNull(segmentCacheService.obtenerSegmento(segmento));
+    }
+}
@@ -1,19 +1,27 @@
 package com.sovereingschool.back_streaming.Services;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -27,7 +35,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -38,11 +48,13 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockedConstruction;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.sovereingschool.back_common.Exceptions.InternalServerException;
@@ -50,7 +62,10 @@ import com.sovereingschool.back_common.Exceptions.NotFoundException;
 import com.sovereingschool.back_common.Models.Clase;
 import com.sovereingschool.back_common.Models.Curso;
 import com.sovereingschool.back_common.Repositories.ClaseRepository;
-import com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository;
+import com.sovereingschool.back_streaming.Models.Rendition;
+import com.sovereingschool.back_streaming.Models.ResolutionProfile;
+import com.sovereingschool.back_streaming.Models.TranscodingJob;
+import com.sovereingschool.back_streaming.Utils.GPUDetector;
 
 /**
  * Pruebas unitarias para {@link StreamingService}.
@@ -95,31 +110,35 @@ class StreamingServiceTest {
         }
 
         /**
-         * Prueba la conversión exitosa de videos.
+         * Prueba que solo se encolan los videos pendientes de convertir.
          */
         @Test
-        void convertVideos_ShouldConvertSuccessfully() throws Exception {
-            // 1. FORZAR EJECUCIÓN SÍNCRONA
-            // Vital para que Mockito detecte el MockedConstruction en el mismo hilo
-            java.util.concurrent.Executor directExecutor = Runnable::run;
-            org.springframework.test.util.ReflectionTestUtils.setField(streamingService, "executor", directExecutor);
+        void convertVideos_ShouldEnqueuePendingVideos() throws Exception {
+            streamingService.convertVideos(curso);
 
-            // 2. Preparar datos para cubrir el 'continue' y el flujo de éxito
-            Clase claseSkip = new Clase();
-            claseSkip.setIdClase(1L);
-            claseSkip.setDireccionClase("ya_procesado.m3u8"); // Entra en el continue
+            // clase1 ya es un .m3u8 y clase3 no tiene dirección
+            verify(transcodingQueueService, times(1)).encolar(anyLong(), anyLong(), anyString());
+            verify(transcodingQueueService).encolar(1L, 2L, "video.mp4");
+        }
 
+        /**
+         * Prueba la conversión exitosa del video de un trabajo de la cola.
+         */
+        @Test
+        void procesarTrabajo_ShouldConvertSuccessfully() throws Exception {
+            // 1. Preparar la clase del trabajo
             Clase claseProcesable = new Clase();
             claseProcesable.setIdClase(2L);
-            claseProcesable.setDireccionClase("video.mp4"); // Irá a FFmpeg
-
-            curso.setClasesCurso(java.util.List.of(claseSkip, claseProcesable));
+            claseProcesable.setDireccionClase("video.mp4");
+            claseProcesable.setCursoClase(curso);
+            when(claseRepo.findById(2L)).thenReturn(Optional.of(claseProcesable));
+            TranscodingJob job = TranscodingJob.builder().idCurso(1L).idClase(2L).origen("video.mp4").build();
 
-            // 3. Mockear el servicio (Spy) para evitar ejecutar ffprobe real
+            // 2. Mockear el servicio (Spy) para evitar ejecutar ffprobe real
             StreamingService spyService = spy(streamingService);
             doReturn(new String[] { "1280", "720", "30", "aac" }).when(spyService).ffprobe(anyString());
 
-            // 4. Simular salida de consola de FFmpeg (varias líneas para cobertura de
+            // 3. Simular salida de consola de FFmpeg (varias líneas para cobertura de
             // bucle)
             String ffmpegLog = "frame=   50 fps=0.0 q=-1.0 size= 512kB time=00:00:01.00\n" +
                     "frame=  100 fps= 45 q=-1.0 size= 1024kB time=00:00:02.00\n" +
@@ -129,7 +148,7 @@ class StreamingServiceTest {
             when(mockProcess.getInputStream()).thenReturn(new java.io.ByteArrayInputStream(ffmpegLog.getBytes()));
             when(mockProcess.waitFor()).thenReturn(0); // El éxito que permite llegar al save()
 
-            // 5. Mockear Files y ProcessBuilder
+            // 4. Mockear Files y ProcessBuilder
             try (MockedStatic<Files> filesMock = mockStatic(Files.class);
                     MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
                             (mock, context) -> {
@@ -144,20 +163,48 @@ class StreamingServiceTest {
                 filesMock.when(() -> Files.exists(any())).thenReturn(true);
 
                 // EJECUCIÓN
-                spyService.convertVideos(curso);
+                spyService.procesarTrabajo(job);
 
-                // 6. VERIFICACIONES
-                // - El continue se ejecutó para claseSkip (no llega al save)
-                // - El save se llamó exactamente 1 vez para claseProcesable
-                verify(claseRepo, times(1)).save(any(Clase.class));
-
-                // Verificamos que el objeto procesado cambió su dirección
+                // 5. VERIFICACIONES
+                verify(claseRepo, times(1)).save(claseProcesable);
                 assertTrue(claseProcesable.getDireccionClase().contains("master.m3u8"));
-                // Verificamos que la clase saltada sigue igual
-                assertTrue(claseSkip.getDireccionClase().endsWith(".m3u8"));
             }
         }
 
+        /**
+         * Prueba que la cola recibe el bean del contexto (con su proxy) y no
+         * la instancia sin proxy.
+         */
+        @Test
+        void registrarProcesador_ShouldUseContextBean() throws Exception {
+            StreamingService proxy = mock(StreamingService.class);
+            ConfigurableApplicationContext context = mock(ConfigurableApplicationContext.class);
+            ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
+            when(event.getApplicationContext()).thenReturn(context);
+            when(context.getBean(StreamingService.class)).thenReturn(proxy);
+            TranscodingJob job = TranscodingJob.builder().idCurso(1L).idClase(9L).build();
+
+            streamingService.registrarProcesador(event);
+
+            ArgumentCaptor<TranscodingQueueService.Procesador> captor = ArgumentCaptor
+                    .forClass(TranscodingQueueService.Procesador.class);
+            verify(transcodingQueueService).registrarProcesador(captor.capture());
+            captor.getValue().procesar(job);
+            verify(proxy).procesarTrabajo(job);
+            verify(claseRepo, never()).findById(anyLong());
+        }
+
+        /**
+         * Prueba que un trabajo de una clase que ya no existe falla.
+         */
+        @Test
+        void procesarTrabajo_ClaseNotFound() {
+            when(claseRepo.findById(9L)).thenReturn(Optional.empty());
+            TranscodingJob job = TranscodingJob.builder().idCurso(1L).idClase(9L).origen("video.mp4").build();
+
+            assertThrows(InternalServerException.class, () -> streamingService.procesarTrabajo(job));
+        }
+
         /**
          * Prueba el error cuando no hay clases para convertir.
          */
@@ -191,11 +238,41 @@ class StreamingServiceTest {
             // En VOD (live=false), no se añade original.mp4 al final
             assertFalse(command.contains("original.mp4"));
 
+            // Caso: curso CMAF, fragmentos fMP4 con su segmento de inicialización
+            List<String> commandCmaf = spyService.creaComandoFFmpeg("video.mp4", false, null, 1.0, true);
+            assertTrue(commandCmaf.containsAll(List.of("fmp4", "init_%v.mp4", "%v/data%05d.m4s")));
+            assertFalse(commandCmaf.contains("mpegts"));
+
             // Caso: live=true, settings proporcionados
             List<String> commandLive = spyService.creaComandoFFmpeg("rtmp://test", true,
                     new String[] { "1920", "1080", "60" });
             assertTrue(commandLive.contains("event"));
             assertTrue(commandLive.contains("original.mp4"));
+            // Los segmentos del directo aparecen completos para copiarlos a memoria
+            assertTrue(commandLive.contains("independent_segments+append_list+program_date_time+temp_file"));
+        }
+
+        /**
+         * Prueba que los directos en LL-HLS piden a FFmpeg partes fMP4 cortadas
+         * por tiempo y fotogramas clave al inicio de cada segmento.
+         */
+        @Test
+        void testCreaComandoFFmpeg_LowLatency() throws Exception {
+            StreamingService llService = new StreamingService(tempDir.toString(), claseRepo, segmentCacheService,
+                    accessCacheService, progresoBufferService, transcodingQueueService, ladderService,
+                    new LlHlsService(null, null, 0.5), liveSegmentService, probeCacheService, ffmpegTelemetryService, 0, 0, true);
+
+            List<String> command = llService.creaComandoFFmpeg("pipe:0", true,
+                    new String[] { "1280", "720", "30" });
+
+            assertTrue(command.containsAll(List.of("0.500", "fmp4", "%v/part%05d.m4s", "expr:gte(t,n_forced*2)")));
+            assertTrue(command.contains("split_by_time+append_list+program_date_time+temp_file"));
+            assertFalse(command.contains("mpegts"));
+
+            // Los videos subidos no usan partes
+            List<String> vod = llService.creaComandoFFmpeg("pipe:0", false,
+                    new String[] { "1280", "720", "30" });
+            assertTrue(vod.containsAll(List.of("2", "%v/data%05d.ts")));
         }
 
         /**
@@ -214,7 +291,6 @@ class StreamingServiceTest {
 
             // Mocks de procesos
             Process mockFfprobe = mock(Process.class);
-            Process mockGpu = mock(Process.class);
             Process mockFfmpeg = mock(Process.class);
 
             // IMPORTANTE: Este String debe coincidir con tus índices 2, 3 y 4
@@ -223,12 +299,12 @@ class StreamingServiceTest {
 
             when(mockFfprobe.getInputStream()).thenAnswer(inv -> new ByteArrayInputStream(ffprobeOutput.getBytes()));
             when(mockFfprobe.waitFor()).thenReturn(0);
-            when(mockGpu.getInputStream()).thenAnswer(inv -> new ByteArrayInputStream("".getBytes()));
-            // when(mockGpu.waitFor()).thenReturn(0);
             when(mockFfmpeg.getInputStream()).thenAnswer(inv -> new ByteArrayInputStream("ffmpeg log\n".getBytes()));
             // when(mockFfmpeg.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
-            try (MockedStatic<Files> filesMock = mockStatic(Files.class);
+            // La sonda de hardware se hace una vez por proceso: se fija la CPU
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class);
+                    MockedStatic<Files> filesMock = mockStatic(Files.class);
                     MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
                             (mock, context) -> {
 
@@ -246,8 +322,6 @@ class StreamingServiceTest {
 
                                 if (fullCommand.contains("ffprobe")) {
                                     when(mock.start()).thenReturn(mockFfprobe);
-                                } else if (fullCommand.contains("nvidia-smi") || fullCommand.contains("gpu")) {
-                                    when(mock.start()).thenReturn(mockGpu);
                                 } else {
                                     when(mock.start()).thenReturn(mockFfmpeg);
                                 }
@@ -256,12 +330,19 @@ class StreamingServiceTest {
                                 when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
                             })) {
 
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
                 filesMock.when(() -> Files.exists(any())).thenReturn(true);
                 filesMock.when(() -> Files.createDirectories(any())).thenReturn(null);
 
                 streamingService.startLiveStreamingFromStream(streamId, rtmpUrl, videoSetting);
 
                 verify(claseRepo).updateClase(eq(100L), anyString(), anyInt(), contains("master.m3u8"), anyInt());
+                // El directo se registra en la cola de conversión y se cierra al terminar
+                verify(transcodingQueueService).iniciarDirecto(1L, 100L);
+                verify(transcodingQueueService).finalizarDirecto(any(), eq(null));
+                // El anillo en memoria del directo se abre y se libera al terminar
+                verify(liveSegmentService).iniciar(any());
+                verify(liveSegmentService).finalizar(any());
                 Map<String, Process> processes = (Map) ReflectionTestUtils.getField(streamingService,
                         "ffmpegProcesses");
                 // assertTrue(processes.containsKey("123"));
@@ -341,23 +422,20 @@ class StreamingServiceTest {
             when(claseRepo.findByDireccionClase(streamId)).thenReturn(Optional.of(createMockClase(1L, 100L, "NVIDIA")));
 
             Process mockFfprobe = mock(Process.class);
-            Process mockNvidiaSmi = mock(Process.class);
             Process mockFfmpeg = mock(Process.class);
+            List<String> comandoFfmpeg = new java.util.ArrayList<>();
 
             // Salida FFprobe
             when(mockFfprobe.getInputStream())
                     .thenReturn(new ByteArrayInputStream("1920,1080,30/1,video,h264\n,,,audio,aac\n".getBytes()));
             when(mockFfprobe.waitFor()).thenReturn(0);
 
-            // Salida NVIDIA-SMI para que el detector la reconozca
-            when(mockNvidiaSmi.getInputStream())
-                    .thenReturn(new ByteArrayInputStream("NVIDIA-SMI 525.60.13".getBytes()));
-            // when(mockNvidiaSmi.waitFor()).thenReturn(0);
-
             when(mockFfmpeg.getInputStream()).thenReturn(new ByteArrayInputStream("ffmpeg log".getBytes()));
             // when(mockFfmpeg.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
-            try (MockedStatic<Files> filesMock = mockStatic(Files.class);
+            // La sonda de hardware detecta una GPU NVIDIA
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class);
+                    MockedStatic<Files> filesMock = mockStatic(Files.class);
                     MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
                             (mock, context) -> {
 
@@ -377,9 +455,8 @@ class StreamingServiceTest {
                                 // Asignación de Mocks basada en el comando detectado
                                 if (fullCommand.contains("ffprobe")) {
                                     when(mock.start()).thenReturn(mockFfprobe);
-                                } else if (fullCommand.contains("nvidia-smi")) {
-                                    when(mock.start()).thenReturn(mockNvidiaSmi);
                                 } else {
+                                    comandoFfmpeg.add(fullCommand);
                                     when(mock.start()).thenReturn(mockFfmpeg);
                                 }
 
@@ -387,10 +464,12 @@ class StreamingServiceTest {
                                 when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
                             })) {
 
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.NVIDIA);
                 filesMock.when(() -> Files.exists(any())).thenReturn(true);
 
                 // Ejecución
                 streamingService.startLiveStreamingFromStream(streamId, rtmpUrl, videoSetting);
+                assertTrue(comandoFfmpeg.get(0).contains("h264_nvenc"));
 
                 // Verificamos que se llamó al repo, lo que indica que ffprobe y la lógica de
                 // GPU terminaron bien
@@ -412,7 +491,6 @@ class StreamingServiceTest {
             when(claseRepo.findByDireccionClase(streamId)).thenReturn(Optional.of(createMockClase(2L, 200L, "Intel")));
 
             Process mockFfprobe = mock(Process.class);
-            Process mockVainfo = mock(Process.class);
             Process mockFfmpeg = mock(Process.class);
 
             // Salida FFprobe
@@ -420,19 +498,12 @@ class StreamingServiceTest {
                     .thenReturn(new ByteArrayInputStream("1280,720,30/1,video,h264\n,,,audio,aac\n".getBytes()));
             when(mockFfprobe.waitFor()).thenReturn(0);
 
-            // Salida Vainfo muy completa (estilo Linux real)
-            String intelOutput = "libva info: VA-API version 1.17.0\n" +
-                    "libva info: Trying to open /usr/lib/x86_64-linux-gnu/dri/iHD_drv_video.so\n" +
-                    "libva info: Found init function __vaDriverInit_1_17\n" +
-                    "libva info: va_openDriver() returns 0\n" +
-                    "vainfo: Driver version: Intel iHD driver for Intel(R) Gen Graphics - 23.1.1";
-            when(mockVainfo.getInputStream()).thenReturn(new ByteArrayInputStream(intelOutput.getBytes()));
-            // when(mockVainfo.waitFor()).thenReturn(0);
-
             when(mockFfmpeg.getInputStream()).thenReturn(new ByteArrayInputStream("ffmpeg log".getBytes()));
             // when(mockFfmpeg.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
-            try (MockedStatic<Files> filesMock = mockStatic(Files.class);
+            // La sonda de hardware detecta VAAPI
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class);
+                    MockedStatic<Files> filesMock = mockStatic(Files.class);
                     MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
                             (mock, context) -> {
                                 List<?> args = context.arguments();
@@ -449,14 +520,6 @@ class StreamingServiceTest {
                                 // Encadenamos los mocks
                                 if (fullCommand.contains("ffprobe")) {
                                     when(mock.start()).thenReturn(mockFfprobe);
-                                } else if (fullCommand.contains("vainfo") || fullCommand.contains("intel")) {
-                                    when(mock.start()).thenReturn(mockVainfo);
-                                } else if (fullCommand.contains("nvidia-smi")) {
-                                    // Si pregunta por NVIDIA, devolvemos error para que salte a la siguiente opción
-                                    Process mockFail = mock(Process.class);
-                                    // when(mockFail.waitFor()).thenReturn(1);
-                                    when(mockFail.getInputStream()).thenReturn(new ByteArrayInputStream("".getBytes()));
-                                    when(mock.start()).thenReturn(mockFail);
                                 } else {
                                     when(mock.start()).thenReturn(mockFfmpeg);
                                 }
@@ -464,6 +527,7 @@ class StreamingServiceTest {
                                 when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
                             })) {
 
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.VAAPI);
                 // --- CLAVE: Simulación de archivos específica ---
                 filesMock.when(() -> Files.exists(any())).thenAnswer(invocation -> {
                     String path = invocation.getArgument(0).toString();
@@ -558,6 +622,36 @@ class StreamingServiceTest {
                 assertTrue(result.toString().contains(idPreview + ".m3u8"));
             }
         }
+
+        /**
+         * Prueba que la ruta se devuelve sin esperar a que FFmpeg escriba la
+         * lista.
+         */
+        @Test
+        @DisplayName("Éxito: Obtener preview sin esperar a que exista")
+        void getPreview_doesNotWait() {
+            Path result = assertTimeoutPreemptively(java.time.Duration.ofSeconds(1),
+                    () -> streamingService.getPreview("pendiente"));
+
+            assertEquals(Paths.get(tempDir.toString(), "previews", "pendiente.m3u8"), result);
+        }
+    }
+
+    // ==========================
+    // Tests registrarProgreso()
+    // ==========================
+    @Nested
+    class RegistrarProgresoTests {
+        /**
+         * Prueba que el progreso se acumula en el buffer en lugar de ir a Mongo.
+         */
+        @Test
+        @DisplayName("Éxito: El fragmento se delega al buffer de progreso")
+        void registrarProgreso_DelegatesToBuffer() {
+            streamingService.registrarProgreso(1L, 2L, 3L, 4);
+
+            verify(progresoBufferService).registrar(1L, 2L, 3L, 4);
+        }
     }
 
     @Nested
@@ -684,6 +778,46 @@ class StreamingServiceTest {
                 assertArrayEquals(new String[] { "1280", "720", "60", null }, result);
             }
         }
+
+        /**
+         * Prueba que un video ya analizado no vuelve a lanzar ffprobe y que el
+         * análisis nuevo se guarda por su huella.
+         */
+        @Test
+        @DisplayName("Éxito: ffprobe y duración desde la caché de sondas")
+        void ffprobe_fromProbeCache() throws Exception {
+            String inputPath = "some/path/video.mp4";
+            when(probeCacheService.huella(inputPath)).thenReturn("abc");
+            when(probeCacheService.obtenerAjustes("abc")).thenReturn(new String[] { "1920", "1080", "25", "aac" });
+            when(probeCacheService.obtenerDuracion("abc")).thenReturn(42.0);
+
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class)) {
+                assertArrayEquals(new String[] { "1920", "1080", "25", "aac" }, streamingService.ffprobe(inputPath));
+                assertEquals(42.0, streamingService.duracionVideo(inputPath));
+                assertTrue(pbMock.constructed().isEmpty(), "No debería lanzarse ningún proceso");
+            }
+        }
+
+        /**
+         * Prueba que el resultado de ffprobe se guarda en la caché de sondas.
+         */
+        @Test
+        @DisplayName("Éxito: ffprobe guarda el análisis en la caché")
+        void ffprobe_savesInProbeCache() throws Exception {
+            String inputPath = "some/path/video.mp4";
+            when(probeCacheService.huella(inputPath)).thenReturn("abc");
+            Process mockProcess = mock(Process.class);
+            when(mockProcess.getInputStream())
+                    .thenReturn(new ByteArrayInputStream("1280,720,30/1,video,h264\n".getBytes()));
+
+            try (MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class, (mock, context) -> {
+                when(mock.redirectErrorStream(anyBoolean())).thenReturn(mock);
+                when(mock.start()).thenReturn(mockProcess);
+            })) {
+                streamingService.ffprobe(inputPath);
+            }
+            verify(probeCacheService).guardarAjustes("abc", new String[] { "1280", "720", "30", null });
+        }
     }
 
     // ==========================
@@ -737,7 +871,7 @@ class StreamingServiceTest {
         void processSingleClase_ffmpegStartIOException() throws Exception {
             StreamingService spyService = spy(streamingService);
             doReturn(List.of("ffmpeg", "-i", "input.mp4")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(),
-                    any());
+                    any(), anyDouble(), anyBoolean());
 
             try (MockedStatic<Files> filesMock = mockStatic(Files.class);
                     MockedConstruction<ProcessBuilder> pbMock = mockConstruction(ProcessBuilder.class,
@@ -761,7 +895,7 @@ class StreamingServiceTest {
         void processSingleClase_ffmpegReadOutputIOException() throws Exception {
             StreamingService spyService = spy(streamingService);
             doReturn(List.of("ffmpeg", "-i", "input.mp4")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(),
-                    any());
+                    any(), anyDouble(), anyBoolean());
 
             Process mockProcess = mock(Process.class);
             when(mockProcess.getInputStream()).thenReturn(new InputStream() {
@@ -782,10 +916,10 @@ class StreamingServiceTest {
                 filesMock.when(() -> Files.move(any(Path.class), any(Path.class), any(StandardCopyOption.class)))
                         .thenReturn(destinationPath.resolve("video.mp4"));
 
-                // No se lanza excepción, simplemente se loguea y retorna
-                spyService.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+                // Se lanza la excepción para que la cola reintente la conversión
+                assertThrows(InternalServerException.class,
+                        () -> spyService.processSingleClase(curso, clase, baseUploadDir, destinationPath));
 
-                // No verificamos excepciones, solo que el save no se llamó y no lanzó nada
                 verify(claseRepo, times(0)).save(any(Clase.class));
             }
         }
@@ -795,7 +929,7 @@ class StreamingServiceTest {
         void processSingleClase_ffmpegExitCodeError() throws Exception {
             StreamingService spyService = spy(streamingService);
             doReturn(List.of("ffmpeg", "-i", "input.mp4")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(),
-                    any());
+                    any(), anyDouble(), anyBoolean());
 
             Process mockProcess = mock(Process.class);
             when(mockProcess.getInputStream())
@@ -813,8 +947,10 @@ class StreamingServiceTest {
                 filesMock.when(() -> Files.move(any(Path.class), any(Path.class), any(StandardCopyOption.class)))
                         .thenReturn(destinationPath.resolve("video.mp4"));
 
-                // No se lanza excepción, simplemente se loguea y retorna
-                spyService.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+                // Se lanza la excepción para que la cola reintente la conversión
+                InternalServerException exception = assertThrows(InternalServerException.class,
+                        () -> spyService.processSingleClase(curso, clase, baseUploadDir, destinationPath));
+                assertTrue(exception.getMessage().contains("código 1"));
 
                 // Verificamos que el save no se llamó
                 verify(claseRepo, times(0)).save(any(Clase.class));
@@ -826,7 +962,7 @@ class StreamingServiceTest {
         void processSingleClase_ffmpegInterrupted() throws Exception {
             StreamingService spyService = spy(streamingService);
             doReturn(List.of("ffmpeg", "-i", "input.mp4")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(),
-                    any());
+                    any(), anyDouble(), anyBoolean());
 
             Process mockProcess = mock(Process.class);
             when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream("FFmpeg output\n".getBytes()));
@@ -855,7 +991,7 @@ class StreamingServiceTest {
         void processSingleClase_success() throws Exception {
             StreamingService spyService = spy(streamingService);
             doReturn(List.of("ffmpeg", "-i", "input.mp4")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(),
-                    any());
+                    any(), anyDouble(), anyBoolean());
 
             Process mockProcess = mock(Process.class);
             when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream("FFmpeg output\n".getBytes()));
@@ -878,6 +1014,140 @@ class StreamingServiceTest {
                 assertTrue(clase.getDireccionClase().contains("master.m3u8"));
             }
         }
+
+        @Test
+        @DisplayName("Éxito: un video largo se convierte por partes y se unen las listas")
+        void processSingleClase_chunked() throws Exception {
+            StreamingService partesService = spy(new StreamingService(tempDir.toString(), claseRepo,
+                    segmentCacheService, accessCacheService, progresoBufferService, transcodingQueueService, ladderService, llHlsService, liveSegmentService, probeCacheService, ffmpegTelemetryService, 60, 4, true));
+            Path video = Files.write(tempDir.resolve("video.mp4"), new byte[16]);
+            clase.setDireccionClase(video.toString());
+            when(transcodingQueueService.getRecurso()).thenReturn(GPUDetector.VideoAcceleration.CPU);
+            when(transcodingQueueService.reservarPlazas(1)).thenReturn(1);
+            when(transcodingQueueService.getHilosPorPlaza()).thenReturn(4);
+            doReturn(150.0).when(partesService).duracionVideo(anyString());
+            doAnswer(inv -> new ArrayList<>(List.of("ffmpeg", "-i", inv.getArgument(0), "%v/stream.m3u8")))
+                    .when(partesService).creaComandoFFmpeg(anyString(), anyBoolean(), any(), anyDouble(), anyBoolean());
+            List<List<String>> comandos = Collections.synchronizedList(new ArrayList<>());
+            doAnswer(inv -> {
+                comandos.add(inv.getArgument(0));
+                simularFFmpeg(inv.getArgument(0), inv.getArgument(1));
+                return null;
+            }).when(partesService).ejecutarFFmpeg(any(), any(Path.class), anyString(), any());
+
+            partesService.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+
+            // Un corte y dos partes de 75 segundos
+            assertEquals(3, comandos.size());
+            assertTrue(comandos.get(0).containsAll(List.of("segment", "75.000")));
+            assertTrue(comandos.stream().anyMatch(c -> c.containsAll(List.of("-output_ts_offset", "75.000000"))));
+            assertTrue(comandos.stream().skip(1).allMatch(c -> c.containsAll(List.of("-threads", "4"))));
+            verify(transcodingQueueService).liberarPlazas(1);
+            List<String> lista = Files.readAllLines(destinationPath.resolve("720p").resolve("stream.m3u8"));
+            assertEquals(List.of("data00000.ts", "data00001.ts", "data00002.ts", "data00003.ts"),
+                    lista.stream().filter(linea -> linea.startsWith("data")).toList());
+            assertTrue(lista.contains("#EXT-X-DISCONTINUITY"));
+            assertTrue(Files.exists(destinationPath.resolve("720p").resolve("data00003.ts")));
+            assertTrue(Files.readString(destinationPath.resolve("master.m3u8")).contains("BANDWIDTH=2000"));
+            assertFalse(Files.exists(destinationPath.resolve(".partes")));
+            verify(claseRepo).save(clase);
+        }
+
+        @Test
+        @DisplayName("Éxito: sin plazas libres un video largo se convierte en un solo proceso")
+        void processSingleClase_chunkedWithoutFreeSlots() throws Exception {
+            StreamingService partesService = spy(new StreamingService(tempDir.toString(), claseRepo,
+                    segmentCacheService, accessCacheService, progresoBufferService, transcodingQueueService, ladderService, llHlsService, liveSegmentService, probeCacheService, ffmpegTelemetryService, 60, 4, true));
+            Path video = Files.write(tempDir.resolve("video.mp4"), new byte[16]);
+            clase.setDireccionClase(video.toString());
+            when(transcodingQueueService.getRecurso()).thenReturn(GPUDetector.VideoAcceleration.CPU);
+            when(transcodingQueueService.reservarPlazas(1)).thenReturn(0);
+            doReturn(150.0).when(partesService).duracionVideo(anyString());
+            doReturn(new ArrayList<>(List.of("ffmpeg"))).when(partesService).creaComandoFFmpeg(anyString(),
+                    anyBoolean(), any(), anyDouble(), anyBoolean());
+            doNothing().when(partesService).ejecutarFFmpeg(any(), any(Path.class), anyString(), any());
+
+            partesService.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+
+            verify(partesService, never()).convertirPorPartes(anyString(), any(Path.class), anyDouble(), anyInt(),
+                    anyDouble(), anyBoolean(), anyString());
+            verify(partesService).ejecutarFFmpeg(any(), eq(destinationPath), anyString(), eq(null));
+            verify(transcodingQueueService).liberarPlazas(0);
+        }
+
+        @Test
+        @DisplayName("Error: si falla una parte no quedan las partes en la carpeta de la clase")
+        void convertirPorPartes_ShouldCleanUpOnFailure() throws Exception {
+            StreamingService spyService = spy(streamingService);
+            doReturn(new ArrayList<>(List.of("ffmpeg"))).when(spyService).creaComandoFFmpeg(anyString(),
+                    anyBoolean(), any(), anyDouble(), anyBoolean());
+            doAnswer(inv -> {
+                List<String> comando = inv.getArgument(0);
+                if (comando.contains("segment")) {
+                    simularFFmpeg(comando, inv.getArgument(1));
+                    return null;
+                }
+                throw new InternalServerException("FFmpeg terminó con el código 1");
+            }).when(spyService).ejecutarFFmpeg(any(), any(Path.class), anyString(), any());
+
+            assertThrows(InternalServerException.class, () -> spyService.convertirPorPartes("video.mp4",
+                    destinationPath, 150.0, 2, 1.0, false, "clase 1"));
+            assertFalse(Files.exists(destinationPath.resolve(".partes")));
+        }
+
+        @Test
+        @DisplayName("Éxito: un curso CMAF escribe también el manifiesto DASH")
+        void processSingleClase_cmafWritesDash() throws Exception {
+            StreamingService spyService = spy(streamingService);
+            Path video = Files.write(tempDir.resolve("video.mp4"), new byte[16]);
+            clase.setDireccionClase(video.toString());
+            curso.setCmafCurso(true);
+            doReturn(List.of("ffmpeg")).when(spyService).creaComandoFFmpeg(anyString(), anyBoolean(), any(),
+                    anyDouble(), anyBoolean());
+            doAnswer(inv -> {
+                Path directorio = inv.getArgument(1);
+                Path variante = Files.createDirectories(directorio.resolve("720p"));
+                Files.write(directorio.resolve("master.m3u8"), List.of("#EXTM3U",
+                        "#EXT-X-STREAM-INF:BANDWIDTH=2000,RESOLUTION=1280x720", "720p/stream.m3u8"));
+                Files.write(variante.resolve("stream.m3u8"), List.of("#EXTM3U", "#EXT-X-MAP:URI=\"init_0.mp4\"",
+                        "#EXTINF:2.000000,", "data00000.m4s", "#EXT-X-ENDLIST"));
+                return null;
+            }).when(spyService).ejecutarFFmpeg(any(), any(Path.class), anyString(), any());
+
+            spyService.processSingleClase(curso, clase, baseUploadDir, destinationPath);
+
+            String mpd = Files.readString(destinationPath.resolve("manifest.mpd"));
+            assertTrue(mpd.contains("<SegmentURL media=\"720p/data00000.m4s\"/>"));
+            verify(claseRepo).save(clase);
+        }
+
+        @Test
+        @DisplayName("Éxito: sin manifiesto DASH la clase sigue disponible por HLS")
+        void escribirManifiestoDash_ShouldNotFail() {
+            assertDoesNotThrow(() -> streamingService.escribirManifiestoDash(destinationPath, "clase 1"));
+            assertFalse(Files.exists(destinationPath.resolve("manifest.mpd")));
+        }
+
+        /**
+         * Simula la salida de FFmpeg: el corte escribe la lista de partes y cada
+         * parte su salida HLS con una calidad y dos segmentos.
+         */
+        private void simularFFmpeg(List<String> comando, Path directorio) throws IOException {
+            if (comando.contains("segment")) {
+                Files.write(directorio.resolve("partes.csv"), List.of("parte000.mkv,0.000000,75.000000",
+                        "parte001.mkv,75.000000,150.000000"));
+                return;
+            }
+            Path variante = Files.createDirectories(directorio.resolve("720p"));
+            int bandwidth = directorio.endsWith("000") ? 1000 : 2000;
+            Files.write(directorio.resolve("master.m3u8"), List.of("#EXTM3U",
+                    "#EXT-X-STREAM-INF:BANDWIDTH=" + bandwidth + ",RESOLUTION=1280x720", "720p/stream.m3u8"));
+            Files.write(variante.resolve("stream.m3u8"), List.of("#EXTM3U", "#EXT-X-VERSION:3",
+                    "#EXT-X-TARGETDURATION:2", "#EXT-X-MEDIA-SEQUENCE:0", "#EXT-X-PLAYLIST-TYPE:VOD",
+                    "#EXTINF:2.000000,", "data00000.ts", "#EXTINF:1.500000,", "data00001.ts", "#EXT-X-ENDLIST"));
+            Files.write(variante.resolve("data00000.ts"), new byte[1]);
+            Files.write(variante.resolve("data00001.ts"), new byte[1]);
+        }
     }
 
     @Nested
@@ -885,8 +1155,7 @@ class StreamingServiceTest {
         @Test
         @DisplayName("Cobertura: createNvidiaGPUFilter con lista vacía")
         void testCreateNvidiaGPUFilterEmptyProfiles() {
-            List<com.sovereingschool.back_streaming.Models.ResolutionProfile> profiles = java.util.Collections
-                    .emptyList();
+            List<Rendition> profiles = java.util.Collections.emptyList();
             List<String> result = streamingService.createNvidiaGPUFilter(profiles);
             assertTrue(result.isEmpty());
         }
@@ -895,8 +1164,7 @@ class StreamingServiceTest {
         @DisplayName("Cobertura: createIntelGPUFilter con perfiles")
         void testCreateIntelGPUFilter() {
 
-            List<com.sovereingschool.back_streaming.Models.ResolutionProfile> profiles = List
-                    .of(com.sovereingschool.back_streaming.Models.ResolutionProfile.RES_720P_30);
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_720P_30, 1.0));
             List<String> result = streamingService.createIntelGPUFilter(profiles);
             assertFalse(result.isEmpty());
             assertTrue(result.toString().contains("h264_vaapi"));
@@ -906,13 +1174,136 @@ class StreamingServiceTest {
         @DisplayName("Cobertura: createNvidiaGPUFilter con perfiles")
         void testCreateNvidiaGPUFilter() {
 
-            List<com.sovereingschool.back_streaming.Models.ResolutionProfile> profiles = List
-                    .of(com.sovereingschool.back_streaming.Models.ResolutionProfile.RES_720P_30);
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_720P_30, 1.0));
             List<String> result = streamingService.createNvidiaGPUFilter(profiles);
             assertFalse(result.isEmpty());
             assertTrue(result.toString().contains("h264_nvenc"));
         }
 
+        @Test
+        @DisplayName("Audio: todas las calidades comparten un único grupo de audio")
+        void testBuildStreamMapAudioGroup() {
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_1080P_30, 1.0),
+                    Rendition.de(ResolutionProfile.RES_720P_30, 1.0));
+
+            assertEquals("a:0,agroup:audio,default:yes,name:audio v:0,agroup:audio,name:1920x1080@30 "
+                    + "v:1,agroup:audio,name:1280x720@30", streamingService.buildStreamMap(profiles, true));
+            assertEquals("v:0,name:1920x1080@30 v:1,name:1280x720@30",
+                    streamingService.buildStreamMap(profiles, false));
+        }
+
+        @Test
+        @DisplayName("Audio: el audio se codifica una sola vez con la tasa de la calidad mayor")
+        void testCreateCPUFilterEncodesAudioOnce() {
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_1080P_30, 1.0),
+                    Rendition.de(ResolutionProfile.RES_720P_30, 1.0),
+                    Rendition.de(ResolutionProfile.RES_480P_30, 1.0));
+
+            List<String> result = streamingService.createCPUFilter(profiles);
+
+            assertEquals(1, result.stream().filter("0:a:0?"::equals).count());
+            assertTrue(result.containsAll(List.of("-c:a:0", "aac", "-b:a:0", "96k")));
+            assertFalse(result.contains("-c:a:1"));
+        }
+
+        @Test
+        @DisplayName("OBS: la previsualización es una rama más del split del directo")
+        void testAnadirPreviewSharesDecode() {
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_1080P_30, 1.0),
+                    Rendition.de(ResolutionProfile.RES_720P_30, 1.0));
+            List<String> command = new ArrayList<>(List.of("ffmpeg", "-i", "rtmp://host/live/1_s"));
+            command.add("-filter_complex");
+            command.addAll(streamingService.createIntelGPUFilter(profiles));
+            command.add("%v/stream.m3u8");
+            Path m3u8 = tempDir.resolve("previews").resolve("1_s.m3u8");
+
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.VAAPI);
+
+                List<String> result = streamingService.anadirPreview(command, m3u8);
+
+                // Un solo -i: el flujo se lee y decodifica una vez
+                assertEquals(1, result.stream().filter("-i"::equals).count());
+                assertTrue(result.get(4).startsWith("[0:v]format=nv12,hwupload,split=3[v1][v2][vprev]"));
+                assertEquals(List.of("-map", "[vprev]"),
+                        result.subList(result.indexOf("[vprev]") - 1, result.indexOf("[vprev]") + 1));
+                assertTrue(result.containsAll(List.of("-c:v", "h264_vaapi", "-hls_time", "0.5", "-hls_base_url",
+                        "1_s/")));
+                assertEquals(m3u8.toAbsolutePath().toString(), result.get(result.size() - 1));
+                assertEquals(tempDir.resolve("previews").resolve("1_s") + "/%03d.ts",
+                        result.get(result.indexOf("-hls_segment_filename") + 1));
+            }
+        }
+
+        @Test
+        @DisplayName("OBS: con un directo retrasado la rama de la previsualización se reduce")
+        void testAnadirPreviewReducedWhenSaturated() {
+            List<Rendition> profiles = List.of(Rendition.de(ResolutionProfile.RES_720P_30, 1.0));
+            List<String> command = new ArrayList<>(List.of("ffmpeg", "-i", "rtmp://host/live/1_s",
+                    "-filter_complex"));
+            command.addAll(streamingService.createCPUFilter(profiles));
+            ffmpegTelemetryService.iniciar("directo clase 7", true).procesarLinea("speed=0.6x");
+
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
+
+                List<String> result = streamingService.anadirPreview(command, tempDir.resolve("1_s.m3u8"));
+
+                assertTrue(result.get(4).endsWith(";[vprev]fps=15,scale=w=-2:h=360[vprevout]"));
+                assertEquals("[vprevout]", result.get(result.lastIndexOf("-map") - 1));
+                assertTrue(result.containsAll(List.of("libx264", "ultrafast", "zerolatency")));
+            }
+        }
+
+        @Test
+        @DisplayName("OBS: la previsualización sin GPU usa libx264 ultrafast/zerolatency")
+        void testCreaComandoPreviewCpuFallback() {
+            Path m3u8 = tempDir.resolve("previews").resolve("1_s.m3u8");
+
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
+
+                List<String> result = streamingService.creaComandoPreview("rtmp://host/live/1_s", m3u8);
+
+                assertFalse(result.contains("-vaapi_device"));
+                assertFalse(result.contains("h264_vaapi"));
+                assertEquals("format=yuv420p", result.get(result.indexOf("-vf") + 1));
+                assertTrue(result.containsAll(List.of("-c:v", "libx264", "-preset", "ultrafast", "-tune",
+                        "zerolatency")));
+                assertEquals("rtmp://host/live/1_s", result.get(result.indexOf("-i") + 1));
+                assertEquals(m3u8.toAbsolutePath().toString(), result.get(result.size() - 1));
+            }
+        }
+
+        @Test
+        @DisplayName("OBS: sin plazas de VAAPI la previsualización baja a 360p y 15 fps")
+        void testCreaComandoPreviewVaapiSaturated() {
+            when(transcodingQueueService.getRecurso()).thenReturn(GPUDetector.VideoAcceleration.VAAPI);
+            when(transcodingQueueService.getPlazasLibres())
+                    .thenReturn(Map.of(GPUDetector.VideoAcceleration.VAAPI, 0));
+
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.VAAPI);
+
+                List<String> result = streamingService.creaComandoPreview("rtmp://host/live/1_s",
+                        tempDir.resolve("1_s.m3u8"));
+
+                assertEquals(List.of("-vaapi_device", "/dev/dri/renderD128"),
+                        result.subList(result.indexOf("-vaapi_device"), result.indexOf("-vaapi_device") + 2));
+                assertEquals("format=nv12,hwupload,fps=15,scale_vaapi=w=-2:h=360",
+                        result.get(result.indexOf("-vf") + 1));
+                assertTrue(result.containsAll(List.of("-c:v", "h264_vaapi", "-qp", "24")));
+            }
+        }
+
+        @Test
+        @DisplayName("OBS: sin split el comando no cambia")
+        void testAnadirPreviewWithoutSplit() {
+            List<String> command = List.of("ffmpeg", "-i", "in.mp4", "out.m3u8");
+
+            assertEquals(command, streamingService.anadirPreview(command, tempDir.resolve("p.m3u8")));
+        }
+
         @Test
         @DisplayName("Cobertura: lambda de startLiveStreamingFromStream")
         void testLambdaExecutorCoverage() throws Exception {
@@ -994,23 +1385,43 @@ class StreamingServiceTest {
     }
 
     @Mock
-    private UsuarioCursosRepository usuarioCursosRepository;
+    private ClaseRepository claseRepo;
+
+    @Mock
+    private SegmentCacheService segmentCacheService;
 
     @Mock
-    private ClaseRepository claseRepo;
+    private AccessCacheService accessCacheService;
+
+    @Mock
+    private ProgresoBufferService progresoBufferService;
+
+    @Mock
+    private TranscodingQueueService transcodingQueueService;
+
+    @Mock
+    private LiveSegmentService liveSegmentService;
 
     @Mock
-    private MongoTemplate mongoTemplate;
+    private ProbeCacheService probeCacheService;
 
     @TempDir
     Path tempDir;
 
     private StreamingService streamingService;
 
+    // Escalera real sin análisis de complejidad
+    private LadderService ladderService = new LadderService(4, 1.75, 0, 1200);
+
+    private LlHlsService llHlsService = new LlHlsService(null, null, 0);
+
+    private FFmpegTelemetryService ffmpegTelemetryService = new FFmpegTelemetryService(50);
+
     @BeforeEach
     void setUp() {
         String uploadDir = tempDir.toString();
-        streamingService = new StreamingService(uploadDir, claseRepo, usuarioCursosRepository, mongoTemplate);
+        streamingService = new StreamingService(uploadDir, claseRepo, segmentCacheService,
+                accessCacheService, progresoBufferService, transcodingQueueService, ladderService, llHlsService, liveSegmentService, probeCacheService, ffmpegTelemetryService, 0, 0, true);
     }
 
     private Clase createMockClase(Long cursoId, Long claseId, String nombre) {
@@ -0,0 +1,358 @@
+package com.sovereingschool.back_streaming.Services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.sovereingschool.back_common.Exceptions.InternalServerException;
+import com.sovereingschool.back_streaming.Models.TranscodingJob;
+import com.sovereingschool.back_streaming.Repositories.TranscodingJobRepository;
+import com.sovereingschool.back_streaming.Utils.GPUDetector;
+
+/**
+ * Pruebas unitarias para {@link TranscodingQueueService}.
+ */
+@ExtendWith(MockitoExtension.class)
+class TranscodingQueueServiceTest {
+
+    @Mock
+    private TranscodingJobRepository transcodingJobRepository;
+
+    @TempDir
+    Path tempDir;
+
+    private TranscodingQueueService transcodingQueueService;
+
+    @BeforeEach
+    void setUp() {
+        // Una plaza de CPU y dos intentos por trabajo, sin espera entre intentos
+        transcodingQueueService = new TranscodingQueueService(transcodingJobRepository, 1, 1, 2, 2, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transcodingQueueService.detener();
+    }
+
+    @Nested
+    class ColaTests {
+        /**
+         * Prueba que la cola ordena los videos de menor a mayor tamaño.
+         */
+        @Test
+        void encolar_ShouldOrderBySize() throws Exception {
+            Path grande = Files.write(tempDir.resolve("grande.mp4"), new byte[2048]);
+            Path pequeno = Files.write(tempDir.resolve("pequeno.mp4"), new byte[16]);
+
+            transcodingQueueService.encolar(1L, 10L, grande.toString());
+            transcodingQueueService.encolar(1L, 11L, pequeno.toString());
+            transcodingQueueService.encolar(1L, 12L, tempDir.resolve("no-existe.mp4").toString());
+
+            List<TranscodingJob> enCola = transcodingQueueService.getEnCola();
+            assertEquals(List.of(11L, 10L, 12L), enCola.stream().map(TranscodingJob::getIdClase).toList());
+            assertEquals(16L, enCola.get(0).getTamano());
+            verify(transcodingJobRepository, atLeastOnce()).save(any(TranscodingJob.class));
+        }
+
+        /**
+         * Prueba que volver a encolar una clase sustituye su trabajo anterior.
+         */
+        @Test
+        void encolar_ShouldReplaceSameClase() {
+            transcodingQueueService.encolar(1L, 10L, "viejo.mp4");
+            transcodingQueueService.encolar(1L, 10L, "nuevo.mp4");
+
+            List<TranscodingJob> enCola = transcodingQueueService.getEnCola();
+            assertEquals(1, enCola.size());
+            assertEquals("nuevo.mp4", enCola.get(0).getOrigen());
+            verify(transcodingJobRepository, times(2)).deleteByIdClaseAndEstado(10L, TranscodingJob.Estado.PENDIENTE);
+        }
+
+        /**
+         * Prueba que los directos tienen prioridad sobre los videos.
+         */
+        @Test
+        void prioridad_ShouldPutLiveFirst() {
+            TranscodingJob vod = TranscodingJob.builder().tipo(TranscodingJob.Tipo.VOD).tamano(1)
+                    .creado(Instant.now()).build();
+            TranscodingJob live = TranscodingJob.builder().tipo(TranscodingJob.Tipo.LIVE).tamano(1000)
+                    .creado(Instant.now()).build();
+
+            assertTrue(TranscodingJob.PRIORIDAD.compare(live, vod) < 0);
+        }
+    }
+
+    @Nested
+    class EjecucionTests {
+        /**
+         * Prueba que un trabajo correcto queda completado.
+         */
+        @Test
+        void ejecutar_ShouldCompleteJob() {
+            transcodingQueueService.registrarProcesador(job -> {
+            });
+            TranscodingJob job = nuevoTrabajo();
+
+            transcodingQueueService.ejecutar(job);
+
+            assertEquals(TranscodingJob.Estado.COMPLETADO, job.getEstado());
+            assertEquals(1, job.getIntentos());
+            assertNull(job.getError());
+        }
+
+        /**
+         * Prueba que un trabajo que falla se reintenta y, al agotar los intentos,
+         * queda como fallido.
+         */
+        @Test
+        void ejecutar_ShouldRetryThenFail() {
+            transcodingQueueService.registrarProcesador(job -> {
+                throw new InternalServerException("FFmpeg terminó con el código 1");
+            });
+            TranscodingJob job = nuevoTrabajo();
+
+            transcodingQueueService.ejecutar(job);
+            assertEquals(TranscodingJob.Estado.PENDIENTE, job.getEstado());
+            assertEquals(1, transcodingQueueService.getEnCola().size());
+
+            transcodingQueueService.ejecutar(job);
+            assertEquals(TranscodingJob.Estado.FALLIDO, job.getEstado());
+            assertEquals(2, job.getIntentos());
+            assertEquals("FFmpeg terminó con el código 1", job.getError());
+        }
+
+        /**
+         * Prueba que el despachador ejecuta los trabajos recuperados de Mongo y
+         * da por fallidos los directos que quedaron abiertos.
+         */
+        @Test
+        void arrancar_ShouldRecoverPendingJobs() throws Exception {
+            TranscodingJob pendiente = TranscodingJob.builder().idCurso(1L).idClase(10L)
+                    .tipo(TranscodingJob.Tipo.VOD).estado(TranscodingJob.Estado.EN_CURSO).intentos(1).build();
+            TranscodingJob directo = TranscodingJob.builder().idCurso(1L).idClase(20L)
+                    .tipo(TranscodingJob.Tipo.LIVE).estado(TranscodingJob.Estado.EN_CURSO).build();
+            TranscodingJob antiguo = TranscodingJob.builder().id("30").idCurso(1L)
+                    .tipo(TranscodingJob.Tipo.VOD).estado(TranscodingJob.Estado.PENDIENTE).build();
+            when(transcodingJobRepository.findByEstadoIn(anyCollection()))
+                    .thenReturn(List.of(pendiente, directo, antiguo));
+            CountDownLatch procesado = new CountDownLatch(1);
+            transcodingQueueService.registrarProcesador(job -> procesado.countDown());
+
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
+                transcodingQueueService.arrancar();
+            }
+
+            assertTrue(procesado.await(5, TimeUnit.SECONDS), "El trabajo recuperado debería ejecutarse");
+            assertEquals(TranscodingJob.Estado.FALLIDO, directo.getEstado());
+            assertEquals(2, pendiente.getIntentos());
+            verify(transcodingJobRepository).deleteByIdClaseIsNull();
+        }
+    }
+
+    @Nested
+    class PlazasExtraTests {
+        /**
+         * Prueba que las partes de una conversión solo reservan las plazas
+         * libres y las devuelven al terminar.
+         */
+        @Test
+        void reservarPlazas_ShouldTakeOnlyFreeSlots() {
+            TranscodingQueueService tresPlazas = new TranscodingQueueService(transcodingJobRepository, 3, 1, 2, 2, 0);
+
+            assertEquals(3, tresPlazas.reservarPlazas(5));
+            assertEquals(0, tresPlazas.reservarPlazas(1));
+            assertEquals(0, tresPlazas.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+
+            tresPlazas.liberarPlazas(3);
+            assertEquals(3, tresPlazas.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+        }
+
+        /**
+         * Prueba que no se reservan plazas extra si hay trabajos esperando.
+         */
+        @Test
+        void reservarPlazas_ShouldYieldToQueuedJobs() {
+            transcodingQueueService.encolar(1L, 10L, tempDir.resolve("video.mp4").toString());
+
+            assertEquals(0, transcodingQueueService.reservarPlazas(1));
+            assertEquals(1, transcodingQueueService.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+        }
+    }
+
+    @Nested
+    class ClaseUnicaTests {
+        /**
+         * Prueba que un video nuevo de una clase que se está convirtiendo espera
+         * a que termine la conversión en curso aunque haya plazas libres, y que
+         * el trabajo anterior ya no se reintenta.
+         */
+        @Test
+        void encolar_ShouldWaitForRunningJobOfSameClase() throws Exception {
+            TranscodingQueueService dosPlazas = new TranscodingQueueService(transcodingJobRepository, 2, 1, 2, 2, 0);
+            CountDownLatch primeroDentro = new CountDownLatch(1);
+            CountDownLatch soltarPrimero = new CountDownLatch(1);
+            CountDownLatch segundoHecho = new CountDownLatch(1);
+            List<String> procesados = new CopyOnWriteArrayList<>();
+            dosPlazas.registrarProcesador(job -> {
+                procesados.add(job.getOrigen());
+                if (!"v1.mp4".equals(job.getOrigen())) {
+                    segundoHecho.countDown();
+                    return;
+                }
+                primeroDentro.countDown();
+                try {
+                    soltarPrimero.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new InternalServerException("FFmpeg terminó con el código 1");
+            });
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
+                dosPlazas.arrancar();
+            }
+            try {
+                TranscodingJob primero = dosPlazas.encolar(1L, 10L, "v1.mp4");
+                assertTrue(primeroDentro.await(5, TimeUnit.SECONDS));
+
+                dosPlazas.encolar(1L, 10L, "v2.mp4");
+                Thread.sleep(200);
+                assertEquals(List.of("v1.mp4"), procesados);
+                assertEquals(1, dosPlazas.getEnCola().size());
+
+                soltarPrimero.countDown();
+                assertTrue(segundoHecho.await(5, TimeUnit.SECONDS));
+                assertEquals(List.of("v1.mp4", "v2.mp4"), procesados);
+                assertEquals(TranscodingJob.Estado.FALLIDO, primero.getEstado());
+            } finally {
+                dosPlazas.detener();
+            }
+        }
+
+        /**
+         * Prueba que un trabajo fallido no vuelve a la cola hasta que pasa la
+         * espera de reintento.
+         */
+        @Test
+        void ejecutar_ShouldWaitBeforeRetrying() throws Exception {
+            TranscodingQueueService conEspera = new TranscodingQueueService(transcodingJobRepository, 1, 1, 2, 2, 1);
+            List<Long> llamadas = new CopyOnWriteArrayList<>();
+            CountDownLatch reintentado = new CountDownLatch(2);
+            conEspera.registrarProcesador(job -> {
+                llamadas.add(System.nanoTime());
+                reintentado.countDown();
+                if (llamadas.size() == 1) {
+                    throw new InternalServerException("FFmpeg terminó con el código 1");
+                }
+            });
+            try (MockedStatic<GPUDetector> gpu = mockStatic(GPUDetector.class)) {
+                gpu.when(GPUDetector::detectAcceleration).thenReturn(GPUDetector.VideoAcceleration.CPU);
+                conEspera.arrancar();
+            }
+            try {
+                TranscodingJob job = conEspera.encolar(1L, 10L, "video.mp4");
+
+                assertTrue(reintentado.await(5, TimeUnit.SECONDS), "El trabajo debería reintentarse");
+                assertTrue(llamadas.get(1) - llamadas.get(0) >= TimeUnit.MILLISECONDS.toNanos(900),
+                        "El reintento debería esperar al menos un segundo");
+                assertEquals(2, job.getIntentos());
+            } finally {
+                conEspera.detener();
+            }
+        }
+    }
+
+    /**
+     * Crea un trabajo como lo saca el despachador de la cola.
+     */
+    private TranscodingJob nuevoTrabajo() {
+        return TranscodingJob.builder().idCurso(1L).idClase(10L).tipo(TranscodingJob.Tipo.VOD)
+                .estado(TranscodingJob.Estado.PENDIENTE).recurso(GPUDetector.VideoAcceleration.CPU)
+                .origen("video.mp4").creado(Instant.now()).build();
+    }
+
+    @Nested
+    class DirectoTests {
+        /**
+         * Prueba que el directo y la conversión de una misma clase son
+         * trabajos distintos y se ven los dos en curso.
+         */
+        @Test
+        void iniciarDirecto_ShouldNotCollideWithVodOfSameClase() {
+            TranscodingJob directo = transcodingQueueService.iniciarDirecto(1L, 10L);
+            AtomicInteger enCursoDurante = new AtomicInteger();
+            transcodingQueueService.registrarProcesador(
+                    job -> enCursoDurante.set(transcodingQueueService.getEnCurso().size()));
+            TranscodingJob vod = nuevoTrabajo();
+
+            transcodingQueueService.ejecutar(vod);
+
+            assertNotEquals(directo.getId(), vod.getId());
+            assertEquals(2, enCursoDurante.get());
+            assertEquals(List.of(directo), transcodingQueueService.getEnCurso());
+            transcodingQueueService.finalizarDirecto(directo, null);
+        }
+
+        /**
+         * Prueba que un directo ocupa la plaza de su recurso hasta que termina.
+         */
+        @Test
+        void iniciarDirecto_ShouldHoldSlotUntilFinished() {
+            TranscodingJob job = transcodingQueueService.iniciarDirecto(1L, 10L);
+
+            assertTrue(job.isPlazaReservada());
+            assertEquals(0, transcodingQueueService.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+            assertEquals(1, transcodingQueueService.getEnCurso().size());
+
+            transcodingQueueService.finalizarDirecto(job, null);
+
+            assertEquals(TranscodingJob.Estado.COMPLETADO, job.getEstado());
+            assertEquals(1, transcodingQueueService.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+            assertTrue(transcodingQueueService.getEnCurso().isEmpty());
+        }
+
+        /**
+         * Prueba que un directo arranca aunque no queden plazas libres.
+         */
+        @Test
+        void iniciarDirecto_ShouldStartWithoutFreeSlot() {
+            TranscodingJob primero = transcodingQueueService.iniciarDirecto(1L, 10L);
+            TranscodingJob segundo = transcodingQueueService.iniciarDirecto(1L, 11L);
+
+            assertTrue(primero.isPlazaReservada());
+            assertTrue(!segundo.isPlazaReservada());
+
+            transcodingQueueService.finalizarDirecto(segundo, "error");
+            assertEquals(TranscodingJob.Estado.FALLIDO, segundo.getEstado());
+            assertEquals(0, transcodingQueueService.getPlazasLibres().get(GPUDetector.VideoAcceleration.CPU));
+        }
+    }
+}
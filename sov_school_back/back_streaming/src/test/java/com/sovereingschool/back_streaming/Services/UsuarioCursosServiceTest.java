@@ -9,10 +9,13 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,15 +24,20 @@ import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 
+import org.bson.Document;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import com.mongodb.client.result.UpdateResult;
 import com.sovereingschool.back_common.Exceptions.InternalServerException;
 import com.sovereingschool.back_common.Exceptions.NotFoundException;
 import com.sovereingschool.back_common.Models.Clase;
@@ -39,9 +47,11 @@ import com.sovereingschool.back_common.Models.Usuario;
 import com.sovereingschool.back_common.Repositories.ClaseRepository;
 import com.sovereingschool.back_common.Repositories.CursoRepository;
 import com.sovereingschool.back_common.Repositories.UsuarioRepository;
+import com.sovereingschool.back_streaming.Models.ProgresoClase;
 import com.sovereingschool.back_streaming.Models.StatusClase;
 import com.sovereingschool.back_streaming.Models.StatusCurso;
 import com.sovereingschool.back_streaming.Models.UsuarioCursos;
+import com.sovereingschool.back_streaming.Repositories.ProgresoClaseRepository;
 import com.sovereingschool.back_streaming.Repositories.UsuarioCursosRepository;
 
 /**
@@ -161,6 +171,35 @@ class UsuarioCursosServiceTest {
         }
     }
 
+    @Nested
+    class MigrarProgresoClasesTests {
+        /**
+         * Prueba que el progreso guardado en user_courses pasa a progreso_clases.
+         */
+        @Test
+        void migrarProgresoClases_ShouldMoveProgressToOwnCollection() {
+            Document clase = new Document("idClase", 3L).append("totalSegments", 10).append("progress",
+                    List.of(0, 1, 65));
+            Document curso = new Document("idCurso", 2L).append("clases", List.of(clase));
+            Document usuario = new Document("_id", "abc").append("idUsuario", 1L).append("cursos", List.of(curso));
+            BulkOperations bulk = mock(BulkOperations.class);
+            when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("user_courses")))
+                    .thenReturn(Stream.of(usuario));
+            when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "progreso_clases")).thenReturn(bulk);
+
+            int migrados = usuarioCursosService.migrarProgresoClases();
+
+            assertEquals(1, migrados);
+            ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+            verify(bulk).upsert(any(Query.class), updateCaptor.capture());
+            verify(bulk).execute();
+            Document bit = (Document) updateCaptor.getValue().getUpdateObject().get("$bit");
+            assertEquals(new Document("or", 3L), bit.get("progressBits.0"));
+            assertEquals(new Document("or", 2L), bit.get("progressBits.1"));
+            verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq("user_courses"));
+        }
+    }
+
     @Nested
     class AddNuevoUsuarioTests {
         /**
@@ -209,12 +248,28 @@ class UsuarioCursosServiceTest {
             scl.setIdClase(10L);
             sc.setClases(List.of(scl));
             uc.setCursos(List.of(sc));
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.existsByIdUsuarioAndIdCurso(1L, 1L)).thenReturn(true);
             Clase clase = new Clase();
             clase.setDireccionClase("url");
             when(claseRepository.findById(10L)).thenReturn(Optional.of(clase));
             String result = usuarioCursosService.getClase(1L, 1L, 10L);
             assertEquals("url", result);
+            verify(accessCacheService).putDireccion(1L, 1L, 10L, "url");
+        }
+
+        /**
+         * Prueba que una clase ya autorizada no vuelve a consultar las bases de
+         * datos.
+         */
+        @Test
+        void testGetClase_FromAccessCache() throws InternalServerException {
+            when(accessCacheService.getDireccion(1L, 1L, 10L)).thenReturn("cached-url");
+
+            String result = usuarioCursosService.getClase(1L, 1L, 10L);
+
+            assertEquals("cached-url", result);
+            verifyNoInteractions(usuarioCursosRepository, claseRepository);
         }
 
         /**
@@ -237,7 +292,7 @@ class UsuarioCursosServiceTest {
 
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.ADMIN);
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
 
             String result = usuarioCursosService.getClase(1L, 1L, 10L);
             assertEquals("admin-url", result);
@@ -248,7 +303,7 @@ class UsuarioCursosServiceTest {
          */
         @Test
         void testGetClase_UserNotFound() {
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.empty());
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.empty());
 
             org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
                 usuarioCursosService.getClase(1L, 1L, 10L);
@@ -263,7 +318,7 @@ class UsuarioCursosServiceTest {
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.USER);
             uc.setCursos(new ArrayList<>());
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
 
             org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
                 usuarioCursosService.getClase(1L, 1L, 10L);
@@ -281,7 +336,7 @@ class UsuarioCursosServiceTest {
             sc.setIdCurso(1L);
             sc.setClases(new ArrayList<>());
             uc.setCursos(List.of(sc));
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
 
             org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
                 usuarioCursosService.getClase(1L, 1L, 10L);
@@ -301,13 +356,53 @@ class UsuarioCursosServiceTest {
             scl.setIdClase(10L);
             sc.setClases(List.of(scl));
             uc.setCursos(List.of(sc));
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.existsByIdUsuarioAndIdCurso(1L, 1L)).thenReturn(true);
             when(claseRepository.findById(10L)).thenReturn(Optional.empty());
 
             org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
                 usuarioCursosService.getClase(1L, 1L, 10L);
             });
         }
+
+        /**
+         * Prueba que un alumno no puede pedir una clase concreta de un curso en
+         * el que no está matriculado.
+         */
+        @Test
+        void testGetClase_NotEnrolled() {
+            UsuarioCursos uc = new UsuarioCursos();
+            uc.setRolUsuario(RoleEnum.USER);
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.existsByIdUsuarioAndIdCurso(1L, 1L)).thenReturn(false);
+
+            org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
+                usuarioCursosService.getClase(1L, 1L, 10L);
+            });
+            verifyNoInteractions(claseRepository);
+        }
+
+        /**
+         * Prueba que un alumno no puede pedir, desde un curso suyo, la clase de
+         * otro curso.
+         */
+        @Test
+        void testGetClase_ClaseFromOtherCurso() {
+            UsuarioCursos uc = new UsuarioCursos();
+            uc.setRolUsuario(RoleEnum.USER);
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.existsByIdUsuarioAndIdCurso(1L, 1L)).thenReturn(true);
+            Curso otro = new Curso();
+            otro.setIdCurso(2L);
+            Clase clase = new Clase();
+            clase.setDireccionClase("url");
+            clase.setCursoClase(otro);
+            when(claseRepository.findById(10L)).thenReturn(Optional.of(clase));
+
+            org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
+                usuarioCursosService.getClase(1L, 1L, 10L);
+            });
+        }
     }
 
     @Nested
@@ -317,12 +412,10 @@ class UsuarioCursosServiceTest {
          */
         @Test
         void testAddClase_Success() {
-            UsuarioCursos uc = new UsuarioCursos();
-            StatusCurso sc = new StatusCurso();
-            sc.setIdCurso(1L);
-            sc.setClases(new ArrayList<>());
-            uc.setCursos(List.of(sc));
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(List.of(uc));
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(2, 2L, null));
+            when(mongoTemplate.findDistinct(any(Query.class), eq("idUsuario"), eq(UsuarioCursos.class),
+                    eq(Long.class))).thenReturn(List.of(1L, 2L));
             Clase clase = new Clase();
             clase.setIdClase(10L);
             clase.setDireccionClase("/path/video.m3u8");
@@ -336,7 +429,16 @@ class UsuarioCursosServiceTest {
 
             boolean result = usuarioCursosService.addClase(1L, clase);
             assertTrue(result);
-            verify(mongoTemplate).save(uc);
+            ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateMulti(any(Query.class), updateCaptor.capture(), eq(UsuarioCursos.class));
+            assertTrue(updateCaptor.getValue().getUpdateObject().containsKey("$addToSet"));
+            assertEquals(1, updateCaptor.getValue().getArrayFilters().size());
+            verify(mongoTemplate, never()).save(any());
+            // Se crea el progreso de la nueva clase para todos los usuarios del curso
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<ProgresoClase>> progresosCaptor = ArgumentCaptor.forClass(List.class);
+            verify(progresoClaseRepository).upsertClases(progresosCaptor.capture(), eq(mongoTemplate));
+            assertEquals(2, progresosCaptor.getValue().size());
         }
 
         /**
@@ -354,20 +456,19 @@ class UsuarioCursosServiceTest {
             when(mockPath.getParent()).thenReturn(mockParent);
             mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
 
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(new ArrayList<>());
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(0, 0L, null));
 
             boolean result = usuarioCursosService.addClase(1L, clase);
             assertTrue(!result);
+            verify(progresoClaseRepository, never()).upsertClases(any(), any());
         }
 
         /**
-         * Prueba el error al añadir una clase cuando el curso no existe.
+         * Prueba el error al añadir una clase cuando falla la actualización.
          */
         @Test
-        void testAddClase_CursoNotFound() {
-            UsuarioCursos uc = new UsuarioCursos();
-            uc.setCursos(new ArrayList<>());
-
+        void testAddClase_UpdateError() {
             Clase clase = new Clase();
             clase.setIdClase(10L);
             clase.setDireccionClase("/path/video.m3u8");
@@ -378,7 +479,8 @@ class UsuarioCursosServiceTest {
             when(mockPath.getParent()).thenReturn(mockParent);
             mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
 
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(List.of(uc));
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenThrow(new IllegalStateException("Mongo caído"));
 
             boolean result = usuarioCursosService.addClase(1L, clase);
             assertTrue(!result);
@@ -412,20 +514,17 @@ class UsuarioCursosServiceTest {
          */
         @Test
         void testDeleteClase_Success() {
-            UsuarioCursos uc = new UsuarioCursos();
-            StatusCurso sc = new StatusCurso();
-            sc.setIdCurso(1L);
-            StatusClase scl = new StatusClase();
-            scl.setIdClase(10L);
-            sc.setClases(new ArrayList<>(List.of(scl)));
-            uc.setCursos(List.of(sc));
-
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(List.of(uc));
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(3, 3L, null));
 
             boolean result = usuarioCursosService.deleteClase(1L, 10L);
             assertTrue(result);
-            verify(mongoTemplate).save(uc);
-            assertTrue(sc.getClases().isEmpty());
+            ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateMulti(any(Query.class), updateCaptor.capture(), eq(UsuarioCursos.class));
+            Document pull = (Document) updateCaptor.getValue().getUpdateObject().get("$pull");
+            assertEquals(new Document("idClase", 10L), pull.get("cursos.$[curso].clases"));
+            verify(mongoTemplate, never()).save(any());
+            verify(progresoClaseRepository).deleteByIdCursoAndIdClase(1L, 10L);
         }
 
         /**
@@ -433,7 +532,8 @@ class UsuarioCursosServiceTest {
          */
         @Test
         void testDeleteClase_UserNotFound() {
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(new ArrayList<>());
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(0, 0L, null));
             boolean result = usuarioCursosService.deleteClase(1L, 10L);
             assertTrue(!result);
         }
@@ -448,7 +548,7 @@ class UsuarioCursosServiceTest {
         void testGetStatus_AdminSuccess() throws InternalServerException {
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.ADMIN);
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
 
             Curso curso = new Curso();
             curso.setIdCurso(1L);
@@ -468,18 +568,11 @@ class UsuarioCursosServiceTest {
         void testGetStatus_UserSuccess_NextClass() throws InternalServerException {
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.USER);
-            StatusCurso sc = new StatusCurso();
-            sc.setIdCurso(1L);
-            StatusClase scl1 = new StatusClase();
-            scl1.setIdClase(10L);
-            scl1.setCompleted(true);
-            StatusClase scl2 = new StatusClase();
-            scl2.setIdClase(20L);
-            scl2.setCompleted(false);
-            sc.setClases(List.of(scl1, scl2));
-            uc.setCursos(List.of(sc));
+            ProgresoClase siguiente = ProgresoClase.builder().idClase(20L).posicion(1).build();
 
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(progresoClaseRepository.findFirstByIdUsuarioAndIdCursoAndCompletedFalseOrderByPosicionAsc(1L, 1L))
+                    .thenReturn(Optional.of(siguiente));
 
             Long result = usuarioCursosService.getStatus(1L, 1L);
             assertEquals(20L, result);
@@ -493,15 +586,13 @@ class UsuarioCursosServiceTest {
         void testGetStatus_UserSuccess_AllCompleted() throws InternalServerException {
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.USER);
-            StatusCurso sc = new StatusCurso();
-            sc.setIdCurso(1L);
-            StatusClase scl1 = new StatusClase();
-            scl1.setIdClase(10L);
-            scl1.setCompleted(true);
-            sc.setClases(List.of(scl1));
-            uc.setCursos(List.of(sc));
+            ProgresoClase primera = ProgresoClase.builder().idClase(10L).posicion(0).completed(true).build();
 
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(progresoClaseRepository.findFirstByIdUsuarioAndIdCursoAndCompletedFalseOrderByPosicionAsc(1L, 1L))
+                    .thenReturn(Optional.empty());
+            when(progresoClaseRepository.findFirstByIdUsuarioAndIdCursoOrderByPosicionAsc(1L, 1L))
+                    .thenReturn(Optional.of(primera));
 
             Long result = usuarioCursosService.getStatus(1L, 1L);
             assertEquals(10L, result);
@@ -512,7 +603,7 @@ class UsuarioCursosServiceTest {
          */
         @Test
         void testGetStatus_UserNotFound() {
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.empty());
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.empty());
             org.junit.jupiter.api.Assertions.assertThrows(jakarta.persistence.EntityNotFoundException.class, () -> {
                 usuarioCursosService.getStatus(1L, 1L);
             });
@@ -531,6 +622,7 @@ class UsuarioCursosServiceTest {
             boolean result = usuarioCursosService.deleteUsuarioCursos(1L);
             assertTrue(result);
             verify(usuarioCursosRepository).delete(uc);
+            verify(progresoClaseRepository).deleteByIdUsuario(1L);
         }
 
         @Test
@@ -546,19 +638,22 @@ class UsuarioCursosServiceTest {
     class DeleteCursoTests {
         @Test
         void testDeleteCurso_Success() {
-            UsuarioCursos uc = new UsuarioCursos();
-            StatusCurso sc = new StatusCurso();
-            sc.setIdCurso(1L);
-            uc.setCursos(new ArrayList<>(List.of(sc)));
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(List.of(uc));
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(2, 2L, null));
             boolean result = usuarioCursosService.deleteCurso(1L);
             assertTrue(result);
-            verify(usuarioCursosRepository).save(uc);
+            ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateMulti(any(Query.class), updateCaptor.capture(), eq(UsuarioCursos.class));
+            Document pull = (Document) updateCaptor.getValue().getUpdateObject().get("$pull");
+            assertEquals(new Document("idCurso", 1L), pull.get("cursos"));
+            verify(usuarioCursosRepository, never()).save(any());
+            verify(progresoClaseRepository).deleteByIdCurso(1L);
         }
 
         @Test
         void testDeleteCurso_NotFound() {
-            when(mongoTemplate.find(any(Query.class), eq(UsuarioCursos.class))).thenReturn(new ArrayList<>());
+            when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UsuarioCursos.class)))
+                    .thenReturn(UpdateResult.acknowledged(0, 0L, null));
             boolean result = usuarioCursosService.deleteCurso(1L);
             assertTrue(!result);
         }
@@ -597,81 +692,85 @@ class UsuarioCursosServiceTest {
             clase.setDireccionClase("/path/video.m3u8");
             curso.setClasesCurso(List.of(clase));
 
-            Path mockPath = mock(Path.class);
-            Path mockParent = mock(Path.class);
-            mockedPaths.when(() -> Paths.get(anyString())).thenReturn(mockPath);
-            when(mockPath.getParent()).thenReturn(mockParent);
-            mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
-            mockedFiles.when(() -> Files.list(any(Path.class))).thenReturn(Stream.empty());
-
             usuarioCursosService.actualizarStatusUsuario(uc, curso);
             assertEquals(1, sc.getClases().size());
+            assertEquals(10L, sc.getClases().get(0).getIdClase());
         }
     }
 
     @Nested
     class GetTotalSegmentsTests {
+        private static final List<String> MASTER = List.of("#EXTM3U",
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",NAME=\"audio\",URI=\"audio/stream.m3u8\"",
+                "#EXT-X-STREAM-INF:BANDWIDTH=3000000,RESOLUTION=1280x720,AUDIO=\"audio\"",
+                "720p/stream.m3u8",
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360,AUDIO=\"audio\"",
+                "360p/stream.m3u8");
+
         @Test
         void testGetTotalSegments_Success() {
-            Clase clase = new Clase();
-            clase.setIdClase(10L);
-            clase.setDireccionClase("/path/video.m3u8");
+            Path lista = listas(MASTER, List.of("#EXTM3U", "#EXT-X-TARGETDURATION:2",
+                    "#EXTINF:2.000,", "data00000.ts", "#EXTINF:1.500,", "data00001.ts", "#EXT-X-ENDLIST"));
 
-            Path mockPath = mock(Path.class);
-            Path mockParent = mock(Path.class);
-            Path mockResolutionDir = mock(Path.class);
-            mockedPaths.when(() -> Paths.get(anyString())).thenReturn(mockPath);
-            when(mockPath.getParent()).thenReturn(mockParent);
-            mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
+            assertEquals(2, usuarioCursosService.getTotalSegments(clase()));
+            mockedFiles.verify(() -> Files.readAllLines(eq(lista), any(Charset.class)));
+        }
 
-            // Mock subdirs list
-            mockedFiles.when(() -> Files.list(eq(mockParent))).thenReturn(Stream.of(mockResolutionDir));
-            // Mock segments list
-            mockedFiles.when(() -> Files.list(eq(mockResolutionDir)))
-                    .thenReturn(Stream.of(mock(Path.class), mock(Path.class), mock(Path.class)));
-            // Mock Files.isDirectory to return true for resolutionDir
-            mockedFiles.when(() -> Files.isDirectory(eq(mockResolutionDir))).thenReturn(true);
+        @Test
+        void testGetTotalSegments_Cmaf() {
+            // El segmento de inicialización no cuenta como segmento
+            listas(MASTER, List.of("#EXTM3U", "#EXT-X-MAP:URI=\"init_720p.mp4\"",
+                    "#EXTINF:2.000,", "data00000.m4s", "#EXTINF:2.000,", "data00001.m4s",
+                    "#EXTINF:2.000,", "data00002.m4s", "#EXT-X-ENDLIST"));
 
-            int total = usuarioCursosService.getTotalSegments(clase);
-            assertEquals(2, total);
+            assertEquals(3, usuarioCursosService.getTotalSegments(clase()));
         }
 
         @Test
         void testGetTotalSegments_IOException() {
-            Clase clase = new Clase();
-            clase.setIdClase(10L);
-            clase.setDireccionClase("/path/video.m3u8");
-
             Path mockPath = mock(Path.class);
-            Path mockParent = mock(Path.class);
             mockedPaths.when(() -> Paths.get(anyString())).thenReturn(mockPath);
-            when(mockPath.getParent()).thenReturn(mockParent);
+            when(mockPath.getParent()).thenReturn(mock(Path.class));
             mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
+            mockedFiles.when(() -> Files.readAllLines(eq(mockPath), any(Charset.class)))
+                    .thenThrow(new java.io.IOException());
 
-            // Mock subdirs list to throw IOException
-            mockedFiles.when(() -> Files.list(eq(mockParent))).thenThrow(new java.io.IOException());
-
-            int total = usuarioCursosService.getTotalSegments(clase);
-            assertEquals(0, total);
+            assertEquals(0, usuarioCursosService.getTotalSegments(clase()));
         }
 
         @Test
-        void testGetTotalSegments_NoResolutionDir() {
+        void testGetTotalSegments_NoVariant() {
+            Path mockPath = mock(Path.class);
+            mockedPaths.when(() -> Paths.get(anyString())).thenReturn(mockPath);
+            when(mockPath.getParent()).thenReturn(mock(Path.class));
+            mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
+            mockedFiles.when(() -> Files.readAllLines(eq(mockPath), any(Charset.class)))
+                    .thenReturn(List.of("#EXTM3U"));
+
+            assertEquals(0, usuarioCursosService.getTotalSegments(clase()));
+        }
+
+        private Clase clase() {
             Clase clase = new Clase();
             clase.setIdClase(10L);
-            clase.setDireccionClase("/path/video.m3u8");
+            clase.setDireccionClase("/path/master.m3u8");
+            return clase;
+        }
 
+        /**
+         * Simula master.m3u8 y la lista de su primera calidad.
+         */
+        private Path listas(List<String> master, List<String> variante) {
             Path mockPath = mock(Path.class);
             Path mockParent = mock(Path.class);
+            Path mockLista = mock(Path.class);
             mockedPaths.when(() -> Paths.get(anyString())).thenReturn(mockPath);
             when(mockPath.getParent()).thenReturn(mockParent);
+            when(mockParent.resolve("720p/stream.m3u8")).thenReturn(mockLista);
             mockedFiles.when(() -> Files.exists(any(Path.class))).thenReturn(true);
-
-            // Mock subdirs list
-            mockedFiles.when(() -> Files.list(eq(mockParent))).thenReturn(Stream.empty());
-
-            int total = usuarioCursosService.getTotalSegments(clase);
-            assertEquals(0, total);
+            mockedFiles.when(() -> Files.readAllLines(eq(mockPath), any(Charset.class))).thenReturn(master);
+            mockedFiles.when(() -> Files.readAllLines(eq(mockLista), any(Charset.class))).thenReturn(variante);
+            return mockLista;
         }
     }
 
@@ -682,7 +781,7 @@ class UsuarioCursosServiceTest {
             UsuarioCursos uc = new UsuarioCursos();
             uc.setRolUsuario(RoleEnum.USER);
             uc.setCursos(new ArrayList<>());
-            when(usuarioCursosRepository.findByIdUsuario(1L)).thenReturn(Optional.of(uc));
+            when(usuarioCursosRepository.findRolByIdUsuario(1L)).thenReturn(Optional.of(uc));
             Long result = usuarioCursosService.getStatus(1L, 1L);
             assertEquals(0L, result);
         }
@@ -721,7 +820,11 @@ class UsuarioCursosServiceTest {
     @Mock
     private UsuarioCursosRepository usuarioCursosRepository;
     @Mock
+    private ProgresoClaseRepository progresoClaseRepository;
+    @Mock
     private MongoTemplate mongoTemplate;
+    @Mock
+    private AccessCacheService accessCacheService;
 
     private UsuarioCursosService usuarioCursosService;
 
@@ -731,7 +834,7 @@ class UsuarioCursosServiceTest {
     @org.junit.jupiter.api.BeforeEach
     void setUp() {
         usuarioCursosService = new UsuarioCursosService(streamingService, usuarioRepository, cursoRepository,
-                claseRepository, usuarioCursosRepository, mongoTemplate);
+                claseRepository, usuarioCursosRepository, progresoClaseRepository, mongoTemplate, accessCacheService);
         mockedPaths = mockStatic(Paths.class);
         mockedFiles = mockStatic(Files.class);
     }
@@ -0,0 +1,114 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link DashManifest}.
+ */
+class DashManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Prueba que el MPD describe las calidades de video y el audio compartido
+     * con los fragmentos de HLS.
+     */
+    @Test
+    void escribir_ShouldDescribeRenditions() throws Exception {
+        Files.write(tempDir.resolve(HlsStitcher.MASTER), List.of("#EXTM3U", "#EXT-X-VERSION:7",
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"group_audio\",NAME=\"audio\",DEFAULT=YES,URI=\"audio/stream.m3u8\"",
+                "#EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720,CODECS=\"avc1.64001f,mp4a.40.2\","
+                        + "AUDIO=\"group_audio\"",
+                "1280x720@60/stream.m3u8",
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360,CODECS=\"avc1.64001e,mp4a.40.2\","
+                        + "AUDIO=\"group_audio\"",
+                "640x360@30/stream.m3u8"));
+        crearVariante("audio", "init_0.mp4", 2.0, 2.0, 1.5);
+        crearVariante("1280x720@60", "init_1.mp4", 2.0, 2.0, 1.5);
+        crearVariante("640x360@30", "init_2.mp4", 2.0, 2.0, 1.5);
+
+        String mpd = Files.readString(DashManifest.escribir(tempDir));
+
+        assertTrue(mpd.contains("type=\"static\""));
+        assertTrue(mpd.contains("mediaPresentationDuration=\"PT5.500S\""));
+        assertTrue(mpd.contains("<Representation id=\"1280x720@60\" codecs=\"avc1.64001f\" bandwidth=\"2500000\""
+                + " width=\"1280\" height=\"720\" frameRate=\"60\">"));
+        assertTrue(mpd.contains("<Representation id=\"audio\" codecs=\"mp4a.40.2\""));
+        assertTrue(mpd.contains("<Initialization sourceURL=\"640x360@30/init_2.mp4\"/>"));
+        assertTrue(mpd.contains("<S t=\"0\" d=\"2000\" r=\"1\"/>"));
+        assertTrue(mpd.contains("<S t=\"4000\" d=\"1500\"/>"));
+        assertTrue(mpd.contains("<SegmentURL media=\"audio/data00002.m4s\"/>"));
+        assertEquals(1, mpd.split("<Period ", -1).length - 1);
+    }
+
+    /**
+     * Prueba que cada parte de una conversión por partes es un Period con su
+     * propio segmento de inicialización.
+     */
+    @Test
+    void escribir_ShouldSplitPeriodsOnDiscontinuity() throws Exception {
+        Files.write(tempDir.resolve(HlsStitcher.MASTER), List.of("#EXTM3U",
+                "#EXT-X-STREAM-INF:BANDWIDTH=1000,RESOLUTION=1280x720", "720p/stream.m3u8"));
+        Path variante = Files.createDirectories(tempDir.resolve("720p"));
+        Files.write(variante.resolve(HlsStitcher.PLAYLIST), List.of("#EXTM3U",
+                "#EXT-X-MAP:URI=\"init000.mp4\"", "#EXTINF:2.000000,", "data00000.m4s",
+                "#EXT-X-DISCONTINUITY",
+                "#EXT-X-MAP:URI=\"init001.mp4\"", "#EXTINF:3.000000,", "data00001.m4s", "#EXT-X-ENDLIST"));
+
+        String mpd = Files.readString(DashManifest.escribir(tempDir));
+
+        assertTrue(mpd.contains("<Period id=\"0\" start=\"PT0.000S\" duration=\"PT2.000S\">"));
+        assertTrue(mpd.contains("<Period id=\"1\" start=\"PT2.000S\" duration=\"PT3.000S\">"));
+        assertTrue(mpd.contains("presentationTimeOffset=\"2000\""));
+        assertTrue(mpd.contains("<Initialization sourceURL=\"720p/init001.mp4\"/>"));
+        assertTrue(mpd.contains("<S t=\"2000\" d=\"3000\"/>"));
+    }
+
+    /**
+     * Prueba que una clase en MPEG-TS no tiene manifiesto DASH.
+     */
+    @Test
+    void escribir_ShouldRejectMpegTs() throws Exception {
+        Files.write(tempDir.resolve(HlsStitcher.MASTER), List.of("#EXTM3U",
+                "#EXT-X-STREAM-INF:BANDWIDTH=1000,RESOLUTION=1280x720", "720p/stream.m3u8"));
+        Path variante = Files.createDirectories(tempDir.resolve("720p"));
+        Files.write(variante.resolve(HlsStitcher.PLAYLIST), List.of("#EXTM3U", "#EXTINF:2.000000,",
+                "data00000.ts", "#EXT-X-ENDLIST"));
+
+        assertThrows(IOException.class, () -> DashManifest.escribir(tempDir));
+        assertTrue(Files.notExists(tempDir.resolve(DashManifest.MPD)));
+    }
+
+    /**
+     * Crea la lista fMP4 de una calidad con sus fragmentos.
+     *
+     * @param nombre     Nombre de la carpeta de la calidad
+     * @param init       Segmento de inicialización
+     * @param duraciones Duración de cada fragmento
+     */
+    private void crearVariante(String nombre, String init, double... duraciones) throws IOException {
+        Path carpeta = Files.createDirectories(tempDir.resolve(nombre));
+        List<String> lista = new ArrayList<>(List.of("#EXTM3U", "#EXT-X-VERSION:7",
+                "#EXT-X-TARGETDURATION:2", "#EXT-X-MAP:URI=\"" + init + "\""));
+        for (int i = 0; i < duraciones.length; i++) {
+            String segmento = String.format("data%05d.m4s", i);
+            lista.add("#EXTINF:" + duraciones[i] + ",");
+            lista.add(segmento);
+            Files.write(carpeta.resolve(segmento), new byte[1000]);
+        }
+        lista.add("#EXT-X-ENDLIST");
+        Files.write(carpeta.resolve(HlsStitcher.PLAYLIST), lista);
+    }
+}
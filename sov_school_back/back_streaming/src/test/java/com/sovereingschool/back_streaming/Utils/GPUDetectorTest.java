@@ -0,0 +1,58 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas unitarias para {@link GPUDetector}.
+ */
+class GPUDetectorTest {
+
+    /**
+     * Prueba que se leen los nombres de los codificadores y filtros sin la
+     * leyenda.
+     */
+    @Test
+    void leerNombres_ShouldSkipLegend() {
+        String encoders = "Encoders:\n V..... = Video\n A..... = Audio\n ------\n"
+                + " V....D libx264              libx264 H.264 / AVC\n"
+                + " V....D h264_nvenc           NVIDIA NVENC H.264 encoder (codec h264)\n";
+        String filters = "Filters:\n  T.. = Timeline support\n  | = Source or sink filter\n"
+                + " ..C scale_cuda        V->V       GPU accelerated video resizer\n"
+                + " TSC scale             V->V       Scale the input video size\n";
+
+        assertEquals(Set.of("libx264", "h264_nvenc"), GPUDetector.leerNombres(encoders));
+        assertEquals(Set.of("scale_cuda", "scale"), GPUDetector.leerNombres(filters));
+    }
+
+    /**
+     * Prueba que la GPU solo se usa si FFmpeg tiene su codificador y su
+     * filtro de escalado.
+     */
+    @Test
+    void elegir_ShouldRequireEncoderAndFilter() {
+        Set<String> nvenc = Set.of("libx264", "h264_nvenc");
+
+        assertEquals(GPUDetector.VideoAcceleration.NVIDIA,
+                GPUDetector.elegir(false, true, nvenc, Set.of("scale_cuda")).aceleracion());
+        assertEquals(GPUDetector.VideoAcceleration.CPU,
+                GPUDetector.elegir(false, true, nvenc, Set.of("scale")).aceleracion());
+        assertEquals(GPUDetector.VideoAcceleration.CPU,
+                GPUDetector.elegir(true, false, nvenc, Set.of("scale_vaapi")).aceleracion());
+        // Sin lista de FFmpeg basta con el dispositivo
+        assertEquals(GPUDetector.VideoAcceleration.VAAPI,
+                GPUDetector.elegir(true, true, Set.of(), Set.of()).aceleracion());
+    }
+
+    /**
+     * Prueba que la sonda se ejecuta una sola vez.
+     */
+    @Test
+    void getCapacidades_ShouldBeCached() {
+        assertSame(GPUDetector.getCapacidades(), GPUDetector.getCapacidades());
+    }
+}
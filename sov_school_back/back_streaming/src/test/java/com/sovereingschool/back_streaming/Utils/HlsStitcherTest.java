@@ -0,0 +1,107 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas unitarias para {@link HlsStitcher}.
+ */
+class HlsStitcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Prueba que los segmentos de todas las partes quedan numerados de forma
+     * continua y separados por #EXT-X-DISCONTINUITY.
+     */
+    @Test
+    void unir_ShouldRenumberSegments() throws Exception {
+        Path parte0 = crearParte("000", 2, 1000, 3);
+        Path parte1 = crearParte("001", 3, 1500, 2);
+        Path destino = tempDir.resolve("clase");
+
+        HlsStitcher.unir(List.of(parte0, parte1), destino);
+
+        for (String variante : List.of("1280x720@30", "640x360@30")) {
+            List<String> lista = Files.readAllLines(destino.resolve(variante).resolve(HlsStitcher.PLAYLIST));
+            assertEquals(List.of("data00000.ts", "data00001.ts", "data00002.ts", "data00003.ts", "data00004.ts"),
+                    lista.stream().filter(linea -> linea.startsWith("data")).toList());
+            assertEquals(5, lista.stream().filter(linea -> linea.startsWith("#EXTINF:")).count());
+            assertEquals(1, lista.stream().filter("#EXT-X-DISCONTINUITY"::equals).count());
+            assertTrue(lista.contains("#EXT-X-TARGETDURATION:3"));
+            assertTrue(lista.contains("#EXT-X-PLAYLIST-TYPE:VOD"));
+            assertEquals("#EXT-X-ENDLIST", lista.get(lista.size() - 1));
+            assertEquals("001/" + variante + "/1", Files.readString(destino.resolve(variante).resolve("data00004.ts")));
+        }
+    }
+
+    /**
+     * Prueba que la lista maestra toma el BANDWIDTH máximo de cada calidad.
+     */
+    @Test
+    void unir_ShouldKeepMaxBandwidth() throws Exception {
+        Path parte0 = crearParte("000", 2, 1000, 1);
+        Path parte1 = crearParte("001", 2, 1500, 1);
+        Path destino = tempDir.resolve("clase");
+
+        HlsStitcher.unir(List.of(parte0, parte1), destino);
+
+        List<String> master = Files.readAllLines(destino.resolve(HlsStitcher.MASTER));
+        assertTrue(master.contains("#EXT-X-STREAM-INF:BANDWIDTH=3000,AVERAGE-BANDWIDTH=1500,RESOLUTION=1280x720"));
+        assertTrue(master.contains("#EXT-X-STREAM-INF:BANDWIDTH=1500,AVERAGE-BANDWIDTH=750,RESOLUTION=640x360"));
+        assertTrue(master.contains("1280x720@30/stream.m3u8"));
+    }
+
+    /**
+     * Prueba que sin partes no se escribe nada.
+     */
+    @Test
+    void unir_ShouldFailWithoutParts() {
+        assertThrows(IOException.class, () -> HlsStitcher.unir(List.of(), tempDir));
+    }
+
+    /**
+     * Crea la salida HLS de una parte con dos calidades.
+     *
+     * @param nombre     Nombre de la carpeta de la parte
+     * @param duracion   Duración objetivo de los segmentos
+     * @param bandwidth  BANDWIDTH medio de la calidad menor
+     * @param segmentos  Número de segmentos por calidad
+     */
+    private Path crearParte(String nombre, int duracion, int bandwidth, int segmentos) throws IOException {
+        Path parte = Files.createDirectories(tempDir.resolve(nombre));
+        Files.write(parte.resolve(HlsStitcher.MASTER), List.of("#EXTM3U", "#EXT-X-VERSION:3",
+                "#EXT-X-STREAM-INF:BANDWIDTH=" + bandwidth * 2 + ",AVERAGE-BANDWIDTH=" + bandwidth
+                        + ",RESOLUTION=1280x720",
+                "1280x720@30/stream.m3u8",
+                "#EXT-X-STREAM-INF:BANDWIDTH=" + bandwidth + ",AVERAGE-BANDWIDTH=" + bandwidth / 2
+                        + ",RESOLUTION=640x360",
+                "640x360@30/stream.m3u8"));
+        for (String variante : List.of("1280x720@30", "640x360@30")) {
+            Path carpeta = Files.createDirectories(parte.resolve(variante));
+            List<String> lista = new ArrayList<>(List.of("#EXTM3U", "#EXT-X-VERSION:3",
+                    "#EXT-X-TARGETDURATION:" + duracion, "#EXT-X-MEDIA-SEQUENCE:0", "#EXT-X-PLAYLIST-TYPE:VOD",
+                    "#EXT-X-INDEPENDENT-SEGMENTS"));
+            for (int i = 0; i < segmentos; i++) {
+                String segmento = String.format("data%05d.ts", i);
+                lista.add("#EXTINF:" + duracion + ".000000,");
+                lista.add(segmento);
+                Files.writeString(carpeta.resolve(segmento), nombre + "/" + variante + "/" + i);
+            }
+            lista.add("#EXT-X-ENDLIST");
+            Files.write(carpeta.resolve(HlsStitcher.PLAYLIST), lista);
+        }
+        return parte;
+    }
+}
@@ -0,0 +1,94 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Tipo;
+import com.sovereingschool.back_streaming.Utils.PionProtocol.Trama;
+
+/**
+ * Pruebas unitarias para {@link PionProtocol}.
+ */
+class PionProtocolTest {
+
+    /**
+     * Prueba que las tramas seguidas se leen con su tipo, emisión y contenido
+     * y que el final del flujo entre tramas devuelve null.
+     */
+    @Test
+    void leer_ShouldDecodeConsecutiveFrames() throws IOException {
+        ByteArrayOutputStream flujo = new ByteArrayOutputStream();
+        flujo.write(PionProtocol.codificar(Tipo.ANSWER, "1_sesión", "v=0\r\n"));
+        flujo.write(PionProtocol.codificar(Tipo.PONG, null, new byte[0]));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(flujo.toByteArray()));
+
+        Trama answer = PionProtocol.leer(in);
+        assertEquals(Tipo.ANSWER, answer.tipo());
+        assertEquals("1_sesión", answer.streamId());
+        assertEquals("v=0\r\n", answer.texto());
+
+        Trama pong = PionProtocol.leer(in);
+        assertEquals(Tipo.PONG, pong.tipo());
+        assertEquals("", pong.streamId());
+        assertArrayEquals(new byte[0], pong.contenido());
+
+        assertNull(PionProtocol.leer(in));
+    }
+
+    /**
+     * Prueba el formato de la trama, que tiene que coincidir con writeFrame y
+     * readFrame de pion-server.go.
+     */
+    @Test
+    void codificar_ShouldMatchWireFormat() {
+        byte[] trama = PionProtocol.codificar(Tipo.STOP, "ab", "x");
+
+        assertArrayEquals(new byte[] { 0, 0, 0, 6, 0x04, 0, 2, 'a', 'b', 'x' }, trama);
+    }
+
+    /**
+     * Prueba que las tramas de tipo desconocido se saltan.
+     */
+    @Test
+    void leer_ShouldSkipUnknownTypes() throws IOException {
+        byte[] desconocida = PionProtocol.codificar(Tipo.PING, "x", "y");
+        desconocida[4] = 0x7F;
+        byte[] ping = PionProtocol.codificar(Tipo.PING, null, new byte[0]);
+        byte[] flujo = ByteBuffer.allocate(desconocida.length + ping.length).put(desconocida).put(ping).array();
+
+        Trama trama = PionProtocol.leer(new DataInputStream(new ByteArrayInputStream(flujo)));
+
+        assertEquals(Tipo.PING, trama.tipo());
+    }
+
+    /**
+     * Prueba que un flujo corrupto o cortado a mitad de trama es un error.
+     */
+    @Test
+    void leer_ShouldRejectCorruptFrames() {
+        byte[] larga = ByteBuffer.allocate(Integer.BYTES).putInt(PionProtocol.MAX_TRAMA + 1).array();
+        byte[] idFuera = { 0, 0, 0, 3, 0x01, 0, 9 };
+        byte[] entera = PionProtocol.codificar(Tipo.ANSWER, "1_sesion", "v=0");
+        byte[] cortada = Arrays.copyOf(entera, entera.length - 1);
+
+        assertThrows(IOException.class, () -> PionProtocol.leer(flujo(larga)));
+        assertThrows(IOException.class, () -> PionProtocol.leer(flujo(idFuera)));
+        assertThrows(EOFException.class, () -> PionProtocol.leer(flujo(cortada)));
+    }
+
+    private static DataInputStream flujo(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,113 @@
+package com.sovereingschool.back_streaming.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.sovereingschool.back_streaming.Models.PlaybackToken;
+
+/**
+ * Pruebas unitarias para {@link PlaybackTokenUtil}.
+ */
+class PlaybackTokenUtilTest {
+
+    private final PlaybackTokenUtil playbackTokenUtil = new PlaybackTokenUtil("test-key", 60);
+
+    @Nested
+    class VerificarTests {
+        /**
+         * Prueba que un token generado se verifica con sus datos.
+         */
+        @Test
+        void verificar_ShouldReturnSignedData() {
+            String token = playbackTokenUtil.generar(1L, 2L, 3L, "/videos/2/3");
+
+            PlaybackToken datos = playbackTokenUtil.verificar(token);
+
+            assertNotNull(datos);
+            assertEquals(1L, datos.idUsuario());
+            assertEquals("/videos/2/3", datos.carpeta());
+            assertEquals(true, datos.permite(2L, 3L));
+            assertEquals(false, datos.permite(2L, 4L));
+        }
+
+        /**
+         * Prueba que un token manipulado no se acepta.
+         */
+        @Test
+        void verificar_ShouldRejectTamperedToken() {
+            String token = playbackTokenUtil.generar(1L, 2L, 3L, "/videos/2/3");
+            String otro = playbackTokenUtil.generar(1L, 2L, 4L, "/videos/2/4");
+            String mezclado = otro.substring(0, otro.indexOf('.')) + token.substring(token.indexOf('.'));
+
+            assertNull(playbackTokenUtil.verificar(mezclado));
+            assertNull(playbackTokenUtil.verificar("no-es-un-token"));
+            assertNull(playbackTokenUtil.verificar("a.b"));
+        }
+
+        /**
+         * Prueba que un token firmado con otra clave no se acepta.
+         */
+        @Test
+        void verificar_ShouldRejectOtherKey() {
+            String token = new PlaybackTokenUtil("otra-key", 60).generar(1L, 2L, 3L, "/videos/2/3");
+
+            assertNull(playbackTokenUtil.verificar(token));
+        }
+
+        /**
+         * Prueba que un token caducado no se acepta.
+         */
+        @Test
+        void verificar_ShouldRejectExpiredToken() {
+            String token = new PlaybackTokenUtil("test-key", -1).generar(1L, 2L, 3L, "/videos/2/3");
+
+            assertNull(playbackTokenUtil.verificar(token));
+        }
+    }
+
+    /**
+     * Prueba que se añade el token a los segmentos y a los atributos URI.
+     */
+    @Test
+    void firmarPlaylist_ShouldSignEveryUri() {
+        String playlist = "#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+                + "#EXTINF:2.0,\n"
+                + "data00000.ts\n"
+                + "\n"
+                + "1280x720@30/stream.m3u8?x=1\n";
+
+        String firmada = new String(playbackTokenUtil.firmarPlaylist(
+                playlist.getBytes(StandardCharsets.UTF_8), "abc.def"), StandardCharsets.UTF_8);
+
+        assertEquals("#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"init.mp4?pt=abc.def\"\n"
+                + "#EXTINF:2.0,\n"
+                + "data00000.ts?pt=abc.def\n"
+                + "\n"
+                + "1280x720@30/stream.m3u8?x=1&pt=abc.def\n", firmada);
+    }
+
+    /**
+     * Prueba que se añade el token a las URLs de un manifiesto DASH.
+     */
+    @Test
+    void firmarManifiesto_ShouldSignSegmentUrls() {
+        String mpd = "<Representation id=\"720p\" mimeType=\"video/mp4\">"
+                + "<Initialization sourceURL=\"720p/init_0.mp4\"/>"
+                + "<SegmentURL media=\"720p/data00000.m4s?x=1\"/>";
+
+        String firmado = new String(playbackTokenUtil.firmarManifiesto(
+                mpd.getBytes(StandardCharsets.UTF_8), "abc.def"), StandardCharsets.UTF_8);
+
+        assertEquals("<Representation id=\"720p\" mimeType=\"video/mp4\">"
+                + "<Initialization sourceURL=\"720p/init_0.mp4?pt=abc.def\"/>"
+                + "<SegmentURL media=\"720p/data00000.m4s?x=1&amp;pt=abc.def\"/>", firmado);
+    }
+}